@@ -16,17 +16,28 @@
 
 package com.bodybuilding.argos;
 
+import com.bodybuilding.argos.aggregation.AggregationWorkers;
+import com.bodybuilding.argos.capture.StreamCapture;
 import com.bodybuilding.argos.discovery.ClusterDiscovery;
+import com.bodybuilding.argos.discovery.CommandLimits;
+import com.bodybuilding.argos.discovery.ConnectionAdmission;
 import com.bodybuilding.argos.discovery.DefaultHystrixClusterMonitorFactory;
+import com.bodybuilding.argos.discovery.DirectHystrixClusterMonitorFactory;
 import com.bodybuilding.argos.discovery.HystrixClusterMonitorFactory;
+import com.bodybuilding.argos.discovery.PushIngest;
+import com.bodybuilding.argos.discovery.StreamTimeouts;
+import com.bodybuilding.argos.ingest.IngestServlet;
+import com.bodybuilding.argos.metrics.PipelineMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.embedded.ServletRegistrationBean;
 import org.springframework.boot.context.web.SpringBootServletInitializer;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.WebApplicationInitializer;
 import rx.Observable;
@@ -67,8 +78,23 @@ public class ArgosDashboardApp extends SpringBootServletInitializer implements W
     }
 
     @Bean
-    public HystrixClusterMonitorFactory clusterMonitorFactory() {
-        return new DefaultHystrixClusterMonitorFactory();
+    @Primary // the direct factory only handles direct+ clusters, this one delegates to it
+    public HystrixClusterMonitorFactory clusterMonitorFactory(PipelineMetrics pipelineMetrics,
+                                                              StreamCapture streamCapture,
+                                                              ConnectionAdmission connectionAdmission,
+                                                              StreamTimeouts streamTimeouts,
+                                                              DirectHystrixClusterMonitorFactory directFactory,
+                                                              AggregationWorkers aggregationWorkers,
+                                                              CommandLimits commandLimits) {
+        return new DefaultHystrixClusterMonitorFactory(pipelineMetrics, streamCapture, connectionAdmission,
+                streamTimeouts, directFactory, aggregationWorkers, commandLimits);
+    }
+
+    @Bean
+    public ServletRegistrationBean ingestServlet(PushIngest pushIngest) {
+        ServletRegistrationBean registration = new ServletRegistrationBean(new IngestServlet(pushIngest), "/ingest/*");
+        registration.setAsyncSupported(true); // bodies are read with non-blocking IO
+        return registration;
     }
 
     @Bean
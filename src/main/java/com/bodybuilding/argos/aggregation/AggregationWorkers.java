@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.aggregation;
+
+import com.bodybuilding.argos.metrics.ClusterPipelineStats;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import rx.Observable;
+import rx.functions.Action1;
+import rx.functions.Func0;
+import rx.observers.SerializedSubscriber;
+import rx.subscriptions.Subscriptions;
+
+import javax.annotation.PreDestroy;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A fixed set of aggregation threads, one per core by default. Each cluster is pinned to one worker by its name, the
+ * netty thread that receives a frame only offers it to the cluster's {@link SpscQueue} and the worker does the
+ * parsing, aggregation and the once a second tick. A cluster's state is only ever touched by its worker, and a heavy
+ * cluster only slows down the clusters sharing its worker rather than an event loop serving other streams. A frame
+ * that finds its queue full is dropped and counted.
+ */
+@Component
+@ConfigurationProperties(prefix = "turbine.workers")
+public class AggregationWorkers implements PublicMetrics {
+    private static final Logger LOG = LoggerFactory.getLogger(AggregationWorkers.class);
+    private static final long TICK_MS = 1000;
+    private static final int DRAIN_LIMIT = 1024; // frames per cluster per pass, so one cluster can't starve the others
+
+    private int count = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = 4096;
+    private volatile Worker[] workers;
+
+    /**
+     * Aggregates a cluster's frames on the cluster's worker. The returned Observable emits the result of
+     * {@code tick} once a second if any frame arrived since the last tick, on the worker thread. Completion and
+     * errors are passed on by the worker once it has processed the frames before them.
+     * @param key cluster name, every subscription with the same key runs on the same worker
+     * @param frames raw frames, emitted by one thread at a time
+     * @param onFrame updates the cluster's state, called on the worker
+     * @param tick generates the cluster's metrics from its state, called on the worker
+     * @param stats where dropped frames are counted
+     * @return
+     */
+    public <T, R> Observable<R> aggregate(String key, Observable<T> frames, Action1<? super T> onFrame,
+                                          Func0<? extends R> tick, ClusterPipelineStats stats) {
+        return Observable.create(subscriber -> {
+            Worker worker = workerFor(key);
+            Lane<T, R> lane = new Lane<>(queueCapacity, onFrame, tick, new SerializedSubscriber<>(subscriber),
+                    System.currentTimeMillis() + TICK_MS);
+            worker.add(lane);
+            subscriber.add(Subscriptions.create(() -> worker.remove(lane)));
+            subscriber.add(frames.subscribe(
+                    t -> {
+                        if(lane.queue.offer(t)) {
+                            worker.wake();
+                        } else {
+                            stats.recordDroppedFrame();
+                        }
+                    },
+                    t -> worker.finish(lane, t),
+                    () -> worker.finish(lane, Lane.COMPLETED)));
+        });
+    }
+
+    /**
+     * @return false when aggregation is configured to run on the threads receiving the frames
+     */
+    public boolean isEnabled() {
+        return count > 0;
+    }
+
+    private Worker workerFor(String key) {
+        Worker[] w = workers;
+        if(w == null) {
+            synchronized (this) {
+                if(workers == null) {
+                    w = new Worker[count];
+                    for (int i = 0; i < count; i++) {
+                        w[i] = new Worker(i);
+                        w[i].thread.start();
+                    }
+                    workers = w;
+                    LOG.info("Started {} aggregation workers", count);
+                }
+                w = workers;
+            }
+        }
+        return w[Math.floorMod(key.hashCode(), w.length)];
+    }
+
+    @PreDestroy
+    public void stop() {
+        Worker[] w = workers;
+        if(w != null) {
+            for (Worker worker : w) {
+                worker.running = false;
+                LockSupport.unpark(worker.thread);
+            }
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = Lists.newArrayList();
+        Worker[] w = workers;
+        if(w != null) {
+            for (Worker worker : w) {
+                String prefix = "argos.workers." + worker.index + ".";
+                metrics.add(new Metric<>(prefix + "clusters", worker.lanes.size()));
+                metrics.add(new Metric<>(prefix + "frames", worker.frames.sum()));
+                metrics.add(new Metric<>(prefix + "queued", worker.lanes.stream().mapToInt(l -> l.queue.size()).sum()));
+            }
+        }
+        return metrics;
+    }
+
+    /* for spring property injection */
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    private static final class Worker implements Runnable {
+        private final int index;
+        private final Thread thread;
+        private final List<Lane<?, ?>> lanes = new CopyOnWriteArrayList<>();
+        private final LongAdder frames = new LongAdder();
+        private volatile boolean parked;
+        private volatile boolean running = true;
+
+        private Worker(int index) {
+            this.index = index;
+            this.thread = new Thread(this, "argos-aggregation-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        private void add(Lane<?, ?> lane) {
+            lanes.add(lane);
+            wake();
+        }
+
+        private void remove(Lane<?, ?> lane) {
+            lanes.remove(lane);
+        }
+
+        // called by the producer after its last offer
+        private void finish(Lane<?, ?> lane, Throwable terminal) {
+            lane.terminal = terminal;
+            wake();
+        }
+
+        // called by producers after offering
+        private void wake() {
+            if(parked) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                long now = System.currentTimeMillis();
+                long nextTickAt = now + TICK_MS;
+                boolean idle = true;
+                for (Lane<?, ?> lane : lanes) {
+                    try {
+                        Throwable terminal = lane.terminal; // read before draining, every frame is queued by now
+                        int drained = lane.drain();
+                        if(drained > 0) {
+                            frames.add(drained);
+                            idle = false;
+                        }
+                        if(terminal != null && lane.queue.isEmpty()) {
+                            lanes.remove(lane);
+                            lane.terminate(terminal);
+                            continue;
+                        }
+                        lane.tickIfDue(now);
+                    } catch (Throwable t) {
+                        LOG.warn("Error aggregating frames", t);
+                    }
+                    nextTickAt = Math.min(nextTickAt, lane.nextTickAt);
+                }
+                if(idle) {
+                    parked = true;
+                    // a producer that offered before seeing parked is caught by this check
+                    if(lanes.stream().allMatch(l -> l.queue.isEmpty() && l.terminal == null)) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.max(1, nextTickAt - now)));
+                    }
+                    parked = false;
+                }
+            }
+        }
+    }
+
+    private static final class Lane<T, R> {
+        private static final Throwable COMPLETED = new Throwable("completed");
+        private final SpscQueue<T> queue;
+        private final Action1<? super T> onFrame;
+        private final Func0<? extends R> tick;
+        private final SerializedSubscriber<R> subscriber;
+        private long nextTickAt; // worker only
+        private boolean dirty; // worker only, a frame arrived since the last tick
+        private volatile Throwable terminal; // the error, or COMPLETED, once the frames have terminated
+
+        private Lane(int capacity, Action1<? super T> onFrame, Func0<? extends R> tick,
+                     SerializedSubscriber<R> subscriber, long nextTickAt) {
+            this.queue = new SpscQueue<>(capacity);
+            this.onFrame = onFrame;
+            this.tick = tick;
+            this.subscriber = subscriber;
+            this.nextTickAt = nextTickAt;
+        }
+
+        private int drain() {
+            int drained = 0;
+            T frame;
+            while (drained < DRAIN_LIMIT && (frame = queue.poll()) != null) {
+                drained++;
+                try {
+                    onFrame.call(frame);
+                } catch (Throwable t) {
+                    LOG.warn("Error processing frame", t);
+                }
+            }
+            dirty |= drained > 0;
+            return drained;
+        }
+
+        private void terminate(Throwable terminal) {
+            if(terminal == COMPLETED) {
+                if(dirty) {
+                    dirty = false;
+                    subscriber.onNext(tick.call());
+                }
+                subscriber.onCompleted();
+            } else {
+                subscriber.onError(terminal);
+            }
+        }
+
+        private void tickIfDue(long now) {
+            if(now < nextTickAt) {
+                return;
+            }
+            nextTickAt += TICK_MS;
+            if(nextTickAt <= now) {
+                nextTickAt = now + TICK_MS; // late after a pause, start over instead of bursting to catch up
+            }
+            if(dirty) {
+                dirty = false;
+                subscriber.onNext(tick.call());
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.aggregation;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock free queue for exactly one producer thread and one consumer thread at a time. Neither side blocks or
+ * retries, a full queue refuses the element. The producer caches its view of the consumer index so it is rarely read
+ * across cores.
+ */
+public final class SpscQueue<E> {
+    private final AtomicReferenceArray<E> buffer;
+    private final int mask;
+    private final AtomicLong producerIndex = new AtomicLong();
+    private final AtomicLong consumerIndex = new AtomicLong();
+    private long consumerIndexCache; // producer only
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public SpscQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.buffer = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Producer side. The element is published with a volatile write, so a consumer that checked {@link #isEmpty()}
+     * before parking is guaranteed to be seen parked by a producer that checks after offering.
+     * @param e not null
+     * @return false when the queue is full
+     */
+    public boolean offer(E e) {
+        long index = producerIndex.get();
+        if(index - consumerIndexCache >= buffer.length()) {
+            consumerIndexCache = consumerIndex.get();
+            if(index - consumerIndexCache >= buffer.length()) {
+                return false;
+            }
+        }
+        buffer.set((int) index & mask, e);
+        producerIndex.lazySet(index + 1);
+        return true;
+    }
+
+    /**
+     * Consumer side
+     * @return the oldest element, or null when empty
+     */
+    public E poll() {
+        long index = consumerIndex.get();
+        int offset = (int) index & mask;
+        E e = buffer.get(offset);
+        if(e == null) {
+            return null;
+        }
+        buffer.lazySet(offset, null);
+        consumerIndex.lazySet(index + 1);
+        return e;
+    }
+
+    /**
+     * Consumer side
+     */
+    public boolean isEmpty() {
+        return buffer.get((int) consumerIndex.get() & mask) == null;
+    }
+
+    public int capacity() {
+        return buffer.length();
+    }
+
+    /**
+     * @return approximate number of elements, from any thread
+     */
+    public int size() {
+        return (int) Math.max(0, producerIndex.get() - consumerIndex.get());
+    }
+}
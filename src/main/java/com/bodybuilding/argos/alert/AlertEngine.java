@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.alert;
+
+import com.bodybuilding.argos.discovery.ClusterRegistry;
+import com.bodybuilding.argos.discovery.HystrixClusterMetrics;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import rx.Observable;
+import rx.Subscription;
+import rx.subscriptions.CompositeSubscription;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Evaluates {@link AlertRule}s against the merged metrics stream from {@link ClusterRegistry} and sends
+ * {@link AlertEvent}s to every {@link AlertSink}. Rules are configured as <code>alerts.rules</code>, see
+ * {@link AlertRule} for the format.
+ */
+@Component
+@ConfigurationProperties(prefix = "alerts")
+public class AlertEngine {
+    private static final Logger LOG = LoggerFactory.getLogger(AlertEngine.class);
+    private final ClusterRegistry clusterRegistry;
+    private final Observable<Boolean> shutdown;
+    private final List<AlertSink> sinks;
+    private final Map<String, AlertState[]> clusterStates = Maps.newConcurrentMap();
+    private List<String> rules = new ArrayList<>(); // this is set by Spring Boot
+    private volatile List<AlertRule> compiledRules = Collections.emptyList();
+    private Subscription subscription;
+
+    @Autowired
+    public AlertEngine(ClusterRegistry clusterRegistry, Observable<Boolean> shutdown,
+                       Optional<List<AlertSink>> sinks) {
+        this.clusterRegistry = Objects.requireNonNull(clusterRegistry);
+        this.shutdown = Objects.requireNonNull(shutdown);
+        this.sinks = sinks.orElse(Collections.emptyList());
+    }
+
+    @VisibleForTesting
+    AlertEngine(List<String> rules, List<AlertSink> sinks) {
+        this.clusterRegistry = null;
+        this.shutdown = Observable.never();
+        this.sinks = sinks;
+        this.compiledRules = compile(rules);
+    }
+
+    @PostConstruct
+    public void start() {
+        compiledRules = compile(rules);
+        if(compiledRules.isEmpty()) {
+            LOG.info("No alert rules configured");
+            return;
+        }
+        LOG.info("Evaluating {} alert rules with sinks {}", compiledRules.size(), sinks);
+        subscription = new CompositeSubscription(
+                clusterRegistry.observe()
+                        .takeUntil(shutdown)
+                        .filter(m -> !m.isStale()) // don't alert on last known metrics of a stalled stream or a checkpoint
+                        .subscribe(m -> evaluate(m, System.currentTimeMillis()),
+                                t -> LOG.error("Alert evaluation stopped", t)),
+                clusterRegistry.observeRemovals()
+                        .takeUntil(shutdown)
+                        .subscribe(name -> remove(name, System.currentTimeMillis())));
+    }
+
+    @PreDestroy
+    public void stop() {
+        if(subscription != null) {
+            subscription.unsubscribe();
+        }
+    }
+
+    private static List<AlertRule> compile(List<String> rules) {
+        return Collections.unmodifiableList(rules.stream()
+                .map(AlertRule::parse)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Evaluates every rule that applies to the cluster. Each cluster keeps one {@link AlertState} per rule, metrics
+     * for a cluster arrive in order so the per cluster lock is uncontended.
+     */
+    @VisibleForTesting
+    void evaluate(HystrixClusterMetrics metrics, long now) {
+        List<AlertRule> rules = compiledRules;
+        AlertState[] states = clusterStates.computeIfAbsent(metrics.getClusterName(), name -> newStates(rules, name));
+
+        synchronized (states) {
+            for (int i = 0; i < states.length; i++) {
+                AlertState state = states[i];
+                if(state == null) {
+                    continue;
+                }
+                AlertRule rule = rules.get(i);
+                AlertEvent.Status status = rule.evaluate(metrics, state, now);
+                if(status != null) {
+                    publish(rule, metrics.getClusterName(), status, state, now);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the state of a removed cluster, so a cluster that comes back starts clean. Alerts still firing are
+     * resolved, otherwise they would stay open in the sinks.
+     */
+    @VisibleForTesting
+    void remove(String clusterName, long now) {
+        AlertState[] states = clusterStates.remove(clusterName);
+        if(states == null) {
+            return;
+        }
+        List<AlertRule> rules = compiledRules;
+        synchronized (states) {
+            for (int i = 0; i < states.length; i++) {
+                AlertState state = states[i];
+                if(state != null && state.firing) {
+                    state.firing = false;
+                    publish(rules.get(i), clusterName, AlertEvent.Status.RESOLVED, state, now);
+                }
+            }
+        }
+    }
+
+    private static AlertState[] newStates(List<AlertRule> rules, String clusterName) {
+        AlertState[] states = new AlertState[rules.size()];
+        for (int i = 0; i < states.length; i++) {
+            if(rules.get(i).appliesTo(clusterName)) {
+                states[i] = new AlertState();
+            }
+        }
+        return states;
+    }
+
+    private void publish(AlertRule rule, String clusterName, AlertEvent.Status status, AlertState state, long now) {
+        AlertEvent event = new AlertEvent(rule.getName(), rule.getExpression(), clusterName, status, state.lastValue,
+                now);
+        for (AlertSink sink : sinks) {
+            try {
+                sink.publish(event);
+            } catch (Exception e) {
+                LOG.warn("Alert sink {} failed for {}", sink, event, e);
+            }
+        }
+    }
+
+    // these are here for spring
+    public List<String> getRules() {
+        return rules;
+    }
+
+    public void setRules(List<String> rules) {
+        Objects.requireNonNull(rules);
+        this.rules = rules;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.alert;
+
+import java.util.Objects;
+
+/**
+ * Emitted when an {@link AlertRule} starts or stops firing for a cluster.
+ */
+public final class AlertEvent {
+    public enum Status {
+        FIRING, RESOLVED
+    }
+
+    private final String rule;
+    private final String condition;
+    private final String clusterName;
+    private final Status status;
+    private final double value;
+    private final long timestamp;
+
+    public AlertEvent(String rule, String condition, String clusterName, Status status, double value, long timestamp) {
+        this.rule = Objects.requireNonNull(rule);
+        this.condition = Objects.requireNonNull(condition);
+        this.clusterName = Objects.requireNonNull(clusterName);
+        this.status = Objects.requireNonNull(status);
+        this.value = value;
+        this.timestamp = timestamp;
+    }
+
+    public String getRule() {
+        return rule;
+    }
+
+    public String getCondition() {
+        return condition;
+    }
+
+    public String getClusterName() {
+        return clusterName;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "AlertEvent{" +
+                "rule='" + rule + '\'' +
+                ", condition='" + condition + '\'' +
+                ", clusterName='" + clusterName + '\'' +
+                ", status=" + status +
+                ", value=" + value +
+                ", timestamp=" + timestamp +
+                '}';
+    }
+}
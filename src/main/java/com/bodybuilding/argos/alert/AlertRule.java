@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.alert;
+
+import com.bodybuilding.argos.discovery.HystrixClusterMetrics;
+import com.google.common.base.Splitter;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled alert rule. Rules are parsed once from the configuration in the form
+ * <code>&lt;rule name&gt;|&lt;condition&gt;[|&lt;cluster name regex&gt;]</code> where the condition is either a threshold
+ * <pre>
+ *     errorPercentage &gt; 20 for 30s
+ * </pre>
+ * or a change relative to the recent past
+ * <pre>
+ *     requestRate drops 50% vs 5m
+ *     errorPercentage rises 200% vs 10m for 1m
+ * </pre>
+ * "vs 5m" compares against an exponentially weighted moving average with a five minute time constant, so each rule
+ * only needs a handful of primitives of state per cluster, see {@link AlertState}.
+ */
+public final class AlertRule {
+    private static final Splitter RULE_SPLITTER = Splitter.on('|').trimResults();
+    private static final String DURATION = "(\\d+)\\s*(ms|s|sec|secs|seconds?|m|min|mins|minutes?|h|hours?)";
+    private static final Pattern THRESHOLD = Pattern.compile(
+            "^(\\w+)\\s*(>=|<=|>|<|==|!=)\\s*(-?\\d+(?:\\.\\d+)?)(?:\\s+for\\s+" + DURATION + ")?$");
+    private static final Pattern CHANGE = Pattern.compile(
+            "^(\\w+)\\s+(drops|rises)\\s+(\\d+(?:\\.\\d+)?)\\s*%\\s+vs\\s+" + DURATION + "(?:\\s+ago)?" +
+                    "(?:\\s+for\\s+" + DURATION + ")?$");
+
+    enum Operator {
+        GT, GTE, LT, LTE, EQ, NEQ, DROPS, RISES
+    }
+
+    private final String name;
+    private final String expression;
+    private final Pattern clusterPattern;
+    private final ClusterMetric metric;
+    private final Operator operator;
+    private final double threshold;
+    private final long forMs;
+    private final long baselineMs;
+
+    private AlertRule(String name, String expression, Pattern clusterPattern, ClusterMetric metric, Operator operator,
+                      double threshold, long forMs, long baselineMs) {
+        this.name = name;
+        this.expression = expression;
+        this.clusterPattern = clusterPattern;
+        this.metric = metric;
+        this.operator = operator;
+        this.threshold = threshold;
+        this.forMs = forMs;
+        this.baselineMs = baselineMs;
+    }
+
+    /**
+     * Parses a rule in the form <code>&lt;rule name&gt;|&lt;condition&gt;[|&lt;cluster name regex&gt;]</code>
+     * @param spec rule specification
+     * @return compiled rule
+     * @throws IllegalArgumentException if the rule can't be parsed
+     */
+    public static AlertRule parse(String spec) {
+        Objects.requireNonNull(spec);
+        List<String> parts = RULE_SPLITTER.splitToList(spec);
+        if(parts.size() < 2 || parts.size() > 3 || parts.get(0).isEmpty()) {
+            throw new IllegalArgumentException(spec + " is not valid, should be in the form " +
+                    "<rule name>|<condition>[|<cluster name regex>]");
+        }
+        String name = parts.get(0);
+        String expression = parts.get(1).replaceAll("\\s+", " ");
+        Pattern clusterPattern = parts.size() == 3 ? Pattern.compile(parts.get(2)) : null;
+
+        Matcher m = THRESHOLD.matcher(expression);
+        if(m.matches()) {
+            return new AlertRule(name, expression, clusterPattern, parseMetric(m.group(1), spec),
+                    parseOperator(m.group(2)), Double.parseDouble(m.group(3)),
+                    parseDuration(m.group(4), m.group(5)), 0);
+        }
+
+        m = CHANGE.matcher(expression);
+        if(m.matches()) {
+            Operator op = "drops".equals(m.group(2)) ? Operator.DROPS : Operator.RISES;
+            return new AlertRule(name, expression, clusterPattern, parseMetric(m.group(1), spec), op,
+                    Double.parseDouble(m.group(3)) / 100D,
+                    parseDuration(m.group(6), m.group(7)), parseDuration(m.group(4), m.group(5)));
+        }
+
+        throw new IllegalArgumentException("Could not parse condition '" + expression + "' of rule " + name);
+    }
+
+    private static ClusterMetric parseMetric(String metric, String spec) {
+        try {
+            return ClusterMetric.valueOf(metric);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown metric '" + metric + "' in " + spec);
+        }
+    }
+
+    private static Operator parseOperator(String op) {
+        switch (op) {
+            case ">": return Operator.GT;
+            case ">=": return Operator.GTE;
+            case "<": return Operator.LT;
+            case "<=": return Operator.LTE;
+            case "==": return Operator.EQ;
+            default: return Operator.NEQ;
+        }
+    }
+
+    private static long parseDuration(String amount, String unit) {
+        if(amount == null) {
+            return 0;
+        }
+        long value = Long.parseLong(amount);
+        String u = unit.toLowerCase(Locale.ROOT);
+        if(u.equals("ms")) {
+            return value;
+        } else if(u.startsWith("s")) {
+            return TimeUnit.SECONDS.toMillis(value);
+        } else if(u.startsWith("m")) {
+            return TimeUnit.MINUTES.toMillis(value);
+        } else {
+            return TimeUnit.HOURS.toMillis(value);
+        }
+    }
+
+    /**
+     * Returns true if this rule should be evaluated for the cluster
+     * @param clusterName
+     * @return
+     */
+    public boolean appliesTo(String clusterName) {
+        return clusterPattern == null || clusterPattern.matcher(clusterName).matches();
+    }
+
+    /**
+     * Evaluates the rule against the latest metrics for a cluster and updates the per cluster state.
+     * @param metrics latest metrics
+     * @param state state of this rule for the cluster
+     * @param now current time in milliseconds
+     * @return FIRING or RESOLVED when the rule changes status, otherwise null
+     */
+    AlertEvent.Status evaluate(HystrixClusterMetrics metrics, AlertState state, long now) {
+        double value = metric.valueOf(metrics);
+        state.lastValue = value;
+        boolean conditionMet = isConditionMet(value, state, now);
+
+        if(!conditionMet) {
+            state.pendingSince = -1;
+            if(state.firing) {
+                state.firing = false;
+                return AlertEvent.Status.RESOLVED;
+            }
+            return null;
+        }
+
+        if(state.pendingSince < 0) {
+            state.pendingSince = now;
+        }
+        if(!state.firing && now - state.pendingSince >= forMs) {
+            state.firing = true;
+            return AlertEvent.Status.FIRING;
+        }
+        return null;
+    }
+
+    private boolean isConditionMet(double value, AlertState state, long now) {
+        switch (operator) {
+            case GT: return value > threshold;
+            case GTE: return value >= threshold;
+            case LT: return value < threshold;
+            case LTE: return value <= threshold;
+            case EQ: return value == threshold;
+            case NEQ: return value != threshold;
+            default:
+                return isChangeConditionMet(value, state, now);
+        }
+    }
+
+    private boolean isChangeConditionMet(double value, AlertState state, long now) {
+        if(state.baselineStart < 0) {
+            state.baselineStart = now;
+            state.baselineUpdated = now;
+            state.baseline = value;
+            return false;
+        }
+
+        // compare against the baseline before it absorbs the current value
+        double baseline = state.baseline;
+        boolean warm = now - state.baselineStart >= baselineMs;
+
+        double alpha = 1D - Math.exp(-(double) (now - state.baselineUpdated) / baselineMs);
+        state.baseline += alpha * (value - state.baseline);
+        state.baselineUpdated = now;
+
+        if(!warm || baseline <= 0) {
+            return false;
+        }
+        if(operator == Operator.DROPS) {
+            return value <= baseline * (1D - threshold);
+        } else {
+            return value >= baseline * (1D + threshold);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    public ClusterMetric getMetric() {
+        return metric;
+    }
+
+    @Override
+    public String toString() {
+        return name + "|" + expression + (clusterPattern == null ? "" : "|" + clusterPattern.pattern());
+    }
+}
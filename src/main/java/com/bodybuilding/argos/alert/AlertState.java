@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.alert;
+
+/**
+ * Evaluation state of a single {@link AlertRule} for a single cluster. Only accessed while holding the lock of the
+ * owning cluster in {@link AlertEngine}.
+ */
+final class AlertState {
+    boolean firing;
+    long pendingSince = -1;
+    double lastValue;
+
+    // only used by rules that compare against the recent past
+    double baseline;
+    long baselineStart = -1;
+    long baselineUpdated;
+}
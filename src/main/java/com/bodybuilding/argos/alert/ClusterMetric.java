@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.alert;
+
+import com.bodybuilding.argos.discovery.HystrixClusterMetrics;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Numeric fields of {@link HystrixClusterMetrics} that can be referenced by an alert rule.
+ */
+public enum ClusterMetric {
+    requestRate(HystrixClusterMetrics::getRequestRate),
+    errorPercentage(HystrixClusterMetrics::getErrorPercentage),
+    requestCount(HystrixClusterMetrics::getRequestCount),
+    successCount(HystrixClusterMetrics::getSuccessCount),
+    failCount(HystrixClusterMetrics::getFailCount),
+    timeoutCount(HystrixClusterMetrics::getTimeoutCount),
+    shortCircuitedCount(HystrixClusterMetrics::getShortCircuitedCount),
+    rejectedCount(HystrixClusterMetrics::getRejectedCount),
+    reportingHosts(HystrixClusterMetrics::getReportingHosts),
+    commandCount(HystrixClusterMetrics::getCommandCount);
+
+    private final ToDoubleFunction<HystrixClusterMetrics> extractor;
+
+    ClusterMetric(ToDoubleFunction<HystrixClusterMetrics> extractor) {
+        this.extractor = extractor;
+    }
+
+    public double valueOf(HystrixClusterMetrics metrics) {
+        return extractor.applyAsDouble(metrics);
+    }
+}
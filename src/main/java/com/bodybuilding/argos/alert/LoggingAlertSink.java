@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.alert;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@link AlertSink} that writes alert events to the log
+ */
+@Component
+@ConditionalOnProperty(prefix = "alerts.log", name = "enabled", matchIfMissing = true)
+public class LoggingAlertSink implements AlertSink {
+    private static final Logger LOG = LoggerFactory.getLogger(LoggingAlertSink.class);
+
+    @Override
+    public void publish(AlertEvent event) {
+        if(event.getStatus() == AlertEvent.Status.FIRING) {
+            LOG.warn("Alert {} FIRING for {}: {} (value {})", event.getRule(), event.getClusterName(),
+                    event.getCondition(), event.getValue());
+        } else {
+            LOG.info("Alert {} RESOLVED for {}: {} (value {})", event.getRule(), event.getClusterName(),
+                    event.getCondition(), event.getValue());
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.alert;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.Netty4ClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFutureCallback;
+import org.springframework.web.client.AsyncRestTemplate;
+
+import java.util.Objects;
+
+/**
+ * {@link AlertSink} that POSTs each alert event as JSON to a webhook. Requests are sent asynchronously so a slow
+ * webhook never holds up rule evaluation.
+ */
+@Component
+@ConditionalOnProperty(prefix = "alerts.webhook", name = "url")
+public class WebhookAlertSink implements AlertSink {
+    private static final Logger LOG = LoggerFactory.getLogger(WebhookAlertSink.class);
+    private final String url;
+    private final AsyncRestTemplate restTemplate;
+
+    @Autowired
+    public WebhookAlertSink(@Value("${alerts.webhook.url}") String url) {
+        Netty4ClientHttpRequestFactory requestFactory = new Netty4ClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(5_000);
+        requestFactory.setReadTimeout(10_000);
+        this.url = Objects.requireNonNull(url);
+        this.restTemplate = new AsyncRestTemplate(requestFactory);
+    }
+
+    @VisibleForTesting
+    WebhookAlertSink(String url, AsyncRestTemplate restTemplate) {
+        this.url = Objects.requireNonNull(url);
+        this.restTemplate = Objects.requireNonNull(restTemplate);
+    }
+
+    @Override
+    public void publish(AlertEvent event) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        try {
+            restTemplate.postForEntity(url, new HttpEntity<>(event, headers), String.class)
+                    .addCallback(new ListenableFutureCallback<ResponseEntity<String>>() {
+                        @Override
+                        public void onSuccess(ResponseEntity<String> result) {
+                            LOG.debug("Sent {} to {}", event, url);
+                        }
+
+                        @Override
+                        public void onFailure(Throwable ex) {
+                            LOG.warn("Failed sending {} to {}", event, url, ex);
+                        }
+                    });
+        } catch (Exception e) {
+            LOG.warn("Failed sending {} to {}", event, url, e);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.anomaly;
+
+import com.bodybuilding.argos.discovery.HystrixClusterMetrics;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scores each cluster's metrics against that cluster's own history so clusters with very different traffic can be
+ * compared. requestRate, errorPercentage and latencyMean are tracked with an exponentially weighted mean and variance
+ * and with one seasonal baseline per hour of the week. The anomaly score is the largest absolute z-score, using the
+ * seasonal baseline once it has enough samples.
+ */
+@Component
+@ConfigurationProperties(prefix = "anomaly")
+public class AnomalyDetector {
+    private static final int REQUEST_RATE = 0;
+    private static final int ERROR_PERCENTAGE = 1;
+    private static final int LATENCY = 2;
+    private static final int METRIC_COUNT = 3;
+
+    private final Map<String, ClusterBaseline> baselines = Maps.newConcurrentMap();
+    private boolean enabled = true;
+    private long timeConstantMs = TimeUnit.MINUTES.toMillis(15);
+    private long seasonalTimeConstantMs = TimeUnit.HOURS.toMillis(1);
+    private long minSamples = 60;
+    private double relativeStdDevFloor = 0.05;
+    private double errorPercentageStdDevFloor = 1;
+    private ZoneId zone = ZoneId.systemDefault();
+
+    public AnomalyDetector() {
+    }
+
+    @VisibleForTesting
+    AnomalyDetector(long timeConstantMs, long seasonalTimeConstantMs, long minSamples, ZoneId zone) {
+        this.timeConstantMs = timeConstantMs;
+        this.seasonalTimeConstantMs = seasonalTimeConstantMs;
+        this.minSamples = minSamples;
+        this.zone = zone;
+    }
+
+    /**
+     * Returns a copy of the metrics with the anomaly score set, and adds the metrics to the cluster's baseline.
+     * @param metrics latest cluster metrics
+     * @return metrics with {@link HystrixClusterMetrics#getAnomalyScore()} set
+     */
+    public HystrixClusterMetrics score(HystrixClusterMetrics metrics) {
+        return score(metrics, System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    HystrixClusterMetrics score(HystrixClusterMetrics metrics, long now) {
+        Objects.requireNonNull(metrics);
+        if(!enabled) {
+            return metrics;
+        }
+
+        double[] values = new double[METRIC_COUNT];
+        values[REQUEST_RATE] = metrics.getRequestRate();
+        values[ERROR_PERCENTAGE] = metrics.getErrorPercentage();
+        values[LATENCY] = metrics.getLatencyMean();
+
+        ClusterBaseline baseline = baselines.computeIfAbsent(metrics.getClusterName(),
+                n -> new ClusterBaseline(METRIC_COUNT));
+
+        double score;
+        synchronized (baseline) {
+            double[] floors = new double[METRIC_COUNT];
+            floors[REQUEST_RATE] = Math.max(1D, relativeStdDevFloor * baseline.getMean(REQUEST_RATE));
+            floors[ERROR_PERCENTAGE] = errorPercentageStdDevFloor;
+            floors[LATENCY] = Math.max(1D, relativeStdDevFloor * baseline.getMean(LATENCY));
+            score = baseline.scoreAndUpdate(values, floors, hourOfWeek(now), now, this);
+        }
+        return metrics.withAnomalyScore(score);
+    }
+
+    private int hourOfWeek(long now) {
+        ZonedDateTime time = Instant.ofEpochMilli(now).atZone(zone);
+        return (time.getDayOfWeek().getValue() - 1) * 24 + time.getHour();
+    }
+
+    /**
+     * Discards the baseline of a cluster
+     * @param clusterName
+     */
+    public void reset(String clusterName) {
+        baselines.remove(clusterName);
+    }
+
+    // these are here for spring
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getTimeConstantMs() {
+        return timeConstantMs;
+    }
+
+    public void setTimeConstantMs(long timeConstantMs) {
+        this.timeConstantMs = timeConstantMs;
+    }
+
+    public long getSeasonalTimeConstantMs() {
+        return seasonalTimeConstantMs;
+    }
+
+    public void setSeasonalTimeConstantMs(long seasonalTimeConstantMs) {
+        this.seasonalTimeConstantMs = seasonalTimeConstantMs;
+    }
+
+    public long getMinSamples() {
+        return minSamples;
+    }
+
+    public void setMinSamples(long minSamples) {
+        this.minSamples = minSamples;
+    }
+
+    public double getRelativeStdDevFloor() {
+        return relativeStdDevFloor;
+    }
+
+    public void setRelativeStdDevFloor(double relativeStdDevFloor) {
+        this.relativeStdDevFloor = relativeStdDevFloor;
+    }
+
+    public double getErrorPercentageStdDevFloor() {
+        return errorPercentageStdDevFloor;
+    }
+
+    public void setErrorPercentageStdDevFloor(double errorPercentageStdDevFloor) {
+        this.errorPercentageStdDevFloor = errorPercentageStdDevFloor;
+    }
+
+    public String getZone() {
+        return zone.getId();
+    }
+
+    public void setZone(String zone) {
+        this.zone = ZoneId.of(zone);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.anomaly;
+
+/**
+ * Online baseline for a single cluster. For each tracked metric this keeps an exponentially weighted mean and
+ * variance, plus one exponentially weighted mean and variance per hour of the week. Memory use is fixed regardless of
+ * how long the cluster has been monitored.
+ */
+final class ClusterBaseline {
+    static final int HOURS_PER_WEEK = 7 * 24;
+
+    private final int metricCount;
+    private final double[] mean;
+    private final double[] variance;
+    private final long[] samples;
+    private final double[] seasonalMean;
+    private final double[] seasonalVariance;
+    private final long[] seasonalSamples;
+    private long lastUpdate = -1;
+
+    ClusterBaseline(int metricCount) {
+        this.metricCount = metricCount;
+        this.mean = new double[metricCount];
+        this.variance = new double[metricCount];
+        this.samples = new long[metricCount];
+        this.seasonalMean = new double[metricCount * HOURS_PER_WEEK];
+        this.seasonalVariance = new double[metricCount * HOURS_PER_WEEK];
+        this.seasonalSamples = new long[metricCount * HOURS_PER_WEEK];
+    }
+
+    /**
+     * Scores the values against the baseline and then folds them into the baseline.
+     * @param values current value of each metric
+     * @param stdDevFloors smallest standard deviation used for each metric, keeps flat metrics from producing huge
+     *                     scores on tiny changes
+     * @param hourOfWeek 0 - 167
+     * @param now current time in milliseconds
+     * @param settings detector settings
+     * @return largest absolute z-score of all the metrics, 0 until the baseline has warmed up
+     */
+    double scoreAndUpdate(double[] values, double[] stdDevFloors, int hourOfWeek, long now, AnomalyDetector settings) {
+        long elapsed = lastUpdate < 0 ? 0 : Math.max(0, now - lastUpdate);
+        lastUpdate = now;
+        double alpha = 1D - Math.exp(-(double) elapsed / settings.getTimeConstantMs());
+        double seasonalAlpha = 1D - Math.exp(-(double) elapsed / settings.getSeasonalTimeConstantMs());
+
+        double score = 0;
+        for (int i = 0; i < metricCount; i++) {
+            int s = hourOfWeek * metricCount + i;
+            double value = values[i];
+            double z;
+            if(seasonalSamples[s] >= settings.getMinSamples()) {
+                z = zScore(value, seasonalMean[s], seasonalVariance[s], stdDevFloors[i]);
+            } else if(samples[i] >= settings.getMinSamples()) {
+                z = zScore(value, mean[i], variance[i], stdDevFloors[i]);
+            } else {
+                z = 0;
+            }
+            score = Math.max(score, Math.abs(z));
+
+            update(mean, variance, samples, i, value, samples[i] == 0 ? 1D : alpha);
+            update(seasonalMean, seasonalVariance, seasonalSamples, s, value,
+                    seasonalSamples[s] == 0 ? 1D : seasonalAlpha);
+        }
+        return score;
+    }
+
+    private static double zScore(double value, double mean, double variance, double stdDevFloor) {
+        double stdDev = Math.max(Math.sqrt(variance), stdDevFloor);
+        return stdDev > 0 ? (value - mean) / stdDev : 0;
+    }
+
+    // incremental exponentially weighted mean and variance
+    private static void update(double[] mean, double[] variance, long[] samples, int i, double value, double alpha) {
+        double diff = value - mean[i];
+        double increment = alpha * diff;
+        mean[i] += increment;
+        variance[i] = (1D - alpha) * (variance[i] + diff * increment);
+        samples[i]++;
+    }
+
+    double getMean(int metric) {
+        return mean[metric];
+    }
+}
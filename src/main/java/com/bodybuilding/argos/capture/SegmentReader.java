@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.capture;
+
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.schedulers.Timestamped;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the events written by {@link SegmentWriter} from a list of segments, in order. A segment cut short by a crash
+ * is read up to the last complete event.
+ */
+public final class SegmentReader implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentReader.class);
+    private final Iterator<Path> segments;
+    private BufferedReader in;
+    private Path current;
+
+    public SegmentReader(List<Path> segments) {
+        this.segments = segments.iterator();
+    }
+
+    /**
+     * Returns the segments in a capture directory in the order they were written
+     * @param directory
+     * @return
+     * @throws IOException
+     */
+    public static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = Lists.newArrayList();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SegmentWriter.SUFFIX)) {
+            files.forEach(segments::add);
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    /**
+     * Returns the next event stamped with its receive time, or null after the last one
+     * @return
+     * @throws IOException
+     */
+    public Timestamped<String> next() throws IOException {
+        while (true) {
+            if(in == null) {
+                if(!segments.hasNext()) {
+                    return null;
+                }
+                current = segments.next();
+                InputStream gzip;
+                try {
+                    gzip = new GZIPInputStream(Files.newInputStream(current));
+                } catch (EOFException e) {
+                    LOG.warn("Segment {} is empty, skipping it", current);
+                    continue;
+                }
+                in = new BufferedReader(new InputStreamReader(new TruncatedInputStream(gzip, current),
+                        StandardCharsets.UTF_8));
+            }
+            String line = in.readLine();
+            if(line == null) {
+                closeCurrent();
+                continue;
+            }
+            int tab = line.indexOf('\t');
+            if(tab <= 0) {
+                continue; // partial line at the end of a truncated segment
+            }
+            try {
+                return new Timestamped<>(Long.parseLong(line.substring(0, tab)), line.substring(tab + 1));
+            } catch (NumberFormatException e) {
+                LOG.debug("Skipping malformed line in {}", current);
+            }
+        }
+    }
+
+    private void closeCurrent() throws IOException {
+        if(in != null) {
+            try {
+                in.close();
+            } finally {
+                in = null;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeCurrent();
+    }
+
+    // ends the stream at the truncation point instead of failing, the decoder reads ahead so catching the
+    // EOFException around readLine() would lose the lines already inflated
+    private static final class TruncatedInputStream extends FilterInputStream {
+        private final Path segment;
+
+        private TruncatedInputStream(InputStream in, Path segment) {
+            super(in);
+            this.segment = segment;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (EOFException e) {
+                LOG.warn("Segment {} is truncated, skipping the rest of it", segment);
+                return -1;
+            }
+        }
+    }
+}
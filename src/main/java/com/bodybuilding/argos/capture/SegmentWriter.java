@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.capture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Appends raw stream events for a single cluster to gzip compressed segment files. Each line is the receive time in
+ * milliseconds, a tab, and the event data. A new segment is started when the current one gets too big or too old, and
+ * segments are named by the time of their first event so they sort in order.
+ * <p>
+ * The gzip stream is sync flushed at most once per second, so a crash loses at most about a second of events and the
+ * segment can still be read up to that point.
+ */
+public final class SegmentWriter implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentWriter.class);
+    static final String SUFFIX = ".sse.gz";
+    private static final long FLUSH_INTERVAL_MS = 1000;
+
+    private final Path directory;
+    private final long maxSegmentBytes;
+    private final long maxSegmentAgeMs;
+    private final Consumer<SegmentWriter> onClose;
+    private OutputStream out;
+    private long segmentStart;
+    private long segmentBytes;
+    private long lastFlush;
+
+    /**
+     * @param directory directory the segments are written to, created if needed
+     * @param maxSegmentBytes uncompressed size in bytes after which a new segment is started
+     * @param maxSegmentAgeMs age after which a new segment is started
+     */
+    public SegmentWriter(Path directory, long maxSegmentBytes, long maxSegmentAgeMs) {
+        this(directory, maxSegmentBytes, maxSegmentAgeMs, w -> { });
+    }
+
+    /**
+     * @param directory directory the segments are written to, created if needed
+     * @param maxSegmentBytes uncompressed size in bytes after which a new segment is started
+     * @param maxSegmentAgeMs age after which a new segment is started
+     * @param onClose called with this writer on each {@link #close()}
+     */
+    public SegmentWriter(Path directory, long maxSegmentBytes, long maxSegmentAgeMs,
+                         Consumer<SegmentWriter> onClose) {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentAgeMs = maxSegmentAgeMs;
+        this.onClose = onClose;
+    }
+
+    /**
+     * Appends an event, errors are logged and the event is dropped so capturing never breaks the stream
+     * @param timestamp receive time in milliseconds
+     * @param data event data
+     */
+    public synchronized void write(long timestamp, String data) {
+        try {
+            if(out != null && (segmentBytes >= maxSegmentBytes || timestamp - segmentStart >= maxSegmentAgeMs)) {
+                closeSegment();
+            }
+            if(out == null) {
+                openSegment(timestamp);
+            }
+            byte[] line = (timestamp + "\t" + data.replace('\n', ' ').replace('\r', ' ') + "\n")
+                    .getBytes(StandardCharsets.UTF_8);
+            out.write(line);
+            segmentBytes += line.length;
+            if(timestamp - lastFlush >= FLUSH_INTERVAL_MS) {
+                out.flush();
+                lastFlush = timestamp;
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed writing capture segment in {}", directory, e);
+            closeQuietly();
+        }
+    }
+
+    private void openSegment(long timestamp) throws IOException {
+        Files.createDirectories(directory);
+        Path file = directory.resolve(segmentName(timestamp));
+        OutputStream os = Files.newOutputStream(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        out = new GZIPOutputStream(new BufferedOutputStream(os, 65536), 8192, true);
+        segmentStart = timestamp;
+        segmentBytes = 0;
+        lastFlush = timestamp;
+        LOG.info("Capturing to {}", file);
+    }
+
+    static String segmentName(long timestamp) {
+        return String.format("%013d", timestamp) + SUFFIX;
+    }
+
+    private void closeSegment() throws IOException {
+        try {
+            out.close();
+        } finally {
+            out = null;
+        }
+    }
+
+    private void closeQuietly() {
+        if(out != null) {
+            try {
+                closeSegment();
+            } catch (IOException e) {
+                LOG.debug("Failed closing capture segment", e);
+            }
+        }
+    }
+
+    /**
+     * Finishes the current segment, the next write starts a new one
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closeQuietly();
+        }
+        onClose.accept(this);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.capture;
+
+import com.google.common.collect.Maps;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Capture mode, records the raw turbine stream of the configured clusters to segment files under
+ * {@code <directory>/<cluster>/} so they can be replayed later with a {@code file:} stream URL.
+ */
+@Component
+@ConfigurationProperties(prefix = "capture")
+public class StreamCapture {
+    private final Map<String, SegmentWriter> writers = Maps.newConcurrentMap();
+    private List<String> clusters = new ArrayList<>(); // regular expressions, set by spring boot
+    private volatile List<Pattern> patterns = new ArrayList<>();
+    private String directory = "capture";
+    private long maxSegmentBytes = 64L * 1024 * 1024;
+    private long maxSegmentAgeMs = TimeUnit.HOURS.toMillis(1);
+
+    @PostConstruct
+    public void init() {
+        patterns = clusters.stream().map(Pattern::compile).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the writer for a cluster if the cluster is being captured. Closing the writer, which the cluster's
+     * monitor does when the cluster is removed, stops tracking it and the next call returns a new writer.
+     * @param clusterName
+     * @return writer or null if the cluster isn't captured
+     */
+    public SegmentWriter writerFor(String clusterName) {
+        if(patterns.stream().noneMatch(p -> p.matcher(clusterName).matches())) {
+            return null;
+        }
+        return writers.computeIfAbsent(clusterName,
+                n -> new SegmentWriter(directoryFor(n), maxSegmentBytes, maxSegmentAgeMs, w -> writers.remove(n, w)));
+    }
+
+    /**
+     * Returns the directory a cluster is captured to
+     * @param clusterName
+     * @return
+     */
+    public Path directoryFor(String clusterName) {
+        return Paths.get(directory).resolve(clusterName.replaceAll("[^A-Za-z0-9._-]", "_"));
+    }
+
+    @PreDestroy
+    public void close() {
+        writers.values().forEach(SegmentWriter::close);
+    }
+
+    // these are here for spring
+    public List<String> getClusters() {
+        return clusters;
+    }
+
+    public void setClusters(List<String> clusters) {
+        Objects.requireNonNull(clusters);
+        this.clusters = clusters;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public long getMaxSegmentBytes() {
+        return maxSegmentBytes;
+    }
+
+    public void setMaxSegmentBytes(long maxSegmentBytes) {
+        this.maxSegmentBytes = maxSegmentBytes;
+    }
+
+    public long getMaxSegmentAgeMs() {
+        return maxSegmentAgeMs;
+    }
+
+    public void setMaxSegmentAgeMs(long maxSegmentAgeMs) {
+        this.maxSegmentAgeMs = maxSegmentAgeMs;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.controller;
+
+import com.bodybuilding.argos.discovery.ClusterRegistry;
+import com.bodybuilding.argos.sharding.ClusterSharding;
+import com.google.common.collect.Maps;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Lists the clusters shown by this Argos in the format of the Turbine ClusterListServlet, with this Argos's
+ * /turbine-stream as each cluster's stream. Used by {@code FederatedClusterDiscovery} in another Argos.
+ */
+@RestController
+public class ClusterListController {
+    private final ClusterRegistry registry;
+    private final ClusterSharding sharding;
+
+    @Autowired
+    public ClusterListController(ClusterRegistry registry, ClusterSharding sharding) {
+        this.registry = Objects.requireNonNull(registry);
+        this.sharding = Objects.requireNonNull(sharding);
+    }
+
+    @RequestMapping(value = "/clusterlist", method = RequestMethod.GET)
+    public List<Map<String, String>> clusters() {
+        // with sharding every node lists all the clusters, /turbine-stream redirects to the owner
+        Set<String> names = new TreeSet<>(sharding.isEnabled() ? sharding.getClusterNames()
+                : registry.getClusterNames());
+        String baseUrl = ServletUriComponentsBuilder.fromCurrentContextPath().toUriString();
+        return names.stream()
+                .map(name -> {
+                    Map<String, String> cluster = Maps.newLinkedHashMap();
+                    cluster.put("name", name);
+                    cluster.put("turbineStream", baseUrl + "/turbine-stream/" + name);
+                    return cluster;
+                })
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.controller;
+
+import com.bodybuilding.argos.discovery.ClusterDiscovery;
+import com.bodybuilding.argos.discovery.RegistrationClusterDiscovery;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Registers clusters with {@link RegistrationClusterDiscovery}. Responds with 404 when another discovery
+ * implementation is configured.
+ * <ul>
+ * <li>GET /clusters - registered clusters as {"name": "turbine stream URL"}</li>
+ * <li>PUT /clusters/{name} with {"url": "turbine stream URL"} - registers or updates a cluster</li>
+ * <li>DELETE /clusters/{name} - removes a cluster</li>
+ * <li>PUT /clusters with {"name": "turbine stream URL", ...} - replaces all registered clusters</li>
+ * </ul>
+ */
+@RestController
+public class ClusterRegistrationController {
+    private final RegistrationClusterDiscovery discovery;
+
+    @Autowired
+    public ClusterRegistrationController(ClusterDiscovery discovery) {
+        Objects.requireNonNull(discovery);
+        this.discovery = discovery instanceof RegistrationClusterDiscovery
+                ? (RegistrationClusterDiscovery) discovery : null;
+    }
+
+    @RequestMapping(value = "/clusters", method = RequestMethod.GET)
+    public ResponseEntity<Map<String, String>> clusters() {
+        return withDiscovery(d -> ResponseEntity.ok(d.getRegisteredClusters()));
+    }
+
+    @RequestMapping(value = "/clusters", method = RequestMethod.PUT)
+    public ResponseEntity<Map<String, String>> sync(@RequestBody Map<String, String> clusters) {
+        return withDiscovery(d -> {
+            d.sync(clusters);
+            return ResponseEntity.ok(d.getRegisteredClusters());
+        });
+    }
+
+    @RequestMapping(value = "/clusters/{name:.+}", method = RequestMethod.PUT)
+    public ResponseEntity<Map<String, String>> register(@PathVariable("name") String name,
+                                                        @RequestBody Map<String, String> body) {
+        return withDiscovery(d -> {
+            String url = body.get("url");
+            boolean added = d.register(name, url);
+            return new ResponseEntity<>(Collections.singletonMap(name, url), added ? HttpStatus.CREATED : HttpStatus.OK);
+        });
+    }
+
+    @RequestMapping(value = "/clusters/{name:.+}", method = RequestMethod.DELETE)
+    public ResponseEntity<Void> deregister(@PathVariable("name") String name) {
+        return withDiscovery(d -> new ResponseEntity<>(d.deregister(name) ? HttpStatus.NO_CONTENT : HttpStatus.NOT_FOUND));
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, String>> invalid(IllegalArgumentException e) {
+        return new ResponseEntity<>(Collections.singletonMap("error", e.getMessage()), HttpStatus.BAD_REQUEST);
+    }
+
+    private <T> ResponseEntity<T> withDiscovery(Function<RegistrationClusterDiscovery, ResponseEntity<T>> action) {
+        if(discovery == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        return action.apply(discovery);
+    }
+}
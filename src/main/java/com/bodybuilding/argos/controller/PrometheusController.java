@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Objects;
+
+/**
+ * Serves cluster metrics in the Prometheus text format. The actuator already owns /metrics so this is served
+ * from /prometheus.
+ */
+@RestController
+public class PrometheusController {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private final PrometheusMetricsExporter exporter;
+
+    @Autowired
+    public PrometheusController(PrometheusMetricsExporter exporter) {
+        this.exporter = Objects.requireNonNull(exporter);
+    }
+
+    @RequestMapping(value = "/prometheus", method = RequestMethod.GET)
+    public ResponseEntity<byte[]> metrics() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_TYPE, CONTENT_TYPE);
+        return new ResponseEntity<>(exporter.getExposition(), headers, HttpStatus.OK);
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.controller;
+
+import com.bodybuilding.argos.discovery.ClusterRegistry;
+import com.bodybuilding.argos.discovery.HystrixClusterMetrics;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import rx.Observable;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Renders the latest {@link HystrixClusterMetrics} of every cluster in the Prometheus text exposition format. The
+ * output is rebuilt once per second and scrapes are served from that buffer, so scrape frequency doesn't matter.
+ */
+@Component
+public class PrometheusMetricsExporter {
+    private static final Logger LOG = LoggerFactory.getLogger(PrometheusMetricsExporter.class);
+    private static final long EXPIRE_AFTER_MS = TimeUnit.SECONDS.toMillis(60);
+
+    private final ClusterRegistry clusterRegistry;
+    private final Observable<Boolean> shutdown;
+    private final Map<String, ClusterEntry> latest = Maps.newConcurrentMap();
+    private volatile byte[] exposition = new byte[0];
+
+    @Autowired
+    public PrometheusMetricsExporter(ClusterRegistry clusterRegistry, Observable<Boolean> shutdown) {
+        this.clusterRegistry = Objects.requireNonNull(clusterRegistry);
+        this.shutdown = Objects.requireNonNull(shutdown);
+    }
+
+    @VisibleForTesting
+    PrometheusMetricsExporter() {
+        this.clusterRegistry = null;
+        this.shutdown = Observable.never();
+    }
+
+    @PostConstruct
+    public void start() {
+        clusterRegistry.observe()
+                .takeUntil(shutdown)
+                .filter(m -> !m.isStale()) // last known metrics aren't current values
+                .subscribe(m -> update(m, System.currentTimeMillis()),
+                        t -> LOG.error("Prometheus exporter stopped", t));
+        clusterRegistry.observeRemovals()
+                .takeUntil(shutdown)
+                .subscribe(latest::remove);
+    }
+
+    @VisibleForTesting
+    void update(HystrixClusterMetrics metrics, long now) {
+        latest.compute(metrics.getClusterName(), (name, previous) -> {
+            double requestsTotal = 0;
+            if(previous != null) {
+                // integrate the request rate into a monotonic counter
+                requestsTotal = previous.requestsTotal
+                        + previous.metrics.getRequestRate() * (now - previous.updated) / 1000D;
+            }
+            return new ClusterEntry(metrics, now, requestsTotal);
+        });
+    }
+
+    @Scheduled(fixedRate = 1000)
+    public void render() {
+        render(System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    void render(long now) {
+        latest.values().removeIf(e -> now - e.updated > EXPIRE_AFTER_MS);
+        Map<String, ClusterEntry> clusters = new TreeMap<>(latest);
+
+        StringBuilder sb = new StringBuilder(256 + clusters.size() * 1024);
+        gauge(sb, clusters, "argos_cluster_request_rate", "Requests per second",
+                HystrixClusterMetrics::getRequestRate);
+        gauge(sb, clusters, "argos_cluster_error_percentage", "Average error percentage of all commands",
+                HystrixClusterMetrics::getErrorPercentage);
+        gauge(sb, clusters, "argos_cluster_latency_mean_ms", "Request weighted mean execution latency",
+                HystrixClusterMetrics::getLatencyMean);
+        gauge(sb, clusters, "argos_cluster_anomaly_score", "Largest z-score against the cluster baseline",
+                HystrixClusterMetrics::getAnomalyScore);
+        gauge(sb, clusters, "argos_cluster_rolling_requests", "Requests in the rolling window",
+                HystrixClusterMetrics::getRequestCount);
+        gauge(sb, clusters, "argos_cluster_rolling_success", "Successful requests in the rolling window",
+                HystrixClusterMetrics::getSuccessCount);
+        gauge(sb, clusters, "argos_cluster_rolling_failures", "Failed requests in the rolling window",
+                HystrixClusterMetrics::getFailCount);
+        gauge(sb, clusters, "argos_cluster_rolling_timeouts", "Timed out requests in the rolling window",
+                HystrixClusterMetrics::getTimeoutCount);
+        gauge(sb, clusters, "argos_cluster_rolling_short_circuited", "Short circuited requests in the rolling window",
+                HystrixClusterMetrics::getShortCircuitedCount);
+        gauge(sb, clusters, "argos_cluster_rolling_rejected", "Rejected requests in the rolling window",
+                HystrixClusterMetrics::getRejectedCount);
+        gauge(sb, clusters, "argos_cluster_reporting_hosts", "Hosts reporting metrics",
+                HystrixClusterMetrics::getReportingHosts);
+        gauge(sb, clusters, "argos_cluster_commands", "Hystrix commands reporting metrics",
+                HystrixClusterMetrics::getCommandCount);
+
+        header(sb, "argos_cluster_requests_total", "Requests since Argos started monitoring the cluster, " +
+                "integrated from the request rate", "counter");
+        clusters.forEach((name, e) -> sample(sb, "argos_cluster_requests_total", name, e.requestsTotal));
+
+        exposition = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void gauge(StringBuilder sb, Map<String, ClusterEntry> clusters, String name, String help,
+                              ToDoubleFunction<HystrixClusterMetrics> value) {
+        header(sb, name, help, "gauge");
+        clusters.forEach((cluster, e) -> sample(sb, name, cluster, value.applyAsDouble(e.metrics)));
+    }
+
+    private static void header(StringBuilder sb, String name, String help, String type) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String cluster, double value) {
+        sb.append(name).append("{cluster=\"");
+        escapeLabel(sb, cluster);
+        sb.append("\"} ").append(value).append('\n');
+    }
+
+    private static void escapeLabel(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case '"': sb.append("\\\""); break;
+                case '\n': sb.append("\\n"); break;
+                default: sb.append(c);
+            }
+        }
+    }
+
+    /**
+     * Returns the exposition rendered on the last tick
+     * @return
+     */
+    public byte[] getExposition() {
+        return exposition;
+    }
+
+    private static final class ClusterEntry {
+        private final HystrixClusterMetrics metrics;
+        private final long updated;
+        private final double requestsTotal;
+
+        private ClusterEntry(HystrixClusterMetrics metrics, long updated, double requestsTotal) {
+            this.metrics = metrics;
+            this.updated = updated;
+            this.requestsTotal = requestsTotal;
+        }
+    }
+}
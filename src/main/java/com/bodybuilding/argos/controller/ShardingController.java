@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.controller;
+
+import com.bodybuilding.argos.sharding.ClusterSharding;
+import com.google.common.collect.Maps;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Reports this node and whether each of its peers is up. Peers check each other with this endpoint.
+ */
+@RestController
+public class ShardingController {
+    private final ClusterSharding sharding;
+
+    @Autowired
+    public ShardingController(ClusterSharding sharding) {
+        this.sharding = Objects.requireNonNull(sharding);
+    }
+
+    @RequestMapping(value = "/sharding", method = RequestMethod.GET)
+    public Map<String, Object> status() {
+        Map<String, Object> status = Maps.newLinkedHashMap();
+        status.put("enabled", sharding.isEnabled());
+        status.put("self", sharding.getSelf());
+        Map<String, String> nodes = Maps.newTreeMap();
+        Set<String> live = sharding.getLiveNodes();
+        sharding.getNodes().forEach(n -> nodes.put(n, live.contains(n) ? "UP" : "DOWN"));
+        status.put("nodes", nodes);
+        return status;
+    }
+}
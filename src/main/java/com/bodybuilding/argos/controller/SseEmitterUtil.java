@@ -16,6 +16,7 @@
 
 package com.bodybuilding.argos.controller;
 
+import com.bodybuilding.argos.metrics.SseEndpointStats;
 import com.google.common.base.Throwables;
 import org.apache.catalina.connector.ClientAbortException;
 import org.slf4j.Logger;
@@ -25,6 +26,8 @@ import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import rx.Observable;
 import rx.Subscriber;
 import rx.Subscription;
+import rx.functions.Action1;
+import rx.functions.Func1;
 
 /**
  * Utility class to simplify using SseEmitter with Observables.
@@ -43,6 +46,39 @@ public class SseEmitterUtil {
      * @return Subscription to the Observable
      */
     public static <T> Subscription bindObservable(SseEmitter emitter, Observable<T> observable) {
+        return bindObservable(emitter, observable, null);
+    }
+
+    /**
+     * Same as {@link #bindObservable(SseEmitter, Observable)} while also counting the connected client and timing
+     * each send.
+     * @param emitter SseEmitter
+     * @param observable Observable that will supply the data
+     * @param stats endpoint stats, may be null
+     * @return Subscription to the Observable
+     */
+    public static <T> Subscription bindObservable(SseEmitter emitter, Observable<T> observable,
+                                                  SseEndpointStats stats) {
+        return bindObservable(emitter, observable, stats, t -> t, null);
+    }
+
+    /**
+     * Same as {@link #bindObservable(SseEmitter, Observable, SseEndpointStats)} where the data sent is derived from
+     * each item, and a callback runs after each item is written.
+     * @param emitter SseEmitter
+     * @param observable Observable that will supply the data
+     * @param stats endpoint stats, may be null
+     * @param payload returns the data to send for an item
+     * @param onSent called after an item was sent, may be null
+     * @return Subscription to the Observable
+     */
+    public static <T> Subscription bindObservable(SseEmitter emitter, Observable<T> observable,
+                                                  SseEndpointStats stats, Func1<? super T, ?> payload,
+                                                  Action1<? super T> onSent) {
+        if(stats != null) {
+            stats.clientConnected();
+            observable = observable.doOnUnsubscribe(stats::clientDisconnected);
+        }
         Subscription subscription = observable.subscribe(new Subscriber<T>() {
             @Override
             public void onCompleted() {
@@ -57,7 +93,14 @@ public class SseEmitterUtil {
 
             @Override
             public void onNext(T t) {
-                emitSse(emitter, t);
+                long start = System.nanoTime();
+                emitSse(emitter, payload.call(t));
+                if(stats != null) {
+                    stats.recordSend(System.nanoTime() - start);
+                }
+                if(onSent != null) {
+                    onSent.call(t);
+                }
             }
         });
         bindUnsubscribe(emitter, subscription);
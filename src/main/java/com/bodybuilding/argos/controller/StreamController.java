@@ -16,8 +16,13 @@
 
 package com.bodybuilding.argos.controller;
 
+import com.bodybuilding.argos.discovery.ClusterGroups;
 import com.bodybuilding.argos.discovery.ClusterRegistry;
 import com.bodybuilding.argos.discovery.HystrixClusterMetrics;
+import com.bodybuilding.argos.discovery.MetricsChangeDetector;
+import com.bodybuilding.argos.metrics.PipelineMetrics;
+import com.bodybuilding.argos.metrics.SseEndpointStats;
+import com.bodybuilding.argos.sharding.ClusterSharding;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -26,6 +31,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import rx.Observable;
@@ -34,40 +40,98 @@ import java.util.Objects;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Emits Server Sent Events for the Argos dashboard.
+ * Emits Server Sent Events for the Argos dashboard. With sharding enabled the stream also carries the clusters of the
+ * other nodes, {@code ?local=true} only streams the clusters monitored by this node. The group rollups are only on
+ * the full stream, they already include the other nodes' clusters.
  */
 @RestController
 public class StreamController {
-    private final Observable<String> streamObservable;
+    private final Observable<Frame> streamObservable;
+    private final Observable<Frame> localObservable;
+    private final PipelineMetrics pipelineMetrics;
+    private final SseEndpointStats stats;
 
+    /**
+     * @param sharding merges the streams of the other nodes, may be null
+     * @param groups adds the group rollups to the stream, may be null
+     */
     @Autowired
-    public StreamController(ClusterRegistry registry, Observable<Boolean> shutdown) {
+    public StreamController(ClusterRegistry registry, Observable<Boolean> shutdown,
+                            MetricsChangeDetector changeDetector, PipelineMetrics pipelineMetrics,
+                            ClusterSharding sharding, ClusterGroups groups) {
         Objects.requireNonNull(registry);
         Objects.requireNonNull(shutdown);
-        ObjectMapper om = new ObjectMapper();
-        om.enable(MapperFeature.AUTO_DETECT_FIELDS);
-        om.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
-        om.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
-
+        Objects.requireNonNull(changeDetector);
+        this.pipelineMetrics = Objects.requireNonNull(pipelineMetrics);
+        this.stats = pipelineMetrics.forEndpoint(PipelineMetrics.CLUSTER_STREAM);
+        ObjectMapper om = createObjectMapper();
 
         Observable<HystrixClusterMetrics> metricsObs = registry.observe();
-
-        streamObservable = metricsObs
+        registry.observeRemovals()
                 .takeUntil(shutdown)
+                .subscribe(changeDetector::reset);
+
+        localObservable = toFrames(metricsObs.takeUntil(shutdown), changeDetector, om).share();
+        Observable<Frame> allObservable = localObservable;
+        if(sharding != null && sharding.isEnabled()) {
+            // peers already skipped unchanged clusters, and their receive times are on another clock
+            Observable<Frame> peerObservable = sharding.observePeers()
+                    .takeUntil(shutdown)
+                    .map(json -> new Frame(null, 0, json));
+            allObservable = allObservable.mergeWith(peerObservable);
+        }
+        if(groups != null && groups.isEnabled()) {
+            allObservable = allObservable.mergeWith(toFrames(groups.observe().takeUntil(shutdown), changeDetector, om));
+        }
+        streamObservable = allObservable == localObservable ? localObservable : allObservable.share();
+    }
+
+    private static Observable<Frame> toFrames(Observable<HystrixClusterMetrics> metrics,
+                                              MetricsChangeDetector changeDetector, ObjectMapper om) {
+        return metrics
+                .filter(changeDetector::shouldEmit) // skip clusters that haven't changed since the last emit
+                .map(d -> d.withAge(System.currentTimeMillis()))
                 .map(d -> {
                     try {
-                        return om.writeValueAsString(d);
+                        // stale metrics were received before a restart, they would skew freshness
+                        long receivedAt = d.isStale() ? 0 : d.getReceivedAt();
+                        return new Frame(d.getClusterName(), receivedAt, om.writeValueAsString(d));
                     } catch (JsonProcessingException e) {
                         throw new RuntimeException(e);
                     }
-                })
-                .share();
+                });
+    }
+
+    /**
+     * Returns the ObjectMapper used to serialize {@link HystrixClusterMetrics} for the stream
+     * @return
+     */
+    static ObjectMapper createObjectMapper() {
+        ObjectMapper om = new ObjectMapper();
+        om.enable(MapperFeature.AUTO_DETECT_FIELDS);
+        om.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+        om.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
+        return om;
     }
 
     @RequestMapping("/cluster.stream")
-    public SseEmitter streamMetrics() {
+    public SseEmitter streamMetrics(@RequestParam(value = "local", defaultValue = "false") boolean local) {
         final SseEmitter emitter = new SseEmitter(TimeUnit.DAYS.toMillis(45));
-        SseEmitterUtil.bindObservable(emitter, streamObservable);
+        SseEmitterUtil.bindObservable(emitter, local ? localObservable : streamObservable, stats, f -> f.json,
+                f -> pipelineMetrics.recordFreshness(f.clusterName, stats, f.receivedAt, System.currentTimeMillis()));
         return emitter;
     }
+
+    // metrics are serialized once and shared by all clients
+    private static final class Frame {
+        private final String clusterName;
+        private final long receivedAt;
+        private final String json;
+
+        private Frame(String clusterName, long receivedAt, String json) {
+            this.clusterName = clusterName;
+            this.receivedAt = receivedAt;
+            this.json = json;
+        }
+    }
 }
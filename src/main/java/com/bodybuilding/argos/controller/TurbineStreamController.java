@@ -18,6 +18,9 @@ package com.bodybuilding.argos.controller;
 
 import com.bodybuilding.argos.discovery.ClusterRegistry;
 import com.bodybuilding.argos.discovery.HystrixClusterMonitor;
+import com.bodybuilding.argos.metrics.PipelineMetrics;
+import com.bodybuilding.argos.metrics.SseEndpointStats;
+import com.bodybuilding.argos.sharding.ClusterSharding;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -27,36 +30,57 @@ import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import rx.Observable;
 import rx.schedulers.Schedulers;
+import rx.schedulers.Timestamped;
 
+import javax.servlet.http.HttpServletResponse;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Proxies Server Sent Events for a single Hystrix cluster. This is a proxy of the turbine stream.
+ * Proxies Server Sent Events for a single Hystrix cluster. This is a proxy of the turbine stream. With sharding
+ * enabled a cluster owned by another node is redirected to that node.
  */
 @RestController
 public class TurbineStreamController {
     private final ClusterRegistry clusterRegistry;
     private final Observable<Boolean> shutdown;
+    private final PipelineMetrics pipelineMetrics;
+    private final SseEndpointStats stats;
+    private final ClusterSharding sharding;
 
+    /**
+     * @param sharding finds the node a cluster that isn't monitored here belongs to, may be null
+     */
     @Autowired
-    public TurbineStreamController(ClusterRegistry clusterRegistry, Observable<Boolean> shutdown) {
+    public TurbineStreamController(ClusterRegistry clusterRegistry, Observable<Boolean> shutdown,
+                                   PipelineMetrics pipelineMetrics, ClusterSharding sharding) {
         this.clusterRegistry = Objects.requireNonNull(clusterRegistry);
         this.shutdown = Objects.requireNonNull(shutdown);
+        this.pipelineMetrics = Objects.requireNonNull(pipelineMetrics);
+        this.stats = pipelineMetrics.forEndpoint(PipelineMetrics.TURBINE_STREAM);
+        this.sharding = sharding;
     }
 
     @RequestMapping("/turbine-stream/{cluster}")
-    public ResponseEntity<SseEmitter> streamHystrix(@PathVariable("cluster") String cluster) {
+    public ResponseEntity<SseEmitter> streamHystrix(@PathVariable("cluster") String cluster,
+                                                    HttpServletResponse response) {
         Optional<HystrixClusterMonitor> clusterMonitor = clusterRegistry.getCluster(cluster);
         if(!clusterMonitor.isPresent()) {
+            String owner = sharding == null ? null : sharding.getOwner(cluster);
+            if(owner != null && !owner.equals(sharding.getSelf())) {
+                // headers of a ResponseEntity without a body are dropped for emitters
+                response.setHeader("Location", owner + "/turbine-stream/" + cluster);
+                return new ResponseEntity<>(HttpStatus.TEMPORARY_REDIRECT);
+            }
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
 
         final SseEmitter emitter = new SseEmitter(TimeUnit.DAYS.toMillis(45));
 
-        SseEmitterUtil.bindObservable(emitter, clusterMonitor.get().observeJson().takeUntil(shutdown)
-                .subscribeOn(Schedulers.io()));
+        SseEmitterUtil.bindObservable(emitter, clusterMonitor.get().observeTimestampedJson().takeUntil(shutdown)
+                .subscribeOn(Schedulers.io()), stats, Timestamped::getValue,
+                t -> pipelineMetrics.recordFreshness(cluster, stats, t.getTimestampMillis(), System.currentTimeMillis()));
 
         return ResponseEntity.ok(emitter);
     }
@@ -32,12 +32,14 @@ import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
- * Abstract class that calls {@link #getCurrentClusters()} on a schedule
+ * Abstract class that calls {@link #getCurrentClusters()} on a schedule. A cluster whose primary URL changes is removed
+ * and added again with the new URLs, when only its failover URLs change it is reported again with the new ones.
  */
 public abstract class AbstractClusterDiscovery implements ClusterDiscovery {
     private final long updateIntervalMs;
     private final Map<String, Cluster> trackedClusters = Maps.newConcurrentMap();
     private final Observable<Cluster> clusterObservable;
+    private volatile Collection<Cluster> lastClusterList;
 
 
     /**
@@ -50,14 +52,28 @@ public abstract class AbstractClusterDiscovery implements ClusterDiscovery {
 
         clusterObservable = observeUpdateClusters()
                 .retry()
+                .filter(clusterList -> {
+                    // the same instance as last time means nothing changed, skip the diff
+                    boolean changed = clusterList != lastClusterList;
+                    lastClusterList = clusterList;
+                    return changed;
+                })
                 .flatMap(clusterList -> {
                             List<Cluster> updates = Lists.newArrayList();
                             clusterList.stream().forEach(c -> {
                                 // update our tracked clusters for any new or downed clusters
-                                if (trackedClusters.containsKey(c.getName()) && !c.isActive()) {
+                                Cluster tracked = trackedClusters.get(c.getName());
+                                if (tracked != null && !c.isActive()) {
                                     trackedClusters.remove(c.getName());
                                     updates.add(c);
-                                } else if (c.isActive() && !trackedClusters.containsKey(c.getName())) {
+                                } else if (tracked != null && !tracked.getUrls().equals(c.getUrls())) {
+                                    trackedClusters.put(c.getName(), c);
+                                    if(!tracked.getUrl().equals(c.getUrl())) {
+                                        // the primary changed, restart the cluster with the new urls
+                                        updates.add(new Cluster(tracked.getName(), tracked.getUrls(), false));
+                                    }
+                                    updates.add(c);
+                                } else if (c.isActive() && tracked == null) {
                                     trackedClusters.put(c.getName(), c);
                                     updates.add(c);
                                 }
@@ -70,7 +86,7 @@ public abstract class AbstractClusterDiscovery implements ClusterDiscovery {
                             missingClusterNames.stream()
                                     .forEach(name -> {
                                         Cluster c = trackedClusters.get(name);
-                                        updates.add(new Cluster(c.getName(), c.getUrl(), false));
+                                        updates.add(new Cluster(c.getName(), c.getUrls(), false));
                                         trackedClusters.remove(c.getName());
                                     });
 
@@ -78,7 +94,10 @@ public abstract class AbstractClusterDiscovery implements ClusterDiscovery {
                         }
                 )
                 // we want to clear the list when all subscribers are unsubscribed.
-                .doOnUnsubscribe(trackedClusters::clear);
+                .doOnUnsubscribe(() -> {
+                    trackedClusters.clear();
+                    lastClusterList = null;
+                });
     }
 
     @Override
@@ -112,7 +131,8 @@ public abstract class AbstractClusterDiscovery implements ClusterDiscovery {
 
 
     /**
-     * Returns the current list of clusters
+     * Returns the current list of clusters. Returning the same instance as the previous call tells discovery the list
+     * hasn't changed.
      *
      * @return current list of {@link Cluster} objects
      */
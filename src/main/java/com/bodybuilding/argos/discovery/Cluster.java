@@ -16,14 +16,19 @@
 
 package com.bodybuilding.argos.discovery;
 
+import com.google.common.collect.ImmutableList;
+
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 
 /**
- * Name and Turbine URL for a Hystrix Cluster
+ * Name and Turbine URLs for a Hystrix Cluster. A cluster served by several Turbine servers has one URL per server, the
+ * first is the primary and the others are used for hedging and failover.
  */
 public final class Cluster {
     private final String name;
-    private final String url;
+    private final List<String> urls;
     private final boolean active;
 
     public Cluster(String name, String url) {
@@ -31,10 +36,19 @@ public final class Cluster {
     }
 
     public Cluster(String name, String url, boolean active) {
+        this(name, Collections.singletonList(Objects.requireNonNull(url)), active);
+    }
+
+    /**
+     * @param urls Turbine URLs in order of preference, at least one
+     */
+    public Cluster(String name, List<String> urls, boolean active) {
         Objects.requireNonNull(name);
-        Objects.requireNonNull(url);
+        if(urls.isEmpty()) {
+            throw new IllegalArgumentException("A cluster needs at least one URL");
+        }
         this.name = name;
-        this.url = url;
+        this.urls = ImmutableList.copyOf(urls);
         this.active = active;
     }
 
@@ -42,8 +56,18 @@ public final class Cluster {
         return name;
     }
 
+    /**
+     * @return the primary Turbine URL
+     */
     public String getUrl() {
-        return url;
+        return urls.get(0);
+    }
+
+    /**
+     * @return all Turbine URLs, primary first
+     */
+    public List<String> getUrls() {
+        return urls;
     }
 
     public boolean isActive() {
@@ -59,14 +83,14 @@ public final class Cluster {
 
         if (active != cluster.active) return false;
         if (!name.equals(cluster.name)) return false;
-        return url.equals(cluster.url);
+        return urls.equals(cluster.urls);
 
     }
 
     @Override
     public int hashCode() {
         int result = name.hashCode();
-        result = 31 * result + url.hashCode();
+        result = 31 * result + urls.hashCode();
         result = 31 * result + (active ? 1 : 0);
         return result;
     }
@@ -75,7 +99,7 @@ public final class Cluster {
     public String toString() {
         final StringBuilder sb = new StringBuilder("Cluster{");
         sb.append("name='").append(name).append('\'');
-        sb.append(", url='").append(url).append('\'');
+        sb.append(", urls=").append(urls);
         sb.append(", active=").append(active);
         sb.append('}');
         return sb.toString();
@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.discovery;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import rx.Observable;
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Periodically saves the monitored clusters and the latest metrics of each of their commands to a gzipped json file,
+ * so a restarted dashboard can show the last known metrics, flagged as stale, while the turbine connections come up.
+ * Restored clusters that discovery doesn't report within {@code confirm-timeout-ms} are removed again.
+ */
+@Component
+@ConfigurationProperties(prefix = "checkpoint")
+public class ClusterCheckpoint {
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterCheckpoint.class);
+    private static final ObjectMapper om = new ObjectMapper();
+    private static final int VERSION = 1;
+
+    private final Scheduler scheduler;
+    private final Map<String, TrackedCluster> tracked = Maps.newConcurrentMap();
+    private final AtomicReference<Map<String, List<String>>> restoredClusters = new AtomicReference<>();
+    private final Map<String, List<HystrixCommandMetrics>> restoredCommands = Maps.newConcurrentMap();
+    private boolean enabled = false;
+    private String file = "checkpoint.json.gz";
+    private long intervalMs = TimeUnit.SECONDS.toMillis(30); // read by @Scheduled through the placeholder
+    private long maxAgeMs = TimeUnit.MINUTES.toMillis(15);
+    private long confirmTimeoutMs = TimeUnit.SECONDS.toMillis(60);
+
+    public ClusterCheckpoint() {
+        this(Schedulers.computation());
+    }
+
+    @VisibleForTesting
+    ClusterCheckpoint(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Loads the checkpoint saved by a previous run, a missing, unreadable or expired checkpoint is ignored
+     */
+    @PostConstruct
+    public void load() {
+        if(!enabled) {
+            return;
+        }
+        Path path = Paths.get(file);
+        if(!Files.exists(path)) {
+            return;
+        }
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(path))) {
+            load(om.readTree(in), System.currentTimeMillis());
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Ignoring unreadable checkpoint {}", path, e);
+        }
+    }
+
+    @VisibleForTesting
+    void load(JsonNode checkpoint, long now) throws IOException {
+        long savedAt = checkpoint.path("savedAt").asLong();
+        if(checkpoint.path("version").asInt() != VERSION || now - savedAt > maxAgeMs) {
+            LOG.info("Ignoring checkpoint saved at {}", savedAt);
+            return;
+        }
+        Map<String, List<String>> clusters = new LinkedHashMap<>();
+        for (JsonNode cluster : checkpoint.path("clusters")) {
+            String name = cluster.path("name").asText();
+            List<String> urls = Lists.newArrayList();
+            cluster.path("urls").forEach(url -> urls.add(url.asText()));
+            if(urls.isEmpty()) {
+                continue;
+            }
+            clusters.put(name, urls);
+            List<HystrixCommandMetrics> commands = Lists.newArrayList();
+            for (JsonNode event : cluster.path("commands")) {
+                HystrixCommandMetrics command = om.treeToValue(event, HystrixCommandMetrics.class);
+                command.setReceivedAt(event.path("receivedAt").asLong(savedAt));
+                commands.add(command);
+            }
+            if(!commands.isEmpty()) {
+                restoredCommands.put(name, commands);
+            }
+        }
+        restoredClusters.set(clusters);
+        LOG.info("Restored {} clusters from checkpoint saved at {}", clusters.size(), savedAt);
+    }
+
+    /**
+     * Emits the restored clusters followed by the discovered ones. A restored cluster is removed if discovery hasn't
+     * reported it within {@code confirm-timeout-ms}, or replaced if discovery reports different urls. Clusters are
+     * only restored on the first subscribe.
+     * @param discovered clusters from the {@link ClusterDiscovery}
+     * @return
+     */
+    public Observable<Cluster> restore(Observable<Cluster> discovered) {
+        return Observable.defer(() -> {
+            Map<String, List<String>> restored = restoredClusters.getAndSet(null);
+            if(restored == null || restored.isEmpty()) {
+                return discovered;
+            }
+            Map<String, List<String>> unconfirmed = Maps.newConcurrentMap();
+            unconfirmed.putAll(restored);
+
+            Observable<Cluster> confirmed = discovered.concatMap(c -> {
+                List<String> urls = unconfirmed.remove(c.getName());
+                if(urls != null && c.isActive() && !urls.equals(c.getUrls())) {
+                    return Observable.just(new Cluster(c.getName(), urls, false), c);
+                }
+                return Observable.just(c);
+            });
+            Observable<Cluster> expired = Observable.timer(confirmTimeoutMs, TimeUnit.MILLISECONDS, scheduler)
+                    .concatMap(i -> Observable.from(Lists.newArrayList(unconfirmed.keySet())))
+                    .concatMap(name -> {
+                        List<String> urls = unconfirmed.remove(name);
+                        if(urls == null) {
+                            return Observable.empty(); // confirmed in the meantime
+                        }
+                        LOG.info("Removing restored cluster {} that discovery didn't report", name);
+                        return Observable.just(new Cluster(name, urls, false));
+                    });
+
+            return Observable.from(restored.entrySet())
+                    .map(e -> new Cluster(e.getKey(), e.getValue(), true))
+                    .concatWith(confirmed.mergeWith(expired));
+        });
+    }
+
+    /**
+     * Emits the last known metrics of a restored cluster once per second, flagged as stale, until the first live
+     * metrics arrive. Clusters without restored metrics are returned as is.
+     * @param clusterName
+     * @param streamUrl
+     * @param live metrics from the cluster's monitor
+     * @return
+     */
+    public Observable<HystrixClusterMetrics> withLastKnown(String clusterName, String streamUrl,
+                                                           Observable<HystrixClusterMetrics> live) {
+        List<HystrixCommandMetrics> commands = restoredCommands.get(clusterName);
+        if(commands == null) {
+            return live;
+        }
+        HystrixClusterMetrics.Builder builder = HystrixClusterMetrics.Builder.newBuilder(clusterName, streamUrl);
+        commands.forEach(builder::addCommandMetrics);
+        HystrixClusterMetrics lastKnown = builder.build().asStale();
+
+        return live.publish(l -> Observable.interval(0, 1, TimeUnit.SECONDS, scheduler)
+                .map(i -> lastKnown)
+                .takeUntil(l)
+                .mergeWith(l.doOnNext(m -> restoredCommands.remove(clusterName))));
+    }
+
+    /**
+     * Includes a monitored cluster in the checkpoint
+     */
+    public void track(String clusterName, List<String> streamUrls, HystrixClusterMonitor monitor) {
+        tracked.put(clusterName, new TrackedCluster(streamUrls, monitor));
+    }
+
+    /**
+     * Drops a cluster that was removed by discovery from the checkpoint
+     */
+    public void untrack(String clusterName) {
+        tracked.remove(clusterName);
+        restoredCommands.remove(clusterName);
+    }
+
+    @Scheduled(fixedRateString = "${checkpoint.interval-ms:30000}", initialDelayString = "${checkpoint.interval-ms:30000}")
+    @PreDestroy
+    public void write() {
+        if(!enabled) {
+            return;
+        }
+        Path path = Paths.get(file).toAbsolutePath();
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(path.getParent());
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp))) {
+                om.writeValue(out, snapshot(System.currentTimeMillis()));
+            }
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            // a crash never leaves a partial checkpoint, the previous one stays until the rename
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Failed to write checkpoint {}", path, e);
+        }
+    }
+
+    @VisibleForTesting
+    Map<String, Object> snapshot(long now) {
+        List<Map<String, Object>> clusters = Lists.newArrayList();
+        tracked.forEach((name, cluster) -> {
+            Collection<HystrixCommandMetrics> commands = cluster.monitor.getCommandMetrics();
+            if(commands.isEmpty()) {
+                // not connected yet, keep what was restored
+                commands = restoredCommands.getOrDefault(name, Lists.newArrayList());
+            }
+            List<Map<String, Object>> events = Lists.newArrayListWithCapacity(commands.size());
+            commands.forEach(c -> events.add(toEvent(c)));
+            clusters.add(ImmutableMap.of("name", name, "urls", cluster.urls, "commands", events));
+        });
+        return ImmutableMap.of("version", VERSION, "savedAt", now, "clusters", clusters);
+    }
+
+    /**
+     * Converts command metrics back into the turbine event they can be read from
+     */
+    @VisibleForTesting
+    static Map<String, Object> toEvent(HystrixCommandMetrics command) {
+        int hosts = command.getReportingHosts();
+        // the request rate is derived from the rolling window, recover the window that gives the same rate
+        double windowSeconds = command.getRequestRate() > 0 ? command.getRequests() / command.getRequestRate() : 10;
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("name", command.getName());
+        event.put("reportingHosts", hosts);
+        event.put("rollingCountTimeout", command.getTimedOut());
+        event.put("rollingCountFailure", command.getFailed());
+        event.put("rollingCountSuccess", command.getSuccess());
+        event.put("rollingCountShortCircuited", command.getShortCircuited());
+        event.put("rollingCountThreadPoolRejected", command.getRejected());
+        event.put("rollingCountSemaphoreRejected", 0);
+        event.put("propertyValue_metricsRollingStatisticalWindowInMilliseconds", Math.round(windowSeconds * 1000) * hosts);
+        event.put("latencyExecute_mean", Math.round(command.getLatencyMean() * hosts));
+        event.put("receivedAt", command.getReceivedAt());
+        return event;
+    }
+
+    private static final class TrackedCluster {
+        private final List<String> urls;
+        private final HystrixClusterMonitor monitor;
+
+        private TrackedCluster(List<String> urls, HystrixClusterMonitor monitor) {
+            this.urls = urls;
+            this.monitor = monitor;
+        }
+    }
+
+    // these are here for spring
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    public void setIntervalMs(long intervalMs) {
+        this.intervalMs = intervalMs;
+    }
+
+    public long getMaxAgeMs() {
+        return maxAgeMs;
+    }
+
+    public void setMaxAgeMs(long maxAgeMs) {
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    public long getConfirmTimeoutMs() {
+        return confirmTimeoutMs;
+    }
+
+    public void setConfirmTimeoutMs(long confirmTimeoutMs) {
+        this.confirmTimeoutMs = confirmTimeoutMs;
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.discovery;
+
+import com.bodybuilding.argos.sharding.ClusterSharding;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import rx.Observable;
+import rx.subjects.PublishSubject;
+import rx.subjects.SerializedSubject;
+import rx.subjects.Subject;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rolls the metrics of every cluster up into the configured groups and a global total, published once per second as
+ * {@link HystrixClusterMetrics} of type {@code GROUP} and {@code GLOBAL}. Groups are configured as
+ * <code>groups.definitions</code> in the form <code>&lt;group name&gt;|&lt;cluster name regex&gt;</code>, when the regex
+ * has a capturing group each captured value is a group of its own named <code>&lt;group name&gt;:&lt;value&gt;</code>.
+ * A cluster can be in any number of groups.
+ * <p>
+ * Each group keeps a {@link HystrixClusterMetrics.Rollup} of its members that is updated as the member's metrics
+ * arrive, so a tick only builds the groups and doesn't revisit every cluster. With sharding enabled the clusters of
+ * the peers are included. A member that hasn't reported for {@code member-expire-ms} is dropped, stale metrics keep
+ * the member's last live metrics in the group.
+ */
+@Component
+@ConfigurationProperties(prefix = "groups")
+public class ClusterGroups {
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterGroups.class);
+    private static final Splitter DEFINITION_SPLITTER = Splitter.on('|').trimResults().limit(2);
+    static final String GLOBAL_NAME = "global";
+    private static final int RESYNC_TICKS = 60; // rebuild the rollups every minute, so rounding doesn't accumulate
+
+    private final ClusterRegistry clusterRegistry;
+    private final ClusterSharding sharding;
+    private final Observable<Boolean> shutdown;
+    private final ObjectMapper om = new ObjectMapper();
+    private final Subject<HystrixClusterMetrics, HystrixClusterMetrics> rollups =
+            new SerializedSubject<>(PublishSubject.create());
+
+    private final Map<String, Member> members = Maps.newHashMap(); // guarded by this
+    private final Map<String, Group> groups = Maps.newHashMap(); // guarded by this
+    private List<Definition> compiled = Collections.emptyList();
+    private int ticks; // guarded by this
+
+    private List<String> definitions = new ArrayList<>(); // this is set by Spring Boot
+    private boolean global = true;
+    private long memberExpireMs = 30000;
+
+    @Autowired
+    public ClusterGroups(ClusterRegistry clusterRegistry, Observable<Boolean> shutdown, ClusterSharding sharding) {
+        this.clusterRegistry = Objects.requireNonNull(clusterRegistry);
+        this.shutdown = Objects.requireNonNull(shutdown);
+        this.sharding = sharding;
+    }
+
+    @VisibleForTesting
+    ClusterGroups(List<String> definitions, boolean global) {
+        this.clusterRegistry = null;
+        this.shutdown = Observable.never();
+        this.sharding = null;
+        this.definitions = definitions;
+        this.global = global;
+        this.compiled = compile(definitions);
+    }
+
+    @PostConstruct
+    public void start() {
+        compiled = compile(definitions);
+        if(!isEnabled()) {
+            return;
+        }
+        LOG.info("Rolling clusters up into {} group definitions{}", compiled.size(), global ? " and a global total" : "");
+        clusterRegistry.observe()
+                .takeUntil(shutdown)
+                .filter(m -> !m.isStale()) // keep the last live metrics
+                .subscribe(m -> update(m, System.currentTimeMillis()),
+                        t -> LOG.error("Group rollups stopped", t));
+        clusterRegistry.observeRemovals()
+                .takeUntil(shutdown)
+                .subscribe(this::remove);
+        if(sharding != null && sharding.isEnabled()) {
+            sharding.observePeers()
+                    .takeUntil(shutdown)
+                    .subscribe(this::updateFromPeer, t -> LOG.error("Group rollups of peers stopped", t));
+        }
+    }
+
+    private static List<Definition> compile(List<String> definitions) {
+        List<Definition> compiled = Lists.newArrayListWithCapacity(definitions.size());
+        for (String spec : definitions) {
+            List<String> parts = DEFINITION_SPLITTER.splitToList(spec);
+            if(parts.size() != 2 || parts.get(0).isEmpty() || parts.get(1).isEmpty()) {
+                throw new IllegalArgumentException(spec + " is not valid, should be in the form " +
+                        "<group name>|<cluster name regex>");
+            }
+            compiled.add(new Definition(parts.get(0), Pattern.compile(parts.get(1))));
+        }
+        return compiled;
+    }
+
+    /**
+     * @return false when no groups are configured and the global rollup is turned off
+     */
+    public boolean isEnabled() {
+        return global || !compiled.isEmpty();
+    }
+
+    private void updateFromPeer(String json) {
+        try {
+            JsonNode node = om.readTree(json);
+            if(!HystrixClusterMetrics.Type.CLUSTER.name().equals(node.path("type").asText())
+                    || node.path("stale").asBoolean()) {
+                return;
+            }
+            String name = node.path("clusterName").asText();
+            long now = System.currentTimeMillis();
+            update(HystrixClusterMetrics.fromRemote(name, null, node, now), now);
+        } catch (Exception e) {
+            LOG.warn("Could not read peer metrics {}", json, e);
+        }
+    }
+
+    @VisibleForTesting
+    synchronized void update(HystrixClusterMetrics metrics, long now) {
+        Member member = members.get(metrics.getClusterName());
+        if(member == null) {
+            member = new Member(groupsOf(metrics.getClusterName()));
+            members.put(metrics.getClusterName(), member);
+        } else {
+            for (Group group : member.groups) {
+                group.rollup.remove(member.metrics);
+            }
+        }
+        for (Group group : member.groups) {
+            group.rollup.add(metrics);
+        }
+        member.metrics = metrics;
+        member.updated = now;
+    }
+
+    private List<Group> groupsOf(String clusterName) {
+        List<Group> memberOf = Lists.newArrayList();
+        for (Definition definition : compiled) {
+            Matcher m = definition.pattern.matcher(clusterName);
+            if(m.matches()) {
+                String name = m.groupCount() > 0 && m.group(1) != null
+                        ? definition.name + ":" + m.group(1) : definition.name;
+                memberOf.add(groups.computeIfAbsent(name, n -> new Group(n, HystrixClusterMetrics.Type.GROUP)));
+            }
+        }
+        if(global) {
+            memberOf.add(groups.computeIfAbsent(GLOBAL_NAME, n -> new Group(n, HystrixClusterMetrics.Type.GLOBAL)));
+        }
+        return memberOf;
+    }
+
+    /**
+     * Drops a cluster from its groups
+     * @param clusterName
+     */
+    public synchronized void remove(String clusterName) {
+        Member member = members.remove(clusterName);
+        if(member != null) {
+            release(member);
+        }
+    }
+
+    private void release(Member member) {
+        for (Group group : member.groups) {
+            group.rollup.remove(member.metrics);
+            if(group.rollup.getMembers() == 0) {
+                groups.remove(group.name);
+            }
+        }
+    }
+
+    @Scheduled(fixedRate = 1000)
+    public void tick() {
+        if(isEnabled()) {
+            tick(System.currentTimeMillis()).forEach(rollups::onNext);
+        }
+    }
+
+    /**
+     * @return the metrics of every group that has members
+     */
+    @VisibleForTesting
+    synchronized List<HystrixClusterMetrics> tick(long now) {
+        for (Iterator<Member> it = members.values().iterator(); it.hasNext(); ) {
+            Member member = it.next();
+            if(now - member.updated > memberExpireMs) {
+                it.remove();
+                release(member);
+            }
+        }
+        if(++ticks % RESYNC_TICKS == 0) {
+            resync();
+        }
+        List<HystrixClusterMetrics> metrics = Lists.newArrayListWithCapacity(groups.size());
+        groups.values().forEach(g -> metrics.add(g.rollup.build(g.name, g.type)));
+        return metrics;
+    }
+
+    private void resync() {
+        groups.values().forEach(g -> g.rollup = new HystrixClusterMetrics.Rollup());
+        members.values().forEach(m -> m.groups.forEach(g -> g.rollup.add(m.metrics)));
+    }
+
+    /**
+     * Returns the group and global rollups as they are built each second
+     * @return
+     */
+    public Observable<HystrixClusterMetrics> observe() {
+        return rollups;
+    }
+
+    private static final class Definition {
+        private final String name;
+        private final Pattern pattern;
+
+        private Definition(String name, Pattern pattern) {
+            this.name = name;
+            this.pattern = pattern;
+        }
+    }
+
+    private static final class Group {
+        private final String name;
+        private final HystrixClusterMetrics.Type type;
+        private HystrixClusterMetrics.Rollup rollup = new HystrixClusterMetrics.Rollup();
+
+        private Group(String name, HystrixClusterMetrics.Type type) {
+            this.name = name;
+            this.type = type;
+        }
+    }
+
+    private static final class Member {
+        private final List<Group> groups;
+        private HystrixClusterMetrics metrics;
+        private long updated;
+
+        private Member(List<Group> groups) {
+            this.groups = groups;
+        }
+    }
+
+    // these are here for spring
+    public List<String> getDefinitions() {
+        return definitions;
+    }
+
+    public void setDefinitions(List<String> definitions) {
+        Objects.requireNonNull(definitions);
+        this.definitions = definitions;
+    }
+
+    public boolean isGlobal() {
+        return global;
+    }
+
+    public void setGlobal(boolean global) {
+        this.global = global;
+    }
+
+    public long getMemberExpireMs() {
+        return memberExpireMs;
+    }
+
+    public void setMemberExpireMs(long memberExpireMs) {
+        this.memberExpireMs = memberExpireMs;
+    }
+}
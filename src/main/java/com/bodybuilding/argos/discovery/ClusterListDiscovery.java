@@ -16,17 +16,28 @@
 
 package com.bodybuilding.argos.discovery;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.context.properties.ConfigurationProperties;
-import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.client.Netty4ClientHttpRequestFactory;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.web.client.AsyncRestTemplate;
+import rx.Observable;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -34,6 +45,13 @@ import java.util.stream.Collectors;
 /**
  * {@link ClusterDiscovery} implementation that uses ClusterListServlet
  * from the Bodybuilding.com Turbine Plugins.
+ * <p>
+ * All servers are requested concurrently, each with its own deadline. A request that hasn't answered within
+ * {@code hedgeAfterMs} is sent a second time and the first response wins. Responses are requested with
+ * If-None-Match and are only parsed when their content changed, when no server's list changed the previous result is
+ * returned as is so discovery doesn't diff it again. A cluster reported by several servers becomes one cluster with
+ * the turbine URL from each server, the first configured server's URL is the primary. A server that fails keeps
+ * reporting the clusters of its last good response, so an outage doesn't change every cluster's URLs.
  *
  * @see <a href="https://github.com/bbcom/turbine-plugins/">https://github.com/bbcom/turbine-plugins/</a>
  * @see <a href="https://github.com/bbcom/hystrix-dashboard-quickstart">https://github.com/bbcom/hystrix-dashboard-quickstart</a>
@@ -42,24 +60,32 @@ import java.util.stream.Collectors;
 public class ClusterListDiscovery extends AbstractClusterDiscovery {
     private static final long UPDATE_INTERVAL = 10_000;
     private static final Logger LOG = LoggerFactory.getLogger(ClusterListDiscovery.class);
+    private static final ObjectMapper om = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private static final TypeReference<List<ClusterInfo>> CLUSTER_LIST = new TypeReference<List<ClusterInfo>>() {
+    };
+    private final Map<String, ServerState> serverStates = Maps.newConcurrentMap();
     private List<String> servers = new ArrayList<>(); // set by spring boot
-    private RestTemplate restTemplate;
+    private AsyncRestTemplate restTemplate;
+    private long timeoutMs = 5_000;
+    private long hedgeAfterMs = 2_000;
+    private Set<Cluster> lastClusters = Collections.emptySet();
 
     public ClusterListDiscovery() {
         super(UPDATE_INTERVAL, TimeUnit.MILLISECONDS);
         Netty4ClientHttpRequestFactory requestFactory = new Netty4ClientHttpRequestFactory();
         requestFactory.setConnectTimeout(10_000);
         requestFactory.setReadTimeout(10_000);
-        this.restTemplate = new RestTemplate(requestFactory);
+        this.restTemplate = new AsyncRestTemplate(requestFactory);
     }
 
-    public ClusterListDiscovery(RestTemplate restTemplate) {
+    public ClusterListDiscovery(AsyncRestTemplate restTemplate) {
         super(UPDATE_INTERVAL, TimeUnit.MILLISECONDS);
         this.restTemplate = restTemplate;
     }
 
     @VisibleForTesting
-    ClusterListDiscovery(Collection<String> servers, RestTemplate restTemplate) {
+    ClusterListDiscovery(Collection<String> servers, AsyncRestTemplate restTemplate) {
         super(UPDATE_INTERVAL, TimeUnit.MILLISECONDS);
         Objects.requireNonNull(servers);
         LOG.debug("Configured with {}", servers);
@@ -72,35 +98,125 @@ public class ClusterListDiscovery extends AbstractClusterDiscovery {
         if(servers.isEmpty()) {
             LOG.warn("No URLs Configured, is 'turbine.clusterlist.servers' property set?");
         }
-        return servers.stream()
-                .flatMap(u -> getClustersFromURL(u).stream())
+        List<String> urls = new ArrayList<>(servers);
+        List<Set<Cluster>> results = Observable.from(urls)
+                .concatMapEager(this::getClustersFromURL)
+                .toList()
+                .toBlocking()
+                .single();
+
+        boolean changed = false;
+        for (int i = 0; i < urls.size(); i++) {
+            ServerState state = serverStates.computeIfAbsent(urls.get(i), u -> new ServerState());
+            changed |= state.reported != results.get(i);
+            state.reported = results.get(i);
+        }
+        changed |= serverStates.keySet().retainAll(urls);
+        if(changed) {
+            lastClusters = merge(results);
+        }
+        return lastClusters;
+    }
+
+    /**
+     * Merges clusters reported by several servers into one cluster per name with every server's turbine URL, in the
+     * order the servers are configured so the first server is the primary
+     * @param results clusters reported by each server
+     * @return
+     */
+    @VisibleForTesting
+    static Set<Cluster> merge(List<Set<Cluster>> results) {
+        Map<String, Set<String>> urls = Maps.newLinkedHashMap();
+        results.forEach(clusters -> clusters.stream()
+                .sorted(Comparator.comparing(Cluster::getName))
+                .forEach(c -> urls.computeIfAbsent(c.getName(), n -> new LinkedHashSet<>()).addAll(c.getUrls())));
+        return urls.entrySet().stream()
+                .map(e -> new Cluster(e.getKey(), new ArrayList<>(e.getValue()), true))
                 .collect(Collectors.toSet());
     }
 
-    private Collection<Cluster> getClustersFromURL(String url) {
-        Set<Cluster> clusters = new HashSet<>();
+    private Observable<Set<Cluster>> getClustersFromURL(String url) {
+        Observable<Set<Cluster>> request = request(url);
+        if(hedgeAfterMs > 0 && hedgeAfterMs < timeoutMs) {
+            request = Observable.amb(request, Observable.timer(hedgeAfterMs, TimeUnit.MILLISECONDS)
+                    .flatMap(t -> {
+                        LOG.debug("No response from {} after {}ms, hedging", url, hedgeAfterMs);
+                        return request(url);
+                    }));
+        }
+        return request
+                .timeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .onErrorReturn(e -> {
+                    // keep the server's clusters, so its outage doesn't change the urls of every cluster it serves
+                    ServerState state = serverStates.get(url);
+                    Set<Cluster> lastGood = state == null ? null : state.clusters;
+                    LOG.warn("Failed getting clusters from {}, keeping its last {} clusters", url,
+                            lastGood == null ? 0 : lastGood.size(), e);
+                    return lastGood == null ? Collections.emptySet() : lastGood;
+                });
+    }
 
-        try {
-            ResponseEntity<List<ClusterInfo>> response =
-                    restTemplate.exchange(url,
-                            HttpMethod.GET, null, new ParameterizedTypeReference<List<ClusterInfo>>() {
-                            });
+    private Observable<Set<Cluster>> request(String url) {
+        return Observable.defer(() -> {
+            ServerState state = serverStates.computeIfAbsent(url, u -> new ServerState());
+            return exchange(url, state.clusters == null ? null : state.etag)
+                    .concatMap(response -> {
+                        if(response.getStatusCode() == HttpStatus.NOT_MODIFIED && state.clusters == null) {
+                            // nothing was parsed for that etag, ask for the full list
+                            return exchange(url, null);
+                        }
+                        return Observable.just(response);
+                    })
+                    .map(response -> parse(url, state, response));
+        });
+    }
+
+    private Observable<ResponseEntity<String>> exchange(String url, String etag) {
+        HttpHeaders headers = new HttpHeaders();
+        if(etag != null) {
+            headers.setIfNoneMatch(etag);
+        }
+        return toObservable(restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers), String.class));
+    }
+
+    private static Set<Cluster> parse(String url, ServerState state, ResponseEntity<String> response) {
+        if(response.getStatusCode() == HttpStatus.NOT_MODIFIED && state.clusters != null) {
+            return state.clusters;
+        }
+        if (response.getStatusCode().value() != 200) {
+            throw new RuntimeException("Failed to request clusters from " + url + ", return code: " +
+                    response.getStatusCode().value());
+        }
 
-            if (response.getStatusCode().value() != 200) {
-                throw new RuntimeException("Failed to request clusters from " + url + ", return code: " +
-                        response.getStatusCode().value());
-            }
+        String body = Strings.nullToEmpty(response.getBody());
+        HashCode hash = Hashing.murmur3_128().hashString(body, StandardCharsets.UTF_8);
+        if(hash.equals(state.hash) && state.clusters != null) {
+            state.etag = response.getHeaders().getETag();
+            return state.clusters;
+        }
 
-            response.getBody().stream()
+        try {
+            Set<Cluster> clusters = om.<List<ClusterInfo>>readValue(body, CLUSTER_LIST).stream()
                     .filter(c -> !Strings.isNullOrEmpty(c.getName()) && !Strings.isNullOrEmpty(c.getTurbineStream()))
                     .map(c -> new Cluster(c.getName(), c.getTurbineStream()))
-                    .forEach(clusters::add);
-
+                    .collect(Collectors.toSet());
+            state.hash = hash;
+            state.clusters = clusters;
+            state.etag = response.getHeaders().getETag(); // only once its body has been applied
+            return clusters;
         } catch (Exception e) {
-            LOG.warn("Failed getting clusters from {}", url, e);
+            throw new RuntimeException("Failed parsing clusters from " + url, e);
         }
+    }
 
-        return clusters;
+    static <T> Observable<T> toObservable(ListenableFuture<T> future) {
+        return Observable.<T>create(s -> future.addCallback(
+                r -> {
+                    s.onNext(r);
+                    s.onCompleted();
+                },
+                s::onError))
+                .doOnUnsubscribe(() -> future.cancel(true));
     }
 
     /* for spring property injection */
@@ -114,6 +230,30 @@ public class ClusterListDiscovery extends AbstractClusterDiscovery {
         LOG.debug("Configured with {}", servers);
     }
 
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public void setTimeoutMs(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    public long getHedgeAfterMs() {
+        return hedgeAfterMs;
+    }
+
+    public void setHedgeAfterMs(long hedgeAfterMs) {
+        this.hedgeAfterMs = hedgeAfterMs;
+    }
+
+    // last list parsed from a server, which is also used while the server is failing, and the last result used
+    private static final class ServerState {
+        private volatile String etag;
+        private volatile HashCode hash;
+        private volatile Set<Cluster> clusters;
+        private Set<Cluster> reported;
+    }
+
     private static class ClusterInfo {
         private String name;
         private String turbineStream;
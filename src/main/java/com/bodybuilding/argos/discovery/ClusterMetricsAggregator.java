@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.discovery;
+
+import com.bodybuilding.argos.metrics.ClusterPipelineStats;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the latest metrics of each Hystrix command in a cluster and aggregates them into {@link HystrixClusterMetrics}.
+ * Commands that haven't reported for 10 seconds are dropped.
+ * <p>
+ * The number of commands kept is bounded by {@link CommandLimits}. Once the cluster is full, a new command takes the
+ * place of the tracked command with the fewest requests if it has more, at most once per tick, and the evicted command
+ * moves to the overflow. Otherwise its latest event is kept apart, with the same expiry, and all of them are reported as
+ * one {@value #OVERFLOW_COMMAND} command so the cluster totals still include it. The overflow holds as many commands as
+ * the cluster limit, the least recently updated one makes room for a new one and its last window is added to a rolling
+ * sum kept for the rest of its expiry, so memory stays bounded and the totals still count it.
+ */
+final class ClusterMetricsAggregator {
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterMetricsAggregator.class);
+    static final String OVERFLOW_COMMAND = "(other)";
+    private static final int EXPIRE_SECONDS = 10;
+
+    private final String clusterName;
+    private final String streamUrl;
+    private final CommandLimits limits;
+    private final ClusterPipelineStats stats;
+
+    private final Cache<String, HystrixCommandMetrics> commandCache;
+    // latest event of each command that didn't fit, up to the cluster limit
+    private final Cache<String, HystrixCommandMetrics> overflow;
+    private final Ticker ticker;
+    // windows pushed out of the overflow, summed per second for the 10 seconds they would have been kept
+    private final HystrixCommandMetrics[] spilled = new HystrixCommandMetrics[EXPIRE_SECONDS];
+    private final long[] spilledSecond = new long[EXPIRE_SECONDS];
+    private HystrixCommandMetrics evictionCandidate; // tracked command with the fewest requests on the last tick
+    private boolean warned;
+    private boolean closed;
+
+    ClusterMetricsAggregator(String clusterName, String streamUrl) {
+        this(clusterName, streamUrl, Ticker.systemTicker());
+    }
+
+    /**
+     * @param ticker time source for expiring commands, replays use the recorded time
+     */
+    ClusterMetricsAggregator(String clusterName, String streamUrl, Ticker ticker) {
+        this(clusterName, streamUrl, ticker, new CommandLimits(), new ClusterPipelineStats());
+    }
+
+    /**
+     * @param ticker time source for expiring commands, replays use the recorded time
+     * @param limits shared by the clusters the total number of commands is limited across
+     * @param stats where the tracked commands and overflows are recorded
+     */
+    ClusterMetricsAggregator(String clusterName, String streamUrl, Ticker ticker, CommandLimits limits,
+                             ClusterPipelineStats stats) {
+        this.clusterName = clusterName;
+        this.streamUrl = streamUrl;
+        this.limits = limits;
+        this.stats = stats;
+        this.ticker = ticker;
+        this.commandCache = CacheBuilder.newBuilder()
+                .ticker(ticker)
+                .expireAfterWrite(EXPIRE_SECONDS, TimeUnit.SECONDS)
+                .<String, HystrixCommandMetrics>removalListener(n -> {
+                    if(n.getCause() != RemovalCause.REPLACED) {
+                        limits.release();
+                    }
+                })
+                .build();
+        this.overflow = CacheBuilder.newBuilder()
+                .ticker(ticker)
+                .expireAfterWrite(EXPIRE_SECONDS, TimeUnit.SECONDS)
+                .concurrencyLevel(1) // updates are synchronized, one segment makes the size limit exact
+                .maximumSize(Math.max(1, limits.getMaxPerCluster()))
+                .<String, HystrixCommandMetrics>removalListener(n -> {
+                    if(n.getCause() == RemovalCause.SIZE) {
+                        spill(n.getValue());
+                    }
+                })
+                .build();
+        Arrays.fill(spilledSecond, -1);
+    }
+
+    /**
+     * Turbine streams include several event types, only HystrixCommand events are aggregated
+     * @param json
+     * @return
+     */
+    static boolean isCommandEvent(String json) {
+        return json.contains("HystrixCommand") && json.contains("latencyExecute");
+    }
+
+    synchronized void update(HystrixCommandMetrics metrics) {
+        if(closed) {
+            return;
+        }
+        String name = metrics.getName();
+        Map<String, HystrixCommandMetrics> commands = commandCache.asMap();
+        if(commands.replace(name, metrics) != null) {
+            return;
+        }
+        if(commandCache.size() < limits.getMaxPerCluster() && limits.tryAcquire()) {
+            commands.put(name, metrics);
+            overflow.invalidate(name);
+            return;
+        }
+        if(!warned) {
+            warned = true;
+            LOG.warn("Cluster {} has more than {} commands, or the limit of {} across all clusters was reached, " +
+                    "the rest are counted as {}", clusterName, limits.getMaxPerCluster(), limits.getMaxTotal(),
+                    OVERFLOW_COMMAND);
+        }
+        HystrixCommandMetrics candidate = evictionCandidate;
+        if(candidate != null && metrics.getRequests() > candidate.getRequests()) {
+            evictionCandidate = null;
+            HystrixCommandMetrics evicted = commands.remove(candidate.getName());
+            if(evicted != null) {
+                overflow.put(evicted.getName(), evicted); // still counted until it expires
+            }
+            if(commandCache.size() < limits.getMaxPerCluster() && limits.tryAcquire()) {
+                stats.recordCommandEviction();
+                commands.put(name, metrics);
+                overflow.invalidate(name);
+                return;
+            }
+        }
+        stats.recordCommandOverflow();
+        // only the latest event of a command is kept, summing two would count its rolling window twice
+        overflow.put(name, metrics);
+    }
+
+    // adds the last window of a command pushed out of the overflow to the sum of the current second
+    private void spill(HystrixCommandMetrics metrics) {
+        long second = TimeUnit.NANOSECONDS.toSeconds(ticker.read());
+        int bucket = (int) (second % EXPIRE_SECONDS);
+        if(spilledSecond[bucket] != second || spilled[bucket] == null) {
+            spilledSecond[bucket] = second;
+            spilled[bucket] = metrics;
+        } else {
+            spilled[bucket] = HystrixCommandMetrics.combine(OVERFLOW_COMMAND, Arrays.asList(spilled[bucket], metrics));
+        }
+    }
+
+    Collection<HystrixCommandMetrics> getCommandMetrics() {
+        return new ArrayList<>(commandCache.asMap().values());
+    }
+
+    synchronized HystrixClusterMetrics generateMetrics() {
+        commandCache.cleanUp(); // expired commands give their room back
+        overflow.cleanUp();
+        HystrixClusterMetrics.Builder metricsBuilder = new HystrixClusterMetrics.Builder(clusterName, streamUrl);
+
+        HystrixCommandMetrics candidate = null;
+        for (HystrixCommandMetrics command : commandCache.asMap().values()) {
+            metricsBuilder.addCommandMetrics(command);
+            if(candidate == null || command.getRequests() < candidate.getRequests()) {
+                candidate = command;
+            }
+        }
+        evictionCandidate = candidate;
+
+        List<HystrixCommandMetrics> overflowing = new ArrayList<>(overflow.asMap().values());
+        long second = TimeUnit.NANOSECONDS.toSeconds(ticker.read());
+        for (int i = 0; i < EXPIRE_SECONDS; i++) {
+            if(spilled[i] != null && second - spilledSecond[i] < EXPIRE_SECONDS) {
+                overflowing.add(spilled[i]);
+            } else {
+                spilled[i] = null;
+            }
+        }
+        boolean overflowed = !overflowing.isEmpty();
+        if(overflowed) {
+            metricsBuilder.addCommandMetrics(HystrixCommandMetrics.combine(OVERFLOW_COMMAND, overflowing));
+        }
+        stats.setCommands((int) commandCache.size(), overflowed);
+
+        return metricsBuilder.build();
+    }
+
+    /**
+     * Drops the commands, giving their room back to the other clusters
+     */
+    synchronized void close() {
+        closed = true;
+        commandCache.invalidateAll();
+        overflow.invalidateAll();
+        Arrays.fill(spilled, null);
+    }
+}
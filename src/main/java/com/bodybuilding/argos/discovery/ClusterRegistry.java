@@ -16,72 +16,187 @@
 
 package com.bodybuilding.argos.discovery;
 
+import com.bodybuilding.argos.anomaly.AnomalyDetector;
+import com.bodybuilding.argos.metrics.PipelineMetrics;
+import com.bodybuilding.argos.sharding.ClusterSharding;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import rx.Observable;
+import rx.subjects.PublishSubject;
+import rx.subjects.ReplaySubject;
+import rx.subjects.SerializedSubject;
+import rx.subjects.Subject;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 
 /**
- * Registry of all monitored Hystrix clusters, this will merge the metric observables from each cluster.
+ * Registry of all monitored Hystrix clusters, this will merge the metric observables from each cluster. A removed
+ * cluster's monitor is closed and its state released, if the cluster comes back it gets a new monitor. A cluster
+ * reported again with other URLs keeps its monitor if the monitor can take them, otherwise it is restarted.
  */
 @Component
 public class ClusterRegistry {
     private static final Logger LOG = LoggerFactory.getLogger(ClusterRegistry.class);
     private final ClusterDiscovery clusterDiscovery;
-    private final Map<String, HystrixClusterMonitor> monitoredClusters = Maps.newConcurrentMap();
+    private final Map<String, MonitoredCluster> monitoredClusters = Maps.newConcurrentMap();
     private final Observable<HystrixClusterMetrics> mergedMetrics; // metrics from all known clusters
     private final HystrixClusterMonitorFactory clusterMonitorFactory;
+    private final AnomalyDetector anomalyDetector;
+    private final PipelineMetrics pipelineMetrics;
+    private final ClusterCheckpoint checkpoint;
+    private final Subject<String, String> removals = new SerializedSubject<>(PublishSubject.create());
 
 
+    /**
+     * @param anomalyDetector scores each cluster's metrics, may be null
+     * @param pipelineMetrics counts the clusters added and removed, may be null
+     * @param checkpoint restores clusters and their last known metrics on startup, may be null
+     * @param sharding limits the clusters monitored to the ones this node owns, may be null
+     */
     @Autowired
     public ClusterRegistry(ClusterDiscovery clusterDiscovery,
-                           HystrixClusterMonitorFactory clusterMonitorFactory) {
+                           HystrixClusterMonitorFactory clusterMonitorFactory,
+                           AnomalyDetector anomalyDetector,
+                           PipelineMetrics pipelineMetrics,
+                           ClusterCheckpoint checkpoint,
+                           ClusterSharding sharding) {
         Objects.requireNonNull(clusterDiscovery);
         Objects.requireNonNull(clusterMonitorFactory);
         this.clusterDiscovery = clusterDiscovery;
         this.clusterMonitorFactory = clusterMonitorFactory;
+        this.anomalyDetector = anomalyDetector;
+        this.pipelineMetrics = pipelineMetrics;
+        this.checkpoint = checkpoint;
 
         // inspired by com.netflix.turbine.Turbine
         // https://github.com/Netflix/Turbine/commit/10cd853c912442d5d62278cc98c0fac2f33b65b9#diff-6b51f2ba8d8fc42a4e669d2f34205684R105
-        Observable<Cluster> clusters = clusterDiscovery.getClusters().share();
-
-        Observable<Cluster> clusterAdds = clusters.filter(Cluster::isActive);
-
-        Observable<Cluster> clusterRemoves = clusters
-                .filter(c -> !c.isActive());
-
-        Observable<Observable<HystrixClusterMetrics>> clusterObservables = clusterAdds
-                .map(c -> {
-                    if (monitoredClusters.get(c.getName()) != null) {
-                        return monitoredClusters.get(c.getName()).observe();
-                    } else {
-                        HystrixClusterMonitor monitor = clusterMonitorFactory.createMonitor(c.getName(), c.getUrl());
-                        monitoredClusters.put(c.getName(), monitor);
-                        LOG.info("Started monitoring {} | {}", c.getName(), c.getUrl());
-                        return monitor.observe().takeUntil(clusterRemoves.filter(c2 -> {
-                            if(c2.getName().equals(c.getName())) {
-                                LOG.info("Stopping monitoring for {} ", c.getName());
-                                return true;
-                            } else {
-                                return false;
-                            }
-                        }));
-                    }
-                });
-
-        mergedMetrics = Observable.mergeDelayError(clusterObservables.retry()).share();
+        // cluster updates arrive in order on a single stream, so adds and removes don't race each other
+        Observable<Cluster> clusters = checkpoint == null
+                ? clusterDiscovery.getClusters() : checkpoint.restore(clusterDiscovery.getClusters());
+        if(sharding != null) {
+            clusters = sharding.owned(clusters); // restored clusters another node owns are dropped straight away
+        }
+        Observable<Observable<HystrixClusterMetrics>> clusterObservables = clusters
+                .map(c -> c.isActive() ? add(c) : remove(c.getName(), true));
+
+        mergedMetrics = Observable.mergeDelayError(clusterObservables.retry())
+                .doOnUnsubscribe(this::removeAll) // discovery starts over on the next subscribe
+                .share();
+    }
+
+    private Observable<HystrixClusterMetrics> add(Cluster c) {
+        MonitoredCluster existing = monitoredClusters.get(c.getName());
+        if(existing != null) {
+            if(existing.urls.equals(c.getUrls())) {
+                return Observable.empty(); // already merged
+            }
+            if(existing.monitor.updateUrls(c.getUrls())) {
+                existing.urls = c.getUrls();
+                LOG.info("Updated URLs of {} | {}", c.getName(), String.join(" | ", c.getUrls()));
+                if(checkpoint != null) {
+                    checkpoint.track(c.getName(), c.getUrls(), existing.monitor);
+                }
+                return Observable.empty();
+            }
+            remove(c.getName(), true); // the monitor can't change its URLs, restart it
+        }
+        HystrixClusterMonitor monitor = c.getUrls().size() == 1
+                ? clusterMonitorFactory.createMonitor(c.getName(), c.getUrl())
+                : clusterMonitorFactory.createMonitor(c.getName(), c.getUrls());
+        MonitoredCluster cluster = new MonitoredCluster(monitor, c.getUrls());
+        monitoredClusters.put(c.getName(), cluster);
+        LOG.info("Started monitoring {} | {}", c.getName(), String.join(" | ", c.getUrls()));
+        if(pipelineMetrics != null) {
+            pipelineMetrics.clusterAdded();
+        }
+        Observable<HystrixClusterMetrics> metrics = scored(monitor.observe(), anomalyDetector);
+        if(checkpoint != null) {
+            checkpoint.track(c.getName(), c.getUrls(), monitor);
+            metrics = checkpoint.withLastKnown(c.getName(), c.getUrl(), metrics); // stale metrics aren't scored
+        }
+        return metrics.takeUntil(cluster.removed);
+    }
+
+    /**
+     * @param discovered true when discovery removed the cluster, false when the registry is shutting down and the
+     *                   cluster should stay in the checkpoint
+     */
+    private Observable<HystrixClusterMetrics> remove(String clusterName, boolean discovered) {
+        MonitoredCluster cluster = monitoredClusters.remove(clusterName);
+        if(cluster == null) {
+            return Observable.empty();
+        }
+        LOG.info("Stopping monitoring for {} ", clusterName);
+        cluster.removed.onNext(true);
+        cluster.monitor.close();
+        if(anomalyDetector != null) {
+            anomalyDetector.reset(clusterName);
+        }
+        if(pipelineMetrics != null) {
+            pipelineMetrics.clusterRemoved(clusterName);
+        }
+        if(checkpoint != null && discovered) {
+            checkpoint.untrack(clusterName);
+        }
+        removals.onNext(clusterName);
+        return Observable.empty();
+    }
+
+    private void removeAll() {
+        monitoredClusters.keySet().forEach(name -> remove(name, false));
+    }
+
+    // scoring is done per cluster so each cluster's baseline is only updated from that cluster's stream
+    private static Observable<HystrixClusterMetrics> scored(Observable<HystrixClusterMetrics> metrics,
+                                                            AnomalyDetector anomalyDetector) {
+        return anomalyDetector == null ? metrics : metrics.map(m -> m.isStale() ? m : anomalyDetector.score(m));
     }
 
     public Observable<HystrixClusterMetrics> observe() {
         return mergedMetrics;
     }
+
+    /**
+     * Returns the names of clusters as they are removed, so per cluster state outside the registry can be released
+     * @return
+     */
+    public Observable<String> observeRemovals() {
+        return removals;
+    }
+
     public Optional<HystrixClusterMonitor> getCluster(String clusterName) {
-        return Optional.ofNullable(monitoredClusters.get(clusterName));
+        return Optional.ofNullable(monitoredClusters.get(clusterName)).map(c -> c.monitor);
+    }
+
+    /**
+     * @return names of the clusters currently monitored
+     */
+    public Set<String> getClusterNames() {
+        return ImmutableSet.copyOf(monitoredClusters.keySet());
+    }
+
+    @VisibleForTesting
+    int getMonitoredClusterCount() {
+        return monitoredClusters.size();
+    }
+
+    private static final class MonitoredCluster {
+        private final HystrixClusterMonitor monitor;
+        private final Subject<Boolean, Boolean> removed = new SerializedSubject<>(ReplaySubject.createWithSize(1));
+        private volatile List<String> urls;
+
+        private MonitoredCluster(HystrixClusterMonitor monitor, List<String> urls) {
+            this.monitor = monitor;
+            this.urls = urls;
+        }
     }
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.discovery;
+
+import com.google.common.collect.Lists;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds the number of Hystrix commands Argos keeps metrics for, {@code max-per-cluster} in each cluster and
+ * {@code max-total} across all of them. A service that puts request ids in its command names would otherwise grow a
+ * cluster's commands without bound. Commands past the limits are summed into an overflow command, see
+ * {@link ClusterMetricsAggregator}.
+ */
+@Component
+@ConfigurationProperties(prefix = "turbine.commands")
+public class CommandLimits implements PublicMetrics {
+    private final AtomicInteger tracked = new AtomicInteger();
+
+    private int maxPerCluster = 2000;
+    private int maxTotal = 100000;
+
+    /**
+     * Reserves room for a command across all clusters
+     * @return false when {@code max-total} commands are already tracked
+     */
+    boolean tryAcquire() {
+        while (true) {
+            int current = tracked.get();
+            if(current >= maxTotal) {
+                return false;
+            }
+            if(tracked.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void release() {
+        tracked.decrementAndGet();
+    }
+
+    /**
+     * @return commands tracked across all clusters
+     */
+    public int getTracked() {
+        return tracked.get();
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = Lists.newArrayList();
+        metrics.add(new Metric<>("argos.commands.tracked", getTracked()));
+        metrics.add(new Metric<>("argos.commands.max-total", maxTotal));
+        return metrics;
+    }
+
+    /* for spring property injection */
+    public int getMaxPerCluster() {
+        return maxPerCluster;
+    }
+
+    public void setMaxPerCluster(int maxPerCluster) {
+        this.maxPerCluster = maxPerCluster;
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    public void setMaxTotal(int maxTotal) {
+        this.maxTotal = maxTotal;
+    }
+}
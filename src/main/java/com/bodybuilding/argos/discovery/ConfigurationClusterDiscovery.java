@@ -18,23 +18,47 @@ package com.bodybuilding.argos.discovery;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.env.PropertiesPropertySourceLoader;
+import org.springframework.boot.env.PropertySourceLoader;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.util.StringUtils;
 import rx.Observable;
+import rx.schedulers.Schedulers;
+import rx.subscriptions.Subscriptions;
 
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
  * {@link ClusterDiscovery} implementation that returns list of clusters from a configuration file.
- * This does not currently support updating the configuration at runtime
+ * <p>
+ * When {@code turbine.config-file} is set that file is watched and <code>turbine.servers</code> is read again every
+ * time it changes. Only the clusters that were added, removed or changed URL are emitted so the streams of the other
+ * clusters aren't disturbed.
  */
 @ConfigurationProperties(prefix="turbine")
 public class ConfigurationClusterDiscovery implements ClusterDiscovery {
     private static final Logger LOG = LoggerFactory.getLogger(ConfigurationClusterDiscovery.class);
     private static final Splitter CLUSTER_SPLITTER = Splitter.on('|').omitEmptyStrings().trimResults();
+    private static final String SERVERS_PROPERTY = "turbine.servers";
+    private static final long SETTLE_MS = 500; // editors often write a file in several steps
     private List<String> servers = new ArrayList<>(); // this is set by Spring Boot
+    private String configFile;
 
 
     public ConfigurationClusterDiscovery() {
@@ -45,9 +69,33 @@ public class ConfigurationClusterDiscovery implements ClusterDiscovery {
         this.servers = new ArrayList<>(servers);
     }
 
+    @VisibleForTesting
+    ConfigurationClusterDiscovery(List<String> servers, String configFile) {
+        this.servers = new ArrayList<>(servers);
+        this.configFile = configFile;
+    }
+
     @Override
     public Observable<Cluster> getClusters() {
-        return Observable.from(getCurrentClusters()).concatWith(Observable.never());
+        if(StringUtils.isEmpty(configFile)) {
+            return Observable.from(getCurrentClusters()).concatWith(Observable.never());
+        }
+
+        Path file = Paths.get(configFile).toAbsolutePath();
+        return Observable.defer(() -> {
+            Map<String, Cluster> current = Maps.newHashMap(); // only touched from the serialized update stream
+            Observable<List<String>> reloads = watch(file)
+                    .debounce(SETTLE_MS, TimeUnit.MILLISECONDS)
+                    .map(f -> readServers(f))
+                    .filter(Objects::nonNull)
+                    .onErrorResumeNext(t -> {
+                        LOG.error("Stopped watching {}, restart to pick up changes", file, t);
+                        return Observable.never();
+                    });
+            return Observable.just(servers)
+                    .concatWith(reloads)
+                    .concatMap(list -> Observable.from(diff(current, parseClusters(list))));
+        });
     }
 
     public Collection<Cluster> getCurrentClusters() {
@@ -58,14 +106,131 @@ public class ConfigurationClusterDiscovery implements ClusterDiscovery {
                 .collect(Collectors.toSet());
     }
 
+    private Collection<Cluster> parseClusters(List<String> servers) {
+        // the first entry wins when a name is configured more than once
+        Map<String, Cluster> clusters = Maps.newLinkedHashMap();
+        servers.stream()
+                .map(this::parseCluster).filter(Objects::nonNull)
+                .forEach(c -> clusters.putIfAbsent(c.getName(), c));
+        return clusters.values();
+    }
+
     private Cluster parseCluster(String s) {
         List<String> clusterInfo = CLUSTER_SPLITTER.splitToList(s);
-        if (clusterInfo.size() != 2) {
-            LOG.warn("{} is not valid, should be in the form <cluster name>|<cluster url>", s);
+        if (clusterInfo.size() < 2 || !clusterInfo.stream().skip(1).allMatch(u -> u.contains(":"))) {
+            LOG.warn("{} is not valid, should be in the form <cluster name>|<cluster url>[|<failover url>...]", s);
             return null;
         } else {
-            return new Cluster(clusterInfo.get(0), clusterInfo.get(1));
+            return new Cluster(clusterInfo.get(0), clusterInfo.subList(1, clusterInfo.size()), true);
+        }
+    }
+
+    /**
+     * Updates the current clusters and returns the changes. A cluster whose primary URL changed is removed then added
+     * again, one whose failover URLs changed is only added again so its monitor can update the URLs in place.
+     * @param current clusters by name, updated in place
+     * @param updated latest clusters
+     * @return removed clusters with active=false followed by updated and added clusters
+     */
+    @VisibleForTesting
+    static List<Cluster> diff(Map<String, Cluster> current, Collection<Cluster> updated) {
+        Map<String, Cluster> latest = Maps.newLinkedHashMap();
+        updated.forEach(c -> latest.put(c.getName(), c));
+
+        List<Cluster> changes = Lists.newArrayList();
+        List<Cluster> failoverChanges = Lists.newArrayList();
+        for (Iterator<Cluster> it = current.values().iterator(); it.hasNext();) {
+            Cluster c = it.next();
+            Cluster next = latest.get(c.getName());
+            if(next != null && next.getUrl().equals(c.getUrl())) {
+                if(!next.equals(c)) {
+                    failoverChanges.add(next);
+                }
+            } else {
+                changes.add(new Cluster(c.getName(), c.getUrls(), false));
+                it.remove();
+            }
+        }
+        failoverChanges.forEach(c -> {
+            changes.add(c);
+            current.put(c.getName(), c);
+        });
+        latest.values().stream()
+                .filter(c -> !current.containsKey(c.getName()))
+                .forEach(c -> {
+                    changes.add(c);
+                    current.put(c.getName(), c);
+                });
+        if(!changes.isEmpty()) {
+            LOG.info("Cluster configuration changed: {}", changes);
         }
+        return changes;
+    }
+
+    /**
+     * Reads turbine.servers from a yaml or properties file
+     * @param file
+     * @return servers or null if the file can't be read or doesn't set turbine.servers
+     */
+    @VisibleForTesting
+    static List<String> readServers(Path file) {
+        String name = file.getFileName().toString();
+        PropertySourceLoader loader = name.endsWith(".yml") || name.endsWith(".yaml")
+                ? new YamlPropertySourceLoader() : new PropertiesPropertySourceLoader();
+        try {
+            PropertySource<?> source = loader.load(name, new FileSystemResource(file.toFile()), null);
+            if(source == null) {
+                LOG.warn("{} is empty, keeping the current clusters", file);
+                return null;
+            }
+            List<String> servers = Lists.newArrayList();
+            for (int i = 0; source.containsProperty(SERVERS_PROPERTY + "[" + i + "]"); i++) {
+                servers.add(String.valueOf(source.getProperty(SERVERS_PROPERTY + "[" + i + "]")));
+            }
+            if(servers.isEmpty()) {
+                if(!source.containsProperty(SERVERS_PROPERTY)) {
+                    LOG.warn("{} doesn't set {}, keeping the current clusters", file, SERVERS_PROPERTY);
+                    return null;
+                }
+                servers.addAll(StringUtils.commaDelimitedListToSet(String.valueOf(source.getProperty(SERVERS_PROPERTY))));
+            }
+            return servers;
+        } catch (Exception e) {
+            LOG.warn("Failed reading {}, keeping the current clusters", file, e);
+            return null;
+        }
+    }
+
+    // emits the file every time it is created or modified, on its own thread since WatchService blocks
+    private static Observable<Path> watch(Path file) {
+        return Observable.<Path>create(subscriber -> {
+            try {
+                WatchService watcher = file.getFileSystem().newWatchService();
+                subscriber.add(Subscriptions.create(() -> {
+                    try {
+                        watcher.close();
+                    } catch (IOException e) {
+                        LOG.debug("Failed closing watcher for {}", file, e);
+                    }
+                }));
+                file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                LOG.info("Watching {} for cluster changes", file);
+                while (!subscriber.isUnsubscribed()) {
+                    WatchKey key = watcher.take();
+                    boolean changed = key.pollEvents().stream()
+                            .anyMatch(e -> file.getFileName().equals(e.context()));
+                    key.reset();
+                    if(changed) {
+                        subscriber.onNext(file);
+                    }
+                }
+            } catch (ClosedWatchServiceException | InterruptedException e) {
+                // unsubscribed
+            } catch (IOException e) {
+                subscriber.onError(e);
+            }
+        }).subscribeOn(Schedulers.newThread());
     }
 
 
@@ -78,4 +243,12 @@ public class ConfigurationClusterDiscovery implements ClusterDiscovery {
         Objects.requireNonNull(servers);
         this.servers = servers;
     }
+
+    public String getConfigFile() {
+        return configFile;
+    }
+
+    public void setConfigFile(String configFile) {
+        this.configFile = configFile;
+    }
 }
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.discovery;
+
+import com.bodybuilding.argos.metrics.ConnectStats;
+import com.bodybuilding.argos.metrics.PipelineMetrics;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import rx.Observable;
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+import rx.subscriptions.Subscriptions;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Admits connects to Turbine so a deploy or a large discovery update doesn't open every connection at once. At most
+ * {@code max-concurrent} connects are in flight, connects to the same host are spaced {@code 1 / per-host-rate}
+ * seconds apart, and failed connections back off with decorrelated jitter so they don't come back in lockstep.
+ * A connect is in flight until its response headers arrive.
+ */
+@Component
+@ConfigurationProperties(prefix = "turbine.connect")
+public class ConnectionAdmission {
+    private final ConnectStats stats;
+    private final Scheduler scheduler;
+    private final Scheduler.Worker worker;
+    private final Random random = new Random();
+
+    private final Object lock = new Object();
+    private final Deque<Pending> queue = new ArrayDeque<>(); // guarded by lock
+    private final Map<String, Long> nextSlot = Maps.newHashMap(); // guarded by lock, earliest next connect per host
+    private int inFlight; // guarded by lock
+    private long drainScheduledAt = Long.MAX_VALUE; // guarded by lock
+
+    private int maxConcurrent = 20;
+    private double perHostRate = 5;
+    private long backoffBaseMs = 2000;
+    private long backoffMaxMs = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Admission for a single monitor, with the default limits and its own stats
+     */
+    public ConnectionAdmission() {
+        this(new ConnectStats(), Schedulers.computation());
+    }
+
+    @Autowired
+    public ConnectionAdmission(PipelineMetrics pipelineMetrics) {
+        this(pipelineMetrics.forConnects(), Schedulers.computation());
+    }
+
+    @VisibleForTesting
+    ConnectionAdmission(ConnectStats stats, Scheduler scheduler) {
+        this.stats = stats;
+        this.scheduler = scheduler;
+        this.worker = scheduler.createWorker();
+    }
+
+    /**
+     * Returns an Observable that subscribes to {@code connect} once it is admitted. The connect holds its slot until
+     * it emits the response, fails, completes or is unsubscribed.
+     * @param host host and port the connect goes to, rate limits are per host
+     * @param connect
+     * @return
+     */
+    public <T> Observable<T> admit(String host, Observable<T> connect) {
+        return Observable.create(subscriber -> {
+            Pending pending = new Pending(host, scheduler.now());
+            pending.start = () -> {
+                long startedAt = scheduler.now();
+                AtomicBoolean finished = new AtomicBoolean();
+                stats.started();
+                connect.doOnNext(r -> {
+                            if(finished.compareAndSet(false, true)) {
+                                stats.succeeded(scheduler.now() - startedAt);
+                                release();
+                            }
+                        })
+                        .doOnTerminate(() -> {
+                            if(finished.compareAndSet(false, true)) {
+                                stats.failed();
+                                release();
+                            }
+                        })
+                        .doOnUnsubscribe(() -> {
+                            if(finished.compareAndSet(false, true)) {
+                                stats.aborted();
+                                release();
+                            }
+                        })
+                        .unsafeSubscribe(subscriber);
+            };
+            subscriber.add(Subscriptions.create(() -> cancel(pending)));
+            synchronized (lock) {
+                queue.add(pending);
+            }
+            stats.queued();
+            drain();
+        });
+    }
+
+    /**
+     * Returns the time to wait before reconnecting, random between the base and three times the previous wait
+     * ("decorrelated jitter"), so failures spread out instead of retrying together
+     * @param previousMs previous wait, 0 for the first retry
+     * @return
+     */
+    public long nextBackoffMs(long previousMs) {
+        long upper = Math.max(backoffBaseMs, previousMs * 3);
+        double jitter;
+        synchronized (random) {
+            jitter = random.nextDouble();
+        }
+        return Math.min(backoffMaxMs, backoffBaseMs + (long) (jitter * (upper - backoffBaseMs)));
+    }
+
+    private void cancel(Pending pending) {
+        boolean removed;
+        synchronized (lock) {
+            removed = queue.remove(pending);
+        }
+        if(removed) {
+            stats.dequeued(scheduler.now() - pending.queuedAt);
+        }
+    }
+
+    private void release() {
+        synchronized (lock) {
+            inFlight--;
+        }
+        drain();
+    }
+
+    private void drain() {
+        List<Pending> admitted = Lists.newArrayList();
+        long now = scheduler.now();
+        synchronized (lock) {
+            long spacingMs = perHostRate > 0 ? (long) (1000 / perHostRate) : 0;
+            long nextDrain = Long.MAX_VALUE;
+            Iterator<Pending> it = queue.iterator();
+            while (it.hasNext() && inFlight < maxConcurrent) {
+                Pending pending = it.next();
+                long slot = nextSlot.getOrDefault(pending.host, 0L);
+                if(slot > now) {
+                    nextDrain = Math.min(nextDrain, slot); // other hosts can still go ahead
+                    continue;
+                }
+                it.remove();
+                inFlight++;
+                nextSlot.put(pending.host, now + spacingMs);
+                admitted.add(pending);
+            }
+            if(queue.isEmpty()) {
+                nextSlot.values().removeIf(slot -> slot <= now);
+            }
+            if(nextDrain < drainScheduledAt) {
+                drainScheduledAt = nextDrain;
+                worker.schedule(() -> {
+                    synchronized (lock) {
+                        drainScheduledAt = Long.MAX_VALUE;
+                    }
+                    drain();
+                }, nextDrain - now, TimeUnit.MILLISECONDS);
+            }
+        }
+        // connects are started outside the lock, a connect that fails immediately releases and drains again
+        for (Pending pending : admitted) {
+            stats.dequeued(now - pending.queuedAt);
+            pending.start.run();
+        }
+    }
+
+    @VisibleForTesting
+    ConnectStats getStats() {
+        return stats;
+    }
+
+    private static final class Pending {
+        private final String host;
+        private final long queuedAt;
+        private Runnable start;
+
+        private Pending(String host, long queuedAt) {
+            this.host = host;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    // these are here for spring
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public void setMaxConcurrent(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    public double getPerHostRate() {
+        return perHostRate;
+    }
+
+    public void setPerHostRate(double perHostRate) {
+        this.perHostRate = perHostRate;
+    }
+
+    public long getBackoffBaseMs() {
+        return backoffBaseMs;
+    }
+
+    public void setBackoffBaseMs(long backoffBaseMs) {
+        this.backoffBaseMs = backoffBaseMs;
+    }
+
+    public long getBackoffMaxMs() {
+        return backoffMaxMs;
+    }
+
+    public void setBackoffMaxMs(long backoffMaxMs) {
+        this.backoffMaxMs = backoffMaxMs;
+    }
+}
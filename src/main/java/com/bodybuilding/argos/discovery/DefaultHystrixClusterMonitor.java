@@ -16,67 +16,139 @@
 
 package com.bodybuilding.argos.discovery;
 
+import com.bodybuilding.argos.aggregation.AggregationWorkers;
+import com.bodybuilding.argos.capture.SegmentWriter;
+import com.bodybuilding.argos.metrics.ClusterPipelineStats;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
 import io.netty.buffer.ByteBuf;
-import io.reactivex.netty.RxNetty;
+import io.netty.channel.Channel;
 import io.reactivex.netty.pipeline.PipelineConfigurators;
 import io.reactivex.netty.protocol.http.client.HttpClient;
 import io.reactivex.netty.protocol.http.client.HttpClientRequest;
+import io.reactivex.netty.protocol.http.client.HttpClientResponse;
 import io.reactivex.netty.protocol.http.sse.ServerSentEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rx.Observable;
+import rx.functions.Action0;
+import rx.schedulers.Timestamped;
+import rx.subjects.BehaviorSubject;
+import rx.subjects.ReplaySubject;
+import rx.subjects.SerializedSubject;
+import rx.subjects.Subject;
+import rx.subscriptions.Subscriptions;
 
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
 
 /**
  * Connects to a turbine stream and aggregates data from multiple hystrix commands within a single hystrix cluster.
+ * A cluster with several turbine URLs connects to the preferred one and hedges to the next if no event arrives within
+ * {@code turbine.stream.hedge-after-ms} of connecting. A stalled or failed connection fails over to the next URL straight away, only
+ * once every URL has failed in a row does it back off. The aggregated commands are kept across failovers.
+ * A connection is considered stalled once it goes quiet for a few multiples of the cluster's normal gap between
+ * events, see {@link StallDetector}. Until it's streaming again the last metrics are repeated flagged as stale.
+ * Given {@link AggregationWorkers} the parsing and aggregation run on the cluster's worker thread instead of the
+ * thread receiving the stream.
  */
 public final class DefaultHystrixClusterMonitor implements HystrixClusterMonitor {
     private static final Logger LOG = LoggerFactory.getLogger(DefaultHystrixClusterMonitor.class);
     private static final ObjectMapper om = new ObjectMapper();
     private final String clusterName;
-    private final URL url;
+    private final URL url; // primary
+    private volatile List<URL> urls;
+    private final ClusterPipelineStats stats;
+    private final SegmentWriter recorder;
+    private final ConnectionAdmission admission;
+    private final StreamTimeouts timeouts;
+    private final AggregationWorkers workers;
 
-    private final Cache<String, HystrixCommandMetrics> commandCache = CacheBuilder.newBuilder()
-            .expireAfterWrite(10, TimeUnit.SECONDS)
-            .build();
+    private final ClusterMetricsAggregator aggregator;
+    private final StallDetector stallDetector;
+    private final Subject<Boolean, Boolean> closed = new SerializedSubject<>(ReplaySubject.createWithSize(1));
+    private final Subject<Boolean, Boolean> stale = new SerializedSubject<>(BehaviorSubject.create(false));
+    private volatile HystrixClusterMetrics lastMetrics;
 
-    private Observable<String> jsonObservable;
+    private Observable<Timestamped<String>> jsonObservable;
 
     private volatile Observable<HystrixClusterMetrics> observable = null;
 
     public DefaultHystrixClusterMonitor(String clusterName, String streamUrl) throws MalformedURLException {
+        this(clusterName, Collections.singletonList(streamUrl), new ClusterPipelineStats(), null, null, null, null,
+                null);
+    }
+
+    /**
+     * @param streamUrls turbine URLs serving the same cluster, in order of preference
+     * @param stats where the stream and aggregation stats are recorded
+     * @param recorder captures the raw stream when set, may be null
+     * @param admission limits connects across monitors, when null this monitor only backs off on its own
+     * @param timeouts stall and hedge timeouts, when null the defaults
+     * @param workers aggregates on the cluster's worker thread, when null or disabled on the stream's thread
+     * @param commandLimits limits the commands tracked across monitors, when null only this cluster is limited
+     */
+    public DefaultHystrixClusterMonitor(String clusterName, List<String> streamUrls, ClusterPipelineStats stats,
+                                        SegmentWriter recorder, ConnectionAdmission admission,
+                                        StreamTimeouts timeouts, AggregationWorkers workers,
+                                        CommandLimits commandLimits)
+            throws MalformedURLException {
         this.clusterName = clusterName;
-        this.url = new URL(streamUrl);
+        this.recorder = recorder;
+        this.admission = admission == null ? new ConnectionAdmission() : admission;
+        this.timeouts = timeouts == null ? new StreamTimeouts() : timeouts;
+        this.workers = workers;
+        List<URL> parsed = Lists.newArrayListWithCapacity(streamUrls.size());
+        for (String streamUrl : streamUrls) {
+            parsed.add(new URL(streamUrl));
+        }
+        this.urls = Collections.unmodifiableList(parsed);
+        this.url = urls.get(0);
+        this.stats = Objects.requireNonNull(stats);
+        this.aggregator = new ClusterMetricsAggregator(clusterName, url.toExternalForm(), Ticker.systemTicker(),
+                commandLimits == null ? new CommandLimits() : commandLimits, stats);
+        this.stallDetector = new StallDetector(this.timeouts.getStallGapMultiple(), this.timeouts.getStallFloorMs(),
+                this.timeouts.getStallTimeoutMs());
+        stats.setStallAfterMs(stallDetector.getStallAfterMs());
     }
 
     @Override
-    public Observable<HystrixClusterMetrics> observe() {
+    public synchronized Observable<HystrixClusterMetrics> observe() {
         if(observable != null) {
             return observable;
         }
 
-        observable = observeJson()
-                .filter(s -> s.contains("HystrixCommand") && s.contains("latencyExecute"))// we get multiple event types, make sure this is a HystrixCommand event
-                .map(this::jsonToMetrics)
+        Observable<HystrixClusterMetrics> live;
+        if(workers != null && workers.isEnabled()) {
+            live = workers.aggregate(clusterName, observeTimestampedJson(), this::onFrame, this::generateMetrics,
+                    stats);
+        } else {
+            live = observeTimestampedJson()
+                    .doOnNext(this::onFrame)
+                    .sample(1, TimeUnit.SECONDS) // generate metrics once per second
+                    .map(f -> this.generateMetrics());
+        }
+        // while the stream is down clients keep getting the last metrics, flagged so they aren't taken as current
+        Observable<HystrixClusterMetrics> lastKnown = stale.distinctUntilChanged()
+                .switchMap(s -> s ? Observable.interval(0, 1, TimeUnit.SECONDS) : Observable.<Long>empty())
+                .map(i -> lastMetrics)
                 .filter(Objects::nonNull)
-                .doOnEach(n -> {
-                    HystrixCommandMetrics metrics = (HystrixCommandMetrics) n.getValue();
-                    if(n.getThrowable() != null) {
-                        LOG.warn("Error processing metrics", n.getThrowable());
-                    } else if(metrics != null) {
-                        commandCache.put(metrics.getName(), metrics);
-                    }
-                })
-                .sample(1, TimeUnit.SECONDS) // generate metrics once per second
-                .map(f -> this.generateMetrics())
+                .map(HystrixClusterMetrics::asStale)
+                .takeUntil(closed);
+
+        observable = live.mergeWith(lastKnown)
                 .takeUntil(f -> observable == null)
                 .retry((i, t) -> {
                     LOG.error("Error streaming from server", t);
@@ -86,21 +158,34 @@ public final class DefaultHystrixClusterMonitor implements HystrixClusterMonitor
         return observable;
     }
 
-    private HystrixClusterMetrics generateMetrics() {
-        HystrixClusterMetrics.Builder metricsBuilder = new HystrixClusterMetrics.Builder(clusterName, url.toExternalForm());
-
-        commandCache.asMap().values()
-                .stream()
-                .forEach(metricsBuilder::addCommandMetrics);
+    private void onFrame(Timestamped<String> json) {
+        // we get multiple event types, make sure this is a HystrixCommand event
+        if(!ClusterMetricsAggregator.isCommandEvent(json.getValue())) {
+            return;
+        }
+        HystrixCommandMetrics metrics = jsonToMetrics(json);
+        if(metrics != null) {
+            aggregator.update(metrics);
+        }
+    }
 
-        return metricsBuilder.build();
+    private HystrixClusterMetrics generateMetrics() {
+        long start = System.nanoTime();
+        HystrixClusterMetrics metrics = aggregator.generateMetrics();
+        stats.recordTick(System.nanoTime() - start);
+        lastMetrics = metrics;
+        return metrics;
     }
 
-    private HystrixCommandMetrics jsonToMetrics(String json) {
+    private HystrixCommandMetrics jsonToMetrics(Timestamped<String> json) {
         HystrixCommandMetrics metrics = null;
+        long start = System.nanoTime();
         try {
-            metrics = om.readValue(json, HystrixCommandMetrics.class);
+            metrics = om.readValue(json.getValue(), HystrixCommandMetrics.class);
+            metrics.setReceivedAt(json.getTimestampMillis());
+            stats.recordParse(System.nanoTime() - start);
         } catch (Exception e) {
+            stats.recordParseError();
             LOG.warn("Exception parsing json", e);
         }
         return metrics;
@@ -108,43 +193,238 @@ public final class DefaultHystrixClusterMonitor implements HystrixClusterMonitor
 
     @Override
     public Observable<String> observeJson() {
+        return observeTimestampedJson().map(Timestamped::getValue);
+    }
+
+    @Override
+    public synchronized Observable<Timestamped<String>> observeTimestampedJson() {
         if(jsonObservable != null) {
             return jsonObservable;
         }
 
-        HttpClientRequest<ByteBuf> request = HttpClientRequest.createGet(url.getPath() + "?" + url.getQuery());
-        int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
-        HttpClient<ByteBuf, ServerSentEvent> client = RxNetty.<ByteBuf, ServerSentEvent>newHttpClientBuilder(url.getHost(), port)
-                .withNoConnectionPooling()
-                .pipelineConfigurator(PipelineConfigurators.<ByteBuf>clientSseConfigurator())
-                .build();
+        AtomicLong backoffMs = new AtomicLong(); // reset once connected
+        AtomicInteger failures = new AtomicInteger(); // failed attempts in a row, reset once connected
+        AtomicInteger preferred = new AtomicInteger(); // endpoint the next attempt connects to first
+        AtomicInteger connected = new AtomicInteger(-1); // endpoint the current attempt is streaming from
+        IntConsumer onConnected = endpoint -> {
+            connected.set(endpoint);
+            failures.set(0);
+            backoffMs.set(0);
+            stale.onNext(false);
+        };
+
+        Observable<Timestamped<String>> events = Observable.defer(() -> {
+                    connected.set(-1);
+                    return hedged(preferred.get(), onConnected);
+                })
+                .retryWhen(attempts -> attempts.flatMap(t -> {
+                            stats.recordReconnect();
+                            if(connected.get() >= 0) {
+                                stale.onNext(true);
+                            }
+                            // the next attempt starts with the endpoint after the one that failed
+                            List<URL> endpoints = urls;
+                            int failed = connected.get() >= 0 ? connected.get() : preferred.get();
+                            preferred.set((failed + 1) % endpoints.size());
+                            if(failures.incrementAndGet() < endpoints.size()) {
+                                LOG.info("Turbine => Failing over to: " + endpoints.get(preferred.get()));
+                                return Observable.just(0L);
+                            }
+                            long waitMs = admission.nextBackoffMs(backoffMs.get());
+                            backoffMs.set(waitMs);
+                            LOG.info("Turbine => Retrying connection to: " + endpoints.get(preferred.get())
+                                    + " in {} ms", waitMs);
+                            return Observable.timer(waitMs, TimeUnit.MILLISECONDS);
+                        })
+                )
+                .repeatWhen(completed -> completed.doOnNext(c -> stats.recordReconnect()))
+                .takeUntil(closed);
+
+        if(recorder != null) {
+            events = events.doOnNext(t -> recorder.write(t.getTimestampMillis(), t.getValue()))
+                    .doOnUnsubscribe(recorder::close);
+        }
+        jsonObservable = events.share();
+
+        return jsonObservable;
+    }
+
+    // streams from the first endpoint, and from the next one as well if the first hasn't sent an event within
+    // hedgeAfterMs of connecting or fails before sending one, whichever sends the first event wins
+    private Observable<Timestamped<String>> hedged(int preferred, IntConsumer onConnected) {
+        List<URL> urls = this.urls; // the same list for the whole attempt
+        int first = preferred % urls.size();
+        if(urls.size() == 1) {
+            return stream(urls, first, () -> {}, onConnected);
+        }
+        int second = (first + 1) % urls.size();
+        Subject<Long, Long> admitted = new SerializedSubject<>(ReplaySubject.createWithSize(1));
+        Subject<Long, Long> failed = new SerializedSubject<>(ReplaySubject.createWithSize(1));
+        AtomicBoolean primaryConnected = new AtomicBoolean();
+
+        Observable<Timestamped<String>> primary = stream(urls, first, () -> admitted.onNext(0L), endpoint -> {
+                    primaryConnected.set(true);
+                    onConnected.accept(endpoint);
+                })
+                .onErrorResumeNext(t -> {
+                    if(primaryConnected.get()) {
+                        return Observable.error(t);
+                    }
+                    failed.onNext(0L); // the hedge takes over
+                    return Observable.never();
+                });
+        Observable<Timestamped<String>> hedge = admitted.take(1)
+                .concatMap(a -> Observable.timer(timeouts.getHedgeAfterMs(), TimeUnit.MILLISECONDS))
+                .mergeWith(failed)
+                .take(1)
+                .concatMap(h -> {
+                    LOG.info("Turbine => No events from " + urls.get(first) + ", hedging to " + urls.get(second));
+                    return stream(urls, second, () -> {}, onConnected);
+                });
+        return Observable.amb(primary, hedge);
+    }
 
+    private Observable<Timestamped<String>> stream(List<URL> urls, int endpoint, Action0 onAdmitted,
+                                                   IntConsumer onConnected) {
+        URL url = urls.get(endpoint);
+        long stallTimeoutMs = timeouts.getStallTimeoutMs();
+        HttpClientRequest<ByteBuf> request = HttpClientRequest.createGet(
+                url.getQuery() == null ? url.getPath() : url.getPath() + "?" + url.getQuery());
+        int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+        RequestChannel channel = new RequestChannel();
+        HttpClient<ByteBuf, ServerSentEvent> client =
+                HttpClients.<ByteBuf, ServerSentEvent>newBuilder(url.getProtocol(), url.getHost(), port)
+                        .withNoConnectionPooling()
+                        .pipelineConfigurator(PipelineConfigurators.composeConfigurators(
+                                PipelineConfigurators.<ByteBuf>clientSseConfigurator(),
+                                pipeline -> channel.connected(pipeline.channel())))
+                        .build();
 
-        jsonObservable = client.submit(request)
+        Observable<HttpClientResponse<ServerSentEvent>> connect = submit(client, request, channel)
+                .doOnSubscribe(onAdmitted)
+                .timeout(stallTimeoutMs, TimeUnit.MILLISECONDS);
+        return admission.admit(url.getHost() + ":" + port, connect)
                 .doOnError(t -> LOG.error("Error connecting to " + url, t))
                 .flatMap(response -> {
                             if (response.getStatus().code() != 200) {
                                 return Observable.error(new RuntimeException("Failed to connect: " + response.getStatus()));
                             }
 
+                            AtomicBoolean first = new AtomicBoolean(true);
+                            AtomicLong lastEventAt = new AtomicLong(-1);
                             return response.getContent()
                                     .doOnSubscribe(() -> LOG.info("Turbine => Aggregate Stream from URL: " + url))
                                     .doOnUnsubscribe(() -> LOG.info("Turbine => Unsubscribing Stream: " + url))
-                                    .map(ServerSentEvent::contentAsString);
+                                    .map(sse -> {
+                                        stats.recordEvent(sse.content().readableBytes());
+                                        if(first.get() && first.compareAndSet(true, false)) {
+                                            onConnected.accept(endpoint);
+                                        }
+                                        return sse.contentAsString();
+                                    })
+                                    .timestamp() // stamp on receive so freshness can be tracked end to end
+                                    .doOnNext(t -> {
+                                        long previous = lastEventAt.getAndSet(t.getTimestampMillis());
+                                        if(previous >= 0) {
+                                            stallDetector.record(t.getTimestampMillis() - previous,
+                                                    t.getTimestampMillis());
+                                            stats.setStallAfterMs(stallDetector.getStallAfterMs());
+                                        }
+                                    })
+                                    // stalled, reconnect or fail over
+                                    .timeout(() -> Observable.timer(stallTimeoutMs, TimeUnit.MILLISECONDS),
+                                            t -> Observable.timer(stallDetector.getStallAfterMs(), TimeUnit.MILLISECONDS))
+                                    .doOnError(t -> {
+                                        if(t instanceof TimeoutException) {
+                                            stats.recordStall();
+                                            LOG.warn("Turbine => No events from " + url + " for "
+                                                    + stallDetector.getStallAfterMs() + " ms, reconnecting");
+                                        }
+                                    });
                         }
-                )
-                .timeout(120, TimeUnit.SECONDS)
-                .retryWhen(attempts -> attempts.zipWith(Observable.range(1, Integer.MAX_VALUE), (k, i) -> i)
-                        .flatMap(n -> {
-                            int waitTimeSeconds = Math.min(6, n) * 10; // wait in 10 second increments up to a max of 1 minute
-                            LOG.info("Turbine => Retrying connection to: " + this.url + " in {} seconds", waitTimeSeconds);
-                            return Observable.timer(waitTimeSeconds, TimeUnit.SECONDS);
-                        })
-                )
-                .repeat()
-                .share();
+                );
+    }
 
-        return jsonObservable;
+    // RxNetty doesn't close the connection when the request is unsubscribed before the response arrives, so a
+    // connect timeout, close() or removal closes the request's channel itself. Once the response is delivered the
+    // connection is closed by unsubscribing from its content.
+    private static Observable<HttpClientResponse<ServerSentEvent>> submit(HttpClient<ByteBuf, ServerSentEvent> client,
+                                                                        HttpClientRequest<ByteBuf> request,
+                                                                        RequestChannel channel) {
+        return Observable.create(subscriber -> {
+            AtomicBoolean delivered = new AtomicBoolean();
+            subscriber.add(client.submit(request).subscribe(
+                    response -> {
+                        if(subscriber.isUnsubscribed()) {
+                            response.getContent().subscribe().unsubscribe();
+                        } else {
+                            delivered.set(true);
+                            subscriber.onNext(response);
+                        }
+                    },
+                    subscriber::onError,
+                    subscriber::onCompleted));
+            subscriber.add(Subscriptions.create(() -> {
+                if(!delivered.get()) {
+                    channel.close();
+                }
+            }));
+        });
+    }
+
+    /**
+     * Takes a new list of failover URLs without reconnecting, the next attempt to connect uses them. Only the failover
+     * URLs can change, the primary is part of the cluster's metrics.
+     */
+    @Override
+    public boolean updateUrls(List<String> streamUrls) {
+        if(streamUrls.isEmpty() || !streamUrls.get(0).equals(url.toExternalForm())) {
+            return false;
+        }
+        List<URL> parsed = Lists.newArrayListWithCapacity(streamUrls.size());
+        for (String streamUrl : streamUrls) {
+            try {
+                parsed.add(new URL(streamUrl));
+            } catch (MalformedURLException e) {
+                return false;
+            }
+        }
+        urls = Collections.unmodifiableList(parsed);
+        return true;
     }
 
+    @Override
+    public Collection<HystrixCommandMetrics> getCommandMetrics() {
+        return aggregator.getCommandMetrics();
+    }
+
+    /**
+     * Completes the observables of this monitor, which closes the turbine connection
+     */
+    @Override
+    public void close() {
+        closed.onNext(true);
+        aggregator.close();
+    }
+
+    // the channel of a single request, closed as soon as it connects when the request was cancelled before
+    private static final class RequestChannel {
+        private Channel channel;
+        private boolean closed;
+
+        synchronized void connected(Channel channel) {
+            if(closed) {
+                channel.close();
+            } else {
+                this.channel = channel;
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            if(channel != null) {
+                channel.close();
+            }
+        }
+    }
 }
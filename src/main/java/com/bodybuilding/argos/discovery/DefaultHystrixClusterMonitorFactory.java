@@ -16,20 +16,107 @@
 
 package com.bodybuilding.argos.discovery;
 
+import com.bodybuilding.argos.aggregation.AggregationWorkers;
+import com.bodybuilding.argos.capture.StreamCapture;
+import com.bodybuilding.argos.metrics.ClusterPipelineStats;
+import com.bodybuilding.argos.metrics.PipelineMetrics;
 import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
 
 import java.net.MalformedURLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 /**
- * Implementation of {@link HystrixClusterMonitorFactory}  that returns instances of DefaultHystrixClusterMonitor
+ * Implementation of {@link HystrixClusterMonitorFactory}  that returns instances of DefaultHystrixClusterMonitor,
+ * ReplayHystrixClusterMonitor for {@code file:} stream URLs, FederatedHystrixClusterMonitor for {@code argos+}
+ * stream URLs, or DirectHystrixClusterMonitor for {@code direct+} host stream URLs and {@code push:} URLs. Federated clusters from the same
+ * Argos share one connection.
  * @see DefaultHystrixClusterMonitor
+ * @see ReplayHystrixClusterMonitor
+ * @see FederatedHystrixClusterMonitor
+ * @see DirectHystrixClusterMonitor
  */
 public class DefaultHystrixClusterMonitorFactory implements HystrixClusterMonitorFactory {
+    private final PipelineMetrics pipelineMetrics;
+    private final StreamCapture capture;
+    private final ConnectionAdmission admission;
+    private final StreamTimeouts timeouts;
+    private final DirectHystrixClusterMonitorFactory direct;
+    private final AggregationWorkers workers;
+    private final CommandLimits commandLimits;
+    private final Map<String, RemoteArgosStream> federated = Maps.newConcurrentMap();
+
+    public DefaultHystrixClusterMonitorFactory() {
+        this(null, null, null, null, null, null, null);
+    }
+
+    /**
+     * @param pipelineMetrics where the monitors record their stream stats, may be null
+     * @param capture records the streams of the clusters it is configured for, may be null
+     * @param admission shared by all monitors to limit connects, may be null
+     * @param timeouts stall and hedge timeouts of every monitor, when null the defaults
+     * @param direct creates the monitors of clusters with {@code direct+} URLs, when null one is created
+     * @param workers threads turbine streams are aggregated on, when null on the threads receiving them
+     * @param commandLimits shared by all monitors to limit the commands tracked, may be null
+     */
+    public DefaultHystrixClusterMonitorFactory(PipelineMetrics pipelineMetrics, StreamCapture capture,
+                                               ConnectionAdmission admission, StreamTimeouts timeouts,
+                                               DirectHystrixClusterMonitorFactory direct,
+                                               AggregationWorkers workers, CommandLimits commandLimits) {
+        this.pipelineMetrics = pipelineMetrics;
+        this.capture = capture;
+        this.admission = admission;
+        this.timeouts = timeouts == null ? new StreamTimeouts() : timeouts;
+        this.direct = direct == null ? new DirectHystrixClusterMonitorFactory(pipelineMetrics, admission, null,
+                timeouts, commandLimits) : direct;
+        this.workers = workers;
+        this.commandLimits = commandLimits;
+    }
+
+    @Override
+    public HystrixClusterMonitor createMonitor(String name, List<String> streamUrls) {
+        if(streamUrls.get(0).startsWith(DirectHystrixClusterMonitor.SCHEME)
+                || streamUrls.get(0).startsWith(PushIngest.SCHEME)) {
+            return direct.createMonitor(name, streamUrls); // every url is a host
+        }
+        if(streamUrls.size() == 1 || streamUrls.get(0).startsWith("file:")
+                || streamUrls.get(0).startsWith(FederatedHystrixClusterMonitor.SCHEME)) {
+            return createMonitor(name, streamUrls.get(0));
+        }
+        try {
+            ClusterPipelineStats stats = pipelineMetrics == null ? new ClusterPipelineStats()
+                    : pipelineMetrics.forCluster(name);
+            return new DefaultHystrixClusterMonitor(name, streamUrls, stats,
+                    capture == null ? null : capture.writerFor(name), admission, timeouts, workers,
+                    commandLimits);
+        } catch (MalformedURLException e) {
+            throw Throwables.propagate(e);
+        }
+    }
 
     @Override
     public HystrixClusterMonitor createMonitor(String name, String streamUrl) {
         try {
-            return new DefaultHystrixClusterMonitor(name, streamUrl);
+            ClusterPipelineStats stats = pipelineMetrics == null ? new ClusterPipelineStats()
+                    : pipelineMetrics.forCluster(name);
+            if(streamUrl.startsWith("file:")) {
+                return ReplayHystrixClusterMonitor.fromUrl(name, streamUrl, stats);
+            }
+            if(streamUrl.startsWith(DirectHystrixClusterMonitor.SCHEME) || streamUrl.startsWith(PushIngest.SCHEME)) {
+                return direct.createMonitor(name, streamUrl);
+            }
+            if(streamUrl.startsWith(FederatedHystrixClusterMonitor.SCHEME)) {
+                RemoteArgosStream source = federated.computeIfAbsent(
+                        FederatedHystrixClusterMonitor.getBaseUrl(streamUrl),
+                        url -> new RemoteArgosStream(url, admission == null ? new ConnectionAdmission() : admission,
+                                this.timeouts));
+                return new FederatedHystrixClusterMonitor(name, streamUrl, source, stats, admission, this.timeouts);
+            }
+            return new DefaultHystrixClusterMonitor(name, Collections.singletonList(streamUrl), stats,
+                    capture == null ? null : capture.writerFor(name), admission, timeouts, workers,
+                    commandLimits);
         } catch (MalformedURLException e) {
             throw Throwables.propagate(e);
         }
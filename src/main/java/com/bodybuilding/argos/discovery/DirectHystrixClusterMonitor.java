@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.discovery;
+
+import com.bodybuilding.argos.metrics.ClusterPipelineStats;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.LinkedHashMultiset;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Observable;
+import rx.functions.Action1;
+import rx.functions.Func0;
+import rx.schedulers.Timestamped;
+import rx.subjects.ReplaySubject;
+import rx.subjects.SerializedSubject;
+import rx.subjects.Subject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Monitors a cluster without Turbine by connecting to the hystrix.stream of each of its hosts. Once per second the
+ * latest event of every command and thread pool is merged across hosts the way Turbine does: counts, latencies and
+ * properties are summed, {@code reportingHosts} is the number of hosts reporting it, and values the hosts disagree on
+ * are reported as {@code value:hosts} pairs. The merged events are what {@link #observeJson()} streams, so the Hystrix
+ * dashboard reads them like a turbine stream.
+ * <p>
+ * A host's events that haven't been updated for {@code host-expire-ms} stop counting. The merged commands are bounded
+ * by {@link CommandLimits} like those of a turbine stream: the busiest commands up to the cluster's share are kept, and
+ * the rest, along with the commands each host pushed out of its {@link HostEvents}, are summed into one
+ * {@value ClusterMetricsAggregator#OVERFLOW_COMMAND} command. Host connections are shared
+ * through {@link DirectHystrixClusterMonitorFactory}, so a change to the host list only connects to the new hosts.
+ * Stream URLs have the form {@code direct+<hystrix.stream URL>}, one per host, or {@code push:<name>} for a cluster
+ * whose hosts push their events to {@link PushIngest}.
+ */
+public final class DirectHystrixClusterMonitor implements HystrixClusterMonitor {
+    public static final String SCHEME = "direct+";
+    private static final Logger LOG = LoggerFactory.getLogger(DirectHystrixClusterMonitor.class);
+    private static final ObjectMapper om = new ObjectMapper();
+    private final String clusterName;
+    private final String streamUrl;
+    private final ClusterPipelineStats stats;
+    private final CommandLimits limits;
+    private int acquired; // commands reserved in limits, guarded by this
+    private final Subject<Boolean, Boolean> closed = new SerializedSubject<>(ReplaySubject.createWithSize(1));
+    private final Observable<List<Timestamped<ObjectNode>>> ticks;
+    private volatile Collection<HystrixCommandMetrics> commandMetrics = Collections.emptyList();
+
+    private Observable<HystrixClusterMetrics> observable;
+    private Observable<Timestamped<String>> jsonObservable;
+
+    /**
+     * @param streamUrl reported in the cluster's metrics
+     * @param limits bounds the commands merged, shared by the clusters the total is limited across
+     * @param hostExpireMs how long a host's events count after it last sent them
+     * @param openHosts returns the hosts to merge on every tick, called when the monitor is first subscribed
+     * @param closeHosts releases the hosts once the monitor is unsubscribed or closed
+     */
+    DirectHystrixClusterMonitor(String clusterName, String streamUrl, ClusterPipelineStats stats, CommandLimits limits,
+                                long hostExpireMs, Func0<Collection<HostEvents>> openHosts,
+                                Action1<Collection<HostEvents>> closeHosts) {
+        this.clusterName = Objects.requireNonNull(clusterName);
+        this.streamUrl = Objects.requireNonNull(streamUrl);
+        this.stats = Objects.requireNonNull(stats);
+        this.limits = Objects.requireNonNull(limits);
+        this.ticks = Observable.using(openHosts,
+                hosts -> Observable.interval(1, TimeUnit.SECONDS)
+                        .map(i -> merge(hosts, System.currentTimeMillis() - hostExpireMs)),
+                hosts -> {
+                    closeHosts.call(hosts);
+                    reserve(0);
+                })
+                .takeUntil(closed)
+                .share();
+    }
+
+    @Override
+    public synchronized Observable<HystrixClusterMetrics> observe() {
+        if(observable == null) {
+            observable = ticks.map(this::generateMetrics);
+        }
+        return observable;
+    }
+
+    @Override
+    public Observable<String> observeJson() {
+        return observeTimestampedJson().map(Timestamped::getValue);
+    }
+
+    @Override
+    public synchronized Observable<Timestamped<String>> observeTimestampedJson() {
+        if(jsonObservable == null) {
+            jsonObservable = ticks.flatMapIterable(events -> events)
+                    .map(e -> new Timestamped<>(e.getTimestampMillis(), e.getValue().toString()))
+                    .share();
+        }
+        return jsonObservable;
+    }
+
+    @Override
+    public Collection<HystrixCommandMetrics> getCommandMetrics() {
+        return commandMetrics;
+    }
+
+    /**
+     * Completes the observables of this monitor, which releases its hosts
+     */
+    @Override
+    public void close() {
+        closed.onNext(true);
+    }
+
+    // stamped with the oldest host event that went into each merged event
+    private List<Timestamped<ObjectNode>> merge(Collection<HostEvents> hosts, long expireBefore) {
+        long start = System.nanoTime();
+        Map<String, List<Timestamped<JsonNode>>> byName = Maps.newHashMap();
+        List<Timestamped<ObjectNode>> overflow = new ArrayList<>();
+        for (HostEvents host : hosts) {
+            host.snapshot(expireBefore)
+                    .forEach((name, e) -> byName.computeIfAbsent(name, n -> new ArrayList<>()).add(e));
+            overflow.addAll(host.spilled(expireBefore));
+        }
+        List<Timestamped<ObjectNode>> merged = new ArrayList<>(byName.size());
+        List<Timestamped<ObjectNode>> commands = new ArrayList<>(byName.size());
+        for (List<Timestamped<JsonNode>> events : byName.values()) {
+            long oldest = Long.MAX_VALUE;
+            List<JsonNode> nodes = new ArrayList<>(events.size());
+            for (Timestamped<JsonNode> e : events) {
+                oldest = Math.min(oldest, e.getTimestampMillis());
+                nodes.add(e.getValue());
+            }
+            ObjectNode node = merge(nodes);
+            ("HystrixCommand".equals(node.path("type").asText()) ? commands : merged)
+                    .add(new Timestamped<>(oldest, node));
+        }
+
+        int kept = reserve(commands.size());
+        if(kept < commands.size()) {
+            commands.sort(Comparator.comparingLong((Timestamped<ObjectNode> e) -> requests(e.getValue())).reversed());
+            overflow.addAll(commands.subList(kept, commands.size()));
+            commands = commands.subList(0, kept);
+        }
+        merged.addAll(commands);
+        if(!overflow.isEmpty()) {
+            long oldest = Long.MAX_VALUE;
+            List<JsonNode> nodes = new ArrayList<>(overflow.size());
+            for (Timestamped<ObjectNode> e : overflow) {
+                oldest = Math.min(oldest, e.getTimestampMillis());
+                nodes.add(e.getValue());
+            }
+            ObjectNode other = sum(nodes);
+            other.put("name", ClusterMetricsAggregator.OVERFLOW_COMMAND);
+            merged.add(new Timestamped<>(oldest, other));
+        }
+        stats.setCommands(commands.size(), !overflow.isEmpty());
+        stats.recordTick(System.nanoTime() - start);
+        return merged;
+    }
+
+    /**
+     * Reserves room for the merged commands in the limits, giving back what isn't needed any more
+     * @param commands number of merged commands
+     * @return how many of them can be kept
+     */
+    private synchronized int reserve(int commands) {
+        int wanted = Math.min(commands, limits.getMaxPerCluster());
+        while (acquired < wanted && limits.tryAcquire()) {
+            acquired++;
+        }
+        while (acquired > wanted) {
+            limits.release();
+            acquired--;
+        }
+        return acquired;
+    }
+
+    private static long requests(JsonNode command) {
+        return command.path("rollingCountSuccess").asLong() + command.path("rollingCountFailure").asLong()
+                + command.path("rollingCountTimeout").asLong() + command.path("rollingCountShortCircuited").asLong()
+                + command.path("rollingCountThreadPoolRejected").asLong()
+                + command.path("rollingCountSemaphoreRejected").asLong();
+    }
+
+    private HystrixClusterMetrics generateMetrics(List<Timestamped<ObjectNode>> events) {
+        HystrixClusterMetrics.Builder builder = new HystrixClusterMetrics.Builder(clusterName, streamUrl);
+        List<HystrixCommandMetrics> commands = new ArrayList<>(events.size());
+        for (Timestamped<ObjectNode> e : events) {
+            if(!"HystrixCommand".equals(e.getValue().path("type").asText())) {
+                continue;
+            }
+            try {
+                HystrixCommandMetrics metrics = om.treeToValue(e.getValue(), HystrixCommandMetrics.class);
+                metrics.setReceivedAt(e.getTimestampMillis());
+                builder.addCommandMetrics(metrics);
+                commands.add(metrics);
+            } catch (Exception ex) {
+                stats.recordParseError();
+                LOG.warn("Exception reading merged command {}", e.getValue().path("name").asText(), ex);
+            }
+        }
+        commandMetrics = commands;
+        return builder.build();
+    }
+
+    /**
+     * Merges the events of the same command or thread pool from several hosts
+     * @param hosts latest event from each host
+     * @return
+     */
+    static ObjectNode merge(List<JsonNode> hosts) {
+        ObjectNode merged = mergeObjects(hosts);
+        merged.put("reportingHosts", hosts.size());
+        return merged;
+    }
+
+    /**
+     * Sums events that already include several hosts or commands, so unlike {@link #merge(List)} their
+     * {@code reportingHosts} are added up
+     * @param nodes
+     * @return
+     */
+    static ObjectNode sum(List<JsonNode> nodes) {
+        return mergeObjects(nodes);
+    }
+
+    private static ObjectNode mergeObjects(List<JsonNode> nodes) {
+        Map<String, List<JsonNode>> fields = Maps.newLinkedHashMap();
+        for (JsonNode node : nodes) {
+            Iterator<Map.Entry<String, JsonNode>> it = node.fields();
+            while (it.hasNext()) {
+                Map.Entry<String, JsonNode> field = it.next();
+                fields.computeIfAbsent(field.getKey(), n -> new ArrayList<>(nodes.size())).add(field.getValue());
+            }
+        }
+        ObjectNode merged = JsonNodeFactory.instance.objectNode();
+        fields.forEach((name, values) -> merged.set(name, mergeValues(name, values)));
+        return merged;
+    }
+
+    private static JsonNode mergeValues(String name, List<JsonNode> values) {
+        JsonNode first = values.get(0);
+        if(first.isObject()) {
+            return mergeObjects(values.stream().filter(JsonNode::isObject).collect(Collectors.toList()));
+        }
+        if(first.isNumber()) {
+            boolean integral = true;
+            long longSum = 0, longMax = Long.MIN_VALUE;
+            double sum = 0;
+            for (JsonNode value : values) {
+                integral &= value.isIntegralNumber();
+                longSum += value.asLong();
+                longMax = Math.max(longMax, value.asLong());
+                sum += value.asDouble();
+            }
+            if("currentTime".equals(name)) {
+                return JsonNodeFactory.instance.numberNode(longMax);
+            }
+            return integral ? JsonNodeFactory.instance.numberNode(longSum) : JsonNodeFactory.instance.numberNode(sum);
+        }
+        Multiset<String> counts = LinkedHashMultiset.create();
+        values.forEach(v -> counts.add(v.asText()));
+        if(counts.elementSet().size() == 1) {
+            return first;
+        }
+        return JsonNodeFactory.instance.textNode(counts.entrySet().stream()
+                .map(e -> e.getElement() + ":" + e.getCount())
+                .collect(Collectors.joining(",")));
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.discovery;
+
+import com.bodybuilding.argos.metrics.ClusterPipelineStats;
+import com.bodybuilding.argos.metrics.PipelineMetrics;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import rx.Observable;
+
+import java.net.MalformedURLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Creates {@link DirectHystrixClusterMonitor}s for clusters whose URLs are the hystrix.stream of each host, and owns
+ * the host connections they share. Clusters with a {@code push:<name>} URL merge the events their hosts push to
+ * {@link PushIngest} instead. All host connections run on RxNetty's shared client event loop, so thousands of
+ * hosts only cost a socket and the latest event of each of their commands. A host no monitor uses any more is
+ * disconnected after {@code close-unused-after-ms}, which lets a cluster restarted with a new host list keep the
+ * connections to the hosts it still has.
+ */
+@Component
+@ConfigurationProperties(prefix = "turbine.direct")
+public class DirectHystrixClusterMonitorFactory implements HystrixClusterMonitorFactory {
+    private final PipelineMetrics pipelineMetrics;
+    private final ConnectionAdmission admission;
+    private final StreamTimeouts timeouts;
+    private final PushIngest ingest;
+    private final CommandLimits commandLimits;
+    private final Map<String, HostStream> hosts = Maps.newHashMap(); // guarded by itself
+
+    private long hostExpireMs = 10000;
+    private long closeUnusedAfterMs = 10000;
+
+    public DirectHystrixClusterMonitorFactory() {
+        this(null, null, null, null, null);
+    }
+
+    /**
+     * @param pipelineMetrics where the monitors record their stream stats, may be null
+     * @param admission shared by all host connections to limit connects, may be null
+     * @param ingest receives the events of push clusters, may be null
+     * @param timeouts stall timeouts of the host connections, when null the defaults
+     * @param commandLimits bounds the commands kept for each host and cluster, when null the defaults
+     */
+    @Autowired
+    public DirectHystrixClusterMonitorFactory(PipelineMetrics pipelineMetrics, ConnectionAdmission admission,
+                                              PushIngest ingest, StreamTimeouts timeouts,
+                                              CommandLimits commandLimits) {
+        this.pipelineMetrics = pipelineMetrics;
+        this.admission = admission == null ? new ConnectionAdmission() : admission;
+        this.ingest = ingest == null ? new PushIngest() : ingest;
+        this.timeouts = timeouts == null ? new StreamTimeouts() : timeouts;
+        this.commandLimits = commandLimits == null ? new CommandLimits() : commandLimits;
+    }
+
+    @Override
+    public HystrixClusterMonitor createMonitor(String name, String streamUrl) {
+        return createMonitor(name, Collections.singletonList(streamUrl));
+    }
+
+    /**
+     * @param streamUrls hystrix.stream URL of every host, with or without the {@code direct+} prefix, or a single
+     *                   {@code push:<name>} URL
+     */
+    @Override
+    public HystrixClusterMonitor createMonitor(String name, List<String> streamUrls) {
+        ClusterPipelineStats stats = pipelineMetrics == null ? new ClusterPipelineStats()
+                : pipelineMetrics.forCluster(name);
+        if(streamUrls.get(0).startsWith(PushIngest.SCHEME)) {
+            String pushName = streamUrls.get(0).substring(PushIngest.SCHEME.length());
+            return new DirectHystrixClusterMonitor(name, streamUrls.get(0), stats, commandLimits,
+                    ingest.getHostExpireMs(),
+                    () -> ingest.open(pushName, stats, commandLimits),
+                    hosts -> ingest.close(pushName));
+        }
+        List<String> hostUrls = streamUrls.stream()
+                .map(url -> url.startsWith(DirectHystrixClusterMonitor.SCHEME)
+                        ? url.substring(DirectHystrixClusterMonitor.SCHEME.length()) : url)
+                .distinct()
+                .collect(Collectors.toList());
+        return new DirectHystrixClusterMonitor(name, DirectHystrixClusterMonitor.SCHEME + hostUrls.get(0), stats,
+                commandLimits, hostExpireMs,
+                () -> hostUrls.stream().map(url -> acquire(url, stats).getEvents()).collect(Collectors.toList()),
+                hosts -> hostUrls.forEach(this::release));
+    }
+
+    /**
+     * Returns the host's stream, connecting to it if no monitor uses it yet
+     * @param url hystrix.stream URL of the host
+     * @param stats of the cluster the host's events are counted for
+     * @return
+     */
+    private HostStream acquire(String url, ClusterPipelineStats stats) {
+        synchronized (hosts) {
+            HostStream host = hosts.get(url);
+            if(host == null) {
+                try {
+                    host = new HostStream(url, new DefaultHystrixClusterMonitor(url,
+                            Collections.singletonList(url), new ClusterPipelineStats(), null, admission, timeouts, null,
+                            null),
+                            stats, commandLimits);
+                } catch (MalformedURLException e) {
+                    throw Throwables.propagate(e);
+                }
+                hosts.put(url, host);
+            }
+            host.acquire(stats);
+            return host;
+        }
+    }
+
+    private void release(String url) {
+        HostStream host;
+        synchronized (hosts) {
+            host = hosts.get(url);
+            if(host == null || !host.release()) {
+                return;
+            }
+        }
+        Observable.timer(closeUnusedAfterMs, TimeUnit.MILLISECONDS).subscribe(t -> {
+            synchronized (hosts) {
+                if(host.closeIfUnused()) {
+                    hosts.remove(url, host);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return number of hosts connected or lingering
+     */
+    int getHostCount() {
+        synchronized (hosts) {
+            return hosts.size();
+        }
+    }
+
+    /* for spring property injection */
+    public long getHostExpireMs() {
+        return hostExpireMs;
+    }
+
+    public void setHostExpireMs(long hostExpireMs) {
+        this.hostExpireMs = hostExpireMs;
+    }
+
+    public long getCloseUnusedAfterMs() {
+        return closeUnusedAfterMs;
+    }
+
+    public void setCloseUnusedAfterMs(long closeUnusedAfterMs) {
+        this.closeUnusedAfterMs = closeUnusedAfterMs;
+    }
+}
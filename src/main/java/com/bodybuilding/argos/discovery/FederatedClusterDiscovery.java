@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.discovery;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.http.client.Netty4ClientHttpRequestFactory;
+import org.springframework.web.client.AsyncRestTemplate;
+import rx.Observable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ClusterDiscovery} implementation that monitors the clusters of other Argos instances, for example one per
+ * region, so a global Argos doesn't need a Turbine connection per cluster. The clusters are read from the /clusterlist
+ * of each source every 10 seconds and monitored with a {@link FederatedHystrixClusterMonitor}. All sources are requested
+ * concurrently, each with its own {@code timeoutMs} deadline, so a slow source doesn't delay the others.
+ * <p>
+ * Sources are configured as {@code <prefix>|<Argos URL>}, the prefix and a ':' are added to the name of every cluster
+ * from that source so clusters with the same name in different regions stay apart. A source that can't be reached
+ * keeps its last known clusters.
+ */
+@ConfigurationProperties(prefix = "federation")
+public class FederatedClusterDiscovery extends AbstractClusterDiscovery {
+    private static final long UPDATE_INTERVAL = 10_000;
+    private static final Logger LOG = LoggerFactory.getLogger(FederatedClusterDiscovery.class);
+    private static final ObjectMapper om = new ObjectMapper();
+    private static final Splitter SOURCE_SPLITTER = Splitter.on('|').omitEmptyStrings().trimResults();
+    private final Map<String, Set<Cluster>> sourceClusters = Maps.newConcurrentMap();
+    private final AsyncRestTemplate restTemplate;
+    private List<String> sources = new ArrayList<>(); // set by spring boot
+    private long timeoutMs = 5_000;
+    private Set<Cluster> lastClusters = Collections.emptySet();
+
+    public FederatedClusterDiscovery() {
+        super(UPDATE_INTERVAL, TimeUnit.MILLISECONDS);
+        Netty4ClientHttpRequestFactory requestFactory = new Netty4ClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(10_000);
+        requestFactory.setReadTimeout(10_000);
+        this.restTemplate = new AsyncRestTemplate(requestFactory);
+    }
+
+    @VisibleForTesting
+    FederatedClusterDiscovery(Collection<String> sources, AsyncRestTemplate restTemplate) {
+        super(UPDATE_INTERVAL, TimeUnit.MILLISECONDS);
+        this.sources = new ArrayList<>(sources);
+        this.restTemplate = restTemplate;
+    }
+
+    @Override
+    protected Collection<Cluster> getCurrentClusters() {
+        if(sources.isEmpty()) {
+            LOG.warn("No sources configured, is 'federation.sources' property set?");
+        }
+        List<String> current = new ArrayList<>(sources);
+        List<Optional<Set<Cluster>>> results = Observable.from(current)
+                .concatMapEager(this::getClusters)
+                .toList()
+                .toBlocking()
+                .single();
+
+        boolean changed = sourceClusters.keySet().retainAll(current);
+        for (int i = 0; i < current.size(); i++) {
+            Optional<Set<Cluster>> clusters = results.get(i);
+            if(clusters.isPresent()) {
+                changed |= !clusters.get().equals(sourceClusters.put(current.get(i), clusters.get()));
+            }
+        }
+        if(changed) {
+            Set<Cluster> merged = Sets.newHashSet();
+            sourceClusters.values().forEach(merged::addAll);
+            lastClusters = merged;
+        }
+        return lastClusters;
+    }
+
+    // empty when the source can't be reached within its deadline
+    private Observable<Optional<Set<Cluster>>> getClusters(String source) {
+        List<String> parts = SOURCE_SPLITTER.splitToList(source);
+        String prefix = parts.size() > 1 ? parts.get(0) + ":" : "";
+        String url = parts.get(parts.size() - 1);
+        String baseUrl = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+        return Observable.defer(() ->
+                ClusterListDiscovery.toObservable(restTemplate.getForEntity(baseUrl + "/clusterlist", String.class)))
+                .timeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .map(response -> Optional.of(parse(prefix, baseUrl, response.getBody())))
+                .onErrorReturn(e -> {
+                    LOG.warn("Failed getting clusters from {}, keeping the last known clusters", baseUrl, e);
+                    return Optional.empty();
+                });
+    }
+
+    private static Set<Cluster> parse(String prefix, String baseUrl, String body) {
+        try {
+            Set<Cluster> clusters = Sets.newHashSet();
+            for (JsonNode cluster : om.readTree(body)) {
+                String name = cluster.path("name").asText();
+                if(!name.isEmpty()) {
+                    clusters.add(new Cluster(prefix + name, FederatedHystrixClusterMonitor.toStreamUrl(baseUrl, name)));
+                }
+            }
+            return clusters;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed parsing clusters from " + baseUrl, e);
+        }
+    }
+
+    /* for spring property injection */
+    public List<String> getSources() {
+        return sources;
+    }
+
+    public void setSources(List<String> sources) {
+        Objects.requireNonNull(sources);
+        this.sources = sources;
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public void setTimeoutMs(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+}
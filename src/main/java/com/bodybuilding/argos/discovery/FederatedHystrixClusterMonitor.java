@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.discovery;
+
+import com.bodybuilding.argos.metrics.ClusterPipelineStats;
+import com.google.common.base.Throwables;
+import rx.Observable;
+import rx.schedulers.Timestamped;
+import rx.subjects.ReplaySubject;
+import rx.subjects.SerializedSubject;
+import rx.subjects.Subject;
+
+import java.net.MalformedURLException;
+import java.util.Collections;
+import java.util.Objects;
+
+/**
+ * Monitors a cluster that another Argos aggregates, see {@link FederatedClusterDiscovery}. The metrics are read from
+ * that Argos's /cluster.stream, which is shared by every cluster federated from it, so only the aggregated metrics
+ * cross the network. The raw command json is streamed from the other Argos's /turbine-stream only while it's observed.
+ * <p>
+ * Stream URLs have the form {@code argos+<Argos URL>/turbine-stream/<cluster name in that Argos>}.
+ */
+public final class FederatedHystrixClusterMonitor implements HystrixClusterMonitor {
+    public static final String SCHEME = "argos+";
+    private static final String TURBINE_STREAM = "/turbine-stream/";
+    private final String clusterName;
+    private final String streamUrl;
+    private final String remoteName;
+    private final RemoteArgosStream source;
+    private final ClusterPipelineStats stats;
+    private final ConnectionAdmission admission;
+    private final StreamTimeouts timeouts;
+    private final Subject<Boolean, Boolean> closed = new SerializedSubject<>(ReplaySubject.createWithSize(1));
+
+    private Observable<HystrixClusterMetrics> observable;
+    private DefaultHystrixClusterMonitor commands;
+
+    FederatedHystrixClusterMonitor(String clusterName, String streamUrl, RemoteArgosStream source,
+                                   ClusterPipelineStats stats, ConnectionAdmission admission,
+                                   StreamTimeouts timeouts) {
+        this.clusterName = Objects.requireNonNull(clusterName);
+        this.streamUrl = Objects.requireNonNull(streamUrl);
+        this.remoteName = getRemoteName(streamUrl);
+        this.source = Objects.requireNonNull(source);
+        this.stats = Objects.requireNonNull(stats);
+        this.admission = admission;
+        this.timeouts = timeouts;
+    }
+
+    /**
+     * @param baseUrl URL of the other Argos
+     * @param remoteName name of the cluster in the other Argos
+     * @return the stream URL of the federated cluster
+     */
+    public static String toStreamUrl(String baseUrl, String remoteName) {
+        return SCHEME + baseUrl + TURBINE_STREAM + remoteName;
+    }
+
+    /**
+     * @param streamUrl
+     * @return URL of the Argos serving the federated cluster
+     */
+    static String getBaseUrl(String streamUrl) {
+        return streamUrl.substring(SCHEME.length(), streamUrl.lastIndexOf(TURBINE_STREAM));
+    }
+
+    private static String getRemoteName(String streamUrl) {
+        return streamUrl.substring(streamUrl.lastIndexOf(TURBINE_STREAM) + TURBINE_STREAM.length());
+    }
+
+    @Override
+    public synchronized Observable<HystrixClusterMetrics> observe() {
+        if(observable == null) {
+            observable = source.observe(remoteName)
+                    .map(e -> {
+                        stats.recordEvent(e.size);
+                        return HystrixClusterMetrics.fromRemote(clusterName, streamUrl, e.json, e.receivedAt);
+                    })
+                    .takeUntil(closed);
+        }
+        return observable;
+    }
+
+    @Override
+    public Observable<String> observeJson() {
+        return observeTimestampedJson().map(Timestamped::getValue);
+    }
+
+    @Override
+    public synchronized Observable<Timestamped<String>> observeTimestampedJson() {
+        if(commands == null) {
+            try {
+                // only connects while subscribed, and closes when this monitor does
+                commands = new DefaultHystrixClusterMonitor(clusterName,
+                        Collections.singletonList(streamUrl.substring(SCHEME.length())), stats, null, admission,
+                        timeouts, null, null);
+            } catch (MalformedURLException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        return commands.observeTimestampedJson();
+    }
+
+    @Override
+    public synchronized void close() {
+        closed.onNext(true);
+        source.release(remoteName);
+        if(commands != null) {
+            commands.close();
+        }
+    }
+}
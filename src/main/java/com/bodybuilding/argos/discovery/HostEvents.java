@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.discovery;
+
+import com.bodybuilding.argos.metrics.ClusterPipelineStats;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.schedulers.Timestamped;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latest event of each command and thread pool a single host reported, whether the host was streamed from or
+ * pushed its events. Merged across the hosts of a cluster by {@link DirectHystrixClusterMonitor}.
+ * <p>
+ * At most {@link CommandLimits#getMaxPerCluster()} events are kept, a host can't report more commands than its
+ * cluster keeps. Past that the least recently updated one makes room, and when it's a command its last event is
+ * summed per second into the {@value ClusterMetricsAggregator#OVERFLOW_COMMAND} command until it expires, so a host
+ * sending unbounded command names uses bounded memory and still counts towards the totals.
+ */
+final class HostEvents {
+    private static final Logger LOG = LoggerFactory.getLogger(HostEvents.class);
+    private static final ObjectMapper om = new ObjectMapper();
+    private static final int SPILL_SECONDS = 60;
+    private final String host;
+    private final Cache<String, Timestamped<JsonNode>> latest;
+    // summed by the second of their events, guarded by itself
+    private final Timestamped<ObjectNode>[] spilled = newSpilled();
+    private volatile ClusterPipelineStats stats;
+    private volatile long lastEventAt;
+    private boolean warned;
+
+    /**
+     * @param limits bounds the events kept
+     * @param createdAt the host counts as active since then, so it isn't expired before its first event is kept
+     */
+    HostEvents(String host, ClusterPipelineStats stats, CommandLimits limits, long createdAt) {
+        this.host = host;
+        this.stats = stats;
+        this.lastEventAt = createdAt;
+        this.latest = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(1, limits.getMaxPerCluster()))
+                .<String, Timestamped<JsonNode>>removalListener(n -> {
+                    if(n.getCause() == RemovalCause.SIZE) {
+                        spill(n.getValue());
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * @param stats of the cluster the host's events are counted for
+     */
+    void setStats(ClusterPipelineStats stats) {
+        this.stats = stats;
+    }
+
+    long getLastEventAt() {
+        return lastEventAt;
+    }
+
+    /**
+     * Keeps the event if it's a command or thread pool, collapsers and pings aren't aggregated
+     * @param json
+     * @param receivedAt
+     * @return false when the event couldn't be parsed
+     */
+    boolean onEvent(String json, long receivedAt) {
+        ClusterPipelineStats stats = this.stats;
+        stats.recordEvent(json.length());
+        lastEventAt = receivedAt;
+        if(!json.contains("HystrixCommand") && !json.contains("HystrixThreadPool")) {
+            return true;
+        }
+        long start = System.nanoTime();
+        try {
+            JsonNode node = om.readTree(json);
+            String type = node.path("type").asText();
+            if("HystrixCommand".equals(type) || "HystrixThreadPool".equals(type)) {
+                latest.put(type + ':' + node.path("name").asText(), new Timestamped<>(receivedAt, node));
+            }
+            stats.recordParse(System.nanoTime() - start);
+            return true;
+        } catch (Exception e) {
+            stats.recordParseError();
+            LOG.warn("Exception parsing json from {}", host, e);
+            return false;
+        }
+    }
+
+    /**
+     * Returns the latest event of every command and thread pool, evicting the ones not updated since
+     * {@code expireBefore} so a host that went away stops counting towards its cluster
+     * @param expireBefore
+     * @return events by type and name
+     */
+    Map<String, Timestamped<JsonNode>> snapshot(long expireBefore) {
+        latest.asMap().values().removeIf(e -> e.getTimestampMillis() < expireBefore);
+        return Collections.unmodifiableMap(latest.asMap());
+    }
+
+    /**
+     * Returns the sums of the commands that were pushed out to make room, one per second of the events in it, dropping
+     * the ones from before {@code expireBefore}. They are kept for a minute at most.
+     * @param expireBefore
+     * @return summed command events, each with the {@code reportingHosts} of the events in it
+     */
+    List<Timestamped<ObjectNode>> spilled(long expireBefore) {
+        List<Timestamped<ObjectNode>> sums = new ArrayList<>();
+        synchronized (spilled) {
+            for (int i = 0; i < SPILL_SECONDS; i++) {
+                if(spilled[i] != null && spilled[i].getTimestampMillis() < expireBefore) {
+                    spilled[i] = null;
+                } else if(spilled[i] != null) {
+                    sums.add(spilled[i]);
+                }
+            }
+        }
+        return sums;
+    }
+
+    void clear() {
+        latest.invalidateAll();
+        synchronized (spilled) {
+            Arrays.fill(spilled, null);
+        }
+    }
+
+    private void spill(Timestamped<JsonNode> event) {
+        ClusterPipelineStats stats = this.stats;
+        stats.recordCommandOverflow();
+        if(!"HystrixCommand".equals(event.getValue().path("type").asText())) {
+            return; // thread pools don't count towards the cluster totals
+        }
+        if(!warned) {
+            warned = true;
+            LOG.warn("{} reports more commands than the cluster keeps, the rest are counted as {}", host,
+                    ClusterMetricsAggregator.OVERFLOW_COMMAND);
+        }
+        ObjectNode node = event.getValue().deepCopy();
+        node.put("reportingHosts", node.path("reportingHosts").asInt(1));
+        long second = TimeUnit.MILLISECONDS.toSeconds(event.getTimestampMillis());
+        int bucket = (int) (second % SPILL_SECONDS);
+        synchronized (spilled) {
+            Timestamped<ObjectNode> sum = spilled[bucket];
+            if(sum != null && TimeUnit.MILLISECONDS.toSeconds(sum.getTimestampMillis()) == second) {
+                spilled[bucket] = new Timestamped<>(Math.min(sum.getTimestampMillis(), event.getTimestampMillis()),
+                        DirectHystrixClusterMonitor.sum(Arrays.asList(sum.getValue(), node)));
+            } else {
+                spilled[bucket] = new Timestamped<>(event.getTimestampMillis(), node);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Timestamped<ObjectNode>[] newSpilled() {
+        return (Timestamped<ObjectNode>[]) new Timestamped[SPILL_SECONDS];
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.discovery;
+
+import com.bodybuilding.argos.metrics.ClusterPipelineStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Subscription;
+
+/**
+ * The hystrix.stream of a single host, see {@link DirectHystrixClusterMonitor}. The connection is open while the host
+ * is acquired by any monitor, and reconnects, backs off and detects stalls like a turbine connection does.
+ */
+final class HostStream {
+    private static final Logger LOG = LoggerFactory.getLogger(HostStream.class);
+    private final String url;
+    private final DefaultHystrixClusterMonitor connection;
+    private final HostEvents events;
+
+    private int refs; // guarded by this
+    private Subscription subscription; // guarded by this
+
+    /**
+     * @param connection to the host, records its reconnects and stalls in stats of its own
+     */
+    HostStream(String url, DefaultHystrixClusterMonitor connection, ClusterPipelineStats stats,
+               CommandLimits limits) {
+        this.url = url;
+        this.connection = connection;
+        this.events = new HostEvents(url, stats, limits, System.currentTimeMillis());
+    }
+
+    HostEvents getEvents() {
+        return events;
+    }
+
+    /**
+     * Opens the connection if this is the first reference
+     * @param stats of the cluster the host's events are counted for
+     */
+    synchronized void acquire(ClusterPipelineStats stats) {
+        events.setStats(stats);
+        refs++;
+        if(subscription == null) {
+            subscription = connection.observeTimestampedJson()
+                    .subscribe(e -> events.onEvent(e.getValue(), e.getTimestampMillis()),
+                            t -> LOG.warn("Stream from {} failed", url, t));
+        }
+    }
+
+    /**
+     * @return true when the last reference was released
+     */
+    synchronized boolean release() {
+        return --refs == 0;
+    }
+
+    /**
+     * Closes the connection unless the host was acquired again since its last release
+     * @return true when closed
+     */
+    synchronized boolean closeIfUnused() {
+        if(refs > 0) {
+            return false;
+        }
+        if(subscription != null) {
+            subscription.unsubscribe();
+            subscription = null;
+        }
+        connection.close();
+        events.clear();
+        return true;
+    }
+}
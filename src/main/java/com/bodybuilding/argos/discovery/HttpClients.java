@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.discovery;
+
+import io.reactivex.netty.RxNetty;
+import io.reactivex.netty.protocol.http.client.HttpClientBuilder;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import java.net.URI;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Builds the RxNetty clients Argos streams from turbines, peers and other Argos instances with. An https URL gets TLS
+ * that verifies the server's certificate with the JVM's default trust store and its host name.
+ */
+public final class HttpClients {
+    private HttpClients() {
+    }
+
+    /**
+     * @param scheme http or https
+     * @param host
+     * @param port
+     * @return a builder for the host, with TLS when the scheme is https
+     */
+    public static <I, O> HttpClientBuilder<I, O> newBuilder(String scheme, String host, int port) {
+        HttpClientBuilder<I, O> builder = RxNetty.newHttpClientBuilder(host, port);
+        if(isHttps(scheme)) {
+            builder.withSslEngineFactory(allocator -> newSslEngine(host, port));
+        }
+        return builder;
+    }
+
+    /**
+     * @param uri
+     * @return the URI's port, or the default port of its scheme
+     */
+    public static int port(URI uri) {
+        if(uri.getPort() >= 0) {
+            return uri.getPort();
+        }
+        return isHttps(uri.getScheme()) ? 443 : 80;
+    }
+
+    static SSLEngine newSslEngine(String host, int port) {
+        SSLEngine engine;
+        try {
+            engine = SSLContext.getDefault().createSSLEngine(host, port);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No default TLS context", e);
+        }
+        engine.setUseClientMode(true);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        engine.setSSLParameters(parameters);
+        return engine;
+    }
+
+    private static boolean isHttps(String scheme) {
+        return "https".equalsIgnoreCase(scheme);
+    }
+}
@@ -16,6 +16,11 @@
 
 package com.bodybuilding.argos.discovery;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
+
 import java.util.Objects;
 
 /**
@@ -23,7 +28,11 @@ import java.util.Objects;
  */
 public final class HystrixClusterMetrics {
     public enum Type {
-        CLUSTER
+        CLUSTER,
+        /** rollup of the clusters in a configured group */
+        GROUP,
+        /** rollup of every cluster */
+        GLOBAL
     }
     private final String clusterName;
     private final String streamUrl;
@@ -38,13 +47,26 @@ public final class HystrixClusterMetrics {
     private int commandCount;
     private double requestRate;
     private double errorPercentage;
+    private double latencyMean;
+    private double anomalyScore;
+    @JsonIgnore
+    private long receivedAt;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long age;
     private Type type;
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean stale; // only set on stale metrics
 
     private HystrixClusterMetrics(String clusterName, String streamUrl) {
+        this(clusterName, streamUrl, "hystrix/monitor.html?stream=../turbine-stream/" + clusterName);
+    }
+
+    private HystrixClusterMetrics(String clusterName, String streamUrl, String dashboardUrl) {
         Objects.requireNonNull(clusterName);
         this.clusterName = clusterName;
         this.streamUrl = streamUrl;
-        this.dashboardUrl = "hystrix/monitor.html?stream=../turbine-stream/" + clusterName;
+        this.dashboardUrl = dashboardUrl;
     }
 
     public HystrixClusterMetrics(HystrixClusterMetrics other) {
@@ -62,11 +84,17 @@ public final class HystrixClusterMetrics {
         this.reportingHosts = other.reportingHosts;
         this.errorPercentage = other.errorPercentage;
         this.commandCount = other.commandCount;
+        this.latencyMean = other.latencyMean;
+        this.anomalyScore = other.anomalyScore;
+        this.receivedAt = other.receivedAt;
+        this.age = other.age;
+        this.stale = other.stale;
     }
 
 
     public static class Builder {
         private final HystrixClusterMetrics metrics;
+        private double weightedLatency;
 
         public Builder(String clusterName, String streamUrl) {
             metrics = new HystrixClusterMetrics(clusterName, streamUrl);
@@ -93,6 +121,18 @@ public final class HystrixClusterMetrics {
             metrics.errorPercentage = metrics.errorPercentage / (metrics.commandCount + 1);
 
             metrics.commandCount++;
+
+            // the metrics are only as fresh as the oldest command they include
+            long receivedAt = commandMetrics.getReceivedAt();
+            if(receivedAt > 0 && (metrics.receivedAt == 0 || receivedAt < metrics.receivedAt)) {
+                metrics.receivedAt = receivedAt;
+            }
+
+            // latencyMean is weighted by the number of requests of each command
+            weightedLatency += commandMetrics.getLatencyMean() * commandMetrics.getRequests();
+            if(metrics.requestCount > 0) {
+                metrics.latencyMean = weightedLatency / metrics.requestCount;
+            }
             return this;
         }
 
@@ -101,6 +141,103 @@ public final class HystrixClusterMetrics {
         }
     }
 
+    /**
+     * Running totals of several clusters' metrics. A member's update subtracts its previous metrics and adds the new
+     * ones, so the rollup doesn't need to visit every member to stay current. The error percentage is weighted by
+     * commands and the latency by requests, as they are within a cluster.
+     */
+    static final class Rollup {
+        private long requestCount;
+        private long successCount;
+        private long failCount;
+        private long timeoutCount;
+        private long shortCircuitedCount;
+        private long rejectedCount;
+        private long reportingHosts;
+        private long commandCount;
+        private double requestRate;
+        private double weightedErrorPercentage;
+        private double weightedLatency;
+        private int members;
+
+        void add(HystrixClusterMetrics m) {
+            apply(m, 1);
+            members++;
+        }
+
+        void remove(HystrixClusterMetrics m) {
+            apply(m, -1);
+            members--;
+        }
+
+        private void apply(HystrixClusterMetrics m, int sign) {
+            requestCount += sign * m.requestCount;
+            successCount += sign * m.successCount;
+            failCount += sign * m.failCount;
+            timeoutCount += sign * m.timeoutCount;
+            shortCircuitedCount += sign * m.shortCircuitedCount;
+            rejectedCount += sign * m.rejectedCount;
+            reportingHosts += sign * m.reportingHosts;
+            commandCount += sign * m.commandCount;
+            requestRate += sign * m.requestRate;
+            weightedErrorPercentage += sign * m.errorPercentage * m.commandCount;
+            weightedLatency += sign * m.latencyMean * m.requestCount;
+        }
+
+        int getMembers() {
+            return members;
+        }
+
+        HystrixClusterMetrics build(String name, Type type) {
+            HystrixClusterMetrics metrics = new HystrixClusterMetrics(name, null, null);
+            metrics.type = type;
+            metrics.requestCount = requestCount;
+            metrics.successCount = successCount;
+            metrics.failCount = failCount;
+            metrics.timeoutCount = timeoutCount;
+            metrics.shortCircuitedCount = shortCircuitedCount;
+            metrics.rejectedCount = rejectedCount;
+            metrics.reportingHosts = (int) reportingHosts;
+            metrics.commandCount = (int) commandCount;
+            // subtracting doubles can leave a little residue behind
+            metrics.requestRate = Math.max(0, requestRate);
+            metrics.errorPercentage = commandCount > 0 ? Math.max(0, weightedErrorPercentage / commandCount) : 0;
+            metrics.latencyMean = requestCount > 0 ? Math.max(0, weightedLatency / requestCount) : 0;
+            return metrics;
+        }
+    }
+
+    /**
+     * Reads metrics aggregated by another Argos from its /cluster.stream json. The dashboard link points at this Argos
+     * and the receive time is moved back by the age the other Argos reported.
+     * @param clusterName name of the cluster in this Argos
+     * @param streamUrl
+     * @param json
+     * @param receivedAt when the json was read from the other Argos
+     * @return
+     */
+    static HystrixClusterMetrics fromRemote(String clusterName, String streamUrl, JsonNode json, long receivedAt) {
+        HystrixClusterMetrics metrics = new HystrixClusterMetrics(clusterName, streamUrl);
+        metrics.type = Type.CLUSTER;
+        metrics.requestCount = json.path("requestCount").asLong();
+        metrics.successCount = json.path("successCount").asLong();
+        metrics.failCount = json.path("failCount").asLong();
+        metrics.timeoutCount = json.path("timeoutCount").asLong();
+        metrics.shortCircuitedCount = json.path("shortCircuitedCount").asLong();
+        metrics.rejectedCount = json.path("rejectedCount").asLong();
+        metrics.reportingHosts = json.path("reportingHosts").asInt();
+        metrics.commandCount = json.path("commandCount").asInt();
+        metrics.requestRate = json.path("requestRate").asDouble();
+        metrics.errorPercentage = json.path("errorPercentage").asDouble();
+        metrics.latencyMean = json.path("latencyMean").asDouble();
+        metrics.anomalyScore = json.path("anomalyScore").asDouble();
+        metrics.receivedAt = receivedAt - Math.max(0, json.path("age").asLong());
+        if(json.path("stale").asBoolean()) {
+            metrics.stale = Boolean.TRUE;
+        }
+        return metrics;
+    }
+
     public String getClusterName() {
         return clusterName;
     }
@@ -153,10 +290,79 @@ public final class HystrixClusterMetrics {
         return errorPercentage;
     }
 
+    public double getLatencyMean() {
+        return latencyMean;
+    }
+
+    public double getAnomalyScore() {
+        return anomalyScore;
+    }
+
+    /**
+     * Returns a copy of these metrics with the anomaly score set
+     * @param anomalyScore
+     * @return
+     */
+    public HystrixClusterMetrics withAnomalyScore(double anomalyScore) {
+        HystrixClusterMetrics copy = new HystrixClusterMetrics(this);
+        copy.anomalyScore = anomalyScore;
+        return copy;
+    }
+
+    /**
+     * @return time the oldest contributing event was read from the stream in milliseconds, 0 if unknown
+     */
+    @JsonIgnore
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+
+    /**
+     * @return milliseconds between receiving the oldest contributing event and emitting these metrics, null if it
+     * hasn't been set
+     */
+    public Long getAge() {
+        return age;
+    }
+
+    /**
+     * Returns a copy of these metrics with the age set from {@link #getReceivedAt()}. Metrics without a receive time
+     * are returned as is.
+     * @param now current time in milliseconds
+     * @return
+     */
+    public HystrixClusterMetrics withAge(long now) {
+        if(receivedAt == 0) {
+            return this;
+        }
+        HystrixClusterMetrics copy = new HystrixClusterMetrics(this);
+        copy.age = Math.max(0, now - receivedAt);
+        return copy;
+    }
+
     public Type getType() {
         return type;
     }
 
+    /**
+     * @return true for last known metrics, of a stream that isn't connected or restored from a checkpoint, that haven't
+     * been replaced by live metrics yet
+     */
+    @JsonIgnore
+    public boolean isStale() {
+        return stale != null && stale;
+    }
+
+    /**
+     * Returns a copy of these metrics flagged as stale
+     * @return
+     */
+    public HystrixClusterMetrics asStale() {
+        HystrixClusterMetrics copy = new HystrixClusterMetrics(this);
+        copy.stale = Boolean.TRUE;
+        return copy;
+    }
+
     @Override
     public String toString() {
         return "HystrixClusterMetrics{" +
@@ -173,7 +379,12 @@ public final class HystrixClusterMetrics {
                 ", commandCount=" + commandCount +
                 ", requestRate=" + requestRate +
                 ", errorPercentage=" + errorPercentage +
+                ", latencyMean=" + latencyMean +
+                ", anomalyScore=" + anomalyScore +
+                ", receivedAt=" + receivedAt +
+                ", age=" + age +
                 ", type=" + type +
+                ", stale=" + stale +
                 '}';
     }
 }
@@ -17,6 +17,11 @@
 package com.bodybuilding.argos.discovery;
 
 import rx.Observable;
+import rx.schedulers.Timestamped;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * An object that emits cluster metrics for a single Hystrix cluster. This is usually fed from a single Turbine stream.
@@ -33,4 +38,38 @@ public interface HystrixClusterMonitor {
      * @return
      */
     Observable<String> observeJson();
+
+    /**
+     * Returns the raw Hystrix Metrics json for this cluster, stamped with the time each event was received. The
+     * default stamps the events as they are observed.
+     * @return
+     */
+    default Observable<Timestamped<String>> observeTimestampedJson() {
+        return observeJson().timestamp();
+    }
+
+    /**
+     * Returns the latest metrics of each command currently aggregated for this cluster, used to checkpoint the
+     * cluster's state. The default has no command state.
+     * @return
+     */
+    default Collection<HystrixCommandMetrics> getCommandMetrics() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Changes the Turbine URLs of a running monitor. The default can't, and the cluster is restarted instead.
+     * @param streamUrls Turbine URLs in order of preference
+     * @return true if the monitor uses the new URLs from now on
+     */
+    default boolean updateUrls(List<String> streamUrls) {
+        return false;
+    }
+
+    /**
+     * Stops the monitor when its cluster is removed. Implementations should complete their observables and release
+     * connections, a closed monitor is not reused.
+     */
+    default void close() {
+    }
 }
@@ -16,9 +16,21 @@
 
 package com.bodybuilding.argos.discovery;
 
+import java.util.List;
+
 /**
  * Creates instances of {@link HystrixClusterMonitor}
  */
 public interface HystrixClusterMonitorFactory {
     HystrixClusterMonitor createMonitor(String name, String streamUrl);
+
+    /**
+     * Creates a monitor for a cluster served by several turbine URLs. The default only uses the primary URL.
+     * @param name
+     * @param streamUrls turbine URLs in order of preference
+     * @return
+     */
+    default HystrixClusterMonitor createMonitor(String name, List<String> streamUrls) {
+        return createMonitor(name, streamUrls.get(0));
+    }
 }
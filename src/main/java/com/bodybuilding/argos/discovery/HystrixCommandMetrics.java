@@ -35,11 +35,20 @@ class HystrixCommandMetrics {
     private int reportingHosts;
     private double requestRate;
     private double errorPercentage;
+    private double latencyMean;
+    private long receivedAt;
 
 
     private HystrixCommandMetrics() {
     }
 
+    HystrixCommandMetrics(String name, Integer reportingHosts, Integer timedOut, Integer failed, Integer success,
+                          Integer shortCircuited, Integer threadPoolRejected, Integer semaphoreRejected,
+                          Double rollingWindowMs) {
+        this(name, reportingHosts, timedOut, failed, success, shortCircuited, threadPoolRejected, semaphoreRejected,
+                rollingWindowMs, null);
+    }
+
     @JsonCreator
     HystrixCommandMetrics(
             @JsonProperty("name") String name,
@@ -50,7 +59,8 @@ class HystrixCommandMetrics {
             @JsonProperty("rollingCountShortCircuited") Integer shortCircuited,
             @JsonProperty("rollingCountThreadPoolRejected") Integer threadPoolRejected,
             @JsonProperty("rollingCountSemaphoreRejected") Integer semaphoreRejected,
-            @JsonProperty("propertyValue_metricsRollingStatisticalWindowInMilliseconds") Double rollingWindowMs
+            @JsonProperty("propertyValue_metricsRollingStatisticalWindowInMilliseconds") Double rollingWindowMs,
+            @JsonProperty("latencyExecute_mean") Integer latencyExecuteMean
     ) {
 
         this.name = name;
@@ -83,6 +93,43 @@ class HystrixCommandMetrics {
             this.errorPercentage = 0D;
         }
 
+        // Turbine sums the mean latency of every host
+        if(latencyExecuteMean != null && this.reportingHosts > 0) {
+            this.latencyMean = (double) latencyExecuteMean / this.reportingHosts;
+        }
+
+    }
+
+    /**
+     * Sums several commands into one, as if they were a single command
+     * @param name name of the combined command
+     * @param commands
+     * @return
+     */
+    static HystrixCommandMetrics combine(String name, Iterable<HystrixCommandMetrics> commands) {
+        HystrixCommandMetrics combined = new HystrixCommandMetrics();
+        combined.name = name;
+        double weightedLatency = 0;
+        for (HystrixCommandMetrics c : commands) {
+            combined.success += c.success;
+            combined.rejected += c.rejected;
+            combined.failed += c.failed;
+            combined.timedOut += c.timedOut;
+            combined.requests += c.requests;
+            combined.shortCircuited += c.shortCircuited;
+            combined.requestRate += c.requestRate;
+            combined.reportingHosts = Math.max(combined.reportingHosts, c.reportingHosts);
+            weightedLatency += c.latencyMean * c.requests;
+            if(c.receivedAt > 0 && (combined.receivedAt == 0 || c.receivedAt < combined.receivedAt)) {
+                combined.receivedAt = c.receivedAt;
+            }
+        }
+        if(combined.requests > 0) {
+            long errorCount = combined.failed + combined.timedOut + combined.rejected + combined.shortCircuited;
+            combined.errorPercentage = (double) errorCount / combined.requests * 100;
+            combined.latencyMean = weightedLatency / combined.requests;
+        }
+        return combined;
     }
 
     public int getSuccess() {
@@ -117,6 +164,10 @@ class HystrixCommandMetrics {
         return requestRate;
     }
 
+    public double getLatencyMean() {
+        return latencyMean;
+    }
+
     public int getReportingHosts() {
         return reportingHosts;
     }
@@ -124,4 +175,15 @@ class HystrixCommandMetrics {
     public String getName() {
         return name;
     }
+
+    /**
+     * @return time this command's event was read from the stream in milliseconds, 0 if unknown
+     */
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+
+    void setReceivedAt(long receivedAt) {
+        this.receivedAt = receivedAt;
+    }
 }
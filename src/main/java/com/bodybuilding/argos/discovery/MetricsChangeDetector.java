@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.discovery;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Decides whether a {@link HystrixClusterMetrics} snapshot is worth emitting by comparing it to the last snapshot
+ * emitted for the same cluster. Counts must match exactly, rates and percentages are compared using the configured
+ * epsilons. Unchanged snapshots are still emitted once every heartbeat interval so clients can tell an idle cluster
+ * from a stale one. Group rollups are tracked apart from the clusters, so a group may share a cluster's name.
+ */
+@Component
+@ConfigurationProperties(prefix = "stream.change-detection")
+public class MetricsChangeDetector {
+    private final Map<String, Emitted> lastEmitted = Maps.newConcurrentMap();
+    private boolean enabled = true;
+    private double requestRateEpsilon = 0.05;
+    private double errorPercentageEpsilon = 0.05;
+    private long heartbeatIntervalMs = 5_000;
+
+    public MetricsChangeDetector() {
+    }
+
+    @VisibleForTesting
+    MetricsChangeDetector(double requestRateEpsilon, double errorPercentageEpsilon, long heartbeatIntervalMs) {
+        this.requestRateEpsilon = requestRateEpsilon;
+        this.errorPercentageEpsilon = errorPercentageEpsilon;
+        this.heartbeatIntervalMs = heartbeatIntervalMs;
+    }
+
+    /**
+     * Returns true if the metrics differ from the last emitted metrics for the cluster or the heartbeat interval
+     * has elapsed. When this returns true the metrics are recorded as the last emitted snapshot.
+     * @param metrics latest cluster metrics
+     * @return true if the metrics should be sent to clients
+     */
+    public boolean shouldEmit(HystrixClusterMetrics metrics) {
+        return shouldEmit(metrics, System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    boolean shouldEmit(HystrixClusterMetrics metrics, long now) {
+        Objects.requireNonNull(metrics);
+        if(!enabled) {
+            return true;
+        }
+
+        String key = key(metrics);
+        Emitted previous = lastEmitted.get(key);
+        if(previous != null
+                && now - previous.emittedAt < heartbeatIntervalMs
+                && isUnchanged(previous.metrics, metrics)) {
+            return false;
+        }
+
+        lastEmitted.put(key, new Emitted(metrics, now));
+        return true;
+    }
+
+    private static String key(HystrixClusterMetrics metrics) {
+        HystrixClusterMetrics.Type type = metrics.getType();
+        return type == null || type == HystrixClusterMetrics.Type.CLUSTER
+                ? metrics.getClusterName() : type + ":" + metrics.getClusterName();
+    }
+
+    private boolean isUnchanged(HystrixClusterMetrics a, HystrixClusterMetrics b) {
+        return a.isStale() == b.isStale()
+                && a.getRequestCount() == b.getRequestCount()
+                && a.getSuccessCount() == b.getSuccessCount()
+                && a.getFailCount() == b.getFailCount()
+                && a.getTimeoutCount() == b.getTimeoutCount()
+                && a.getShortCircuitedCount() == b.getShortCircuitedCount()
+                && a.getRejectedCount() == b.getRejectedCount()
+                && a.getReportingHosts() == b.getReportingHosts()
+                && a.getCommandCount() == b.getCommandCount()
+                && Math.abs(a.getRequestRate() - b.getRequestRate()) <= requestRateEpsilon
+                && Math.abs(a.getErrorPercentage() - b.getErrorPercentage()) <= errorPercentageEpsilon;
+    }
+
+    /**
+     * Forgets the last emitted snapshot for a cluster, the next snapshot will always be emitted.
+     * @param clusterName
+     */
+    public void reset(String clusterName) {
+        lastEmitted.remove(clusterName);
+    }
+
+    private static final class Emitted {
+        private final HystrixClusterMetrics metrics;
+        private final long emittedAt;
+
+        private Emitted(HystrixClusterMetrics metrics, long emittedAt) {
+            this.metrics = metrics;
+            this.emittedAt = emittedAt;
+        }
+    }
+
+    // these are here for spring
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public double getRequestRateEpsilon() {
+        return requestRateEpsilon;
+    }
+
+    public void setRequestRateEpsilon(double requestRateEpsilon) {
+        this.requestRateEpsilon = requestRateEpsilon;
+    }
+
+    public double getErrorPercentageEpsilon() {
+        return errorPercentageEpsilon;
+    }
+
+    public void setErrorPercentageEpsilon(double errorPercentageEpsilon) {
+        this.errorPercentageEpsilon = errorPercentageEpsilon;
+    }
+
+    public long getHeartbeatIntervalMs() {
+        return heartbeatIntervalMs;
+    }
+
+    public void setHeartbeatIntervalMs(long heartbeatIntervalMs) {
+        this.heartbeatIntervalMs = heartbeatIntervalMs;
+    }
+}
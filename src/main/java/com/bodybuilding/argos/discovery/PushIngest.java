@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.discovery;
+
+import com.bodybuilding.argos.metrics.ClusterPipelineStats;
+import com.google.common.collect.Maps;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the events that hosts Argos can't stream from, for example behind NAT, push to {@code /ingest/<name>}. A
+ * cluster with the URL {@code push:<name>} is monitored by a {@link DirectHystrixClusterMonitor} that merges the
+ * pushed events of its hosts exactly like streamed ones. Events are only kept for monitored clusters, at most
+ * {@code max-hosts-per-cluster} hosts are kept per cluster, and a host that stops pushing is dropped after
+ * {@code host-expire-ms}.
+ */
+@Component
+@ConfigurationProperties(prefix = "ingest")
+public class PushIngest {
+    public static final String SCHEME = "push:";
+    private final Map<String, PushedCluster> clusters = Maps.newConcurrentMap();
+
+    private long hostExpireMs = 10000;
+    private int maxHostsPerCluster = 10000;
+    private int maxLineBytes = 1 << 20;
+    private long requestTimeoutMs = 60000;
+
+    /**
+     * @param name the name in the cluster's {@code push:<name>} URL
+     * @return true when events pushed for the name are kept
+     */
+    public boolean isMonitored(String name) {
+        return clusters.containsKey(name);
+    }
+
+    /**
+     * @param name the name in the cluster's {@code push:<name>} URL
+     * @param host identifies the host the event is from, the events of each host are merged like streamed hosts
+     * @param json a single Hystrix event
+     * @param receivedAt
+     * @return false when the event was dropped, because the cluster isn't monitored, it has too many hosts or the
+     *         event isn't valid json
+     */
+    public boolean accept(String name, String host, String json, long receivedAt) {
+        PushedCluster cluster = clusters.get(name);
+        if(cluster == null) {
+            return false;
+        }
+        HostEvents events = cluster.hosts.get(host);
+        if(events == null) {
+            events = cluster.hosts.computeIfAbsent(host, h -> {
+                // hosts pushing for the first time at once each take a slot, so they can't overshoot the cap
+                if(cluster.hostCount.incrementAndGet() > maxHostsPerCluster) {
+                    cluster.hostCount.decrementAndGet();
+                    return null;
+                }
+                return new HostEvents(h, cluster.stats, cluster.limits, receivedAt);
+            });
+            if(events == null) {
+                return false;
+            }
+        }
+        return events.onEvent(json, receivedAt);
+    }
+
+    /**
+     * Starts keeping the events pushed for a cluster
+     * @param name
+     * @param stats of the cluster
+     * @param limits bounds the commands kept for each host
+     * @return the cluster's hosts, updated as hosts push and expire
+     */
+    synchronized Collection<HostEvents> open(String name, ClusterPipelineStats stats, CommandLimits limits) {
+        PushedCluster cluster = clusters.computeIfAbsent(name, n -> new PushedCluster(stats, limits));
+        cluster.stats = stats;
+        cluster.refs++;
+        cluster.hosts.values().forEach(h -> h.setStats(stats));
+        return Collections.unmodifiableCollection(cluster.hosts.values());
+    }
+
+    synchronized void close(String name) {
+        PushedCluster cluster = clusters.get(name);
+        if(cluster != null && --cluster.refs == 0) {
+            clusters.remove(name);
+        }
+    }
+
+    @Scheduled(fixedRate = 5000)
+    public void evict() {
+        evict(System.currentTimeMillis());
+    }
+
+    void evict(long now) {
+        for (PushedCluster cluster : clusters.values()) {
+            cluster.hosts.values().removeIf(h -> {
+                if(now - h.getLastEventAt() > hostExpireMs) {
+                    cluster.hostCount.decrementAndGet();
+                    return true;
+                }
+                return false;
+            });
+        }
+    }
+
+    /* for spring property injection */
+    public long getHostExpireMs() {
+        return hostExpireMs;
+    }
+
+    public void setHostExpireMs(long hostExpireMs) {
+        this.hostExpireMs = hostExpireMs;
+    }
+
+    public int getMaxHostsPerCluster() {
+        return maxHostsPerCluster;
+    }
+
+    public void setMaxHostsPerCluster(int maxHostsPerCluster) {
+        this.maxHostsPerCluster = maxHostsPerCluster;
+    }
+
+    public int getMaxLineBytes() {
+        return maxLineBytes;
+    }
+
+    public void setMaxLineBytes(int maxLineBytes) {
+        this.maxLineBytes = maxLineBytes;
+    }
+
+    public long getRequestTimeoutMs() {
+        return requestTimeoutMs;
+    }
+
+    public void setRequestTimeoutMs(long requestTimeoutMs) {
+        this.requestTimeoutMs = requestTimeoutMs;
+    }
+
+    private static final class PushedCluster {
+        private final Map<String, HostEvents> hosts = Maps.newConcurrentMap();
+        private final AtomicInteger hostCount = new AtomicInteger(); // slots taken in hosts, only evict frees them
+        private final CommandLimits limits;
+        private volatile ClusterPipelineStats stats;
+        private int refs; // guarded by PushIngest
+
+        private PushedCluster(ClusterPipelineStats stats, CommandLimits limits) {
+            this.stats = stats;
+            this.limits = limits;
+        }
+    }
+}
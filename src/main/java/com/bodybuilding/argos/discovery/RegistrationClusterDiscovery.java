@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.discovery;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import rx.Observable;
+import rx.subjects.PublishSubject;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * {@link ClusterDiscovery} implementation where clusters are registered through the /clusters API, for example by
+ * deploy tooling, instead of being polled. Changes are emitted as soon as they are registered. Registered clusters are
+ * saved to {@code discovery.registration.state-file} so they survive restarts.
+ */
+@ConfigurationProperties(prefix = "discovery.registration")
+public class RegistrationClusterDiscovery implements ClusterDiscovery {
+    private static final Logger LOG = LoggerFactory.getLogger(RegistrationClusterDiscovery.class);
+    private static final ObjectMapper om = new ObjectMapper();
+    private static final TypeReference<Map<String, String>> CLUSTER_MAP = new TypeReference<Map<String, String>>() {
+    };
+
+    private final Object lock = new Object();
+    private final Map<String, String> clusters = Maps.newLinkedHashMap(); // guarded by lock
+    private final PublishSubject<Cluster> updates = PublishSubject.create(); // only emits while holding lock
+    private String stateFile = "registered-clusters.json";
+
+    public RegistrationClusterDiscovery() {
+    }
+
+    @VisibleForTesting
+    RegistrationClusterDiscovery(String stateFile) {
+        this.stateFile = stateFile;
+        load();
+    }
+
+    /**
+     * Loads the clusters saved by a previous run
+     */
+    @PostConstruct
+    public void load() {
+        Path file = Paths.get(stateFile);
+        if(!Files.exists(file)) {
+            return;
+        }
+        try {
+            Map<String, String> saved = om.readValue(file.toFile(), CLUSTER_MAP);
+            synchronized (lock) {
+                clusters.clear();
+                clusters.putAll(saved);
+            }
+            LOG.info("Loaded {} registered clusters from {}", saved.size(), file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed loading registered clusters from " + file, e);
+        }
+    }
+
+    /**
+     * Emits the registered clusters followed by every change
+     * @return
+     */
+    @Override
+    public Observable<Cluster> getClusters() {
+        return Observable.create(subscriber -> {
+            synchronized (lock) {
+                clusters.forEach((name, url) -> subscriber.onNext(new Cluster(name, url)));
+                subscriber.add(updates.subscribe(subscriber::onNext));
+            }
+        });
+    }
+
+    /**
+     * Adds a cluster or changes its URL
+     * @param name
+     * @param url turbine stream URL
+     * @return true if the cluster wasn't registered before
+     */
+    public boolean register(String name, String url) {
+        validate(name, url);
+        synchronized (lock) {
+            String previous = clusters.get(name);
+            if(url.equals(previous)) {
+                return false;
+            }
+            Map<String, String> next = Maps.newLinkedHashMap(clusters);
+            next.put(name, url);
+            save(next);
+            clusters.put(name, url);
+            if(previous != null) {
+                updates.onNext(new Cluster(name, previous, false));
+            }
+            updates.onNext(new Cluster(name, url));
+            LOG.info("Registered {} | {}", name, url);
+            return previous == null;
+        }
+    }
+
+    /**
+     * Removes a cluster
+     * @param name
+     * @return true if the cluster was registered
+     */
+    public boolean deregister(String name) {
+        synchronized (lock) {
+            String url = clusters.get(name);
+            if(url == null) {
+                return false;
+            }
+            Map<String, String> next = Maps.newLinkedHashMap(clusters);
+            next.remove(name);
+            save(next);
+            clusters.remove(name);
+            updates.onNext(new Cluster(name, url, false));
+            LOG.info("Deregistered {}", name);
+            return true;
+        }
+    }
+
+    /**
+     * Replaces all registered clusters, only the differences are emitted
+     * @param latest cluster URLs by name
+     * @return number of clusters added, removed or changed
+     */
+    public int sync(Map<String, String> latest) {
+        latest.forEach(RegistrationClusterDiscovery::validate);
+        synchronized (lock) {
+            List<Cluster> changes = Lists.newArrayList();
+            Map<String, String> next = Maps.newLinkedHashMap(clusters);
+            next.entrySet().removeIf(e -> {
+                if(!e.getValue().equals(latest.get(e.getKey()))) {
+                    changes.add(new Cluster(e.getKey(), e.getValue(), false));
+                    return true;
+                }
+                return false;
+            });
+            latest.forEach((name, url) -> {
+                if(next.putIfAbsent(name, url) == null) {
+                    changes.add(new Cluster(name, url));
+                }
+            });
+            if(!changes.isEmpty()) {
+                save(next);
+                clusters.clear();
+                clusters.putAll(next);
+                changes.forEach(updates::onNext);
+                LOG.info("Synced registered clusters: {}", changes);
+            }
+            return (int) changes.stream().map(Cluster::getName).distinct().count();
+        }
+    }
+
+    /**
+     * Returns the registered cluster URLs by name
+     * @return
+     */
+    public Map<String, String> getRegisteredClusters() {
+        synchronized (lock) {
+            return ImmutableMap.copyOf(new TreeMap<>(clusters));
+        }
+    }
+
+    private static void validate(String name, String url) {
+        if(Strings.isNullOrEmpty(name) || name.contains("|")) {
+            throw new IllegalArgumentException("Invalid cluster name: " + name);
+        }
+        try {
+            new URL(Objects.requireNonNull(url, "url"));
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid turbine stream URL for " + name + ": " + url, e);
+        }
+    }
+
+    // saved before the change is applied so a failed save changes nothing, write and rename so a crash never leaves
+    // a partial file
+    private void save(Map<String, String> next) {
+        Path file = Paths.get(stateFile).toAbsolutePath();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            om.writerWithDefaultPrettyPrinter().writeValue(tmp.toFile(), next);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed saving registered clusters to " + file, e);
+        }
+    }
+
+    // these are here for spring
+    public String getStateFile() {
+        return stateFile;
+    }
+
+    public void setStateFile(String stateFile) {
+        this.stateFile = stateFile;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.discovery;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Maps;
+import io.netty.buffer.ByteBuf;
+import io.reactivex.netty.pipeline.PipelineConfigurators;
+import io.reactivex.netty.protocol.http.client.HttpClient;
+import io.reactivex.netty.protocol.http.client.HttpClientRequest;
+import io.reactivex.netty.protocol.http.sse.ServerSentEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Observable;
+import rx.subjects.PublishSubject;
+import rx.subjects.SerializedSubject;
+import rx.subjects.Subject;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A single connection to the /cluster.stream of another Argos, shared by the monitors of every cluster federated from
+ * it. Each event is parsed once and handed to the monitor of its cluster, group and global rollups are skipped. The
+ * connection is open while any of the monitors is subscribed.
+ */
+final class RemoteArgosStream {
+    private static final Logger LOG = LoggerFactory.getLogger(RemoteArgosStream.class);
+    private static final ObjectMapper om = new ObjectMapper();
+    private final String baseUrl;
+    private final ConnectionAdmission admission;
+    private final StreamTimeouts timeouts;
+    private final Map<String, Subject<Event, Event>> clusters = Maps.newConcurrentMap();
+    private final Observable<Event> dispatcher; // never emits, keeps the connection open while subscribed
+
+    /**
+     * @param baseUrl URL of the other Argos
+     */
+    RemoteArgosStream(String baseUrl, ConnectionAdmission admission, StreamTimeouts timeouts) {
+        this.baseUrl = baseUrl;
+        this.admission = admission;
+        this.timeouts = timeouts;
+        this.dispatcher = events()
+                .doOnNext(e -> {
+                    if(!isCluster(e.json)) {
+                        return; // a group rollup may share a cluster's name
+                    }
+                    Subject<Event, Event> cluster = clusters.get(e.json.path("clusterName").asText());
+                    if(cluster != null) {
+                        cluster.onNext(e);
+                    }
+                })
+                .ignoreElements()
+                .share();
+    }
+
+    /**
+     * @param clusterName name of the cluster in the other Argos
+     * @return the cluster's events
+     */
+    Observable<Event> observe(String clusterName) {
+        return Observable.defer(() -> clusters.computeIfAbsent(clusterName,
+                n -> new SerializedSubject<>(PublishSubject.create()))
+                .mergeWith(dispatcher));
+    }
+
+    /**
+     * Stops handing out events for a cluster that is no longer monitored
+     * @param clusterName
+     */
+    void release(String clusterName) {
+        clusters.remove(clusterName);
+    }
+
+    private Observable<Event> events() {
+        URI uri = URI.create(baseUrl);
+        int port = HttpClients.port(uri);
+        HttpClient<ByteBuf, ServerSentEvent> client =
+                HttpClients.<ByteBuf, ServerSentEvent>newBuilder(uri.getScheme(), uri.getHost(), port)
+                        .withNoConnectionPooling()
+                        .pipelineConfigurator(PipelineConfigurators.<ByteBuf>clientSseConfigurator())
+                        .build();
+        long stallTimeoutMs = timeouts.getStallTimeoutMs();
+        AtomicLong backoffMs = new AtomicLong(); // reset once streaming
+        return Observable.defer(() -> admission.admit(uri.getHost() + ":" + port,
+                        client.submit(HttpClientRequest.createGet(uri.getPath() + "/cluster.stream"))
+                                .timeout(stallTimeoutMs, TimeUnit.MILLISECONDS)))
+                .flatMap(response -> {
+                    if(response.getStatus().code() != 200) {
+                        return Observable.error(new RuntimeException("Failed to connect: " + response.getStatus()));
+                    }
+                    LOG.info("Federation => Streaming from {}", baseUrl);
+                    // every cluster is sent at least once per heartbeat, a quiet stream is stalled
+                    return response.getContent()
+                            .timeout(stallTimeoutMs, TimeUnit.MILLISECONDS)
+                            .map(sse -> {
+                                backoffMs.set(0);
+                                return parse(sse.contentAsString(), sse.content().readableBytes());
+                            })
+                            .filter(e -> e != null);
+                })
+                .retryWhen(errors -> errors.flatMap(t -> retry(backoffMs, t)))
+                .repeatWhen(completed -> completed.flatMap(c -> retry(backoffMs, null)));
+    }
+
+    // an Argos from before group rollups doesn't send a type
+    private static boolean isCluster(JsonNode json) {
+        return !json.has("type") || HystrixClusterMetrics.Type.CLUSTER.name().equals(json.path("type").asText());
+    }
+
+    private Observable<Long> retry(AtomicLong backoffMs, Throwable t) {
+        long waitMs = admission.nextBackoffMs(backoffMs.get());
+        backoffMs.set(waitMs);
+        LOG.warn("Federation => Lost stream from {}, reconnecting in {} ms: {}", baseUrl, waitMs, t);
+        return Observable.timer(waitMs, TimeUnit.MILLISECONDS);
+    }
+
+    private Event parse(String json, int size) {
+        try {
+            return new Event(om.readTree(json), System.currentTimeMillis(), size);
+        } catch (IOException e) {
+            LOG.warn("Exception parsing json from {}", baseUrl, e);
+            return null;
+        }
+    }
+
+    /**
+     * Cluster metrics json read from the other Argos
+     */
+    static final class Event {
+        final JsonNode json;
+        final long receivedAt;
+        final int size;
+
+        Event(JsonNode json, long receivedAt, int size) {
+            this.json = json;
+            this.receivedAt = receivedAt;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.discovery;
+
+import com.bodybuilding.argos.capture.SegmentReader;
+import com.bodybuilding.argos.metrics.ClusterPipelineStats;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Observable;
+import rx.schedulers.Schedulers;
+import rx.schedulers.Timestamped;
+import rx.subjects.ReplaySubject;
+import rx.subjects.SerializedSubject;
+import rx.subjects.Subject;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a stream captured by {@link com.bodybuilding.argos.capture.StreamCapture}. Events are replayed at the
+ * recorded pace times a speed factor, or as fast as possible with a speed of 0.
+ * <p>
+ * Metrics are generated once per second of recorded time and commands expire after 10 seconds of recorded time, so
+ * the metrics produced from a capture are the same at any speed. Receive times are the time of the replay so the
+ * freshness of replayed data reflects Argos and not the age of the capture.
+ */
+public final class ReplayHystrixClusterMonitor implements HystrixClusterMonitor {
+    private static final Logger LOG = LoggerFactory.getLogger(ReplayHystrixClusterMonitor.class);
+    private static final long TICK_MS = 1000;
+    private static final ObjectMapper om = new ObjectMapper();
+
+    private final String clusterName;
+    private final Path directory;
+    private final double speed;
+    private final boolean loop;
+    private final ClusterPipelineStats stats;
+    private final Subject<Boolean, Boolean> closed = new SerializedSubject<>(ReplaySubject.createWithSize(1));
+    private final Observable<Timestamped<String>> recorded;
+    private final Observable<HystrixClusterMetrics> observable;
+
+    /**
+     * @param clusterName
+     * @param directory capture directory of the cluster
+     * @param speed 1 for the recorded pace, N for N times faster, 0 for as fast as possible
+     * @param loop start over after the last event
+     * @param stats
+     */
+    public ReplayHystrixClusterMonitor(String clusterName, Path directory, double speed, boolean loop,
+                                       ClusterPipelineStats stats) {
+        if(speed < 0) {
+            throw new IllegalArgumentException("speed must not be negative: " + speed);
+        }
+        this.clusterName = Objects.requireNonNull(clusterName);
+        this.directory = Objects.requireNonNull(directory);
+        this.speed = speed;
+        this.loop = loop;
+        this.stats = Objects.requireNonNull(stats);
+
+        Observable<Timestamped<String>> events = Observable.defer(this::replay).subscribeOn(Schedulers.io());
+        this.recorded = (loop ? events.repeat() : events).takeUntil(closed).share();
+        this.observable = recorded.compose(this::aggregate).share();
+    }
+
+    /**
+     * Creates a monitor from a stream URL like {@code file:/captures/cluster1?speed=10&loop=true}
+     * @param clusterName
+     * @param streamUrl
+     * @param stats
+     * @return
+     */
+    public static ReplayHystrixClusterMonitor fromUrl(String clusterName, String streamUrl, ClusterPipelineStats stats) {
+        URI uri = URI.create(streamUrl);
+        Map<String, String> query = Strings.isNullOrEmpty(uri.getRawQuery()) ? java.util.Collections.emptyMap()
+                : Splitter.on('&').withKeyValueSeparator('=').split(uri.getRawQuery());
+        double speed = Double.parseDouble(query.getOrDefault("speed", "1"));
+        boolean loop = Boolean.parseBoolean(query.getOrDefault("loop", "false"));
+        return new ReplayHystrixClusterMonitor(clusterName, Paths.get(uri.getPath()), speed, loop, stats);
+    }
+
+    private Observable<Timestamped<String>> replay() {
+        return Observable.create(subscriber -> {
+            LOG.info("Replaying {} from {} at {}x", clusterName, directory, speed == 0 ? "max" : speed);
+            try (SegmentReader reader = new SegmentReader(SegmentReader.segments(directory))) {
+                long start = System.nanoTime();
+                long first = -1;
+                Timestamped<String> event;
+                while (!subscriber.isUnsubscribed() && (event = reader.next()) != null) {
+                    if(speed > 0) {
+                        if(first < 0) {
+                            first = event.getTimestampMillis();
+                        }
+                        long due = start + (long) (TimeUnit.MILLISECONDS.toNanos(event.getTimestampMillis() - first) / speed);
+                        for (long wait = due - System.nanoTime(); wait > 0 && !subscriber.isUnsubscribed();
+                             wait = due - System.nanoTime()) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    }
+                    stats.recordEvent(event.getValue().getBytes(StandardCharsets.UTF_8).length);
+                    subscriber.onNext(event);
+                }
+                subscriber.onCompleted();
+            } catch (IOException e) {
+                subscriber.onError(e);
+            }
+        });
+    }
+
+    /**
+     * Aggregates the recorded events into cluster metrics, one per second of recorded time that had command events
+     * @param events
+     * @return
+     */
+    private Observable<HystrixClusterMetrics> aggregate(Observable<Timestamped<String>> events) {
+        return Observable.defer(() -> {
+            RecordedTicker ticker = new RecordedTicker();
+            ClusterMetricsAggregator[] aggregator = {newAggregator(ticker)};
+            long[] nextTick = {Long.MIN_VALUE};
+            boolean[] pending = {false};
+
+            return events
+                    .concatMap(event -> {
+                        long time = event.getTimestampMillis();
+                        List<HystrixClusterMetrics> ticks = Lists.newArrayListWithCapacity(1);
+                        if(nextTick[0] != Long.MIN_VALUE && (time >= nextTick[0] || time < nextTick[0] - TICK_MS)) {
+                            if(pending[0]) {
+                                if(time >= nextTick[0]) {
+                                    ticker.set(nextTick[0]);
+                                }
+                                ticks.add(generateMetrics(aggregator[0]));
+                                pending[0] = false;
+                            }
+                            if(time >= nextTick[0]) {
+                                // skip ahead over seconds without events
+                                nextTick[0] += ((time - nextTick[0]) / TICK_MS + 1) * TICK_MS;
+                            } else {
+                                // looped back to the start of the capture
+                                nextTick[0] = Long.MIN_VALUE;
+                                aggregator[0] = newAggregator(ticker);
+                            }
+                        }
+                        if(nextTick[0] == Long.MIN_VALUE) {
+                            nextTick[0] = time + TICK_MS;
+                        }
+                        ticker.set(time);
+                        if(ClusterMetricsAggregator.isCommandEvent(event.getValue())) {
+                            HystrixCommandMetrics metrics = jsonToMetrics(event.getValue());
+                            if(metrics != null) {
+                                aggregator[0].update(metrics);
+                                pending[0] = true;
+                            }
+                        }
+                        return Observable.from(ticks);
+                    })
+                    .concatWith(Observable.defer(() -> pending[0]
+                            ? Observable.just(generateMetrics(aggregator[0])) : Observable.empty()));
+        });
+    }
+
+    private ClusterMetricsAggregator newAggregator(Ticker ticker) {
+        return new ClusterMetricsAggregator(clusterName, directory.toUri().toString(), ticker, new CommandLimits(),
+                stats);
+    }
+
+    private HystrixClusterMetrics generateMetrics(ClusterMetricsAggregator aggregator) {
+        long start = System.nanoTime();
+        HystrixClusterMetrics metrics = aggregator.generateMetrics();
+        stats.recordTick(System.nanoTime() - start);
+        return metrics;
+    }
+
+    private HystrixCommandMetrics jsonToMetrics(String json) {
+        long start = System.nanoTime();
+        try {
+            HystrixCommandMetrics metrics = om.readValue(json, HystrixCommandMetrics.class);
+            metrics.setReceivedAt(System.currentTimeMillis());
+            stats.recordParse(System.nanoTime() - start);
+            return metrics;
+        } catch (Exception e) {
+            stats.recordParseError();
+            LOG.warn("Exception parsing json", e);
+            return null;
+        }
+    }
+
+    @Override
+    public Observable<HystrixClusterMetrics> observe() {
+        return observable;
+    }
+
+    @Override
+    public Observable<String> observeJson() {
+        return recorded.map(Timestamped::getValue);
+    }
+
+    @Override
+    public Observable<Timestamped<String>> observeTimestampedJson() {
+        // stamped with the replay time like a live stream
+        return recorded.map(t -> new Timestamped<>(System.currentTimeMillis(), t.getValue()));
+    }
+
+    @Override
+    public void close() {
+        closed.onNext(true);
+    }
+
+    // time source for the command cache that follows the recorded time
+    private static final class RecordedTicker extends Ticker {
+        private volatile long nanos;
+
+        void set(long millis) {
+            nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+}
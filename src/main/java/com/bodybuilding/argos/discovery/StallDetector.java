@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.discovery;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Learns how long a cluster's stream normally goes without an event and decides when a quiet stream is stalled.
+ * Turbine flushes every command of a cluster at once, so most gaps are near zero and the one between flushes is what
+ * matters. The detector keeps the largest gap seen in each of the last few {@value #BUCKET_MS} ms buckets, and a
+ * stream is stalled once it has been quiet for {@code stall-gap-multiple} times that gap, but never less than
+ * {@code stall-floor-ms} or more than {@code stall-timeout-ms}. Until a full bucket has been seen the ceiling is used.
+ */
+final class StallDetector {
+    @VisibleForTesting
+    static final long BUCKET_MS = 10_000;
+    private static final int BUCKETS = 6;
+
+    private final double multiple;
+    private final long floorMs;
+    private final long ceilingMs;
+    private final long[] maxGaps = new long[BUCKETS]; // guarded by this
+    private long bucket = -1; // guarded by this, index of the current bucket
+    private long firstSampleAt = -1; // guarded by this
+    private volatile long stallAfterMs;
+
+    StallDetector(double multiple, long floorMs, long ceilingMs) {
+        this.multiple = multiple;
+        this.floorMs = Math.min(floorMs, ceilingMs);
+        this.ceilingMs = ceilingMs;
+        this.stallAfterMs = ceilingMs;
+    }
+
+    /**
+     * Records the gap between two events of the same connection
+     * @param gapMs time since the previous event
+     * @param now receive time of the event
+     */
+    synchronized void record(long gapMs, long now) {
+        long current = now / BUCKET_MS;
+        if(current != bucket) {
+            // clear the buckets skipped since the last event, at most all of them
+            for (long b = Math.max(bucket + 1, current - BUCKETS + 1); b <= current; b++) {
+                maxGaps[(int) (b % BUCKETS)] = 0;
+            }
+            bucket = current;
+        }
+        int i = (int) (current % BUCKETS);
+        maxGaps[i] = Math.max(maxGaps[i], Math.max(0, gapMs));
+        if(firstSampleAt < 0) {
+            firstSampleAt = now;
+        }
+
+        if(now - firstSampleAt < BUCKET_MS) {
+            return; // not enough history yet, stay at the ceiling
+        }
+        long maxGap = 0;
+        for (long g : maxGaps) {
+            maxGap = Math.max(maxGap, g);
+        }
+        stallAfterMs = Math.max(floorMs, Math.min(ceilingMs, (long) Math.ceil(maxGap * multiple)));
+    }
+
+    /**
+     * @return how long the stream may go without an event before it's considered stalled
+     */
+    long getStallAfterMs() {
+        return stallAfterMs;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.discovery;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * How long a stream may go without events before it is considered stalled, and how long a monitor with several URLs
+ * waits for the first event before hedging to the next one. Shared by every monitor, see {@link StallDetector}.
+ */
+@Component
+@ConfigurationProperties(prefix = "turbine.stream")
+public class StreamTimeouts {
+    private long hedgeAfterMs = 5000;
+    private long stallTimeoutMs = 30000;
+    private long stallFloorMs = 2000;
+    private double stallGapMultiple = 4;
+
+    // these are here for spring
+    public long getHedgeAfterMs() {
+        return hedgeAfterMs;
+    }
+
+    public void setHedgeAfterMs(long hedgeAfterMs) {
+        this.hedgeAfterMs = hedgeAfterMs;
+    }
+
+    public long getStallTimeoutMs() {
+        return stallTimeoutMs;
+    }
+
+    public void setStallTimeoutMs(long stallTimeoutMs) {
+        this.stallTimeoutMs = stallTimeoutMs;
+    }
+
+    public long getStallFloorMs() {
+        return stallFloorMs;
+    }
+
+    public void setStallFloorMs(long stallFloorMs) {
+        this.stallFloorMs = stallFloorMs;
+    }
+
+    public double getStallGapMultiple() {
+        return stallGapMultiple;
+    }
+
+    public void setStallGapMultiple(double stallGapMultiple) {
+        this.stallGapMultiple = stallGapMultiple;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.ingest;
+
+import com.bodybuilding.argos.discovery.PushIngest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.zip.ZipException;
+
+/**
+ * Receives the Hystrix events hosts push for a cluster with the URL {@code push:<name>}, see {@link PushIngest}.
+ * <p>
+ * {@code POST /ingest/<name>?host=<host id>} with one event json per line, optionally with
+ * {@code Content-Encoding: gzip}. The host defaults to the remote address. The body is read with non-blocking IO and
+ * decoded as its chunks arrive, so slow or large uploads don't hold a thread each. Responds with the number of events
+ * accepted and rejected, 404 when no such cluster is monitored, or 400 when the body can't be inflated.
+ */
+public class IngestServlet extends HttpServlet {
+    private static final Logger LOG = LoggerFactory.getLogger(IngestServlet.class);
+    private static final int BUFFER_SIZE = 8192;
+    private final PushIngest ingest;
+
+    public IngestServlet(PushIngest ingest) {
+        this.ingest = Objects.requireNonNull(ingest);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String name = request.getPathInfo() == null ? "" : request.getPathInfo().substring(1);
+        if(!ingest.isMonitored(name)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "No cluster is monitored with the URL "
+                    + PushIngest.SCHEME + name);
+            return;
+        }
+        String host = request.getParameter("host") == null ? request.getRemoteAddr() : request.getParameter("host");
+        boolean gzip = "gzip".equalsIgnoreCase(request.getHeader("Content-Encoding"));
+        NdjsonDecoder decoder = new NdjsonDecoder(gzip, ingest.getMaxLineBytes(),
+                json -> ingest.accept(name, host, json, System.currentTimeMillis()));
+
+        AsyncContext async = request.startAsync();
+        async.setTimeout(ingest.getRequestTimeoutMs());
+        ServletInputStream in = request.getInputStream();
+        BodyReader reader = new BodyReader(name, host, decoder, async, in, response);
+        // the decoder's inflater is released on every way the request can end, including a timeout
+        async.addListener(reader);
+        in.setReadListener(reader);
+    }
+
+    private static final class BodyReader implements ReadListener, AsyncListener {
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private final String name;
+        private final String host;
+        private final NdjsonDecoder decoder;
+        private final AsyncContext async;
+        private final ServletInputStream in;
+        private final HttpServletResponse response;
+        private volatile boolean done;
+
+        BodyReader(String name, String host, NdjsonDecoder decoder, AsyncContext async, ServletInputStream in,
+                   HttpServletResponse response) {
+            this.name = name;
+            this.host = host;
+            this.decoder = decoder;
+            this.async = async;
+            this.in = in;
+            this.response = response;
+        }
+
+        @Override
+        public synchronized void onDataAvailable() throws IOException {
+            try {
+                int n;
+                while (!done && in.isReady() && (n = in.read(buffer)) >= 0) {
+                    decoder.write(buffer, 0, n);
+                }
+            } catch (ZipException e) {
+                fail(HttpServletResponse.SC_BAD_REQUEST, e);
+            }
+        }
+
+        @Override
+        public synchronized void onAllDataRead() throws IOException {
+            if(done) {
+                return;
+            }
+            try {
+                decoder.finish();
+            } catch (ZipException e) {
+                fail(HttpServletResponse.SC_BAD_REQUEST, e);
+                return;
+            }
+            done = true;
+            response.setContentType("application/json");
+            response.getOutputStream().write(("{\"accepted\":" + decoder.getAccepted() + ",\"rejected\":"
+                    + decoder.getRejected() + "}").getBytes(StandardCharsets.UTF_8));
+            async.complete();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            LOG.debug("Failed reading pushed events for {} from {}", name, host, t);
+            if(abort()) {
+                async.complete();
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            LOG.debug("Timed out reading pushed events for {} from {}", name, host);
+            if(abort()) {
+                async.complete();
+            }
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            LOG.debug("Failed pushed events request for {} from {}", name, host, event.getThrowable());
+            abort();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+        }
+
+        // false when the body was already finished or aborted
+        private synchronized boolean abort() {
+            if(done) {
+                return false;
+            }
+            done = true;
+            decoder.abort();
+            return true;
+        }
+
+        private void fail(int status, Exception e) throws IOException {
+            LOG.debug("Rejected pushed events for {} from {}", name, host, e);
+            abort();
+            response.sendError(status, e.getMessage());
+            async.complete();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.ingest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Predicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Splits a request body into lines as its chunks arrive, inflating it first when it's gzip encoded. Only the current
+ * line is buffered, so bodies of any size are decoded in constant memory. Lines longer than the limit are skipped.
+ * Not thread safe, the chunks of a body are written one at a time.
+ */
+final class NdjsonDecoder {
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final int FHCRC = 2;
+    private static final int MAX_HEADER = 64 * 1024;
+
+    private final Predicate<String> onLine;
+    private final int maxLineBytes;
+    private final Inflater inflater; // null when the body isn't compressed
+    private final byte[] inflated;
+    private byte[] header = new byte[0];
+    private boolean headerRead;
+
+    private byte[] line = new byte[1024];
+    private int lineLength;
+    private boolean skipping; // the current line is too long
+
+    private int accepted;
+    private int rejected;
+
+    /**
+     * @param gzip the body is gzip encoded
+     * @param maxLineBytes longest line kept
+     * @param onLine called with each non blank line, returns false when the line is rejected
+     */
+    NdjsonDecoder(boolean gzip, int maxLineBytes, Predicate<String> onLine) {
+        this.onLine = onLine;
+        this.maxLineBytes = maxLineBytes;
+        this.inflater = gzip ? new Inflater(true) : null;
+        this.inflated = gzip ? new byte[8192] : null;
+    }
+
+    void write(byte[] buf, int off, int len) throws ZipException {
+        if(inflater == null) {
+            split(buf, off, len);
+            return;
+        }
+        if(!headerRead) {
+            header = Arrays.copyOf(header, header.length + len);
+            System.arraycopy(buf, off, header, header.length - len, len);
+            int headerLength = gzipHeaderLength(header);
+            if(headerLength < 0) {
+                if(header.length > MAX_HEADER) {
+                    throw new ZipException("GZIP header too long");
+                }
+                return;
+            }
+            headerRead = true;
+            byte[] rest = header;
+            header = null;
+            inflate(rest, headerLength, rest.length - headerLength);
+            return;
+        }
+        inflate(buf, off, len);
+    }
+
+    /**
+     * Decodes the last line of a body that doesn't end with a newline
+     * @throws ZipException when a gzip body was cut short
+     */
+    void finish() throws ZipException {
+        if(inflater != null) {
+            boolean finished = inflater.finished();
+            inflater.end();
+            if(!finished) {
+                throw new ZipException("Unexpected end of GZIP body");
+            }
+        }
+        endLine();
+    }
+
+    /**
+     * Releases the inflater of a body that won't be finished
+     */
+    void abort() {
+        if(inflater != null) {
+            inflater.end();
+        }
+    }
+
+    int getAccepted() {
+        return accepted;
+    }
+
+    int getRejected() {
+        return rejected;
+    }
+
+    private void inflate(byte[] buf, int off, int len) throws ZipException {
+        if(inflater.finished()) {
+            return; // the trailer, concatenated members aren't supported
+        }
+        inflater.setInput(buf, off, len);
+        try {
+            while (!inflater.finished() && !inflater.needsInput()) {
+                int n = inflater.inflate(inflated);
+                if(n == 0 && inflater.needsDictionary()) {
+                    throw new ZipException("GZIP body needs a dictionary");
+                }
+                split(inflated, 0, n);
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        }
+    }
+
+    private void split(byte[] buf, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            byte b = buf[i];
+            if(b == '\n') {
+                endLine();
+            } else if(!skipping) {
+                if(lineLength == maxLineBytes) {
+                    skipping = true;
+                    rejected++;
+                    lineLength = 0;
+                } else {
+                    if(lineLength == line.length) {
+                        line = Arrays.copyOf(line, Math.min(maxLineBytes, line.length * 2));
+                    }
+                    line[lineLength++] = b;
+                }
+            }
+        }
+    }
+
+    private void endLine() {
+        if(!skipping) {
+            String json = new String(line, 0, lineLength, StandardCharsets.UTF_8).trim();
+            if(!json.isEmpty()) {
+                if(onLine.test(json)) {
+                    accepted++;
+                } else {
+                    rejected++;
+                }
+            }
+        }
+        skipping = false;
+        lineLength = 0;
+    }
+
+    /**
+     * @param header the first bytes of a gzip body
+     * @return length of the header, or -1 when more bytes are needed
+     * @throws ZipException when it's not a gzip header
+     */
+    static int gzipHeaderLength(byte[] header) throws ZipException {
+        if(header.length < 10) {
+            return -1;
+        }
+        if(header[0] != (byte) 0x1f || header[1] != (byte) 0x8b || header[2] != 8) {
+            throw new ZipException("Not in GZIP format");
+        }
+        int flags = header[3];
+        int pos = 10;
+        if((flags & FEXTRA) != 0) {
+            if(header.length < pos + 2) {
+                return -1;
+            }
+            pos += 2 + ((header[pos] & 0xff) | (header[pos + 1] & 0xff) << 8);
+        }
+        if((flags & FNAME) != 0 && pos >= 0) {
+            pos = skipZeroTerminated(header, pos);
+        }
+        if((flags & FCOMMENT) != 0 && pos >= 0) {
+            pos = skipZeroTerminated(header, pos);
+        }
+        if((flags & FHCRC) != 0 && pos >= 0) {
+            pos += 2;
+        }
+        return pos < 0 || pos > header.length ? -1 : pos;
+    }
+
+    private static int skipZeroTerminated(byte[] header, int pos) {
+        for (int i = pos; i < header.length; i++) {
+            if(header[i] == 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for a single cluster's ingest pipeline, from the raw turbine stream through the aggregated tick. All of
+ * the record methods are safe to call from the netty event loop.
+ */
+public final class ClusterPipelineStats {
+    private final LongAdder events = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder parseErrors = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+    private final LongAdder stalls = new LongAdder();
+    private final LongAdder droppedFrames = new LongAdder();
+    private final LongAdder commandOverflows = new LongAdder();
+    private final LongAdder commandEvictions = new LongAdder();
+    private final Histogram parseMicros = new Histogram();
+    private final Histogram tickMicros = new Histogram();
+    private final Histogram freshnessMs = new Histogram();
+
+    // updated by PipelineMetrics on each interval
+    private long lastEvents;
+    private long lastBytes;
+    private volatile double eventRate;
+    private volatile double byteRate;
+    private volatile long stallAfterMs;
+    private volatile int commands;
+    private volatile boolean commandsCapped;
+    private volatile Histogram.Snapshot parseSnapshot = Histogram.Snapshot.EMPTY;
+    private volatile Histogram.Snapshot tickSnapshot = Histogram.Snapshot.EMPTY;
+    private volatile Histogram.Snapshot freshnessSnapshot = Histogram.Snapshot.EMPTY;
+
+    /**
+     * Records an event read from the stream
+     * @param size size of the event data in bytes
+     */
+    public void recordEvent(int size) {
+        events.increment();
+        bytes.add(size);
+    }
+
+    public void recordParse(long nanos) {
+        parseMicros.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public void recordParseError() {
+        parseErrors.increment();
+    }
+
+    public void recordReconnect() {
+        reconnects.increment();
+    }
+
+    /**
+     * Records a connection that was dropped because no event arrived within {@link #getStallAfterMs()}
+     */
+    public void recordStall() {
+        stalls.increment();
+    }
+
+    /**
+     * Records a frame dropped because the cluster's aggregation queue was full
+     */
+    public void recordDroppedFrame() {
+        droppedFrames.increment();
+    }
+
+    /**
+     * Records an event of a command that didn't fit in the cluster's command limit, it's counted in the overflow
+     */
+    public void recordCommandOverflow() {
+        commandOverflows.increment();
+    }
+
+    /**
+     * Records a tracked command that was dropped to make room for a busier one
+     */
+    public void recordCommandEviction() {
+        commandEvictions.increment();
+    }
+
+    /**
+     * @param commands commands tracked on the last tick
+     * @param capped whether commands overflowed since the last tick
+     */
+    public void setCommands(int commands, boolean capped) {
+        this.commands = commands;
+        this.commandsCapped = capped;
+    }
+
+    public void setStallAfterMs(long stallAfterMs) {
+        this.stallAfterMs = stallAfterMs;
+    }
+
+    /**
+     * Records the time taken to generate the cluster metrics from the cached command metrics
+     * @param nanos
+     */
+    public void recordTick(long nanos) {
+        tickMicros.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Records the time between receiving an event from the stream and writing data derived from it to a client
+     * @param millis
+     */
+    public void recordFreshness(long millis) {
+        freshnessMs.record(millis);
+    }
+
+    synchronized void roll(long elapsedMs) {
+        long e = events.sum();
+        long b = bytes.sum();
+        if(elapsedMs > 0) {
+            eventRate = (e - lastEvents) * 1000D / elapsedMs;
+            byteRate = (b - lastBytes) * 1000D / elapsedMs;
+        }
+        lastEvents = e;
+        lastBytes = b;
+        parseSnapshot = parseMicros.snapshotAndReset();
+        tickSnapshot = tickMicros.snapshotAndReset();
+        freshnessSnapshot = freshnessMs.snapshotAndReset();
+    }
+
+    public long getEvents() {
+        return events.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public long getParseErrors() {
+        return parseErrors.sum();
+    }
+
+    public long getReconnects() {
+        return reconnects.sum();
+    }
+
+    public long getStalls() {
+        return stalls.sum();
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.sum();
+    }
+
+    public long getCommandOverflows() {
+        return commandOverflows.sum();
+    }
+
+    public long getCommandEvictions() {
+        return commandEvictions.sum();
+    }
+
+    public int getCommands() {
+        return commands;
+    }
+
+    /**
+     * @return true while the cluster has more commands than it's allowed to track
+     */
+    public boolean isCommandsCapped() {
+        return commandsCapped;
+    }
+
+    /**
+     * @return how long the stream may currently go without an event before it's reconnected
+     */
+    public long getStallAfterMs() {
+        return stallAfterMs;
+    }
+
+    /**
+     * @return events per second over the last interval
+     */
+    public double getEventRate() {
+        return eventRate;
+    }
+
+    /**
+     * @return bytes per second over the last interval
+     */
+    public double getByteRate() {
+        return byteRate;
+    }
+
+    /**
+     * @return json parse time in microseconds over the last interval
+     */
+    public Histogram.Snapshot getParseMicros() {
+        return parseSnapshot;
+    }
+
+    /**
+     * @return tick duration in microseconds over the last interval
+     */
+    public Histogram.Snapshot getTickMicros() {
+        return tickSnapshot;
+    }
+
+    /**
+     * @return receive to write latency in milliseconds over the last interval, for all endpoints
+     */
+    public Histogram.Snapshot getFreshnessMs() {
+        return freshnessSnapshot;
+    }
+}
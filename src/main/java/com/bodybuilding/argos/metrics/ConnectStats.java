@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for opening Turbine connections. Queue wait is the time a connect waited for admission, connect latency is
+ * the time from starting the connect to the response headers.
+ */
+public final class ConnectStats {
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder connects = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final Histogram queueWaitMs = new Histogram();
+    private final Histogram connectMs = new Histogram();
+    private volatile Histogram.Snapshot queueWaitSnapshot = Histogram.Snapshot.EMPTY;
+    private volatile Histogram.Snapshot connectSnapshot = Histogram.Snapshot.EMPTY;
+
+    public void queued() {
+        queued.increment();
+    }
+
+    /**
+     * Records a connect leaving the queue, either admitted or cancelled
+     * @param waitMs
+     */
+    public void dequeued(long waitMs) {
+        queued.decrement();
+        queueWaitMs.record(waitMs);
+    }
+
+    public void started() {
+        inFlight.increment();
+    }
+
+    /**
+     * Records a connect that received response headers
+     * @param connectMs
+     */
+    public void succeeded(long connectMs) {
+        inFlight.decrement();
+        connects.increment();
+        this.connectMs.record(connectMs);
+    }
+
+    public void failed() {
+        inFlight.decrement();
+        connects.increment();
+        failures.increment();
+    }
+
+    /**
+     * Records a connect that was abandoned before it finished, for example because its cluster was removed
+     */
+    public void aborted() {
+        inFlight.decrement();
+    }
+
+    void roll() {
+        queueWaitSnapshot = queueWaitMs.snapshotAndReset();
+        connectSnapshot = connectMs.snapshotAndReset();
+    }
+
+    public long getQueued() {
+        return queued.sum();
+    }
+
+    public long getInFlight() {
+        return inFlight.sum();
+    }
+
+    public long getConnects() {
+        return connects.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return time connects waited for admission in milliseconds over the last interval
+     */
+    public Histogram.Snapshot getQueueWaitMs() {
+        return queueWaitSnapshot;
+    }
+
+    /**
+     * @return time to the response headers of successful connects in milliseconds over the last interval
+     */
+    public Histogram.Snapshot getConnectMs() {
+        return connectSnapshot;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of non-negative values with power of two buckets. Recording is a couple of striped adds so it
+ * can be used on the hot path from any thread. Percentiles are estimated as the upper bound of the bucket.
+ */
+public final class Histogram {
+    private static final int BUCKETS = 64;
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public Histogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long value) {
+        long v = Math.max(0, value);
+        // bucket i holds values in [2^(i-1), 2^i)
+        buckets[BUCKETS - Long.numberOfLeadingZeros(v)].increment();
+        count.increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    /**
+     * Returns the values recorded since the last call and starts a new interval
+     * @return
+     */
+    public Snapshot snapshotAndReset() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sumThenReset();
+        }
+        return new Snapshot(counts, count.sumThenReset(), sum.sumThenReset(), max.getThenReset());
+    }
+
+    /**
+     * Immutable view of a histogram interval
+     */
+    public static final class Snapshot {
+        public static final Snapshot EMPTY = new Snapshot(new long[BUCKETS], 0, 0, 0);
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @param quantile 0 - 1
+         * @return upper bound of the bucket holding the quantile, never more than the max
+         */
+        public long getQuantile(double quantile) {
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            if(total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if(seen >= Math.max(1, rank)) {
+                    long upper = i == 0 ? 0 : (1L << i) - 1;
+                    return Math.min(upper, max);
+                }
+            }
+            return max;
+        }
+    }
+}
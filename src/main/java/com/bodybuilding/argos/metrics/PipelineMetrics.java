@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.metrics;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Self instrumentation of the Argos pipeline, published through the actuator /metrics endpoint. Rates and latency
+ * percentiles are computed over a fixed interval, totals are since startup.
+ */
+@Component
+public class PipelineMetrics implements PublicMetrics {
+    public static final String CLUSTER_STREAM = "cluster.stream";
+    public static final String TURBINE_STREAM = "turbine-stream";
+    private static final long INTERVAL_MS = 10000;
+
+    private final Map<String, ClusterPipelineStats> clusters = Maps.newConcurrentMap();
+    private final Map<String, SseEndpointStats> endpoints = Maps.newConcurrentMap();
+    private final ConnectStats connect = new ConnectStats();
+    private final LongAdder clustersAdded = new LongAdder();
+    private final LongAdder clustersRemoved = new LongAdder();
+    private long lastRoll = System.currentTimeMillis();
+
+    /**
+     * Returns the stats for a cluster, creating them if needed
+     * @param clusterName
+     * @return
+     */
+    public ClusterPipelineStats forCluster(String clusterName) {
+        return clusters.computeIfAbsent(clusterName, n -> new ClusterPipelineStats());
+    }
+
+    /**
+     * Returns the stats for an SSE endpoint, creating them if needed
+     * @param endpoint
+     * @return
+     */
+    public SseEndpointStats forEndpoint(String endpoint) {
+        return endpoints.computeIfAbsent(endpoint, n -> new SseEndpointStats());
+    }
+
+    /**
+     * Returns the stats for opening turbine connections
+     * @return
+     */
+    public ConnectStats forConnects() {
+        return connect;
+    }
+
+    /**
+     * Records the receive to write latency of data sent to a client
+     * @param clusterName cluster the data came from
+     * @param endpoint endpoint stats of the client
+     * @param receivedAt time the oldest event the data was derived from was received, ignored if 0
+     * @param now
+     */
+    public void recordFreshness(String clusterName, SseEndpointStats endpoint, long receivedAt, long now) {
+        if(receivedAt > 0) {
+            long age = Math.max(0, now - receivedAt);
+            ClusterPipelineStats stats = clusters.get(clusterName); // don't bring back a removed cluster
+            if(stats != null) {
+                stats.recordFreshness(age);
+            }
+            endpoint.recordFreshness(age);
+        }
+    }
+
+    public void clusterAdded() {
+        clustersAdded.increment();
+    }
+
+    /**
+     * Counts the removal and drops the cluster's stats
+     * @param clusterName
+     */
+    public void clusterRemoved(String clusterName) {
+        clustersRemoved.increment();
+        clusters.remove(clusterName);
+    }
+
+    @Scheduled(fixedRate = INTERVAL_MS)
+    public void roll() {
+        roll(System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    synchronized void roll(long now) {
+        long elapsed = now - lastRoll;
+        lastRoll = now;
+        clusters.values().forEach(s -> s.roll(elapsed));
+        endpoints.values().forEach(SseEndpointStats::roll);
+        connect.roll();
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = Lists.newArrayList();
+        long added = clustersAdded.sum();
+        long removed = clustersRemoved.sum();
+        metrics.add(new Metric<>("argos.clusters.monitored", added - removed));
+        metrics.add(new Metric<>("argos.clusters.added", added));
+        metrics.add(new Metric<>("argos.clusters.removed", removed));
+
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if(os instanceof com.sun.management.OperatingSystemMXBean) {
+            // percent of all cores, the actuator only reports the system load average
+            double cpu = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+            if(cpu >= 0) {
+                metrics.add(new Metric<>("argos.process.cpu", cpu * 100));
+            }
+        }
+
+        metrics.add(new Metric<>("argos.connect.queued", connect.getQueued()));
+        metrics.add(new Metric<>("argos.connect.in-flight", connect.getInFlight()));
+        metrics.add(new Metric<>("argos.connect.attempts", connect.getConnects()));
+        metrics.add(new Metric<>("argos.connect.failures", connect.getFailures()));
+        histogram(metrics, "argos.connect.queue-wait.ms", connect.getQueueWaitMs());
+        histogram(metrics, "argos.connect.latency.ms", connect.getConnectMs());
+
+        clusters.forEach((name, s) -> {
+            String prefix = "argos.cluster." + name + ".";
+            metrics.add(new Metric<>(prefix + "events", s.getEvents()));
+            metrics.add(new Metric<>(prefix + "events.rate", s.getEventRate()));
+            metrics.add(new Metric<>(prefix + "bytes", s.getBytes()));
+            metrics.add(new Metric<>(prefix + "bytes.rate", s.getByteRate()));
+            metrics.add(new Metric<>(prefix + "parse.errors", s.getParseErrors()));
+            metrics.add(new Metric<>(prefix + "reconnects", s.getReconnects()));
+            metrics.add(new Metric<>(prefix + "stalls", s.getStalls()));
+            metrics.add(new Metric<>(prefix + "dropped-frames", s.getDroppedFrames()));
+            metrics.add(new Metric<>(prefix + "commands", s.getCommands()));
+            metrics.add(new Metric<>(prefix + "commands.capped", s.isCommandsCapped() ? 1 : 0));
+            metrics.add(new Metric<>(prefix + "commands.overflow", s.getCommandOverflows()));
+            metrics.add(new Metric<>(prefix + "commands.evicted", s.getCommandEvictions()));
+            metrics.add(new Metric<>(prefix + "stall-after.ms", s.getStallAfterMs()));
+            histogram(metrics, prefix + "parse.micros", s.getParseMicros());
+            histogram(metrics, prefix + "tick.micros", s.getTickMicros());
+            histogram(metrics, prefix + "freshness.ms", s.getFreshnessMs());
+        });
+
+        endpoints.forEach((name, s) -> {
+            String prefix = "argos.sse." + name + ".";
+            metrics.add(new Metric<>(prefix + "clients", s.getClients()));
+            metrics.add(new Metric<>(prefix + "sends", s.getSends()));
+            histogram(metrics, prefix + "send.micros", s.getSendMicros());
+            histogram(metrics, prefix + "freshness.ms", s.getFreshnessMs());
+        });
+        return metrics;
+    }
+
+    private static void histogram(List<Metric<?>> metrics, String name, Histogram.Snapshot snapshot) {
+        metrics.add(new Metric<>(name + ".count", snapshot.getCount()));
+        metrics.add(new Metric<>(name + ".mean", snapshot.getMean()));
+        metrics.add(new Metric<>(name + ".p50", snapshot.getQuantile(0.5)));
+        metrics.add(new Metric<>(name + ".p99", snapshot.getQuantile(0.99)));
+        metrics.add(new Metric<>(name + ".max", snapshot.getMax()));
+    }
+}
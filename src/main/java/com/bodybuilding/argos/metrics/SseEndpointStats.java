@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for an SSE endpoint. Send latency is the time spent writing a single event to a single client, which is
+ * where a slow client shows up.
+ */
+public final class SseEndpointStats {
+    private final LongAdder clients = new LongAdder();
+    private final LongAdder sends = new LongAdder();
+    private final Histogram sendMicros = new Histogram();
+    private final Histogram freshnessMs = new Histogram();
+    private volatile Histogram.Snapshot sendSnapshot = Histogram.Snapshot.EMPTY;
+    private volatile Histogram.Snapshot freshnessSnapshot = Histogram.Snapshot.EMPTY;
+
+    public void clientConnected() {
+        clients.increment();
+    }
+
+    public void clientDisconnected() {
+        clients.decrement();
+    }
+
+    public void recordSend(long nanos) {
+        sends.increment();
+        sendMicros.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Records the time between receiving an event from the stream and writing data derived from it to a client
+     * @param millis
+     */
+    public void recordFreshness(long millis) {
+        freshnessMs.record(millis);
+    }
+
+    void roll() {
+        sendSnapshot = sendMicros.snapshotAndReset();
+        freshnessSnapshot = freshnessMs.snapshotAndReset();
+    }
+
+    public long getClients() {
+        return clients.sum();
+    }
+
+    public long getSends() {
+        return sends.sum();
+    }
+
+    /**
+     * @return per client send time in microseconds over the last interval
+     */
+    public Histogram.Snapshot getSendMicros() {
+        return sendSnapshot;
+    }
+
+    /**
+     * @return receive to write latency in milliseconds over the last interval, for all clusters
+     */
+    public Histogram.Snapshot getFreshnessMs() {
+        return freshnessSnapshot;
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.sharding;
+
+import com.bodybuilding.argos.discovery.Cluster;
+import com.bodybuilding.argos.discovery.ClusterDiscovery;
+import com.bodybuilding.argos.discovery.HttpClients;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import io.netty.buffer.ByteBuf;
+import io.reactivex.netty.pipeline.PipelineConfigurators;
+import io.reactivex.netty.protocol.http.client.HttpClient;
+import io.reactivex.netty.protocol.http.client.HttpClientRequest;
+import io.reactivex.netty.protocol.http.sse.ServerSentEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import rx.Observable;
+import rx.Subscription;
+import rx.functions.Func1;
+import rx.subjects.BehaviorSubject;
+import rx.subjects.SerializedSubject;
+import rx.subjects.Subject;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Splits the clusters reported by {@link ClusterDiscovery} between several Argos nodes. Every node is configured with
+ * the same peers, checks which of them are up every {@code health-interval-ms}, and only monitors the clusters it owns
+ * on a {@link HashRing} of the nodes that are up. A peer that fails {@code down-after} checks in a row is left out of
+ * the ring so its clusters move to the other nodes, they move back once it answers again.
+ * <p>
+ * Each node also streams the local metrics of its live peers so the /cluster.stream of any node shows every cluster.
+ */
+@Component
+@ConfigurationProperties(prefix = "sharding")
+public class ClusterSharding {
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterSharding.class);
+    static final String STATUS_PATH = "/sharding";
+    static final String LOCAL_STREAM_PATH = "/cluster.stream?local=true";
+
+    private final Map<String, Integer> failures = Maps.newConcurrentMap(); // failed checks in a row by peer
+    private final Map<String, HttpClient<ByteBuf, ByteBuf>> clients = Maps.newConcurrentMap();
+    private final Set<String> discoveredClusters = Sets.newConcurrentHashSet(); // including other nodes' clusters
+    private final Subject<SortedSet<String>, SortedSet<String>> liveNodes =
+            new SerializedSubject<>(BehaviorSubject.create());
+    private volatile SortedSet<String> live = ImmutableSortedSet.of();
+    private volatile HashRing ring = new HashRing(live, 0);
+    private Subscription healthChecks;
+    private Observable<String> peerStreams;
+
+    private boolean enabled = false;
+    private String self;
+    private List<String> peers = new ArrayList<>();
+    private int virtualNodes = 128;
+    private long healthIntervalMs = 2000;
+    private long healthTimeoutMs = 1000;
+    private int downAfter = 3;
+
+    @PostConstruct
+    public void start() {
+        if(!enabled) {
+            return;
+        }
+        if(Strings.isNullOrEmpty(self)) {
+            throw new IllegalStateException("sharding.self must be set to the URL of this node");
+        }
+        self = normalize(self);
+        peers = peers.stream().map(ClusterSharding::normalize).distinct().collect(Collectors.toList());
+        LOG.info("Sharding => {} of nodes {}", self, getNodes());
+        // every node starts out up, a restart shouldn't move clusters that the checks would move straight back
+        updateLiveNodes(getNodes());
+        healthChecks = Observable.interval(healthIntervalMs, TimeUnit.MILLISECONDS)
+                .onBackpressureDrop()
+                .concatMap(t -> checkPeers())
+                .subscribe(this::updateLiveNodes, t -> LOG.error("Sharding health checks stopped", t));
+    }
+
+    @PreDestroy
+    public void stop() {
+        if(healthChecks != null) {
+            healthChecks.unsubscribe();
+        }
+        clients.values().forEach(HttpClient::shutdown);
+    }
+
+    /**
+     * Passes on the clusters this node owns. A cluster that moves to another node is emitted as inactive, one that
+     * moves to this node as active. Returns the clusters unchanged when sharding is disabled.
+     * @param clusters clusters from discovery
+     * @return
+     */
+    public Observable<Cluster> owned(Observable<Cluster> clusters) {
+        if(!enabled) {
+            return clusters;
+        }
+        return Observable.defer(() -> {
+            Ownership ownership = new Ownership(self, discoveredClusters);
+            Observable<Func1<Ownership, List<Cluster>>> discovered = clusters.map(c -> o -> o.update(c));
+            Observable<Func1<Ownership, List<Cluster>>> rebalanced = liveNodes
+                    .map(nodes -> ring)
+                    .map(r -> o -> o.rebalance(r));
+            // merged so the updates are applied one at a time
+            return Observable.merge(discovered, rebalanced)
+                    .flatMapIterable(f -> f.call(ownership));
+        });
+    }
+
+    /**
+     * Returns the metrics json of the clusters owned by the live peers. A peer's stream is opened when it comes up
+     * and closed when it goes down.
+     * @return
+     */
+    public synchronized Observable<String> observePeers() {
+        if(!enabled) {
+            return Observable.empty();
+        }
+        if(peerStreams == null) {
+            peerStreams = Observable.from(otherPeers())
+                    .flatMap(peer -> liveNodes.map(nodes -> nodes.contains(peer))
+                            .distinctUntilChanged()
+                            .switchMap(up -> up ? stream(peer) : Observable.<String>empty()))
+                    .share();
+        }
+        return peerStreams;
+    }
+
+    private Observable<String> stream(String peer) {
+        URI uri = URI.create(peer);
+        HttpClient<ByteBuf, ServerSentEvent> client =
+                HttpClients.<ByteBuf, ServerSentEvent>newBuilder(uri.getScheme(), uri.getHost(), HttpClients.port(uri))
+                        .withNoConnectionPooling()
+                        .pipelineConfigurator(PipelineConfigurators.<ByteBuf>clientSseConfigurator())
+                        .build();
+        return Observable.defer(() -> client.submit(HttpClientRequest.createGet(uri.getPath() + LOCAL_STREAM_PATH)))
+                .flatMap(response -> {
+                    if(response.getStatus().code() != 200) {
+                        return Observable.error(new RuntimeException("Failed to connect: " + response.getStatus()));
+                    }
+                    LOG.info("Sharding => Streaming from peer {}", peer);
+                    return response.getContent().map(ServerSentEvent::contentAsString);
+                })
+                .retryWhen(errors -> errors.flatMap(t -> {
+                    LOG.warn("Sharding => Stream from peer {} failed: {}", peer, t.toString());
+                    return Observable.timer(healthIntervalMs, TimeUnit.MILLISECONDS);
+                }))
+                .repeatWhen(completed -> completed.flatMap(c -> Observable.timer(healthIntervalMs, TimeUnit.MILLISECONDS)));
+    }
+
+    private Observable<SortedSet<String>> checkPeers() {
+        return Observable.from(otherPeers())
+                .flatMap(peer -> check(peer).map(up -> {
+                    int failed = up ? 0 : failures.getOrDefault(peer, 0) + 1;
+                    failures.put(peer, failed);
+                    return failed < downAfter ? peer : null;
+                }))
+                .filter(Objects::nonNull)
+                .collect(() -> new TreeSet<>(Collections.singleton(self)), Set::add)
+                .map(nodes -> (SortedSet<String>) nodes);
+    }
+
+    private Observable<Boolean> check(String peer) {
+        URI uri = URI.create(peer);
+        HttpClient<ByteBuf, ByteBuf> client = clients.computeIfAbsent(peer,
+                // a kept alive connection could outlive the peer's server, each check connects again
+                p -> HttpClients.<ByteBuf, ByteBuf>newBuilder(uri.getScheme(), uri.getHost(), HttpClients.port(uri))
+                        .withNoConnectionPooling()
+                        .build());
+        return client.submit(HttpClientRequest.createGet(uri.getPath() + STATUS_PATH))
+                .flatMap(response -> response.getContent()
+                        .ignoreElements()
+                        .map(b -> false)
+                        .concatWith(Observable.just(response.getStatus().code() == 200)))
+                .timeout(healthTimeoutMs, TimeUnit.MILLISECONDS)
+                .lastOrDefault(false)
+                .onErrorReturn(t -> false);
+    }
+
+    @VisibleForTesting
+    void updateLiveNodes(Set<String> nodes) {
+        if(nodes.equals(live)) {
+            return;
+        }
+        if(!live.isEmpty()) {
+            LOG.info("Sharding => Nodes up changed from {} to {}", live, nodes);
+        }
+        live = ImmutableSortedSet.copyOf(nodes);
+        ring = new HashRing(live, virtualNodes);
+        liveNodes.onNext(live);
+    }
+
+    /**
+     * @param clusterName
+     * @return the node that currently owns the cluster, null when sharding is disabled
+     */
+    public String getOwner(String clusterName) {
+        return enabled ? ring.owner(clusterName) : null;
+    }
+
+    /**
+     * @return names of every discovered cluster, whichever node owns it
+     */
+    public Set<String> getClusterNames() {
+        return Collections.unmodifiableSet(discoveredClusters);
+    }
+
+    /**
+     * @return this node and its peers
+     */
+    public SortedSet<String> getNodes() {
+        SortedSet<String> nodes = new TreeSet<>(peers);
+        if(self != null) {
+            nodes.add(self);
+        }
+        return nodes;
+    }
+
+    /**
+     * @return the nodes clusters are currently split between
+     */
+    public SortedSet<String> getLiveNodes() {
+        return live;
+    }
+
+    private List<String> otherPeers() {
+        return peers.stream().filter(p -> !p.equals(self)).collect(Collectors.toList());
+    }
+
+    private static String normalize(String url) {
+        String trimmed = url.trim();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+
+    // which discovered clusters this node owns, only used by one subscription at a time
+    private static final class Ownership {
+        private final String self;
+        private final Set<String> discoveredNames;
+        private final Map<String, Cluster> discovered = Maps.newHashMap(); // active clusters by name
+        private final Map<String, Cluster> owned = Maps.newHashMap(); // active clusters passed on
+        private HashRing ring;
+
+        private Ownership(String self, Set<String> discoveredNames) {
+            this.self = self;
+            this.discoveredNames = discoveredNames;
+        }
+
+        private List<Cluster> update(Cluster cluster) {
+            if(cluster.isActive()) {
+                discovered.put(cluster.getName(), cluster);
+                discoveredNames.add(cluster.getName());
+            } else {
+                discovered.remove(cluster.getName());
+                discoveredNames.remove(cluster.getName());
+            }
+            return evaluate(cluster.getName(), Lists.newArrayListWithCapacity(1));
+        }
+
+        private List<Cluster> rebalance(HashRing ring) {
+            this.ring = ring;
+            List<Cluster> changes = Lists.newArrayList();
+            for (String name : Sets.union(discovered.keySet(), owned.keySet()).immutableCopy()) {
+                evaluate(name, changes);
+            }
+            LOG.info("Sharding => Split between {}, {} of {} clusters owned by {}, {} changed", ring.getNodes(),
+                    owned.size(), discovered.size(), self, changes.size());
+            return changes;
+        }
+
+        private List<Cluster> evaluate(String name, List<Cluster> changes) {
+            Cluster cluster = discovered.get(name);
+            Cluster previous = owned.get(name);
+            boolean mine = cluster != null && ring != null && self.equals(ring.owner(name));
+            if(mine && !cluster.equals(previous)) {
+                owned.put(name, cluster);
+                changes.add(cluster);
+            } else if(!mine && previous != null) {
+                owned.remove(name);
+                changes.add(new Cluster(name, previous.getUrls(), false));
+            }
+            return changes;
+        }
+    }
+
+    // these are here for spring
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getSelf() {
+        return self;
+    }
+
+    public void setSelf(String self) {
+        this.self = self;
+    }
+
+    public List<String> getPeers() {
+        return peers;
+    }
+
+    public void setPeers(List<String> peers) {
+        Objects.requireNonNull(peers);
+        this.peers = peers;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public void setVirtualNodes(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+    public long getHealthIntervalMs() {
+        return healthIntervalMs;
+    }
+
+    public void setHealthIntervalMs(long healthIntervalMs) {
+        this.healthIntervalMs = healthIntervalMs;
+    }
+
+    public long getHealthTimeoutMs() {
+        return healthTimeoutMs;
+    }
+
+    public void setHealthTimeoutMs(long healthTimeoutMs) {
+        this.healthTimeoutMs = healthTimeoutMs;
+    }
+
+    public int getDownAfter() {
+        return downAfter;
+    }
+
+    public void setDownAfter(int downAfter) {
+        this.downAfter = downAfter;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.sharding;
+
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedSet;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring of Argos nodes. Each node is placed on the ring {@code virtualNodes} times so clusters are
+ * spread evenly, and adding or removing a node only moves the clusters that node gains or loses. Every node builds
+ * the same ring from the same set of nodes, so they agree on the owners without talking to each other.
+ */
+public final class HashRing {
+    private static final HashFunction HASH = Hashing.murmur3_32();
+    private final SortedSet<String> nodes;
+    private final TreeMap<Integer, String> ring = new TreeMap<>();
+
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        Objects.requireNonNull(nodes);
+        this.nodes = ImmutableSortedSet.copyOf(nodes);
+        // nodes are placed in order so a collision is resolved the same way everywhere
+        for (String node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.putIfAbsent(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    /**
+     * @param key cluster name
+     * @return the node that owns the key, null when the ring is empty
+     */
+    public String owner(String key) {
+        if(ring.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Integer, String> entry = ring.ceilingEntry(hash(key));
+        return entry == null ? ring.firstEntry().getValue() : entry.getValue();
+    }
+
+    public SortedSet<String> getNodes() {
+        return nodes;
+    }
+
+    private static int hash(String value) {
+        return HASH.hashString(value, StandardCharsets.UTF_8).asInt();
+    }
+
+    @Override
+    public String toString() {
+        return "HashRing{nodes=" + nodes + '}';
+    }
+}
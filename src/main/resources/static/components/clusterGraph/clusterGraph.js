@@ -54,6 +54,23 @@
             self.sortSameAsLast();
         }, 10000);
 
+        /**
+         * The server only re-sends a cluster when its values change, or once every heartbeat interval when they don't.
+         * Anything we haven't heard about for a few heartbeats is flagged as stale so it isn't mistaken for idle.
+         */
+        var staleAfterMs = 15000;
+        /**
+         * Data older than this when it was sent is flagged as lagging, the stream or Argos itself is falling behind.
+         */
+        var laggingAfterMs = 5000;
+        self.lastUpdated = {};
+        setInterval(function () {
+            var now = new Date().getTime();
+            for (var name in self.lastUpdated) {
+                $('#CIRCUIT_' + name).toggleClass('stale', now - self.lastUpdated[name] > staleAfterMs);
+            }
+        }, 5000);
+
 
         /**
          * END of Initialization on construction
@@ -204,6 +221,10 @@
             }
 
 
+            // last known data restored from a checkpoint stays stale until live data arrives
+            self.lastUpdated[data.escapedName] = data.stale ? 0 : new Date().getTime();
+            $('#CIRCUIT_' + data.escapedName).toggleClass('stale', !!data.stale);
+
             // now update/insert the data
             $('#CIRCUIT_' + data.escapedName + ' div.monitor_data').html(tmpl(hystrixTemplateCircuit, data));
 
@@ -215,6 +236,8 @@
             // set the rates on the div element so it's available for sorting
             $('#CIRCUIT_' + data.escapedName).attr('rate_value', ratePerSecond);
             $('#CIRCUIT_' + data.escapedName).attr('error_then_volume', errorThenVolume);
+            $('#CIRCUIT_' + data.escapedName).attr('anomaly_score', data.anomalyScore || 0);
+            $('#CIRCUIT_' + data.escapedName).toggleClass('lagging', data.age != null && data.age > laggingAfterMs);
 
             // update errorPercentage color on page
             $('#CIRCUIT_' + data.escapedName + ' a.errorPercentage').css('color', self.circuitErrorPercentageColorRange(data.errorPercentage));
@@ -338,6 +361,7 @@
 
         /* private */
         function deleteCircuit(circuitName) {
+            delete self.lastUpdated[circuitName];
             $('#CIRCUIT_' + circuitName).remove();
         }
 
@@ -397,6 +421,19 @@
         $('#' + this.containerId + ' div.monitor').tsort({order: direction, attr: 'error_then_volume'});
     };
 
+    HystrixClusterMonitor.prototype.sortByAnomaly = function () {
+        var direction = "desc";
+        if (this.sortedBy == 'anomaly_desc') {
+            direction = 'asc';
+        }
+        this.sortByAnomalyInDirection(direction);
+    };
+
+    HystrixClusterMonitor.prototype.sortByAnomalyInDirection = function (direction) {
+        this.sortedBy = 'anomaly_' + direction;
+        $('#' + this.containerId + ' div.monitor').tsort({order: direction, attr: 'anomaly_score'});
+    };
+
     HystrixClusterMonitor.prototype.sortByLatency90 = function () {
         var direction = "desc";
         if (this.sortedBy == 'lat90_desc') {
@@ -464,6 +501,10 @@
             this.sortByErrorThenVolumeInDirection('asc');
         } else if (this.sortedBy == 'error_then_volume_desc') {
             this.sortByErrorThenVolumeInDirection('desc');
+        } else if (this.sortedBy == 'anomaly_asc') {
+            this.sortByAnomalyInDirection('asc');
+        } else if (this.sortedBy == 'anomaly_desc') {
+            this.sortByAnomalyInDirection('desc');
         } else if (this.sortedBy == 'lat90_asc') {
             this.sortByMetricInDirection('asc', '.latency90 .value');
         } else if (this.sortedBy == 'lat90_desc') {
@@ -0,0 +1,438 @@
+(function (window) {
+
+    /**
+     * Draws the clusters as a grid of tiles on a single canvas, for dashboards with more clusters than the DOM based
+     * HystrixClusterMonitor can keep up with. Only the tiles that received data are redrawn and only the rows in view
+     * are drawn at all. The encoding is the same: circle size by request rate per host, circle color by error
+     * percentage and a sparkline of the cluster request rate. Group and global rollups are shown first.
+     *
+     * Publish this externally as "HystrixClusterGrid", it has the same public methods as HystrixClusterMonitor
+     */
+    window.HystrixClusterGrid = function (containerId, args) {
+
+        var self = this; // keep scope under control
+        self.args = args;
+        if (self.args == undefined) {
+            self.args = {};
+        }
+
+        this.containerId = containerId;
+
+        /**
+         * Initialization on construction
+         */
+        // same tile size as the DOM monitor
+        var tileWidth = 245;
+        var tileHeight = 150;
+        var gap = 5;
+        var sparklineWidth = 140;
+        var sparklineHeight = 62;
+        var sparklineTop = 25;
+        var sparklineWindowMs = 60 * 1000 * 2;
+        var staleAfterMs = 15000;
+        var laggingAfterMs = 5000;
+        var typeOrder = {'GLOBAL': 0, 'GROUP': 1, 'CLUSTER': 2};
+
+        // CIRCUIT_BREAKER circle visualization settings, see clusterGraph.js
+        self.circuitCircleRadius = d3.scale.pow().exponent(0.5).domain([0, 600]).range([5, 125]).clamp(true); // requests per second per host
+        self.circuitCirclePosition = d3.scale.linear().domain([0, 600]).range([0.3, 0.4]).clamp(true);
+        self.circuitColorRange = d3.scale.linear().domain([10, 25, 40, 50]).range(["#2aace3", "#FFCC00", "#FF9900", "red"]);
+        self.circuitErrorPercentageColorRange = d3.scale.linear().domain([0, 10, 35, 50]).range(["grey", "black", "#FF9900", "red"]);
+
+        self.tiles = {}; // key => tile
+        self.order = []; // tiles in display order
+        self.sortedBy = 'alph_asc';
+
+        var dirty = {}; // keys of tiles with new data since the last frame
+        var layoutDirty = true; // everything in view must be redrawn
+        var sortPending = false; // tiles were added, sort once on the next frame rather than on every add
+        var frameRequested = false;
+        var columns = 1;
+        var ratio = window.devicePixelRatio || 1;
+
+        var container = $('#' + containerId).addClass('grid_mode');
+        var spacer = $('<div class="grid_spacer"></div>').appendTo(container);
+        var canvas = $('<canvas class="grid_canvas"></canvas>').appendTo(spacer)[0];
+        var ctx = canvas.getContext('2d');
+
+        $(window).on('scroll resize', function () {
+            layoutDirty = true;
+            requestFrame();
+        });
+
+        $(canvas).on('click', function (e) {
+            var tile = tileAt(e);
+            if (tile && tile.data.dashboardUrl) {
+                window.open(tile.data.dashboardUrl);
+            }
+        });
+
+        $(canvas).on('mousemove', function (e) {
+            var tile = tileAt(e);
+            canvas.title = tile ? tile.data.clusterName : '';
+            canvas.style.cursor = tile && tile.data.dashboardUrl ? 'pointer' : 'default';
+        });
+
+        // keep sorting in the background since the values are always changing
+        setInterval(function () {
+            self.sortSameAsLast();
+        }, 10000);
+
+        // the server re-sends unchanged clusters every heartbeat, anything not heard from for longer is stale
+        setInterval(function () {
+            var now = new Date().getTime();
+            for (var key in self.tiles) {
+                var tile = self.tiles[key];
+                var stale = !!tile.data.stale || now - tile.lastUpdated > staleAfterMs;
+                if (stale != tile.stale) {
+                    tile.stale = stale;
+                    markDirty(tile);
+                }
+            }
+        }, 5000);
+
+        /**
+         * END of Initialization on construction
+         */
+
+        /**
+         * Event listener to handle new messages from EventSource as streamed from the server.
+         */
+        /* public */
+        self.eventSourceMessageListener = function (e) {
+            var data = JSON.parse(e.data);
+            if (data && typeOrder[data.type] != undefined) {
+                if (!data.reportingHosts) {
+                    data.reportingHosts = 1;
+                }
+                if (data.deleteData == 'true') {
+                    deleteTile(data.type + ':' + data.clusterName);
+                } else {
+                    updateTile(data);
+                }
+            }
+        };
+
+        /* private */
+        function updateTile(data) {
+            var key = data.type + ':' + data.clusterName;
+            var tile = self.tiles[key];
+            var now = new Date().getTime();
+            if (!tile) {
+                tile = {key: key, history: [], index: self.order.length};
+                self.tiles[key] = tile;
+                self.order.push(tile);
+                $('#' + containerId + ' span.loading').remove();
+                sortPending = true;
+                layoutDirty = true;
+            }
+            tile.data = data;
+            // last known data restored from a checkpoint stays stale until live data arrives
+            tile.lastUpdated = data.stale ? 0 : now;
+            tile.stale = !!data.stale;
+            tile.history.push({v: data.requestRate, t: now});
+            while (tile.history.length > 200 || (tile.history.length > 0 && tile.history[0].t < now - sparklineWindowMs)) {
+                tile.history.shift();
+            }
+            markDirty(tile);
+        }
+
+        /* private */
+        function deleteTile(key) {
+            var tile = self.tiles[key];
+            if (tile) {
+                delete self.tiles[key];
+                self.order.splice(self.order.indexOf(tile), 1);
+                reindex();
+            }
+        }
+
+        /* private */
+        function markDirty(tile) {
+            dirty[tile.key] = tile;
+            requestFrame();
+        }
+
+        /* private */
+        function requestFrame() {
+            if (!frameRequested) {
+                frameRequested = true;
+                window.requestAnimationFrame(drawFrame);
+            }
+        }
+
+        /* private */
+        function reindex() {
+            for (var i = 0; i < self.order.length; i++) {
+                self.order[i].index = i;
+            }
+            layoutDirty = true;
+            requestFrame();
+        }
+
+        /**
+         * Sorts the tiles with the comparator, rollups stay in front
+         */
+        /* private */
+        self.sortTiles = function (comparator) {
+            self.order.sort(function (a, b) {
+                return (typeOrder[a.data.type] - typeOrder[b.data.type]) || comparator(a.data, b.data);
+            });
+            reindex();
+        };
+
+        /* private */
+        function drawFrame() {
+            if (sortPending) {
+                sortPending = false;
+                self.sortSameAsLast();
+            }
+            var width = container.width();
+            columns = Math.max(1, Math.floor((width + gap) / (tileWidth + gap)));
+            var rows = Math.ceil(self.order.length / columns);
+            var totalHeight = rows * (tileHeight + gap);
+            var canvasHeight = Math.min(totalHeight, window.innerHeight);
+            spacer.css('height', totalHeight + 'px');
+
+            if (canvas.width != width * ratio || canvas.height != canvasHeight * ratio) {
+                canvas.width = width * ratio;
+                canvas.height = canvasHeight * ratio;
+                canvas.style.width = width + 'px';
+                canvas.style.height = canvasHeight + 'px';
+                layoutDirty = true;
+            }
+            // the canvas sticks to the top of the window, this is how far into the grid it currently is
+            var offset = canvas.getBoundingClientRect().top - spacer[0].getBoundingClientRect().top;
+            var firstRow = Math.floor(offset / (tileHeight + gap));
+            var lastRow = Math.floor((offset + canvasHeight) / (tileHeight + gap));
+
+            ctx.setTransform(ratio, 0, 0, ratio, 0, -offset * ratio);
+            if (layoutDirty) {
+                ctx.clearRect(0, offset, width, canvasHeight);
+                for (var i = firstRow * columns; i < Math.min(self.order.length, (lastRow + 1) * columns); i++) {
+                    drawTile(self.order[i]);
+                }
+            } else {
+                for (var key in dirty) {
+                    var tile = dirty[key];
+                    var row = Math.floor(tile.index / columns);
+                    if (tile.index >= 0 && row >= firstRow && row <= lastRow) {
+                        drawTile(tile);
+                    }
+                }
+            }
+            layoutDirty = false;
+            dirty = {};
+            frameRequested = false;
+        }
+
+        /* private */
+        function tilePosition(index) {
+            return {
+                x: (index % columns) * (tileWidth + gap),
+                y: Math.floor(index / columns) * (tileHeight + gap)
+            };
+        }
+
+        /* private */
+        function tileAt(e) {
+            var rect = spacer[0].getBoundingClientRect();
+            var x = e.clientX - rect.left;
+            var y = e.clientY - rect.top;
+            var column = Math.floor(x / (tileWidth + gap));
+            var row = Math.floor(y / (tileHeight + gap));
+            if (column >= columns || x % (tileWidth + gap) > tileWidth || y % (tileHeight + gap) > tileHeight) {
+                return null;
+            }
+            return self.order[row * columns + column] || null;
+        }
+
+        /* private */
+        function drawTile(tile) {
+            var data = tile.data;
+            var p = tilePosition(tile.index);
+            var ratePerHost = data.requestRate / data.reportingHosts;
+
+            ctx.save();
+            ctx.beginPath();
+            ctx.rect(p.x, p.y, tileWidth, tileHeight);
+            ctx.clip();
+            ctx.clearRect(p.x, p.y, tileWidth, tileHeight);
+            ctx.globalAlpha = tile.stale ? 0.4 : 1;
+
+            // circle
+            ctx.beginPath();
+            ctx.arc(p.x + tileWidth * self.circuitCirclePosition(ratePerHost),
+                    p.y + tileHeight * self.circuitCirclePosition(ratePerHost),
+                    self.circuitCircleRadius(ratePerHost), 0, 2 * Math.PI);
+            ctx.fillStyle = self.circuitColorRange(data.errorPercentage);
+            ctx.fill();
+
+            // same translucent white panel the DOM monitor lays over the circle
+            ctx.fillStyle = 'rgba(255, 255, 255, 0.8)';
+            ctx.fillRect(p.x, p.y, tileWidth, tileHeight);
+
+            drawSparkline(tile, p);
+            drawText(tile, p);
+
+            if (data.age != null && data.age > laggingAfterMs) {
+                ctx.setLineDash([3, 3]);
+                ctx.strokeStyle = '#FF9900';
+                ctx.strokeRect(p.x + 0.5, p.y + 0.5, tileWidth - 1, tileHeight - 1);
+            }
+            ctx.restore();
+        }
+
+        /* private */
+        function drawSparkline(tile, p) {
+            var history = tile.history;
+            if (history.length < 2) {
+                return;
+            }
+            var now = history[history.length - 1].t;
+            var min = d3.min(history, function (d) { return d.v; });
+            var max = d3.max(history, function (d) { return d.v; });
+            var x = d3.scale.linear().domain([now - sparklineWindowMs, now]).range([0, sparklineWidth]);
+            var y = d3.scale.linear().domain([min, max]).nice().range([sparklineHeight, 0]);
+            ctx.beginPath();
+            for (var i = 0; i < history.length; i++) {
+                var px = p.x + x(history[i].t);
+                var py = p.y + sparklineTop + (max == min ? sparklineHeight / 2 : y(history[i].v));
+                if (i == 0) {
+                    ctx.moveTo(px, py);
+                } else {
+                    ctx.lineTo(px, py);
+                }
+            }
+            ctx.strokeStyle = 'darkblue';
+            ctx.lineWidth = 1;
+            ctx.stroke();
+        }
+
+        /* private */
+        function drawText(tile, p) {
+            var data = tile.data;
+            var right = p.x + tileWidth - 2;
+            var name = data.clusterName;
+            if (name.length > 32) {
+                name = name.substring(0, 4) + "..." + name.substring(name.length - 20, name.length);
+            }
+            ctx.textAlign = 'right';
+            ctx.textBaseline = 'alphabetic';
+
+            ctx.font = 'bold 10pt sans-serif';
+            ctx.fillStyle = data.type == 'CLUSTER' ? 'black' : 'darkblue';
+            ctx.fillText(data.type == 'CLUSTER' ? name : data.type + ' ' + name, right, p.y + 13);
+
+            ctx.font = 'bold 12pt sans-serif';
+            ctx.fillStyle = self.circuitErrorPercentageColorRange(data.errorPercentage);
+            ctx.fillText(roundNumber(data.errorPercentage) + ' %', right, p.y + 32);
+
+            ctx.font = 'bold 10pt sans-serif';
+            counter(data.timeoutCount, '#FF9900', right - 70, p.y + 32);
+            counter(data.rejectedCount, 'purple', right - 70, p.y + 46);
+            counter(data.failCount, 'red', right - 70, p.y + 60);
+            counter(data.successCount, 'green', right - 130, p.y + 32);
+            counter(data.shortCircuitedCount, 'blue', right - 130, p.y + 46);
+
+            labelled('Host: ', addCommas(roundNumber(data.requestRate / data.reportingHosts)) + '/s', right, p.y + 80, '11pt');
+            labelled('Cluster: ', addCommas(roundNumber(data.requestRate)) + '/s', right, p.y + 96, '11pt');
+            labelled('Commands: ', '' + data.commandCount, right, p.y + 110, '9pt');
+            labelled('Hosts: ', '' + data.reportingHosts, right, p.y + 123, '9pt');
+            if (data.type == 'CLUSTER') {
+                labelled('Anomaly: ', roundNumber(data.anomalyScore || 0), right, p.y + 136, '9pt');
+            }
+            if (data.age != null) {
+                labelled('Age: ', addCommas(roundNumber(data.age / 1000)) + 's', right, p.y + 149, '9pt');
+            }
+        }
+
+        /* private */
+        function counter(value, color, x, y) {
+            ctx.fillStyle = color;
+            ctx.fillText(addCommas(value), x, y);
+        }
+
+        /* private */
+        function labelled(label, value, x, y, size) {
+            ctx.font = 'bold ' + size + ' sans-serif';
+            ctx.fillStyle = 'black';
+            ctx.fillText(value, x, y);
+            var valueWidth = ctx.measureText(value).width;
+            ctx.font = '9pt sans-serif';
+            ctx.fillStyle = 'grey';
+            ctx.fillText(label, x - valueWidth, y);
+        }
+    };
+
+    // public methods for sorting, the same as HystrixClusterMonitor
+    HystrixClusterGrid.prototype.sortByVolume = function () {
+        this.sortInDirection('rate', this.sortedBy == 'rate_desc' ? 'asc' : 'desc');
+    };
+
+    HystrixClusterGrid.prototype.sortAlphabetically = function () {
+        this.sortInDirection('alph', this.sortedBy == 'alph_asc' ? 'desc' : 'asc');
+    };
+
+    HystrixClusterGrid.prototype.sortByError = function () {
+        this.sortInDirection('error', this.sortedBy == 'error_desc' ? 'asc' : 'desc');
+    };
+
+    HystrixClusterGrid.prototype.sortByErrorThenVolume = function () {
+        this.sortInDirection('error_then_volume', this.sortedBy == 'error_then_volume_desc' ? 'asc' : 'desc');
+    };
+
+    HystrixClusterGrid.prototype.sortByAnomaly = function () {
+        this.sortInDirection('anomaly', this.sortedBy == 'anomaly_desc' ? 'asc' : 'desc');
+    };
+
+    var sortValues = {
+        'rate': function (d) { return d.requestRate; },
+        'error': function (d) { return d.errorPercentage; },
+        'error_then_volume': function (d) { return d.errorPercentage * 100000000 + d.requestRate; },
+        'anomaly': function (d) { return d.anomalyScore || 0; }
+    };
+
+    HystrixClusterGrid.prototype.sortInDirection = function (sort, direction) {
+        this.sortedBy = sort + '_' + direction;
+        var sign = direction == 'asc' ? 1 : -1;
+        var value = sortValues[sort];
+        this.sortTiles(function (a, b) {
+            if (value) {
+                return sign * (value(a) - value(b));
+            }
+            return sign * a.clusterName.localeCompare(b.clusterName);
+        });
+    };
+
+    // this method is for when tiles are added to cause them to be sorted to whatever the user last chose
+    HystrixClusterGrid.prototype.sortSameAsLast = function () {
+        var i = this.sortedBy.lastIndexOf('_');
+        this.sortInDirection(this.sortedBy.substring(0, i), this.sortedBy.substring(i + 1));
+    };
+
+    /* round a number to 1 decimal */
+    function roundNumber(num) {
+        var result = Math.round(num * 10) / 10;
+        var resultAsString = result.toString();
+        if (resultAsString.indexOf('.') == -1) {
+            resultAsString = resultAsString + '.0';
+        }
+        return resultAsString;
+    }
+
+    function addCommas(nStr) {
+        nStr += '';
+        if (nStr.length <= 3) {
+            return nStr; //shortcut if we don't need commas
+        }
+        var x = nStr.split('.');
+        var x1 = x[0];
+        var x2 = x.length > 1 ? '.' + x[1] : '';
+        var rgx = /(\d+)(\d{3})/;
+        while (rgx.test(x1)) {
+            x1 = x1.replace(rgx, '$1' + ',' + '$2');
+        }
+        return x1 + x2;
+    }
+})(window);
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.discovery;
+
+import com.bodybuilding.argos.metrics.ClusterPipelineStats;
+import com.google.common.base.Ticker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregating command metrics into cluster metrics, with {@link HystrixClusterMetrics.Builder} alone and through
+ * {@link ClusterMetricsAggregator} which is what runs on every tick.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClusterAggregationBenchmark {
+    private static final Ticker FROZEN = new Ticker() {
+        @Override
+        public long read() {
+            return 0;
+        }
+    };
+
+    @Param({"10", "100", "1000", "10000"})
+    public int commands;
+
+    private List<HystrixCommandMetrics> commandMetrics;
+    private ClusterMetricsAggregator aggregator;
+
+    @Setup
+    public void setup() {
+        commandMetrics = TurbinePayloads.commandMetrics(commands, 1);
+        // every command is tracked, none go to the overflow command
+        CommandLimits limits = new CommandLimits();
+        limits.setMaxPerCluster(commands);
+        limits.setMaxTotal(commands);
+        // the ticker is frozen so the commands filled in once don't expire during the trial
+        aggregator = new ClusterMetricsAggregator("cluster1", "http://turbine/turbine.stream?cluster=cluster1",
+                FROZEN, limits, new ClusterPipelineStats());
+        commandMetrics.forEach(aggregator::update);
+        if(aggregator.getCommandMetrics().size() != commands) {
+            throw new IllegalStateException("Expected " + commands + " tracked commands, got "
+                    + aggregator.getCommandMetrics().size());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        aggregator.close();
+    }
+
+    @Benchmark
+    public HystrixClusterMetrics addCommandMetrics() {
+        HystrixClusterMetrics.Builder builder = HystrixClusterMetrics.Builder.newBuilder("cluster1",
+                "http://turbine/turbine.stream?cluster=cluster1");
+        for (HystrixCommandMetrics metrics : commandMetrics) {
+            builder.addCommandMetrics(metrics);
+        }
+        return builder.build();
+    }
+
+    @Benchmark
+    public HystrixClusterMetrics generateMetrics() {
+        return aggregator.generateMetrics();
+    }
+}
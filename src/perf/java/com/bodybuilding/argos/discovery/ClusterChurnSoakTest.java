@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.discovery;
+
+import com.bodybuilding.argos.anomaly.AnomalyDetector;
+import com.bodybuilding.argos.metrics.PipelineMetrics;
+import com.bodybuilding.argos.perf.FakeTurbine;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.metrics.Metric;
+import rx.Subscription;
+import rx.subjects.PublishSubject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Adds and removes clusters streaming from a {@link FakeTurbine} thousands of times and checks that connections,
+ * threads and heap don't grow, and that requests to a turbine that never responds are closed when they time out or
+ * their cluster is removed. This runs for a while so it is only run with the perf profile:
+ * <pre>mvn -Pperf test -Dtest=ClusterChurnSoakTest</pre>
+ */
+public class ClusterChurnSoakTest {
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterChurnSoakTest.class);
+    private static final int CLUSTERS = 20;
+    private static final int WARMUP_ROUNDS = 10;
+    private static final int ROUNDS = Integer.getInteger("soak.rounds", 150);
+    private static final long MAX_HEAP_GROWTH = 16 * 1024 * 1024;
+    private static final int MAX_THREAD_GROWTH = 2;
+    private static final int SILENT_ROUNDS = Integer.getInteger("soak.silent-rounds", 10);
+
+    private FakeTurbine turbine;
+    private int port;
+
+    @Before
+    public void setUp() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        turbine = new FakeTurbine(port, "127.0.0.1", new FakeTurbine.Scale(CLUSTERS, 20, 3, 100)).start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        turbine.shutdown();
+    }
+
+    @Test
+    public void testChurn() throws Exception {
+        PublishSubject<Cluster> clusters = PublishSubject.create();
+        PipelineMetrics pipelineMetrics = new PipelineMetrics();
+        ClusterRegistry registry = new ClusterRegistry(() -> clusters,
+                new DefaultHystrixClusterMonitorFactory(pipelineMetrics, null, null, null, null, null, null),
+                new AnomalyDetector(), pipelineMetrics, null, null);
+        Subscription subscription = registry.observe().subscribe();
+
+        long baselineHeap = 0;
+        int baselineThreads = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            if(round == WARMUP_ROUNDS) {
+                baselineHeap = usedHeapAfterGc();
+                baselineThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+                LOG.info("Baseline after warmup: heap {} bytes, {} threads", baselineHeap, baselineThreads);
+            }
+            for (int i = 0; i < CLUSTERS; i++) {
+                clusters.onNext(cluster(i, true));
+            }
+            await(() -> turbine.getConnections() == CLUSTERS, "all clusters to connect in round " + round);
+            for (int i = 0; i < CLUSTERS; i++) {
+                clusters.onNext(cluster(i, false));
+            }
+            await(() -> turbine.getConnections() == 0, "all connections to close in round " + round);
+        }
+
+        long heap = usedHeapAfterGc();
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+        LOG.info("After {} add/remove cycles: heap {} bytes, {} threads", ROUNDS * CLUSTERS, heap, threads);
+        subscription.unsubscribe();
+
+        assertEquals(0, registry.getMonitoredClusterCount());
+        assertFalse(pipelineMetrics.metrics().stream().map(Metric::getName).anyMatch(n -> n.startsWith("argos.cluster.")));
+        assertTrue("threads grew from " + baselineThreads + " to " + threads,
+                threads <= baselineThreads + MAX_THREAD_GROWTH);
+        assertTrue("heap grew from " + baselineHeap + " to " + heap, heap <= baselineHeap + MAX_HEAP_GROWTH);
+    }
+
+    @Test
+    public void testChurnSilentTurbine() throws Exception {
+        try (SilentTurbine silent = new SilentTurbine()) {
+            PublishSubject<Cluster> clusters = PublishSubject.create();
+            PipelineMetrics pipelineMetrics = new PipelineMetrics();
+            ConnectionAdmission admission = new ConnectionAdmission();
+            admission.setPerHostRate(1000);
+            admission.setBackoffBaseMs(100);
+            admission.setBackoffMaxMs(200);
+            StreamTimeouts timeouts = new StreamTimeouts();
+            timeouts.setStallTimeoutMs(200);
+            ClusterRegistry registry = new ClusterRegistry(() -> clusters,
+                    new DefaultHystrixClusterMonitorFactory(pipelineMetrics, null, admission, timeouts, null, null,
+                            null),
+                    new AnomalyDetector(), pipelineMetrics, null, null);
+            Subscription subscription = registry.observe().subscribe();
+
+            for (int round = 0; round < SILENT_ROUNDS; round++) {
+                for (int i = 0; i < CLUSTERS; i++) {
+                    clusters.onNext(silentCluster(silent.getPort(), i, true));
+                }
+                // requests that never get a response time out and retry, each retry must close its connection
+                long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+                while (System.nanoTime() < until) {
+                    assertTrue(silent.getOpen() + " connections open for " + CLUSTERS + " clusters in round " + round,
+                            silent.getOpen() <= CLUSTERS);
+                    Thread.sleep(20);
+                }
+                assertTrue("requests were retried in round " + round, silent.getAccepted() > CLUSTERS * (round + 1));
+                for (int i = 0; i < CLUSTERS; i++) {
+                    clusters.onNext(silentCluster(silent.getPort(), i, false));
+                }
+                await(() -> silent.getOpen() == 0, "pending requests to close in round " + round);
+            }
+            subscription.unsubscribe();
+            assertEquals(0, registry.getMonitoredClusterCount());
+        }
+    }
+
+    private static Cluster silentCluster(int port, int i, boolean active) {
+        String name = "silent-" + i;
+        return new Cluster(name, "http://127.0.0.1:" + port + "/turbine.stream?cluster=" + name, active);
+    }
+
+    private Cluster cluster(int i, boolean active) {
+        String name = "cluster-" + i;
+        return new Cluster(name, "http://127.0.0.1:" + port + "/turbine.stream?cluster=" + name, active);
+    }
+
+    private static void await(BooleanSupplier condition, String description) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if(System.nanoTime() > deadline) {
+                throw new AssertionError("Timed out waiting for " + description);
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    // accepts connections and never responds, counting the connections that are still open
+    private static final class SilentTurbine implements AutoCloseable {
+        private final ServerSocket server = new ServerSocket(0);
+        private final AtomicInteger accepted = new AtomicInteger();
+        private final AtomicInteger open = new AtomicInteger();
+        private final ExecutorService executor = Executors.newCachedThreadPool();
+
+        SilentTurbine() throws IOException {
+            executor.execute(() -> {
+                while (!server.isClosed()) {
+                    try {
+                        Socket socket = server.accept();
+                        accepted.incrementAndGet();
+                        open.incrementAndGet();
+                        executor.execute(() -> drain(socket));
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            });
+        }
+
+        private void drain(Socket socket) {
+            try (InputStream in = socket.getInputStream()) {
+                byte[] buffer = new byte[1024];
+                while (in.read(buffer) >= 0) {
+                    // ignore the request, wait for the client to close
+                }
+            } catch (IOException e) {
+                // closed
+            } finally {
+                open.decrementAndGet();
+            }
+        }
+
+        int getPort() {
+            return server.getLocalPort();
+        }
+
+        int getAccepted() {
+            return accepted.get();
+        }
+
+        int getOpen() {
+            return open.get();
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.discovery;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a single turbine event, the per event cost of {@link DefaultHystrixClusterMonitor}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommandMetricsDecodeBenchmark {
+    private final ObjectMapper om = new ObjectMapper();
+    private final String commandJson = TurbinePayloads.commandJson();
+    private final String threadPoolJson = TurbinePayloads.threadPoolJson();
+
+    @Benchmark
+    public HystrixCommandMetrics decodeCommand() throws IOException {
+        return om.readValue(commandJson, HystrixCommandMetrics.class);
+    }
+
+    // the filter every event goes through before decoding
+    @Benchmark
+    public boolean filterCommand() {
+        return commandJson.contains("HystrixCommand") && commandJson.contains("latencyExecute");
+    }
+
+    @Benchmark
+    public boolean filterThreadPool() {
+        return threadPoolJson.contains("HystrixCommand") && threadPoolJson.contains("latencyExecute");
+    }
+}
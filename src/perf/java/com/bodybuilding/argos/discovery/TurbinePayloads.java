@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.discovery;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Turbine events for benchmarks and load tests, built from payloads captured from a production Turbine stream. The
+ * generated events only differ from the captured ones in command name and counts.
+ */
+public final class TurbinePayloads {
+    private static final ObjectMapper om = new ObjectMapper();
+    private static final String COMMAND = load("payloads/hystrix-command.json");
+    private static final String THREAD_POOL = load("payloads/hystrix-threadpool.json");
+
+    private TurbinePayloads() {
+    }
+
+    private static String load(String resource) {
+        try {
+            return Resources.toString(Resources.getResource(resource), StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * @return the captured HystrixCommand event
+     */
+    public static String commandJson() {
+        return COMMAND;
+    }
+
+    /**
+     * @return the captured HystrixThreadPool event
+     */
+    public static String threadPoolJson() {
+        return THREAD_POOL;
+    }
+
+    /**
+     * Returns a HystrixCommand event for the given command with randomized counts
+     * @param name command name
+     * @param random source of the counts
+     * @return json
+     */
+    public static String commandJson(String name, Random random) {
+        return commandJson(name, 6, random);
+    }
+
+    /**
+     * Returns a HystrixCommand event for the given command as Turbine reports it for a number of hosts, counts and the
+     * mean latency are summed over the hosts.
+     * @param name command name
+     * @param hosts number of reporting hosts
+     * @param random source of the counts
+     * @return json
+     */
+    public static String commandJson(String name, int hosts, Random random) {
+        try {
+            ObjectNode node = (ObjectNode) om.readTree(COMMAND);
+            int success = random.nextInt(3500) * hosts;
+            int failed = random.nextInt(10) * hosts;
+            int timedOut = random.nextInt(2) * hosts;
+            node.put("name", name);
+            node.put("reportingHosts", hosts);
+            node.put("rollingCountSuccess", success);
+            node.put("rollingCountFailure", failed);
+            node.put("rollingCountTimeout", timedOut);
+            node.put("requestCount", success + failed + timedOut);
+            node.put("errorCount", failed + timedOut);
+            node.put("latencyExecute_mean", random.nextInt(100) * hosts);
+            return om.writeValueAsString(node);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Returns a HystrixThreadPool event for the given pool
+     * @param name thread pool name
+     * @return json
+     */
+    public static String threadPoolJson(String name) {
+        return threadPoolJson(name, 6);
+    }
+
+    /**
+     * Returns a HystrixThreadPool event for the given pool as Turbine reports it for a number of hosts
+     * @param name thread pool name
+     * @param hosts number of reporting hosts
+     * @return json
+     */
+    public static String threadPoolJson(String name, int hosts) {
+        try {
+            ObjectNode node = (ObjectNode) om.readTree(THREAD_POOL);
+            node.put("name", name);
+            node.put("reportingHosts", hosts);
+            return om.writeValueAsString(node);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Returns HystrixCommand events for the given number of distinct commands
+     * @param commands number of commands
+     * @param seed seed for the counts so runs are repeatable
+     * @return json events
+     */
+    public static List<String> commandJson(int commands, long seed) {
+        Random random = new Random(seed);
+        List<String> events = Lists.newArrayListWithCapacity(commands);
+        for (int i = 0; i < commands; i++) {
+            events.add(commandJson("Command" + i, random));
+        }
+        return events;
+    }
+
+    static List<HystrixCommandMetrics> commandMetrics(int commands, long seed) {
+        List<HystrixCommandMetrics> metrics = Lists.newArrayListWithCapacity(commands);
+        long now = System.currentTimeMillis();
+        for (String json : commandJson(commands, seed)) {
+            HystrixCommandMetrics m = decode(json);
+            m.setReceivedAt(now);
+            metrics.add(m);
+        }
+        return metrics;
+    }
+
+    static HystrixCommandMetrics decode(String json) {
+        try {
+            return om.readValue(json, HystrixCommandMetrics.class);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Returns cluster metrics aggregated from the given number of commands
+     * @param clusterName
+     * @param commands
+     * @return
+     */
+    public static HystrixClusterMetrics clusterMetrics(String clusterName, int commands) {
+        HystrixClusterMetrics.Builder builder = HystrixClusterMetrics.Builder.newBuilder(clusterName,
+                "http://turbine/turbine.stream?cluster=" + clusterName);
+        commandMetrics(commands, 1).forEach(builder::addCommandMetrics);
+        return builder.build();
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.perf;
+
+import com.bodybuilding.argos.discovery.TurbinePayloads;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.reactivex.netty.RxNetty;
+import io.reactivex.netty.protocol.http.server.HttpServer;
+import io.reactivex.netty.protocol.http.server.HttpServerRequest;
+import io.reactivex.netty.protocol.http.server.HttpServerResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Observable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local stand in for a set of Turbine servers. Serves N clusters of M commands aggregated over K hosts as
+ * /turbine.stream?cluster=name, and the clusters themselves from a ClusterListServlet compatible /clusterlist, so Argos
+ * can be pointed at it with {@link com.bodybuilding.argos.discovery.ClusterListDiscovery}.
+ * <p>
+ * Every interval each cluster stream gets one HystrixCommand event per command and one HystrixThreadPool event per
+ * ten commands, like Turbine does. Events are skipped rather than buffered when a client can't keep up, skipped
+ * events are counted.
+ * <p>
+ * Run with: mvn -Pperf test-compile exec:java -Dexec.mainClass=com.bodybuilding.argos.perf.FakeTurbine
+ * -Dexec.args="--port=7979 --clusters=10 --commands=50 --hosts=3 --interval-ms=500"
+ */
+public final class FakeTurbine {
+    private static final Logger LOG = LoggerFactory.getLogger(FakeTurbine.class);
+    private static final int COMMANDS_PER_POOL = 10;
+    private static final int VARIANTS = 4;
+
+    private final int port;
+    private final String advertisedHost;
+    private final ObjectMapper om = new ObjectMapper();
+    private final LongAdder eventsSent = new LongAdder();
+    private final LongAdder eventsSkipped = new LongAdder();
+    private final LongAdder connections = new LongAdder();
+    private volatile Scale scale;
+    private HttpServer<ByteBuf, ByteBuf> server;
+
+    public FakeTurbine(int port, String advertisedHost, Scale scale) {
+        this.port = port;
+        this.advertisedHost = advertisedHost;
+        this.scale = scale;
+    }
+
+    public FakeTurbine start() {
+        server = RxNetty.createHttpServer(port, this::handle).start();
+        LOG.info("Fake Turbine listening on {} with {}", port, scale);
+        return this;
+    }
+
+    public void shutdown() throws InterruptedException {
+        if(server != null) {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Changes the simulated clusters, connected streams pick up the change on their next interval
+     * @param scale
+     */
+    public void setScale(Scale scale) {
+        LOG.info("Scaling to {}", scale);
+        this.scale = scale;
+    }
+
+    public Scale getScale() {
+        return scale;
+    }
+
+    public long getEventsSent() {
+        return eventsSent.sum();
+    }
+
+    public long getEventsSkipped() {
+        return eventsSkipped.sum();
+    }
+
+    public long getConnections() {
+        return connections.sum();
+    }
+
+    private Observable<Void> handle(HttpServerRequest<ByteBuf> request, HttpServerResponse<ByteBuf> response) {
+        switch (request.getPath()) {
+            case "/clusterlist":
+                return clusterList(response);
+            case "/turbine.stream":
+                List<String> cluster = request.getQueryParameters().get("cluster");
+                if(cluster != null && !cluster.isEmpty() && scale.hasCluster(cluster.get(0))) {
+                    return stream(cluster.get(0), response);
+                }
+                break;
+            default:
+        }
+        response.setStatus(HttpResponseStatus.NOT_FOUND);
+        return response.close();
+    }
+
+    private Observable<Void> clusterList(HttpServerResponse<ByteBuf> response) {
+        Scale current = scale;
+        List<Map<String, String>> clusters = Lists.newArrayList();
+        for (int i = 0; i < current.clusters; i++) {
+            Map<String, String> info = Maps.newLinkedHashMap();
+            String name = Scale.clusterName(i);
+            info.put("name", name);
+            info.put("turbineStream", "http://" + advertisedHost + ":" + port + "/turbine.stream?cluster=" + name);
+            info.put("dashboardUrl", "http://" + advertisedHost + ":" + port + "/");
+            clusters.add(info);
+        }
+        try {
+            response.getHeaders().set("Content-Type", "application/json");
+            return response.writeStringAndFlush(om.writeValueAsString(clusters));
+        } catch (JsonProcessingException e) {
+            return Observable.error(e);
+        }
+    }
+
+    private Observable<Void> stream(String cluster, HttpServerResponse<ByteBuf> response) {
+        response.getHeaders().set("Content-Type", "text/event-stream;charset=UTF-8");
+        response.getHeaders().set("Cache-Control", "no-cache");
+        Channel channel = response.getChannel();
+        connections.increment();
+        response.writeStringAndFlush(": ping\n\n");
+        scheduleTick(cluster, response, channel, 0);
+        return Observable.create(s -> channel.closeFuture().addListener(f -> {
+            connections.decrement();
+            s.onCompleted();
+        }));
+    }
+
+    private void scheduleTick(String cluster, HttpServerResponse<ByteBuf> response, Channel channel, int tick) {
+        Scale current = scale;
+        channel.eventLoop().schedule(() -> {
+            if(!channel.isActive()) {
+                return;
+            }
+            Scale s = scale;
+            if(!s.hasCluster(cluster)) {
+                channel.close();
+                return;
+            }
+            String[] events = s.events[tick % VARIANTS];
+            if(channel.isWritable()) {
+                for (String event : events) {
+                    response.writeString(event);
+                }
+                response.flush();
+                eventsSent.add(events.length);
+            } else {
+                eventsSkipped.add(events.length);
+            }
+            scheduleTick(cluster, response, channel, tick + 1);
+        }, current.intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Simulated clusters, commands, hosts and event interval
+     */
+    public static final class Scale {
+        private final int clusters;
+        private final int commands;
+        private final int hosts;
+        private final long intervalMs;
+        private final String[][] events; // pre-rendered SSE events, a few variants so values change between ticks
+
+        public Scale(int clusters, int commands, int hosts, long intervalMs) {
+            this.clusters = clusters;
+            this.commands = commands;
+            this.hosts = hosts;
+            this.intervalMs = intervalMs;
+            this.events = render(commands, hosts);
+        }
+
+        private Scale(Scale other, long intervalMs) {
+            this.clusters = other.clusters;
+            this.commands = other.commands;
+            this.hosts = other.hosts;
+            this.intervalMs = intervalMs;
+            this.events = other.events;
+        }
+
+        /**
+         * Parses NxMxK, clusters x commands x hosts
+         * @param spec
+         * @param intervalMs
+         * @return
+         */
+        public static Scale parse(String spec, long intervalMs) {
+            String[] parts = spec.trim().split("x");
+            if(parts.length != 3) {
+                throw new IllegalArgumentException("Expected clusters x commands x hosts, ex 10x50x3: " + spec);
+            }
+            return new Scale(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+                    intervalMs);
+        }
+
+        private static String[][] render(int commands, int hosts) {
+            Random random = new Random(commands * 31 + hosts);
+            int pools = (commands + COMMANDS_PER_POOL - 1) / COMMANDS_PER_POOL;
+            String[][] events = new String[VARIANTS][commands + pools];
+            for (int v = 0; v < VARIANTS; v++) {
+                for (int c = 0; c < commands; c++) {
+                    events[v][c] = "data: " + TurbinePayloads.commandJson("Command" + c, hosts, random) + "\n\n";
+                }
+                for (int p = 0; p < pools; p++) {
+                    events[v][commands + p] = "data: " + TurbinePayloads.threadPoolJson("Pool" + p, hosts) + "\n\n";
+                }
+            }
+            return events;
+        }
+
+        static String clusterName(int i) {
+            return "cluster-" + i;
+        }
+
+        boolean hasCluster(String name) {
+            if(!name.startsWith("cluster-")) {
+                return false;
+            }
+            try {
+                int i = Integer.parseInt(name.substring("cluster-".length()));
+                return i >= 0 && i < clusters;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        /**
+         * @param intervalMs
+         * @return the same clusters with a different interval
+         */
+        public Scale withIntervalMs(long intervalMs) {
+            return new Scale(this, intervalMs);
+        }
+
+        public long getIntervalMs() {
+            return intervalMs;
+        }
+
+        /**
+         * @return events per second offered over all clusters
+         */
+        public double getEventRate() {
+            return (double) clusters * events[0].length * 1000 / intervalMs;
+        }
+
+        @Override
+        public String toString() {
+            return clusters + "x" + commands + "x" + hosts + " every " + intervalMs + "ms";
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = Options.parse(args);
+        Scale scale = new Scale(Options.getInt(options, "clusters", 10), Options.getInt(options, "commands", 50),
+                Options.getInt(options, "hosts", 3), Options.getInt(options, "interval-ms", 500));
+        FakeTurbine turbine = new FakeTurbine(Options.getInt(options, "port", 7979),
+                options.getOrDefault("host", "127.0.0.1"), scale).start();
+        long lastSent = 0;
+        while (true) {
+            Thread.sleep(10000);
+            long sent = turbine.getEventsSent();
+            LOG.info("{} connections, {} events/s, {} skipped", turbine.getConnections(), (sent - lastSent) / 10,
+                    turbine.getEventsSkipped());
+            lastSent = sent;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.perf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds the highest event rate Argos keeps up with at each scale point. Starts a {@link FakeTurbine} and, for each
+ * clusters x commands x hosts scale point, halves the event interval every step until Argos reads less than the
+ * threshold fraction of the events offered. Event rates, CPU and heap are read from the Argos actuator /metrics.
+ * <p>
+ * Argos has to be started separately so it is measured alone, with
+ * --discovery.impl=com.bodybuilding.argos.discovery.ClusterListDiscovery
+ * --turbine.clusterlist.servers=http://127.0.0.1:7979/clusterlist
+ * <p>
+ * Run with: mvn -Pperf test-compile exec:java -Dexec.mainClass=com.bodybuilding.argos.perf.LoadDriver
+ * -Dexec.args="--argos=http://127.0.0.1:9000 --scales=10x20x3,50x50x3,100x100x5"
+ */
+public final class LoadDriver {
+    private static final Logger LOG = LoggerFactory.getLogger(LoadDriver.class);
+    private static final long METRICS_WINDOW_MS = 10000; // rates published by Argos cover 10 seconds
+    private final ObjectMapper om = new ObjectMapper();
+    private final FakeTurbine turbine;
+    private final String argosUrl;
+    private final long stepMs;
+    private final double threshold;
+    private final long startIntervalMs;
+    private final long minIntervalMs;
+    private final LongAdder framesRead = new LongAdder();
+
+    LoadDriver(FakeTurbine turbine, String argosUrl, long stepMs, double threshold, long startIntervalMs,
+               long minIntervalMs) {
+        this.turbine = turbine;
+        this.argosUrl = argosUrl;
+        this.stepMs = Math.max(stepMs, 2 * METRICS_WINDOW_MS);
+        this.threshold = threshold;
+        this.startIntervalMs = startIntervalMs;
+        this.minIntervalMs = Math.max(1, minIntervalMs);
+    }
+
+    /**
+     * Reads /cluster.stream like a dashboard would so serialization and freshness are part of the measurement
+     */
+    void startDashboardClient() {
+        Thread reader = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                        new URL(argosUrl + "/cluster.stream").openStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if(line.startsWith("data:")) {
+                            framesRead.increment();
+                        }
+                    }
+                } catch (IOException e) {
+                    LOG.warn("Dashboard client disconnected, reconnecting: {}", e.toString());
+                }
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "dashboard-client");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Runs the steps for a single scale point
+     * @param scale scale point, the interval is ignored
+     * @return the last step Argos kept up with, null if it didn't keep up with the first
+     */
+    Step run(FakeTurbine.Scale scale) throws InterruptedException, IOException {
+        Step sustained = null;
+        for (long interval = startIntervalMs; interval >= minIntervalMs; interval /= 2) {
+            FakeTurbine.Scale step = scale.withIntervalMs(interval);
+            turbine.setScale(step);
+            Step result = measure(step);
+            LOG.info("{}", result);
+            if(result.ingested < result.offered * threshold) {
+                break;
+            }
+            sustained = result;
+        }
+        return sustained;
+    }
+
+    private Step measure(FakeTurbine.Scale scale) throws InterruptedException, IOException {
+        // let discovery, connections and the rate windows settle, then compare the last window
+        Thread.sleep(stepMs - METRICS_WINDOW_MS);
+        // events the fake turbine skipped because Argos didn't read them fast enough were still offered
+        long sent = turbine.getEventsSent();
+        long skipped = turbine.getEventsSkipped();
+        long start = System.nanoTime();
+        Thread.sleep(METRICS_WINDOW_MS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double skippedRate = (turbine.getEventsSkipped() - skipped) / seconds;
+        double offered = (turbine.getEventsSent() - sent) / seconds + skippedRate;
+        Map<String, Object> metrics = fetchMetrics();
+
+        double ingested = 0;
+        for (Map.Entry<String, Object> e : metrics.entrySet()) {
+            if(e.getKey().startsWith("argos.cluster.cluster-") && e.getKey().endsWith(".events.rate")) {
+                ingested += ((Number) e.getValue()).doubleValue();
+            }
+        }
+        return new Step(scale, offered, skippedRate, ingested, number(metrics, "argos.process.cpu"),
+                number(metrics, "heap.used") / 1024, number(metrics, "argos.sse.cluster.stream.freshness.ms.p99"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> fetchMetrics() throws IOException {
+        return om.readValue(new URL(argosUrl + "/metrics"), Map.class);
+    }
+
+    private static double number(Map<String, Object> metrics, String name) {
+        Object value = metrics.get(name);
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+    }
+
+    static final class Step {
+        private final FakeTurbine.Scale scale;
+        private final double offered;
+        private final double skipped;
+        private final double ingested;
+        private final double cpu;
+        private final double heapMb;
+        private final double freshnessP99;
+
+        Step(FakeTurbine.Scale scale, double offered, double skipped, double ingested, double cpu, double heapMb,
+             double freshnessP99) {
+            this.scale = scale;
+            this.offered = offered;
+            this.skipped = skipped;
+            this.ingested = ingested;
+            this.cpu = cpu;
+            this.heapMb = heapMb;
+            this.freshnessP99 = freshnessP99;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-28s offered %10.0f/s  skipped %10.0f/s  ingested %10.0f/s  cpu %5.1f%%  " +
+                    "heap %7.1fMB  freshness p99 %6.0fms", scale, offered, skipped, ingested, cpu, heapMb,
+                    freshnessP99);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = Options.parse(args);
+        List<String> scales = Splitter.on(',').omitEmptyStrings().trimResults()
+                .splitToList(options.getOrDefault("scales", "10x20x3,50x50x3,100x100x5"));
+        int port = Options.getInt(options, "port", 7979);
+        long startIntervalMs = Options.getInt(options, "start-interval-ms", 1000);
+
+        FakeTurbine turbine = new FakeTurbine(port, options.getOrDefault("host", "127.0.0.1"),
+                FakeTurbine.Scale.parse(scales.get(0), startIntervalMs)).start();
+        LoadDriver driver = new LoadDriver(turbine, options.getOrDefault("argos", "http://127.0.0.1:9000"),
+                TimeUnit.SECONDS.toMillis(Options.getInt(options, "step-seconds", 30)),
+                Options.getDouble(options, "threshold", 0.95), startIntervalMs,
+                Options.getInt(options, "min-interval-ms", 1));
+
+        driver.startDashboardClient();
+        List<String> report = Lists.newArrayList();
+        for (String spec : scales) {
+            Step sustained = driver.run(FakeTurbine.Scale.parse(spec, startIntervalMs));
+            report.add(spec + ": " + (sustained == null ? "did not keep up at the starting rate" : sustained));
+        }
+        turbine.shutdown();
+
+        System.out.println();
+        System.out.println("Max sustained event rate per scale point (clusters x commands x hosts)");
+        report.forEach(System.out::println);
+        System.exit(0);
+    }
+}
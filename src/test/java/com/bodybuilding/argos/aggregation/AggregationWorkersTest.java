@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.aggregation;
+
+import com.bodybuilding.argos.metrics.ClusterPipelineStats;
+import org.junit.After;
+import org.junit.Test;
+import rx.Observable;
+import rx.observers.TestSubscriber;
+import rx.subjects.PublishSubject;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AggregationWorkersTest {
+    private final AggregationWorkers workers = new AggregationWorkers();
+
+    @After
+    public void tearDown() {
+        workers.stop();
+    }
+
+    @Test
+    public void testAggregate() {
+        workers.setCount(2);
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        AtomicInteger sum = new AtomicInteger();
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+        workers.aggregate("cluster1", Observable.range(1, 100), i -> {
+            threads.add(Thread.currentThread().getName());
+            sum.addAndGet(i);
+        }, sum::get, new ClusterPipelineStats()).subscribe(subscriber);
+
+        subscriber.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        subscriber.assertNoErrors();
+        assertEquals(5050, sum.get());
+        assertEquals(1, threads.size());
+        assertTrue(threads.iterator().next().startsWith("argos-aggregation-"));
+    }
+
+    @Test
+    public void testTick_onlyWhenUpdated() throws Exception {
+        workers.setCount(1);
+        PublishSubject<Integer> frames = PublishSubject.create();
+        AtomicInteger sum = new AtomicInteger();
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+        workers.aggregate("cluster1", frames, sum::addAndGet, sum::get, new ClusterPipelineStats())
+                .subscribe(subscriber);
+        frames.onNext(1);
+        frames.onNext(2);
+        Thread.sleep(2500);
+        List<Integer> ticks = subscriber.getOnNextEvents();
+        assertEquals(1, ticks.size()); // the second tick had nothing new
+        assertEquals(3, (int) ticks.get(0));
+
+        frames.onNext(3);
+        Thread.sleep(1200);
+        assertEquals(6, (int) subscriber.getOnNextEvents().get(1));
+        subscriber.unsubscribe();
+    }
+
+    @Test
+    public void testTick_noBurstAfterPause() throws Exception {
+        workers.setCount(1);
+        PublishSubject<Integer> frames = PublishSubject.create();
+        List<Long> tickedAt = new CopyOnWriteArrayList<>();
+        TestSubscriber<Long> subscriber = new TestSubscriber<>();
+        workers.aggregate("cluster1", frames, i -> {
+            if(i == 0) {
+                try {
+                    Thread.sleep(2500); // the worker misses the first tick
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, () -> {
+            tickedAt.add(System.currentTimeMillis());
+            return 0L;
+        }, new ClusterPipelineStats()).subscribe(subscriber);
+        long end = System.currentTimeMillis() + 4000;
+        for (int i = 0; System.currentTimeMillis() < end; i++) {
+            frames.onNext(i); // keeps the worker busy, it ticks again as soon as it's due
+            Thread.sleep(0, 100_000);
+        }
+        subscriber.unsubscribe();
+
+        assertTrue(tickedAt.size() >= 2);
+        for (int i = 1; i < tickedAt.size(); i++) {
+            assertTrue("ticked " + (tickedAt.get(i) - tickedAt.get(i - 1)) + "ms apart",
+                    tickedAt.get(i) - tickedAt.get(i - 1) >= 900);
+        }
+    }
+
+    @Test
+    public void testSameWorker() {
+        workers.setCount(4);
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < 3; i++) {
+            workers.aggregate("cluster1", Observable.just(i), n -> threads.add(Thread.currentThread().getName()),
+                    () -> 0, new ClusterPipelineStats()).toBlocking().lastOrDefault(null);
+        }
+        assertEquals(1, threads.size());
+    }
+
+    @Test
+    public void testDroppedFrames() throws Exception {
+        workers.setCount(1);
+        workers.setQueueCapacity(2);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ClusterPipelineStats stats = new ClusterPipelineStats();
+        PublishSubject<Integer> frames = PublishSubject.create();
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+        workers.aggregate("cluster1", frames, i -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, () -> 0, stats).subscribe(subscriber);
+
+        frames.onNext(0);
+        assertTrue(blocked.await(5, TimeUnit.SECONDS)); // the worker is stuck on the first frame
+        for (int i = 1; i <= 5; i++) {
+            frames.onNext(i);
+        }
+        release.countDown();
+        assertEquals(3, stats.getDroppedFrames());
+        subscriber.unsubscribe();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.aggregation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SpscQueueTest {
+
+    @Test
+    public void testOfferPoll() {
+        SpscQueue<Integer> queue = new SpscQueue<>(3);
+        assertEquals(4, queue.capacity());
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4)); // full
+        assertEquals(4, queue.size());
+        assertEquals(0, (int) queue.poll());
+        assertTrue(queue.offer(4)); // wraps around
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, (int) queue.poll());
+        }
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        SpscQueue<Integer> queue = new SpscQueue<>(64);
+        int count = 1_000_000;
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                while (!queue.offer(i)) {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+        for (int expected = 0; expected < count; ) {
+            Integer i = queue.poll();
+            if(i == null) {
+                Thread.yield();
+            } else {
+                assertEquals(expected++, (int) i);
+            }
+        }
+        producer.join();
+        assertTrue(queue.isEmpty());
+    }
+}
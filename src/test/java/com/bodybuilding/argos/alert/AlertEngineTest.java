@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.alert;
+
+import com.bodybuilding.argos.discovery.HystrixClusterMetrics;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.bodybuilding.argos.discovery.TestClusterMetrics.create;
+import static org.junit.Assert.assertEquals;
+
+public class AlertEngineTest {
+
+    @Test
+    public void testEvaluate() {
+        List<AlertEvent> events = new ArrayList<>();
+        AlertEngine engine = new AlertEngine(Lists.newArrayList(
+                "errors|errorPercentage > 20",
+                "payments-errors|errorPercentage > 5|payments"),
+                Lists.newArrayList(events::add));
+
+        engine.evaluate(create("payments", 90, 10), 0);
+        engine.evaluate(create("search", 90, 10), 0);
+        assertEquals(1, events.size());
+        assertEquals("payments-errors", events.get(0).getRule());
+        assertEquals("payments", events.get(0).getClusterName());
+        assertEquals(AlertEvent.Status.FIRING, events.get(0).getStatus());
+        assertEquals(10D, events.get(0).getValue(), 0.001D);
+
+        events.clear();
+        engine.evaluate(create("payments", 50, 50), 1_000);
+        engine.evaluate(create("search", 50, 50), 1_000);
+        assertEquals(2, events.size());
+        assertEquals("errors", events.get(0).getRule());
+        assertEquals("payments", events.get(0).getClusterName());
+        assertEquals("errors", events.get(1).getRule());
+        assertEquals("search", events.get(1).getClusterName());
+
+        events.clear();
+        engine.evaluate(create("payments", 100, 0), 2_000);
+        assertEquals(2, events.size());
+        assertEquals(AlertEvent.Status.RESOLVED, events.get(0).getStatus());
+        assertEquals(AlertEvent.Status.RESOLVED, events.get(1).getStatus());
+    }
+
+    @Test
+    public void testRemoveResolvesFiring() {
+        List<AlertEvent> events = new ArrayList<>();
+        AlertEngine engine = new AlertEngine(Lists.newArrayList(
+                "errors|errorPercentage > 20",
+                "payments-errors|errorPercentage > 5|payments"),
+                Lists.newArrayList(events::add));
+
+        engine.evaluate(create("payments", 90, 10), 0);
+        events.clear();
+        engine.remove("payments", 1_000);
+        assertEquals(1, events.size());
+        assertEquals("payments-errors", events.get(0).getRule());
+        assertEquals(AlertEvent.Status.RESOLVED, events.get(0).getStatus());
+        assertEquals(1_000, events.get(0).getTimestamp());
+
+        // the cluster comes back with clean state
+        events.clear();
+        engine.remove("payments", 2_000);
+        engine.evaluate(create("payments", 90, 10), 3_000);
+        assertEquals(1, events.size());
+        assertEquals(AlertEvent.Status.FIRING, events.get(0).getStatus());
+    }
+
+    @Test
+    public void testEvaluate_sinkFailure() {
+        List<AlertEvent> events = new ArrayList<>();
+        AlertEngine engine = new AlertEngine(Lists.newArrayList("errors|errorPercentage > 20"),
+                Lists.newArrayList(e -> {
+                    throw new RuntimeException("Unit Test");
+                }, events::add));
+        engine.evaluate(create("one", 50, 50), 0);
+        assertEquals(1, events.size());
+    }
+
+    @Test
+    public void testEvaluate_manyClustersAndRules() {
+        List<String> rules = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            rules.add("errors" + i + "|errorPercentage > " + i + " for 2s");
+            rules.add("traffic" + i + "|requestRate drops 50% vs 5s");
+        }
+        List<AlertEvent> events = new ArrayList<>();
+        AlertEngine engine = new AlertEngine(rules, Lists.newArrayList(events::add));
+
+        List<HystrixClusterMetrics> metrics = new ArrayList<>();
+        for (int c = 0; c < 1000; c++) {
+            metrics.add(create("cluster" + c, 95, 5));
+        }
+        for (long t = 0; t <= 2_000; t += 1_000) {
+            for (HystrixClusterMetrics m : metrics) {
+                engine.evaluate(m, t);
+            }
+        }
+        // 5% errors fires errors0 - errors4 on every cluster
+        assertEquals(5 * 1000, events.size());
+    }
+}
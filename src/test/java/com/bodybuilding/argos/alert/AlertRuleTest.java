@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.alert;
+
+import org.junit.Test;
+
+import static com.bodybuilding.argos.discovery.TestClusterMetrics.create;
+import static org.junit.Assert.*;
+
+public class AlertRuleTest {
+
+    @Test
+    public void testParse() {
+        AlertRule rule = AlertRule.parse("errors | errorPercentage > 20 for 30s");
+        assertEquals("errors", rule.getName());
+        assertEquals("errorPercentage > 20 for 30s", rule.getExpression());
+        assertEquals(ClusterMetric.errorPercentage, rule.getMetric());
+        assertTrue(rule.appliesTo("anything"));
+
+        rule = AlertRule.parse("traffic|requestRate drops 50% vs 5 min ago|payments-.*");
+        assertEquals(ClusterMetric.requestRate, rule.getMetric());
+        assertTrue(rule.appliesTo("payments-api"));
+        assertFalse(rule.appliesTo("search-api"));
+
+        AlertRule.parse("hosts|reportingHosts <= 2");
+        AlertRule.parse("spike|errorPercentage rises 100% vs 10m for 1m");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParse_unknownMetric() {
+        AlertRule.parse("bad|latency > 20");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParse_invalidCondition() {
+        AlertRule.parse("bad|errorPercentage is high");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParse_missingName() {
+        AlertRule.parse("errorPercentage > 20");
+    }
+
+    @Test
+    public void testEvaluate_threshold() {
+        AlertRule rule = AlertRule.parse("errors|errorPercentage > 20 for 30s");
+        AlertState state = new AlertState();
+
+        assertNull(rule.evaluate(create("one", 90, 10), state, 0));
+        assertNull(rule.evaluate(create("one", 50, 50), state, 1_000));
+        assertNull(rule.evaluate(create("one", 50, 50), state, 30_999));
+        assertEquals(AlertEvent.Status.FIRING, rule.evaluate(create("one", 50, 50), state, 31_000));
+        assertNull(rule.evaluate(create("one", 50, 50), state, 32_000));
+        assertEquals(AlertEvent.Status.RESOLVED, rule.evaluate(create("one", 90, 10), state, 33_000));
+        assertNull(rule.evaluate(create("one", 90, 10), state, 34_000));
+    }
+
+    @Test
+    public void testEvaluate_thresholdInterrupted() {
+        AlertRule rule = AlertRule.parse("errors|errorPercentage > 20 for 30s");
+        AlertState state = new AlertState();
+
+        assertNull(rule.evaluate(create("one", 50, 50), state, 0));
+        assertNull(rule.evaluate(create("one", 90, 10), state, 20_000));
+        assertNull(rule.evaluate(create("one", 50, 50), state, 21_000));
+        assertNull(rule.evaluate(create("one", 50, 50), state, 40_000));
+        assertEquals(AlertEvent.Status.FIRING, rule.evaluate(create("one", 50, 50), state, 51_000));
+    }
+
+    @Test
+    public void testEvaluate_drops() {
+        AlertRule rule = AlertRule.parse("traffic|requestRate drops 50% vs 5m");
+        AlertState state = new AlertState();
+
+        // steady 100 req/s for 5 minutes
+        for (long t = 0; t <= 300_000; t += 1_000) {
+            assertNull(rule.evaluate(create("one", 1000, 0), state, t));
+        }
+        // 60 req/s is only a 40% drop
+        assertNull(rule.evaluate(create("one", 600, 0), state, 301_000));
+        assertEquals(AlertEvent.Status.FIRING, rule.evaluate(create("one", 400, 0), state, 302_000));
+        assertEquals(AlertEvent.Status.RESOLVED, rule.evaluate(create("one", 1000, 0), state, 303_000));
+    }
+
+    @Test
+    public void testEvaluate_dropsNeedsBaseline() {
+        AlertRule rule = AlertRule.parse("traffic|requestRate drops 50% vs 5m");
+        AlertState state = new AlertState();
+
+        assertNull(rule.evaluate(create("one", 1000, 0), state, 0));
+        // not enough history yet
+        assertNull(rule.evaluate(create("one", 10, 0), state, 60_000));
+    }
+}
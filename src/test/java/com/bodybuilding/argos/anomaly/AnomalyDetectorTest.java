@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.anomaly;
+
+import org.junit.Test;
+
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+import static com.bodybuilding.argos.discovery.TestClusterMetrics.create;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AnomalyDetectorTest {
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Test
+    public void testScore_warmup() {
+        AnomalyDetector detector = new AnomalyDetector(MINUTE, HOUR, 10, ZoneOffset.UTC);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0D, detector.score(create("one", 1000 * (i + 1), 0), i * 1000L).getAnomalyScore(), 0D);
+        }
+    }
+
+    @Test
+    public void testScore_spike() {
+        AnomalyDetector detector = new AnomalyDetector(MINUTE, HOUR, 10, ZoneOffset.UTC);
+        long t = 0;
+        for (int i = 0; i < 120; i++, t += 1000) {
+            // 100 req/s +- 1
+            detector.score(create("one", 1000 + (i % 3 - 1) * 10, 0), t);
+        }
+        assertTrue(detector.score(create("one", 1000, 0), t).getAnomalyScore() < 1D);
+        t += 1000;
+        // errors jump to 50%
+        assertTrue(detector.score(create("one", 500, 500), t).getAnomalyScore() > 10D);
+    }
+
+    @Test
+    public void testScore_scaleIndependent() {
+        AnomalyDetector detector = new AnomalyDetector(MINUTE, HOUR, 10, ZoneOffset.UTC);
+        long t = 0;
+        for (int i = 0; i < 120; i++, t += 1000) {
+            detector.score(create("small", 10, 0), t);
+            detector.score(create("large", 100_000, 0), t);
+        }
+        // both clusters triple their traffic
+        double small = detector.score(create("small", 30, 0), t).getAnomalyScore();
+        double large = detector.score(create("large", 300_000, 0), t).getAnomalyScore();
+        assertTrue(small > 1D);
+        assertTrue(large > 1D);
+    }
+
+    @Test
+    public void testScore_seasonal() {
+        AnomalyDetector detector = new AnomalyDetector(MINUTE, HOUR, 10, ZoneOffset.UTC);
+        long week = TimeUnit.DAYS.toMillis(7);
+        // 1970-01-01 was a Thursday, traffic is 10x higher between 00:00 and 01:00 every week
+        for (long t = 0; t < 2 * week; t += 10_000) {
+            boolean busy = t % week < HOUR;
+            detector.score(create("one", busy ? 10_000 : 1000, 0), t);
+        }
+        long t = 2 * week + 10 * MINUTE;
+        // the busy hour is normal for this time of the week even though it's 10x the recent average
+        assertTrue(detector.score(create("one", 10_000, 0), t).getAnomalyScore() < 3D);
+
+        detector.reset("one");
+        assertEquals(0D, detector.score(create("one", 10_000, 0), t).getAnomalyScore(), 0D);
+    }
+}
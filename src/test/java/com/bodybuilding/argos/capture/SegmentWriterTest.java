@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.capture;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import rx.schedulers.Timestamped;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SegmentWriterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Path dir = folder.getRoot().toPath().resolve("cluster1");
+        SegmentWriter writer = new SegmentWriter(dir, Long.MAX_VALUE, Long.MAX_VALUE);
+        writer.write(1000, "{\"a\":1}");
+        writer.write(1500, "{\"b\":\n2}");
+        writer.close();
+
+        try (SegmentReader reader = new SegmentReader(SegmentReader.segments(dir))) {
+            Timestamped<String> first = reader.next();
+            assertEquals(1000, first.getTimestampMillis());
+            assertEquals("{\"a\":1}", first.getValue());
+            Timestamped<String> second = reader.next();
+            assertEquals(1500, second.getTimestampMillis());
+            assertEquals("{\"b\": 2}", second.getValue());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void testRollsByAgeAndSize() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        SegmentWriter writer = new SegmentWriter(dir, 20, 1000);
+        writer.write(0, "a");
+        writer.write(500, "b");
+        writer.write(1000, "c"); // age
+        writer.write(1001, "0123456789012345678901234");
+        writer.write(1002, "d"); // size
+        writer.close();
+        writer.write(1003, "e"); // new segment after close
+        writer.close();
+
+        List<Path> segments = SegmentReader.segments(dir);
+        assertEquals(4, segments.size());
+        assertEquals(SegmentWriter.segmentName(0), segments.get(0).getFileName().toString());
+        try (SegmentReader reader = new SegmentReader(segments)) {
+            StringBuilder sb = new StringBuilder();
+            for (Timestamped<String> t = reader.next(); t != null; t = reader.next()) {
+                sb.append(t.getValue().charAt(0));
+            }
+            assertEquals("abc0de", sb.toString());
+        }
+    }
+
+    @Test
+    public void testRollsByEncodedSize() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        SegmentWriter writer = new SegmentWriter(dir, 20, Long.MAX_VALUE);
+        writer.write(0, "\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9"); // 10 chars, 17 bytes
+        writer.write(1, "\u00e9\u00e9\u00e9\u00e9"); // 7 chars, 11 bytes
+        writer.write(2, "x");
+        writer.close();
+
+        assertEquals(2, SegmentReader.segments(dir).size());
+    }
+
+    @Test
+    public void testTruncatedSegment() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        Path file = dir.resolve(SegmentWriter.segmentName(0));
+        try (OutputStream os = new GZIPOutputStream(Files.newOutputStream(file), 512, true)) {
+            os.write("0\tone\n1\ttwo\n".getBytes("UTF-8"));
+            os.flush();
+            // a crashed writer leaves a segment without the gzip trailer
+            Files.write(dir.resolve("partial"), Files.readAllBytes(file));
+        }
+        Files.delete(file);
+        Files.move(dir.resolve("partial"), file);
+        Files.createFile(dir.resolve(SegmentWriter.segmentName(1)));
+        SegmentWriter writer = new SegmentWriter(dir, Long.MAX_VALUE, Long.MAX_VALUE);
+        writer.write(2, "three");
+        writer.close();
+
+        try (SegmentReader reader = new SegmentReader(SegmentReader.segments(dir))) {
+            assertEquals("one", reader.next().getValue());
+            assertEquals("two", reader.next().getValue());
+            assertEquals("three", reader.next().getValue());
+            assertNull(reader.next());
+        }
+    }
+}
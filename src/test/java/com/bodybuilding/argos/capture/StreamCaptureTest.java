@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.capture;
+
+import com.google.common.collect.Lists;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class StreamCaptureTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriterFor() {
+        StreamCapture capture = new StreamCapture();
+        capture.setClusters(Lists.newArrayList("captured.*"));
+        capture.setDirectory(folder.getRoot().getPath());
+        capture.init();
+
+        assertNull(capture.writerFor("other"));
+        SegmentWriter writer = capture.writerFor("captured1");
+        assertSame(writer, capture.writerFor("captured1"));
+
+        // the cluster was removed, its writer is no longer kept
+        writer.close();
+        assertNotSame(writer, capture.writerFor("captured1"));
+        capture.close();
+    }
+}
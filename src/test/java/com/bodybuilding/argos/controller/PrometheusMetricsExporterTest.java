@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.controller;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.bodybuilding.argos.discovery.TestClusterMetrics.create;
+import static org.junit.Assert.*;
+
+public class PrometheusMetricsExporterTest {
+
+    private static String render(PrometheusMetricsExporter exporter, long now) {
+        exporter.render(now);
+        return new String(exporter.getExposition(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testRender() {
+        PrometheusMetricsExporter exporter = new PrometheusMetricsExporter();
+        assertEquals(0, exporter.getExposition().length);
+
+        exporter.update(create("one", 90, 10), 0);
+        exporter.update(create("two\"quoted\"", 100, 0), 0);
+        String text = render(exporter, 0);
+
+        assertTrue(text.contains("# TYPE argos_cluster_request_rate gauge\n"));
+        assertTrue(text.contains("argos_cluster_request_rate{cluster=\"one\"} 10.0\n"));
+        assertTrue(text.contains("argos_cluster_error_percentage{cluster=\"one\"} 10.0\n"));
+        assertTrue(text.contains("argos_cluster_rolling_failures{cluster=\"one\"} 10.0\n"));
+        assertTrue(text.contains("argos_cluster_request_rate{cluster=\"two\\\"quoted\\\"\"} 10.0\n"));
+        assertTrue(text.contains("# TYPE argos_cluster_requests_total counter\n"));
+        assertTrue(text.contains("argos_cluster_requests_total{cluster=\"one\"} 0.0\n"));
+    }
+
+    @Test
+    public void testRender_requestsTotal() {
+        PrometheusMetricsExporter exporter = new PrometheusMetricsExporter();
+        exporter.update(create("one", 100, 0), 0);
+        exporter.update(create("one", 100, 0), 1_000);
+        exporter.update(create("one", 100, 0), 3_000);
+        assertTrue(render(exporter, 3_000).contains("argos_cluster_requests_total{cluster=\"one\"} 30.0\n"));
+    }
+
+    @Test
+    public void testRender_expired() {
+        PrometheusMetricsExporter exporter = new PrometheusMetricsExporter();
+        exporter.update(create("one", 100, 0), 0);
+        exporter.update(create("two", 100, 0), 50_000);
+        String text = render(exporter, 70_000);
+        assertFalse(text.contains("cluster=\"one\""));
+        assertTrue(text.contains("cluster=\"two\""));
+    }
+}
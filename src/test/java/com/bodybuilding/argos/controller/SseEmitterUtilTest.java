@@ -16,6 +16,7 @@
 
 package com.bodybuilding.argos.controller;
 
+import com.bodybuilding.argos.metrics.SseEndpointStats;
 import org.apache.catalina.connector.ClientAbortException;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -24,9 +25,11 @@ import org.mockito.runners.MockitoJUnitRunner;
 import org.springframework.http.MediaType;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import rx.Observable;
+import rx.Subscription;
 
 import java.io.IOException;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -87,4 +90,16 @@ public class SseEmitterUtilTest {
         SseEmitterUtil.emitSse(emitter, "test", MediaType.APPLICATION_ATOM_XML);
         verify(emitter).send(eq("test"), eq(MediaType.APPLICATION_ATOM_XML));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBindObservable_stats() throws IOException {
+        SseEndpointStats stats = new SseEndpointStats();
+        Subscription subscription = SseEmitterUtil.bindObservable(emitter,
+                Observable.range(1, 10).concatWith(Observable.never()), stats);
+        assertEquals(1, stats.getClients());
+        assertEquals(10, stats.getSends());
+
+        subscription.unsubscribe();
+        assertEquals(0, stats.getClients());
+    }
+}
@@ -65,4 +65,37 @@ public class AbstractClusterDiscoveryTest {
 
         assertEquals(expected, actual);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testUrlsChanged() throws Exception {
+        final AtomicInteger updateCount = new AtomicInteger();
+        AbstractClusterDiscovery discovery = new AbstractClusterDiscovery(50, TimeUnit.MILLISECONDS) {
+            @Override
+            protected Collection<Cluster> getCurrentClusters() {
+                int numUpdates = updateCount.incrementAndGet();
+                if(numUpdates < 3) {
+                    return Lists.newArrayList(new Cluster("one", "a"));
+                } else if(numUpdates < 5) {
+                    return Lists.newArrayList(new Cluster("one", Lists.newArrayList("a", "b"), true));
+                } else {
+                    return Lists.newArrayList(new Cluster("one", Lists.newArrayList("b", "a"), true));
+                }
+            }
+        };
+
+        // a new failover url is passed on as is, a new primary restarts the cluster
+        ArrayList<Cluster> expected = Lists.newArrayList(
+                new Cluster("one", "a"),
+                new Cluster("one", Lists.newArrayList("a", "b"), true),
+                new Cluster("one", Lists.newArrayList("a", "b"), false),
+                new Cluster("one", Lists.newArrayList("b", "a"), true));
+
+        ArrayList<Object> actual = discovery.getClusters()
+                .take(300, TimeUnit.MILLISECONDS)
+                .collect(Lists::newArrayList, ArrayList::add)
+                .toBlocking()
+                .first();
+
+        assertEquals(expected, actual);
+    }
+}
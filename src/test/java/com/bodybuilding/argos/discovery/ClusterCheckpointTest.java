@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.discovery;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import rx.Observable;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ClusterCheckpointTest {
+    private static final ObjectMapper om = new ObjectMapper();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final TestScheduler scheduler = new TestScheduler();
+
+    @Test
+    public void testWriteAndLoad() throws Exception {
+        HystrixCommandMetrics cmd1 = new HystrixCommandMetrics("cmd1", 3, 1, 2, 100, 4, 5, 0, 30000D, 36);
+        HystrixCommandMetrics cmd2 = new HystrixCommandMetrics("cmd2", 3, 0, 0, 7, 0, 0, 0, 30000D, 3);
+        cmd1.setReceivedAt(1000);
+        cmd2.setReceivedAt(1000);
+        HystrixClusterMonitor monitor = mock(HystrixClusterMonitor.class);
+        when(monitor.getCommandMetrics()).thenReturn(Lists.newArrayList(cmd1, cmd2));
+
+        String file = folder.getRoot().toPath().resolve("state/checkpoint.json.gz").toString();
+        ClusterCheckpoint checkpoint = checkpoint(file);
+        checkpoint.track("one", Collections.singletonList("http://one"), monitor);
+        checkpoint.write();
+
+        ClusterCheckpoint restored = checkpoint(file);
+        restored.load();
+        TestSubscriber<Cluster> clusters = new TestSubscriber<>();
+        restored.restore(Observable.never()).subscribe(clusters);
+        clusters.assertValues(new Cluster("one", "http://one"));
+
+        TestSubscriber<HystrixClusterMetrics> metrics = new TestSubscriber<>();
+        restored.withLastKnown("one", "http://one", Observable.never()).subscribe(metrics);
+        scheduler.triggerActions();
+
+        HystrixClusterMetrics expected = HystrixClusterMetrics.Builder.newBuilder("one", "http://one")
+                .addCommandMetrics(cmd1)
+                .addCommandMetrics(cmd2)
+                .build();
+        HystrixClusterMetrics lastKnown = metrics.getOnNextEvents().get(0);
+        assertTrue(lastKnown.isStale());
+        assertEquals(expected.getRequestCount(), lastKnown.getRequestCount());
+        assertEquals(expected.getRequestRate(), lastKnown.getRequestRate(), 0.001);
+        assertEquals(expected.getErrorPercentage(), lastKnown.getErrorPercentage(), 0.001);
+        assertEquals(expected.getLatencyMean(), lastKnown.getLatencyMean(), 0.001);
+        assertEquals(3, lastKnown.getReportingHosts());
+        assertEquals(2, lastKnown.getCommandCount());
+        assertEquals(1000, lastKnown.getReceivedAt());
+    }
+
+    @Test
+    public void testWriteKeepsRestoredCommandsUntilConnected() throws Exception {
+        ClusterCheckpoint checkpoint = checkpoint(null);
+        checkpoint.load(om.readTree(checkpointJson(1000)), 2000);
+        HystrixClusterMonitor monitor = mock(HystrixClusterMonitor.class);
+        when(monitor.getCommandMetrics()).thenReturn(Lists.newArrayList());
+        checkpoint.track("one", Collections.singletonList("http://one"), monitor);
+
+        String json = om.writeValueAsString(checkpoint.snapshot(3000));
+        assertTrue(json.contains("\"name\":\"cmd1\""));
+
+        checkpoint.untrack("one");
+        assertFalse(om.writeValueAsString(checkpoint.snapshot(3000)).contains("cmd1"));
+    }
+
+    @Test
+    public void testExpiredCheckpointIgnored() throws Exception {
+        ClusterCheckpoint checkpoint = checkpoint(null);
+        checkpoint.load(om.readTree(checkpointJson(1000)), 1000 + TimeUnit.HOURS.toMillis(1));
+
+        TestSubscriber<Cluster> clusters = new TestSubscriber<>();
+        checkpoint.restore(Observable.never()).subscribe(clusters);
+        clusters.assertNoValues();
+    }
+
+    @Test
+    public void testLastKnownUntilLive() throws Exception {
+        ClusterCheckpoint checkpoint = checkpoint(null);
+        checkpoint.load(om.readTree(checkpointJson(1000)), 2000);
+        PublishSubject<HystrixClusterMetrics> live = PublishSubject.create();
+
+        TestSubscriber<HystrixClusterMetrics> metrics = new TestSubscriber<>();
+        checkpoint.withLastKnown("one", "http://one", live).subscribe(metrics);
+        scheduler.advanceTimeBy(2, TimeUnit.SECONDS);
+        assertEquals(3, metrics.getOnNextEvents().size());
+        assertTrue(metrics.getOnNextEvents().stream().allMatch(HystrixClusterMetrics::isStale));
+
+        live.onNext(TestClusterMetrics.create("one", 10, 0));
+        scheduler.advanceTimeBy(2, TimeUnit.SECONDS);
+        assertEquals(4, metrics.getOnNextEvents().size());
+        assertFalse(metrics.getOnNextEvents().get(3).isStale());
+
+        // the stream serializes fields, only stale metrics carry the flag
+        ObjectMapper fields = new ObjectMapper().setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
+        assertTrue(fields.writeValueAsString(metrics.getOnNextEvents().get(0)).contains("\"stale\":true"));
+        assertFalse(fields.writeValueAsString(metrics.getOnNextEvents().get(3)).contains("stale"));
+
+        // live metrics replaced the restored ones, a re-added cluster starts without them
+        TestSubscriber<HystrixClusterMetrics> readded = new TestSubscriber<>();
+        checkpoint.withLastKnown("one", "http://one", Observable.never()).subscribe(readded);
+        scheduler.advanceTimeBy(2, TimeUnit.SECONDS);
+        readded.assertNoValues();
+    }
+
+    @Test
+    public void testRestoreConfirmAndExpire() throws Exception {
+        ClusterCheckpoint checkpoint = checkpoint(null);
+        checkpoint.setConfirmTimeoutMs(5000);
+        checkpoint.load(om.readTree("{\"version\":1,\"savedAt\":1000,\"clusters\":["
+                + "{\"name\":\"one\",\"urls\":[\"http://one\"],\"commands\":[]},"
+                + "{\"name\":\"two\",\"urls\":[\"http://two\"],\"commands\":[]},"
+                + "{\"name\":\"three\",\"urls\":[\"http://three\"],\"commands\":[]}]}"), 2000);
+        PublishSubject<Cluster> discovered = PublishSubject.create();
+
+        TestSubscriber<Cluster> clusters = new TestSubscriber<>();
+        checkpoint.restore(discovered).subscribe(clusters);
+        discovered.onNext(new Cluster("one", "http://one"));
+        discovered.onNext(new Cluster("two", "http://two-moved"));
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS);
+        discovered.onNext(new Cluster("three", "http://three"));
+
+        clusters.assertValues(
+                new Cluster("one", "http://one"),
+                new Cluster("two", "http://two"),
+                new Cluster("three", "http://three"),
+                new Cluster("one", "http://one"),
+                new Cluster("two", "http://two", false),
+                new Cluster("two", "http://two-moved"),
+                new Cluster("three", "http://three", false),
+                new Cluster("three", "http://three"));
+
+        // only restored once
+        TestSubscriber<Cluster> again = new TestSubscriber<>();
+        checkpoint.restore(Observable.never()).subscribe(again);
+        again.assertNoValues();
+    }
+
+    @Test
+    public void testToEventRoundTrip() throws Exception {
+        HystrixCommandMetrics command = new HystrixCommandMetrics("cmd", 4, 3, 5, 200, 1, 2, 6, 40000D, 80);
+        HystrixCommandMetrics read = om.convertValue(ClusterCheckpoint.toEvent(command), HystrixCommandMetrics.class);
+        assertEquals(command.getRequests(), read.getRequests());
+        assertEquals(command.getRejected(), read.getRejected());
+        assertEquals(command.getRequestRate(), read.getRequestRate(), 0.001);
+        assertEquals(command.getErrorPercentage(), read.getErrorPercentage(), 0.001);
+        assertEquals(command.getLatencyMean(), read.getLatencyMean(), 0.001);
+    }
+
+    private ClusterCheckpoint checkpoint(String file) {
+        ClusterCheckpoint checkpoint = new ClusterCheckpoint(scheduler);
+        checkpoint.setEnabled(true);
+        if(file != null) {
+            checkpoint.setFile(file);
+        }
+        return checkpoint;
+    }
+
+    private static String checkpointJson(long savedAt) throws Exception {
+        HystrixCommandMetrics cmd1 = new HystrixCommandMetrics("cmd1", 1, 0, 0, 10, 0, 0, 0, 10000D, 5);
+        List<Object> commands = Lists.newArrayList(ClusterCheckpoint.toEvent(cmd1));
+        return "{\"version\":1,\"savedAt\":" + savedAt + ",\"clusters\":[{\"name\":\"one\",\"urls\":[\"http://one\"],"
+                + "\"commands\":" + om.writeValueAsString(commands) + "}]}";
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.discovery;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ClusterGroupsTest {
+
+    private static Map<String, HystrixClusterMetrics> byName(List<HystrixClusterMetrics> metrics) {
+        return metrics.stream().collect(Collectors.toMap(HystrixClusterMetrics::getClusterName, Function.identity()));
+    }
+
+    @Test
+    public void testRollups() {
+        ClusterGroups groups = new ClusterGroups(Arrays.asList(
+                "region|(us-east|eu-west)-.*",
+                "payments|.*-payments"), true);
+        groups.update(TestClusterMetrics.create("us-east-payments", 90, 10), 0);
+        groups.update(TestClusterMetrics.create("eu-west-payments", 100, 0), 0);
+        groups.update(TestClusterMetrics.create("us-east-search", 200, 0), 0);
+        groups.update(TestClusterMetrics.create("other", 50, 0), 0);
+
+        Map<String, HystrixClusterMetrics> rollups = byName(groups.tick(0));
+        assertEquals(4, rollups.size());
+
+        HystrixClusterMetrics usEast = rollups.get("region:us-east");
+        assertEquals(HystrixClusterMetrics.Type.GROUP, usEast.getType());
+        assertEquals(300, usEast.getRequestCount());
+        assertEquals(30D, usEast.getRequestRate(), .001);
+        assertEquals(2, usEast.getReportingHosts());
+        assertEquals(2, usEast.getCommandCount());
+        assertEquals(5D, usEast.getErrorPercentage(), .001); // (10% + 0%) / 2 commands
+
+        assertEquals(100, rollups.get("region:eu-west").getRequestCount());
+        assertEquals(200, rollups.get("payments").getRequestCount());
+
+        HystrixClusterMetrics global = rollups.get(ClusterGroups.GLOBAL_NAME);
+        assertEquals(HystrixClusterMetrics.Type.GLOBAL, global.getType());
+        assertEquals(450, global.getRequestCount());
+        assertEquals(10, global.getFailCount());
+    }
+
+    @Test
+    public void testUpdateReplacesMember() {
+        ClusterGroups groups = new ClusterGroups(Collections.emptyList(), true);
+        groups.update(TestClusterMetrics.create("one", 10, 0), 0);
+        groups.update(TestClusterMetrics.create("two", 10, 0), 0);
+        groups.update(TestClusterMetrics.create("one", 30, 5), 1000);
+
+        HystrixClusterMetrics global = groups.tick(1000).get(0);
+        assertEquals(45, global.getRequestCount());
+        assertEquals(5, global.getFailCount());
+        assertEquals(4.5D, global.getRequestRate(), .001);
+    }
+
+    @Test
+    public void testRemoveAndExpire() {
+        ClusterGroups groups = new ClusterGroups(Collections.singletonList("a|a.*"), true);
+        groups.update(TestClusterMetrics.create("a1", 10, 0), 0);
+        groups.update(TestClusterMetrics.create("b1", 20, 0), 0);
+
+        groups.remove("a1");
+        Map<String, HystrixClusterMetrics> rollups = byName(groups.tick(1000));
+        assertFalse(rollups.containsKey("a")); // empty groups are dropped
+        assertEquals(20, rollups.get(ClusterGroups.GLOBAL_NAME).getRequestCount());
+
+        // b1 hasn't reported for longer than member-expire-ms
+        assertTrue(groups.tick(31_000).isEmpty());
+    }
+
+    @Test
+    public void testResync() {
+        ClusterGroups groups = new ClusterGroups(Collections.emptyList(), true);
+        for (int i = 0; i < 100; i++) {
+            groups.update(TestClusterMetrics.create("one", i, i % 7), i);
+        }
+        HystrixClusterMetrics before = groups.tick(100).get(0);
+        for (int i = 0; i < 60; i++) {
+            groups.tick(100);
+        }
+        HystrixClusterMetrics after = groups.tick(100).get(0);
+        assertEquals(before.getRequestCount(), after.getRequestCount());
+        assertEquals(before.getRequestRate(), after.getRequestRate(), .0001);
+        assertEquals(before.getErrorPercentage(), after.getErrorPercentage(), .0001);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDefinition() {
+        new ClusterGroups(Collections.singletonList("no regex"), true);
+    }
+}
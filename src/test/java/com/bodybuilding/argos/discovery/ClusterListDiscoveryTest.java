@@ -16,21 +16,40 @@
 
 package com.bodybuilding.argos.discovery;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import org.junit.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.test.web.client.MockRestServiceServer;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import org.springframework.web.client.AsyncRestTemplate;
 
 import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
 import static org.springframework.test.web.client.response.MockRestResponseCreators.withServerError;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
 import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
 
 public class ClusterListDiscoveryTest {
@@ -52,7 +71,7 @@ public class ClusterListDiscoveryTest {
                 "]";
 
 
-        RestTemplate restTemplate = new RestTemplate();
+        AsyncRestTemplate restTemplate = new AsyncRestTemplate();
         MockRestServiceServer mockServer = MockRestServiceServer.createServer(restTemplate);
         mockServer.expect(requestTo("http://127.0.0.1")).andExpect(method(HttpMethod.GET))
                 .andRespond(withSuccess(mockBody, MediaType.APPLICATION_JSON));
@@ -65,7 +84,7 @@ public class ClusterListDiscoveryTest {
 
     @Test
     public void testGetClusters_withHttpError() {
-        RestTemplate restTemplate = new RestTemplate();
+        AsyncRestTemplate restTemplate = new AsyncRestTemplate();
         MockRestServiceServer mockServer = MockRestServiceServer.createServer(restTemplate);
         mockServer.expect(requestTo("http://127.0.0.1")).andExpect(method(HttpMethod.GET))
                 .andRespond(withServerError());
@@ -76,6 +95,23 @@ public class ClusterListDiscoveryTest {
         assertEquals(0, clusters.size());
     }
 
+    @Test
+    public void testGetClusters_keepsLastGoodAfterError() {
+        String mockBody = "[{\"name\": \"test1\", \"turbineStream\": \"http://meh.com/turbine.stream?cluster=test1\"}]";
+        AsyncRestTemplate restTemplate = new AsyncRestTemplate();
+        MockRestServiceServer mockServer = MockRestServiceServer.createServer(restTemplate);
+        mockServer.expect(requestTo("http://127.0.0.1"))
+                .andRespond(withSuccess(mockBody, MediaType.APPLICATION_JSON));
+        mockServer.expect(requestTo("http://127.0.0.1")).andRespond(withServerError());
+        ClusterListDiscovery discovery = new ClusterListDiscovery(Sets.newHashSet("http://127.0.0.1"), restTemplate);
+
+        Collection<Cluster> clusters = discovery.getCurrentClusters();
+        assertEquals(1, clusters.size());
+        // the same instance, so a failing server doesn't change any cluster
+        assertSame(clusters, discovery.getCurrentClusters());
+        mockServer.verify();
+    }
+
     @Test
     public void testGetClusters_withMultipleUrls() {
         String mockBody = "" +
@@ -107,7 +143,7 @@ public class ClusterListDiscoveryTest {
                 "]";
 
 
-        RestTemplate restTemplate = new RestTemplate();
+        AsyncRestTemplate restTemplate = new AsyncRestTemplate();
         MockRestServiceServer mockServer = MockRestServiceServer.createServer(restTemplate);
         mockServer.expect(requestTo("http://127.0.0.1")).andExpect(method(HttpMethod.GET))
                 .andRespond(withSuccess(mockBody, MediaType.APPLICATION_JSON));
@@ -123,4 +159,116 @@ public class ClusterListDiscoveryTest {
         assertNotNull(clusters);
         assertEquals(4, clusters.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testMerge() {
+        Set<Cluster> merged = ClusterListDiscovery.merge(ImmutableList.of(
+                Sets.newHashSet(new Cluster("one", "http://a/one"), new Cluster("two", "http://a/two")),
+                Sets.newHashSet(new Cluster("one", "http://b/one"), new Cluster("three", "http://b/three")),
+                Sets.newHashSet(new Cluster("one", "http://a/one"))));
+
+        assertEquals(Sets.newHashSet(
+                new Cluster("one", Lists.newArrayList("http://a/one", "http://b/one"), true),
+                new Cluster("two", "http://a/two"),
+                new Cluster("three", "http://b/three")), merged);
+    }
+
+    @Test
+    public void testGetClusters_notModified() {
+        String mockBody = "[{\"name\": \"test1\", \"turbineStream\": \"http://meh.com/turbine.stream?cluster=test1\"}]";
+        HttpHeaders etag = new HttpHeaders();
+        etag.setETag("\"v1\"");
+
+        AsyncRestTemplate restTemplate = new AsyncRestTemplate();
+        MockRestServiceServer mockServer = MockRestServiceServer.createServer(restTemplate);
+        mockServer.expect(requestTo("http://127.0.0.1"))
+                .andRespond(withSuccess(mockBody, MediaType.APPLICATION_JSON).headers(etag));
+        mockServer.expect(requestTo("http://127.0.0.1")).andExpect(header("If-None-Match", "\"v1\""))
+                .andRespond(withStatus(HttpStatus.NOT_MODIFIED));
+        mockServer.expect(requestTo("http://127.0.0.1"))
+                .andRespond(withSuccess(mockBody, MediaType.APPLICATION_JSON)); // same content without an etag
+        ClusterListDiscovery discovery = new ClusterListDiscovery(Sets.newHashSet("http://127.0.0.1"), restTemplate);
+
+        Collection<Cluster> clusters = discovery.getCurrentClusters();
+        assertEquals(1, clusters.size());
+        // unchanged lists are returned as the same instance so discovery can skip the diff
+        assertSame(clusters, discovery.getCurrentClusters());
+        assertSame(clusters, discovery.getCurrentClusters());
+        mockServer.verify();
+    }
+
+    @Test
+    public void testGetClusters_etagOnlyAfterParse() {
+        String mockBody = "[{\"name\": \"test1\", \"turbineStream\": \"http://meh.com/turbine.stream?cluster=test1\"}]";
+        HttpHeaders etag = new HttpHeaders();
+        etag.setETag("\"v1\"");
+
+        AsyncRestTemplate restTemplate = new AsyncRestTemplate();
+        MockRestServiceServer mockServer = MockRestServiceServer.createServer(restTemplate);
+        mockServer.expect(requestTo("http://127.0.0.1"))
+                .andRespond(withSuccess("[{\"name\": ", MediaType.APPLICATION_JSON).headers(etag));
+        // the list was never applied, so it's requested in full again
+        mockServer.expect(requestTo("http://127.0.0.1"))
+                .andExpect(request -> assertFalse(request.getHeaders().containsKey("If-None-Match")))
+                .andRespond(withSuccess(mockBody, MediaType.APPLICATION_JSON).headers(etag));
+        ClusterListDiscovery discovery = new ClusterListDiscovery(Sets.newHashSet("http://127.0.0.1"), restTemplate);
+
+        assertEquals(0, discovery.getCurrentClusters().size());
+        assertEquals(1, discovery.getCurrentClusters().size());
+        mockServer.verify();
+    }
+
+    @Test
+    public void testGetClusters_notModifiedWithoutList() {
+        String mockBody = "[{\"name\": \"test1\", \"turbineStream\": \"http://meh.com/turbine.stream?cluster=test1\"}]";
+        AsyncRestTemplate restTemplate = new AsyncRestTemplate();
+        MockRestServiceServer mockServer = MockRestServiceServer.createServer(restTemplate);
+        mockServer.expect(requestTo("http://127.0.0.1")).andRespond(withStatus(HttpStatus.NOT_MODIFIED));
+        mockServer.expect(requestTo("http://127.0.0.1"))
+                .andRespond(withSuccess(mockBody, MediaType.APPLICATION_JSON));
+        ClusterListDiscovery discovery = new ClusterListDiscovery(Sets.newHashSet("http://127.0.0.1"), restTemplate);
+
+        assertEquals(1, discovery.getCurrentClusters().size());
+        mockServer.verify();
+    }
+
+    @Test
+    public void testGetClusters_slowServer() {
+        AsyncRestTemplate restTemplate = mock(AsyncRestTemplate.class);
+        when(restTemplate.exchange(eq("http://slow"), any(HttpMethod.class), any(HttpEntity.class), eq(String.class)))
+                .thenReturn(new SettableListenableFuture<>());
+        SettableListenableFuture<ResponseEntity<String>> fast = new SettableListenableFuture<>();
+        fast.set(new ResponseEntity<>("[{\"name\": \"test1\", \"turbineStream\": \"http://meh.com\"}]", HttpStatus.OK));
+        when(restTemplate.exchange(eq("http://fast"), any(HttpMethod.class), any(HttpEntity.class), eq(String.class)))
+                .thenReturn(fast);
+
+        ClusterListDiscovery discovery = new ClusterListDiscovery(Lists.newArrayList("http://slow", "http://fast"),
+                restTemplate);
+        discovery.setTimeoutMs(200);
+        discovery.setHedgeAfterMs(100);
+        long start = System.nanoTime();
+        Collection<Cluster> clusters = discovery.getCurrentClusters();
+        assertEquals(Sets.newHashSet(new Cluster("test1", "http://meh.com")), clusters);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        // the slow server was hedged once before its deadline
+        verify(restTemplate, times(2)).exchange(eq("http://slow"), any(HttpMethod.class), any(HttpEntity.class),
+                eq(String.class));
+    }
+
+    @Test
+    public void testGetClusters_hedged() {
+        AsyncRestTemplate restTemplate = mock(AsyncRestTemplate.class);
+        SettableListenableFuture<ResponseEntity<String>> hedge = new SettableListenableFuture<>();
+        hedge.set(new ResponseEntity<>("[{\"name\": \"test1\", \"turbineStream\": \"http://meh.com\"}]", HttpStatus.OK));
+        SettableListenableFuture<ResponseEntity<String>> stuck = new SettableListenableFuture<>();
+        when(restTemplate.exchange(eq("http://127.0.0.1"), any(HttpMethod.class), any(HttpEntity.class), eq(String.class)))
+                .thenReturn(stuck)
+                .thenReturn(hedge);
+
+        ClusterListDiscovery discovery = new ClusterListDiscovery(Sets.newHashSet("http://127.0.0.1"), restTemplate);
+        discovery.setTimeoutMs(1000);
+        discovery.setHedgeAfterMs(50);
+        assertEquals(1, discovery.getCurrentClusters().size());
+        assertTrue(stuck.isCancelled());
+    }
+}
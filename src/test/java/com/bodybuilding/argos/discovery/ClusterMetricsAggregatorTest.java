@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.discovery;
+
+import com.bodybuilding.argos.metrics.ClusterPipelineStats;
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ClusterMetricsAggregatorTest {
+    private final CommandLimits limits = new CommandLimits();
+    private final ClusterPipelineStats stats = new ClusterPipelineStats();
+
+    private ClusterMetricsAggregator newAggregator(Ticker ticker) {
+        return new ClusterMetricsAggregator("cluster1", "http://127.0.0.1/turbine.stream", ticker, limits, stats);
+    }
+
+    private static HystrixCommandMetrics command(String name, int success) {
+        return new HystrixCommandMetrics(name, 1, 0, 0, success, 0, 0, 0, 10000D);
+    }
+
+    @Test
+    public void testOverflow() {
+        limits.setMaxPerCluster(2);
+        ClusterMetricsAggregator aggregator = newAggregator(Ticker.systemTicker());
+        aggregator.update(command("a", 10));
+        aggregator.update(command("b", 10));
+        aggregator.update(command("c", 5));
+        aggregator.update(command("d", 5));
+        aggregator.update(command("d", 7)); // only the latest event of an overflowing command counts
+
+        HystrixClusterMetrics metrics = aggregator.generateMetrics();
+        assertEquals(32, metrics.getRequestCount()); // the totals still include c and d
+        assertEquals(3, metrics.getCommandCount()); // a, b and the overflow
+        assertEquals(2, aggregator.getCommandMetrics().size());
+        assertEquals(2, stats.getCommands());
+        assertTrue(stats.isCommandsCapped());
+        assertEquals(3, stats.getCommandOverflows());
+        assertEquals(2, limits.getTracked());
+
+        // past the limit the least recently updated overflowing command, c, makes room and its window is still summed
+        aggregator.update(command("e", 5));
+        aggregator.update(command("e", 5));
+        metrics = aggregator.generateMetrics();
+        assertEquals(37, metrics.getRequestCount());
+        assertEquals(3, metrics.getCommandCount());
+        assertEquals(5, stats.getCommandOverflows());
+    }
+
+    @Test
+    public void testOverflowExpiresLikeTrackedCommands() {
+        AtomicLong nanos = new AtomicLong();
+        Ticker ticker = new Ticker() {
+            @Override
+            public long read() {
+                return nanos.get();
+            }
+        };
+        limits.setMaxPerCluster(1);
+        ClusterMetricsAggregator aggregator = newAggregator(ticker);
+        aggregator.update(command("a", 10));
+        aggregator.update(command("b", 5));
+        assertEquals(15, aggregator.generateMetrics().getRequestCount());
+
+        // b skips a tick but is still counted, the same as a
+        nanos.set(1_000_000_000L);
+        HystrixClusterMetrics metrics = aggregator.generateMetrics();
+        assertEquals(15, metrics.getRequestCount());
+        assertEquals(2, metrics.getCommandCount());
+        assertTrue(stats.isCommandsCapped());
+
+        nanos.set(11_000_000_000L);
+        assertEquals(0, aggregator.generateMetrics().getCommandCount());
+        assertFalse(stats.isCommandsCapped());
+    }
+
+    @Test
+    public void testSpilledOverflowExpires() {
+        AtomicLong nanos = new AtomicLong();
+        Ticker ticker = new Ticker() {
+            @Override
+            public long read() {
+                return nanos.get();
+            }
+        };
+        limits.setMaxPerCluster(1);
+        ClusterMetricsAggregator aggregator = newAggregator(ticker);
+        aggregator.update(command("a", 10));
+        for (int i = 0; i < 1000; i++) {
+            aggregator.update(command("request-" + i, 1)); // each pushes the previous one out of the overflow
+        }
+        HystrixClusterMetrics metrics = aggregator.generateMetrics();
+        assertEquals(1010, metrics.getRequestCount());
+        assertEquals(2, metrics.getCommandCount());
+
+        nanos.set(5_000_000_000L);
+        aggregator.update(command("request-1000", 1));
+        assertEquals(1011, aggregator.generateMetrics().getRequestCount());
+
+        // the windows spilled at 0s expire along with a, request-999 spilled at 5s is still counted
+        nanos.set(10_500_000_000L);
+        aggregator.update(command("request-1001", 1));
+        metrics = aggregator.generateMetrics();
+        assertEquals(3, metrics.getRequestCount()); // request-1001, request-1000 and request-999
+        assertEquals(1, metrics.getCommandCount()); // all of them in the overflow
+    }
+
+    @Test
+    public void testEviction() {
+        limits.setMaxPerCluster(2);
+        ClusterMetricsAggregator aggregator = newAggregator(Ticker.systemTicker());
+        aggregator.update(command("request-1234", 1));
+        aggregator.update(command("b", 10));
+        aggregator.generateMetrics();
+
+        aggregator.update(command("c", 50)); // busier than request-1234, takes its place
+        aggregator.update(command("request-5678", 1)); // only one eviction per tick
+        HystrixClusterMetrics metrics = aggregator.generateMetrics();
+        assertEquals(62, metrics.getRequestCount()); // request-1234 moved to the overflow
+        assertEquals(1, stats.getCommandEvictions());
+        assertEquals(1, stats.getCommandOverflows());
+        assertTrue(aggregator.getCommandMetrics().stream().anyMatch(c -> c.getName().equals("c")));
+        assertEquals(2, limits.getTracked());
+    }
+
+    @Test
+    public void testGlobalLimit() {
+        limits.setMaxTotal(3);
+        ClusterMetricsAggregator aggregator1 = newAggregator(Ticker.systemTicker());
+        ClusterMetricsAggregator aggregator2 = newAggregator(Ticker.systemTicker());
+        aggregator1.update(command("a", 1));
+        aggregator1.update(command("b", 1));
+        aggregator2.update(command("a", 1));
+        aggregator2.update(command("b", 1));
+        assertEquals(3, limits.getTracked());
+        assertEquals(1, aggregator2.getCommandMetrics().size());
+        assertEquals(2, aggregator2.generateMetrics().getRequestCount());
+
+        aggregator1.close();
+        assertEquals(1, limits.getTracked());
+        aggregator2.update(command("b", 1));
+        assertEquals(2, aggregator2.getCommandMetrics().size());
+    }
+
+    @Test
+    public void testExpiredCommandsReleased() {
+        AtomicLong nanos = new AtomicLong();
+        Ticker ticker = new Ticker() {
+            @Override
+            public long read() {
+                return nanos.get();
+            }
+        };
+        ClusterMetricsAggregator aggregator = newAggregator(ticker);
+        aggregator.update(command("a", 1));
+        assertEquals(1, limits.getTracked());
+        nanos.set(11_000_000_000L);
+        assertEquals(0, aggregator.generateMetrics().getCommandCount());
+        assertEquals(0, limits.getTracked());
+    }
+}
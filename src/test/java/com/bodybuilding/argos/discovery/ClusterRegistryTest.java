@@ -23,13 +23,20 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 import rx.Observable;
+import rx.Subscription;
+import rx.subjects.PublishSubject;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.anyListOf;
 import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -74,7 +81,7 @@ public class ClusterRegistryTest {
         when(clusterMonitor1.observe()).thenReturn(metricsObservable1);
         when(clusterMonitor2.observe()).thenReturn(metricsObservable2);
 
-        ClusterRegistry registry = new ClusterRegistry(clusterDiscovery, monitorFactory);
+        ClusterRegistry registry = new ClusterRegistry(clusterDiscovery, monitorFactory, null, null, null, null);
         final Set<String> seenClusters = Sets.newConcurrentHashSet();
         Observable<HystrixClusterMetrics> mergedMetrics = registry.observe();
         mergedMetrics
@@ -124,15 +131,87 @@ public class ClusterRegistryTest {
         when(clusterMonitor1.observe()).thenReturn(metricsObservable1);
         when(clusterMonitor2.observe()).thenReturn(metricsObservable2);
 
-        ClusterRegistry registry = new ClusterRegistry(clusterDiscovery, monitorFactory);
+        ClusterRegistry registry = new ClusterRegistry(clusterDiscovery, monitorFactory, null, null, null, null);
         Observable<HystrixClusterMetrics> mergedMetrics = registry.observe();
+        // check the state before take() tears the whole stream down, which unsubscribes cluster two as well
+        AtomicBoolean obs1UnsubBeforeEnd = new AtomicBoolean();
+        AtomicBoolean obs2UnsubBeforeEnd = new AtomicBoolean();
         mergedMetrics
                 .take(100, TimeUnit.MILLISECONDS)
+                .doOnCompleted(() -> {
+                    obs1UnsubBeforeEnd.set(obs1Unsub.get());
+                    obs2UnsubBeforeEnd.set(obs2Unsub.get());
+                })
                 .toBlocking()
                 .forEach(m -> {
                     // noop
                 });
-        assertTrue(obs1Unsub.get());
-        assertFalse(obs2Unsub.get());
+        assertTrue(obs1UnsubBeforeEnd.get());
+        assertFalse(obs2UnsubBeforeEnd.get());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testRemoveAndReAdd() {
+        PublishSubject<Cluster> clusters = PublishSubject.create();
+        when(clusterDiscovery.getClusters()).thenReturn(clusters);
+        when(monitorFactory.createMonitor(anyString(), anyString())).thenReturn(clusterMonitor1, clusterMonitor2);
+        AtomicInteger subscribed1 = new AtomicInteger();
+        AtomicInteger subscribed2 = new AtomicInteger();
+        when(clusterMonitor1.observe()).thenReturn(Observable.<HystrixClusterMetrics>never()
+                .doOnSubscribe(subscribed1::incrementAndGet).doOnUnsubscribe(subscribed1::decrementAndGet));
+        when(clusterMonitor2.observe()).thenReturn(Observable.<HystrixClusterMetrics>never()
+                .doOnSubscribe(subscribed2::incrementAndGet).doOnUnsubscribe(subscribed2::decrementAndGet));
+
+        ClusterRegistry registry = new ClusterRegistry(clusterDiscovery, monitorFactory, null, null, null, null);
+        List<String> removed = Lists.newArrayList();
+        registry.observeRemovals().subscribe(removed::add);
+        Subscription subscription = registry.observe().subscribe();
+
+        clusters.onNext(new Cluster("one", "one"));
+        clusters.onNext(new Cluster("one", "one")); // duplicate adds aren't merged twice
+        assertEquals(1, subscribed1.get());
+        assertSame(clusterMonitor1, registry.getCluster("one").get());
+
+        clusters.onNext(new Cluster("one", "one", false));
+        assertEquals(0, subscribed1.get());
+        verify(clusterMonitor1).close();
+        assertFalse(registry.getCluster("one").isPresent());
+        assertEquals(Collections.singletonList("one"), removed);
+
+        clusters.onNext(new Cluster("one", "one"));
+        assertEquals(1, subscribed2.get());
+        assertSame(clusterMonitor2, registry.getCluster("one").get());
+
+        subscription.unsubscribe();
+        assertEquals(0, subscribed2.get());
+        verify(clusterMonitor2).close();
+        assertEquals(0, registry.getMonitoredClusterCount());
+    }
+
+    @Test
+    public void testUrlsChanged() {
+        PublishSubject<Cluster> clusters = PublishSubject.create();
+        when(clusterDiscovery.getClusters()).thenReturn(clusters);
+        when(monitorFactory.createMonitor(anyString(), anyString())).thenReturn(clusterMonitor1);
+        when(monitorFactory.createMonitor(anyString(), anyListOf(String.class))).thenReturn(clusterMonitor2);
+        when(clusterMonitor1.observe()).thenReturn(Observable.never());
+        when(clusterMonitor2.observe()).thenReturn(Observable.never());
+        List<String> urls = Lists.newArrayList("one", "two");
+        when(clusterMonitor1.updateUrls(urls)).thenReturn(true);
+
+        ClusterRegistry registry = new ClusterRegistry(clusterDiscovery, monitorFactory, null, null, null, null);
+        List<String> removed = Lists.newArrayList();
+        registry.observeRemovals().subscribe(removed::add);
+        registry.observe().subscribe();
+
+        clusters.onNext(new Cluster("one", "one"));
+        clusters.onNext(new Cluster("one", urls, true)); // taken by the running monitor
+        assertSame(clusterMonitor1, registry.getCluster("one").get());
+        assertTrue(removed.isEmpty());
+
+        clusters.onNext(new Cluster("one", Lists.newArrayList("two", "one"), true)); // the monitor can't, restart
+        verify(clusterMonitor1).close();
+        assertSame(clusterMonitor2, registry.getCluster("one").get());
+        assertEquals(Collections.singletonList("one"), removed);
+    }
+}
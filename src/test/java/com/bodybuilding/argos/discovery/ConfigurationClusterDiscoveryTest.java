@@ -16,16 +16,30 @@
 
 package com.bodybuilding.argos.discovery;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import rx.Subscription;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 public class ConfigurationClusterDiscoveryTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
 
     @Test
     public void testGetClusters() {
@@ -51,6 +65,17 @@ public class ConfigurationClusterDiscoveryTest {
         assertEquals(1, clusters.size());
     }
 
+    @Test
+    public void testGetClusters_failoverUrls() {
+        ConfigurationClusterDiscovery discovery = new ConfigurationClusterDiscovery(Sets.newHashSet(
+                "cluster1|http://turbine1/turbine.stream|http://turbine2/turbine.stream"
+        ));
+        Collection<Cluster> clusters = discovery.getCurrentClusters();
+        assertEquals(Collections.singletonList(new Cluster("cluster1",
+                Lists.newArrayList("http://turbine1/turbine.stream", "http://turbine2/turbine.stream"), true)),
+                Lists.newArrayList(clusters));
+    }
+
     @Test
     public void testGetClusters_emptyList() {
         ConfigurationClusterDiscovery discovery = new ConfigurationClusterDiscovery(Collections.emptySet());
@@ -58,4 +83,82 @@ public class ConfigurationClusterDiscoveryTest {
         assertNotNull(clusters);
         assertEquals(0, clusters.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testDiff() {
+        Map<String, Cluster> current = Maps.newHashMap();
+        assertEquals(Lists.newArrayList(new Cluster("one", "u1"), new Cluster("two", "u2")),
+                ConfigurationClusterDiscovery.diff(current,
+                        Lists.newArrayList(new Cluster("one", "u1"), new Cluster("two", "u2"))));
+
+        List<Cluster> changes = ConfigurationClusterDiscovery.diff(current,
+                Lists.newArrayList(new Cluster("two", "u2-new"), new Cluster("three", "u3")));
+        assertEquals(Sets.newHashSet(new Cluster("one", "u1", false), new Cluster("two", "u2", false)),
+                Sets.newHashSet(changes.subList(0, 2)));
+        assertEquals(Lists.newArrayList(new Cluster("two", "u2-new"), new Cluster("three", "u3")),
+                changes.subList(2, 4));
+
+        assertEquals(Collections.emptyList(), ConfigurationClusterDiscovery.diff(current,
+                Lists.newArrayList(new Cluster("three", "u3"), new Cluster("two", "u2-new"))));
+    }
+
+    @Test
+    public void testDiff_failoverChanged() {
+        Map<String, Cluster> current = Maps.newHashMap();
+        ConfigurationClusterDiscovery.diff(current,
+                Lists.newArrayList(new Cluster("one", Lists.newArrayList("u1", "f1"), true)));
+
+        // same primary, the monitor updates its URLs instead of restarting
+        Cluster updated = new Cluster("one", Lists.newArrayList("u1", "f2"), true);
+        assertEquals(Lists.newArrayList(updated),
+                ConfigurationClusterDiscovery.diff(current, Lists.newArrayList(updated)));
+        assertEquals(updated, current.get("one"));
+
+        // a new primary restarts the monitor
+        Cluster moved = new Cluster("one", Lists.newArrayList("u2", "f2"), true);
+        assertEquals(Lists.newArrayList(new Cluster("one", updated.getUrls(), false), moved),
+                ConfigurationClusterDiscovery.diff(current, Lists.newArrayList(moved)));
+    }
+
+    @Test
+    public void testReadServers() throws Exception {
+        Path yml = folder.newFile("application.yml").toPath();
+        Files.write(yml, Lists.newArrayList("server:", "  port: 9000", "turbine:", "  servers:",
+                "    - 'cluster1|http://turbine/turbine.stream?cluster=cluster1'",
+                "    - 'cluster2|http://turbine/turbine.stream?cluster=cluster2'"));
+        assertEquals(Lists.newArrayList("cluster1|http://turbine/turbine.stream?cluster=cluster1",
+                "cluster2|http://turbine/turbine.stream?cluster=cluster2"),
+                ConfigurationClusterDiscovery.readServers(yml));
+
+        Path properties = folder.newFile("application.properties").toPath();
+        Files.write(properties, Lists.newArrayList("turbine.servers=cluster1|http://a,cluster2|http://b"));
+        assertEquals(Lists.newArrayList("cluster1|http://a", "cluster2|http://b"),
+                ConfigurationClusterDiscovery.readServers(properties));
+
+        Files.write(yml, Lists.newArrayList("server:", "  port: 9000"));
+        assertNull(ConfigurationClusterDiscovery.readServers(yml));
+    }
+
+    @Test
+    public void testGetClusters_reload() throws Exception {
+        Path yml = folder.newFile("application.yml").toPath();
+        Files.write(yml, Lists.newArrayList("turbine:", "  servers:", "    - 'one|http://one'", "    - 'two|http://two'"));
+        ConfigurationClusterDiscovery discovery = new ConfigurationClusterDiscovery(
+                Lists.newArrayList("one|http://one", "two|http://two"), yml.toString());
+
+        LinkedBlockingQueue<Cluster> updates = new LinkedBlockingQueue<>();
+        Subscription subscription = discovery.getClusters().subscribe(updates::add);
+        try {
+            assertEquals(new Cluster("one", "http://one"), updates.poll(5, TimeUnit.SECONDS));
+            assertEquals(new Cluster("two", "http://two"), updates.poll(5, TimeUnit.SECONDS));
+            Thread.sleep(200); // let the watcher register
+
+            Files.write(yml, Lists.newArrayList("turbine:", "  servers:", "    - 'two|http://two'", "    - 'three|http://three'"));
+            assertEquals(new Cluster("one", "http://one", false), updates.poll(10, TimeUnit.SECONDS));
+            assertEquals(new Cluster("three", "http://three"), updates.poll(5, TimeUnit.SECONDS));
+            assertNull(updates.poll(1, TimeUnit.SECONDS));
+        } finally {
+            subscription.unsubscribe();
+        }
+    }
+}
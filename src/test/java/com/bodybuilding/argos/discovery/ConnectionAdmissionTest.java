@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.discovery;
+
+import com.bodybuilding.argos.metrics.ConnectStats;
+import org.junit.Test;
+import rx.Observable;
+import rx.Subscription;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConnectionAdmissionTest {
+    private final TestScheduler scheduler = new TestScheduler();
+    private final ConnectStats stats = new ConnectStats();
+    private final ConnectionAdmission admission = new ConnectionAdmission(stats, scheduler);
+
+    @Test
+    public void testMaxConcurrent() {
+        admission.setMaxConcurrent(2);
+        admission.setPerHostRate(0);
+        AtomicInteger started = new AtomicInteger();
+        PublishSubject<String> response1 = PublishSubject.create();
+        PublishSubject<String> response2 = PublishSubject.create();
+
+        admission.admit("a:80", response1.doOnSubscribe(started::incrementAndGet)).subscribe();
+        admission.admit("b:80", response2.doOnSubscribe(started::incrementAndGet)).subscribe(new TestSubscriber<>());
+        TestSubscriber<String> third = new TestSubscriber<>();
+        admission.admit("c:80", Observable.just("ok").doOnSubscribe(started::incrementAndGet)).subscribe(third);
+        assertEquals(2, started.get());
+        assertEquals(1, stats.getQueued());
+        assertEquals(2, stats.getInFlight());
+
+        // the connect holds its slot until the response arrives, not for the life of the stream
+        response1.onNext("headers");
+        assertEquals(3, started.get());
+        third.assertValue("ok");
+
+        response2.onError(new RuntimeException("refused"));
+        assertEquals(0, stats.getQueued());
+        assertEquals(0, stats.getInFlight());
+        assertEquals(3, stats.getConnects());
+        assertEquals(1, stats.getFailures());
+    }
+
+    @Test
+    public void testPerHostRate() {
+        admission.setPerHostRate(2);
+        AtomicInteger hostA = new AtomicInteger();
+        AtomicInteger hostB = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            admission.admit("a:80", Observable.just(i).doOnSubscribe(hostA::incrementAndGet)).subscribe();
+        }
+        admission.admit("b:80", Observable.just(0).doOnSubscribe(hostB::incrementAndGet)).subscribe();
+        assertEquals(1, hostA.get());
+        assertEquals(1, hostB.get());
+
+        scheduler.advanceTimeBy(499, TimeUnit.MILLISECONDS);
+        assertEquals(1, hostA.get());
+        scheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        assertEquals(2, hostA.get());
+        scheduler.advanceTimeBy(500, TimeUnit.MILLISECONDS);
+        assertEquals(3, hostA.get());
+        assertEquals(0, stats.getQueued());
+    }
+
+    @Test
+    public void testUnsubscribe() {
+        admission.setMaxConcurrent(1);
+        admission.setPerHostRate(0);
+        AtomicInteger started = new AtomicInteger();
+        Subscription first = admission.admit("a:80", Observable.never().doOnSubscribe(started::incrementAndGet))
+                .subscribe();
+        Subscription queued = admission.admit("a:80", Observable.never().doOnSubscribe(started::incrementAndGet))
+                .subscribe();
+        TestSubscriber<Integer> last = new TestSubscriber<>();
+        admission.admit("a:80", Observable.just(1).doOnSubscribe(started::incrementAndGet)).subscribe(last);
+
+        queued.unsubscribe();
+        assertEquals(1, stats.getQueued());
+        first.unsubscribe(); // e.g. the cluster was removed while connecting
+        assertEquals(2, started.get());
+        last.assertValue(1);
+        assertEquals(0, stats.getInFlight());
+        assertEquals(0, stats.getFailures());
+    }
+
+    @Test
+    public void testBackoff() {
+        admission.setBackoffBaseMs(1000);
+        admission.setBackoffMaxMs(20000);
+        long previous = 0;
+        for (int i = 0; i < 100; i++) {
+            long wait = admission.nextBackoffMs(previous);
+            assertTrue(wait >= 1000);
+            assertTrue(wait <= Math.max(1000, Math.min(20000, previous * 3)));
+            previous = wait;
+        }
+        assertEquals(20000, admission.nextBackoffMs(1000000), 0);
+    }
+}
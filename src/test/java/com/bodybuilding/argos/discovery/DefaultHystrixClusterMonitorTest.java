@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.discovery;
+
+import com.bodybuilding.argos.metrics.ClusterPipelineStats;
+import com.google.common.collect.Lists;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.reactivex.netty.RxNetty;
+import io.reactivex.netty.protocol.http.server.HttpServer;
+import io.reactivex.netty.protocol.http.server.RequestHandler;
+import org.junit.After;
+import org.junit.Test;
+import rx.Observable;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DefaultHystrixClusterMonitorTest {
+    private static final String COMMAND = "{\"type\":\"HystrixCommand\",\"name\":\"a\",\"reportingHosts\":1," +
+            "\"rollingCountTimeout\":0,\"rollingCountFailure\":0,\"rollingCountSuccess\":9," +
+            "\"rollingCountShortCircuited\":0,\"rollingCountThreadPoolRejected\":0," +
+            "\"rollingCountSemaphoreRejected\":0,\"latencyExecute_mean\":30," +
+            "\"latencyExecute\":{\"0\":1,\"50\":12,\"99\":80}," +
+            "\"propertyValue_metricsRollingStatisticalWindowInMilliseconds\":10000}";
+    private final List<HttpServer<ByteBuf, ByteBuf>> servers = Lists.newArrayList();
+    private final ConnectionAdmission admission = new ConnectionAdmission();
+    private final StreamTimeouts timeouts = new StreamTimeouts();
+    private DefaultHystrixClusterMonitor monitor;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if(monitor != null) {
+            monitor.close();
+        }
+        for (HttpServer<ByteBuf, ByteBuf> server : servers) {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testHedgeWhenPrimarySilent() throws Exception {
+        timeouts.setHedgeAfterMs(200);
+        int silent = server((request, response) -> Observable.never());
+        int streaming = server(streaming("b", Long.MAX_VALUE));
+
+        monitor = monitor(silent, streaming);
+        assertEquals("b", firstEvent());
+    }
+
+    @Test
+    public void testHedgeImmediatelyWhenPrimaryFails() throws Exception {
+        timeouts.setHedgeAfterMs(TimeUnit.MINUTES.toMillis(1));
+        int failing = server((request, response) -> {
+            response.setStatus(HttpResponseStatus.SERVICE_UNAVAILABLE);
+            return Observable.empty();
+        });
+        int streaming = server(streaming("b", Long.MAX_VALUE));
+
+        monitor = monitor(failing, streaming);
+        assertEquals("b", firstEvent());
+    }
+
+    @Test
+    public void testFailoverOnStall() throws Exception {
+        timeouts.setStallTimeoutMs(300);
+        int stalling = server(streaming("a", 1));
+        int streaming = server(streaming("b", Long.MAX_VALUE));
+
+        monitor = monitor(stalling, streaming);
+        List<String> events = monitor.observeJson()
+                .take(3)
+                .timeout(5, TimeUnit.SECONDS)
+                .toList()
+                .toBlocking()
+                .single();
+        assertEquals(Lists.newArrayList("a", "b", "b"), events);
+    }
+
+    @Test
+    public void testFailoverToUpdatedUrls() throws Exception {
+        timeouts.setStallTimeoutMs(300);
+        int stalling = server(streaming("a", 1));
+        int streaming = server(streaming("b", Long.MAX_VALUE));
+
+        monitor = monitor(stalling);
+        assertFalse(monitor.updateUrls(Lists.newArrayList(url(streaming)))); // the primary can't change
+        List<String> events = monitor.observeJson()
+                .doOnNext(e -> {
+                    if(e.equals("a")) {
+                        // while streaming, the connection isn't touched
+                        assertTrue(monitor.updateUrls(Lists.newArrayList(url(stalling), url(streaming))));
+                    }
+                })
+                .take(3)
+                .timeout(5, TimeUnit.SECONDS)
+                .toList()
+                .toBlocking()
+                .single();
+        assertEquals(Lists.newArrayList("a", "b", "b"), events);
+    }
+
+    @Test
+    public void testStaleWhileStalled() throws Exception {
+        timeouts.setStallTimeoutMs(300);
+        admission.setBackoffBaseMs(TimeUnit.MINUTES.toMillis(1));
+        int stalling = server(streaming(COMMAND, 30));
+
+        monitor = monitor(stalling);
+        HystrixClusterMetrics metrics = monitor.observe()
+                .first(HystrixClusterMetrics::isStale)
+                .timeout(5, TimeUnit.SECONDS)
+                .toBlocking()
+                .single();
+        assertEquals(1, metrics.getCommandCount());
+        assertEquals(9, metrics.getSuccessCount());
+    }
+
+    private String firstEvent() {
+        return monitor.observeJson().first().timeout(5, TimeUnit.SECONDS).toBlocking().single();
+    }
+
+    private DefaultHystrixClusterMonitor monitor(int... ports) throws Exception {
+        List<String> urls = Lists.newArrayList();
+        for (int port : ports) {
+            urls.add(url(port));
+        }
+        return new DefaultHystrixClusterMonitor("test", urls, new ClusterPipelineStats(), null, admission, timeouts, null,
+                null);
+    }
+
+    private static String url(int port) {
+        return "http://127.0.0.1:" + port + "/turbine.stream?cluster=test";
+    }
+
+    private int server(RequestHandler<ByteBuf, ByteBuf> handler) {
+        HttpServer<ByteBuf, ByteBuf> server = RxNetty.createHttpServer(0, handler).start();
+        servers.add(server);
+        return server.getServerPort();
+    }
+
+    // sends count events every 50ms and then stalls
+    private static RequestHandler<ByteBuf, ByteBuf> streaming(String data, long count) {
+        return (request, response) -> {
+            response.getHeaders().set("Content-Type", "text/event-stream");
+            return Observable.interval(50, TimeUnit.MILLISECONDS)
+                    .take((int) Math.min(count, Integer.MAX_VALUE))
+                    .concatMap(i -> {
+                        response.writeString("data: " + data + "\n\n");
+                        return response.flush();
+                    })
+                    .concatWith(Observable.never());
+        };
+    }
+}
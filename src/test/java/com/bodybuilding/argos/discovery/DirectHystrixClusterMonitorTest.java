@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.discovery;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import io.netty.buffer.ByteBuf;
+import io.reactivex.netty.RxNetty;
+import io.reactivex.netty.protocol.http.server.HttpServer;
+import io.reactivex.netty.protocol.http.server.RequestHandler;
+import org.junit.After;
+import org.junit.Test;
+import rx.Observable;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DirectHystrixClusterMonitorTest {
+    private static final ObjectMapper om = new ObjectMapper();
+    private static final String COMMAND = "{\"type\":\"HystrixCommand\",\"name\":\"a\",\"group\":\"g\"," +
+            "\"currentTime\":%d,\"isCircuitBreakerOpen\":%s,\"reportingHosts\":1,\"errorCount\":0," +
+            "\"rollingCountTimeout\":0,\"rollingCountFailure\":0,\"rollingCountSuccess\":9," +
+            "\"rollingCountShortCircuited\":0,\"rollingCountThreadPoolRejected\":0," +
+            "\"rollingCountSemaphoreRejected\":0,\"latencyExecute_mean\":30," +
+            "\"latencyExecute\":{\"0\":1,\"50\":12,\"99\":80}," +
+            "\"propertyValue_metricsRollingStatisticalWindowInMilliseconds\":10000}";
+    private final List<HttpServer<ByteBuf, ByteBuf>> servers = Lists.newArrayList();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final DirectHystrixClusterMonitorFactory factory = new DirectHystrixClusterMonitorFactory();
+
+    @After
+    public void tearDown() throws InterruptedException {
+        for (HttpServer<ByteBuf, ByteBuf> server : servers) {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        JsonNode merged = DirectHystrixClusterMonitor.merge(Lists.newArrayList(
+                om.readTree(String.format(COMMAND, 1000, false)),
+                om.readTree(String.format(COMMAND, 2000, true)),
+                om.readTree(String.format(COMMAND, 1500, false))));
+
+        assertEquals("a", merged.path("name").asText());
+        assertEquals("HystrixCommand", merged.path("type").asText());
+        assertEquals(3, merged.path("reportingHosts").asInt());
+        assertEquals(27, merged.path("rollingCountSuccess").asLong());
+        assertEquals(90, merged.path("latencyExecute_mean").asLong());
+        assertEquals(240, merged.path("latencyExecute").path("99").asLong());
+        assertEquals(30000, merged.path("propertyValue_metricsRollingStatisticalWindowInMilliseconds").asLong());
+        assertEquals(2000, merged.path("currentTime").asLong());
+        assertEquals("false:2,true:1", merged.path("isCircuitBreakerOpen").asText());
+
+        // reads like a turbine event
+        HystrixCommandMetrics metrics = om.treeToValue(merged, HystrixCommandMetrics.class);
+        assertEquals(3, metrics.getReportingHosts());
+        assertEquals(30, metrics.getLatencyMean(), 0.001);
+        assertEquals(2.7, metrics.getRequestRate(), 0.001);
+    }
+
+    @Test
+    public void testObserve() throws Exception {
+        HystrixClusterMonitor monitor = factory.createMonitor("test", Lists.newArrayList(
+                hostUrl(server(streaming(Long.MAX_VALUE))), hostUrl(server(streaming(Long.MAX_VALUE)))));
+        try {
+            HystrixClusterMetrics metrics = monitor.observe()
+                    .first(m -> m.getReportingHosts() == 2)
+                    .timeout(5, TimeUnit.SECONDS)
+                    .toBlocking()
+                    .single();
+            assertEquals(1, metrics.getCommandCount());
+            assertEquals(18, metrics.getSuccessCount());
+            assertEquals(1, monitor.getCommandMetrics().size());
+
+            JsonNode json = om.readTree(monitor.observeJson().first().timeout(5, TimeUnit.SECONDS).toBlocking()
+                    .single());
+            assertEquals(2, json.path("reportingHosts").asInt());
+        } finally {
+            monitor.close();
+        }
+    }
+
+    @Test
+    public void testStaleHostEvicted() throws Exception {
+        factory.setHostExpireMs(1000);
+        HystrixClusterMonitor monitor = factory.createMonitor("test", Lists.newArrayList(
+                hostUrl(server(streaming(Long.MAX_VALUE))), hostUrl(server(streaming(10)))));
+        try {
+            List<Integer> hosts = monitor.observe()
+                    .map(HystrixClusterMetrics::getReportingHosts)
+                    .filter(h -> h > 0)
+                    .distinctUntilChanged()
+                    .take(2)
+                    .timeout(5, TimeUnit.SECONDS)
+                    .toList()
+                    .toBlocking()
+                    .single();
+            assertEquals(Lists.newArrayList(2, 1), hosts);
+        } finally {
+            monitor.close();
+        }
+    }
+
+    @Test
+    public void testHostsSharedAcrossRestart() throws Exception {
+        String host = hostUrl(server(streaming(Long.MAX_VALUE)));
+        HystrixClusterMonitor first = factory.createMonitor("test", host);
+        first.observe().first().timeout(5, TimeUnit.SECONDS).toBlocking().single();
+        first.close();
+
+        // the cluster is restarted with a new host list that still has the host
+        HystrixClusterMonitor second = factory.createMonitor("test", Lists.newArrayList(host,
+                hostUrl(server(streaming(Long.MAX_VALUE)))));
+        try {
+            second.observe().first(m -> m.getReportingHosts() == 2).timeout(5, TimeUnit.SECONDS).toBlocking()
+                    .single();
+            assertEquals(2, connections.get());
+            assertEquals(2, factory.getHostCount());
+        } finally {
+            second.close();
+        }
+    }
+
+    @Test
+    public void testUnusedHostClosed() throws Exception {
+        factory.setCloseUnusedAfterMs(100);
+        HystrixClusterMonitor monitor = factory.createMonitor("test",
+                hostUrl(server(streaming(Long.MAX_VALUE))));
+        monitor.observe().first().timeout(5, TimeUnit.SECONDS).toBlocking().single();
+        monitor.close();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (factory.getHostCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, factory.getHostCount());
+        assertTrue(connections.get() > 0);
+    }
+
+    private static String hostUrl(int port) {
+        return DirectHystrixClusterMonitor.SCHEME + "http://127.0.0.1:" + port + "/hystrix.stream";
+    }
+
+    private int server(RequestHandler<ByteBuf, ByteBuf> handler) {
+        HttpServer<ByteBuf, ByteBuf> server = RxNetty.createHttpServer(0, handler).start();
+        servers.add(server);
+        return server.getServerPort();
+    }
+
+    // sends count events every 50ms and then stalls
+    private RequestHandler<ByteBuf, ByteBuf> streaming(long count) {
+        return (request, response) -> {
+            connections.incrementAndGet();
+            response.getHeaders().set("Content-Type", "text/event-stream");
+            return Observable.interval(50, TimeUnit.MILLISECONDS)
+                    .take((int) Math.min(count, Integer.MAX_VALUE))
+                    .concatMap(i -> {
+                        response.writeString("data: " + String.format(COMMAND, System.currentTimeMillis(), false)
+                                + "\n\n");
+                        return response.flush();
+                    })
+                    .concatWith(Observable.never());
+        };
+    }
+}
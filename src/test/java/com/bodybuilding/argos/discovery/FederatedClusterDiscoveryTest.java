@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.discovery;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import org.springframework.web.client.AsyncRestTemplate;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withServerError;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+public class FederatedClusterDiscoveryTest {
+    private static final String CLUSTERS = "[{\"name\": \"payments\", \"turbineStream\": \"/turbine-stream/payments\"}," +
+            "{\"name\": \"search\", \"turbineStream\": \"/turbine-stream/search\"}]";
+
+    @Test
+    public void testGetClusters() {
+        AsyncRestTemplate restTemplate = new AsyncRestTemplate();
+        MockRestServiceServer mockServer = MockRestServiceServer.createServer(restTemplate);
+        mockServer.expect(requestTo("http://127.0.0.1/clusterlist")).andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess(CLUSTERS, MediaType.APPLICATION_JSON));
+        mockServer.expect(requestTo("http://127.0.0.2/argos/clusterlist")).andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess(CLUSTERS, MediaType.APPLICATION_JSON));
+        FederatedClusterDiscovery discovery = new FederatedClusterDiscovery(
+                Lists.newArrayList("us-east|http://127.0.0.1", "eu-west|http://127.0.0.2/argos/"), restTemplate);
+
+        Collection<Cluster> clusters = discovery.getCurrentClusters();
+        mockServer.verify();
+        assertEquals(Sets.newHashSet(
+                new Cluster("us-east:payments", "argos+http://127.0.0.1/turbine-stream/payments"),
+                new Cluster("us-east:search", "argos+http://127.0.0.1/turbine-stream/search"),
+                new Cluster("eu-west:payments", "argos+http://127.0.0.2/argos/turbine-stream/payments"),
+                new Cluster("eu-west:search", "argos+http://127.0.0.2/argos/turbine-stream/search")),
+                Sets.newHashSet(clusters));
+    }
+
+    @Test
+    public void testGetClusters_keepsLastKnownOnError() {
+        AsyncRestTemplate restTemplate = new AsyncRestTemplate();
+        MockRestServiceServer mockServer = MockRestServiceServer.createServer(restTemplate);
+        mockServer.expect(requestTo("http://127.0.0.1/clusterlist"))
+                .andRespond(withSuccess(CLUSTERS, MediaType.APPLICATION_JSON));
+        mockServer.expect(requestTo("http://127.0.0.1/clusterlist"))
+                .andRespond(withServerError());
+        mockServer.expect(requestTo("http://127.0.0.1/clusterlist"))
+                .andRespond(withSuccess(CLUSTERS, MediaType.APPLICATION_JSON));
+        FederatedClusterDiscovery discovery = new FederatedClusterDiscovery(
+                Lists.newArrayList("us-east|http://127.0.0.1"), restTemplate);
+
+        Collection<Cluster> clusters = discovery.getCurrentClusters();
+        assertEquals(2, clusters.size());
+        // unchanged lists are returned as the same instance so discovery can skip the diff
+        assertSame(clusters, discovery.getCurrentClusters());
+        assertSame(clusters, discovery.getCurrentClusters());
+        mockServer.verify();
+    }
+
+    @Test
+    public void testGetClusters_slowSource() {
+        AsyncRestTemplate restTemplate = mock(AsyncRestTemplate.class);
+        when(restTemplate.getForEntity(eq("http://slow/clusterlist"), eq(String.class)))
+                .thenReturn(new SettableListenableFuture<>());
+        SettableListenableFuture<ResponseEntity<String>> fast = new SettableListenableFuture<>();
+        fast.set(new ResponseEntity<>(CLUSTERS, HttpStatus.OK));
+        when(restTemplate.getForEntity(eq("http://fast/clusterlist"), eq(String.class))).thenReturn(fast);
+
+        FederatedClusterDiscovery discovery = new FederatedClusterDiscovery(
+                Lists.newArrayList("us-east|http://slow", "eu-west|http://fast"), restTemplate);
+        discovery.setTimeoutMs(200);
+        long start = System.nanoTime();
+        Collection<Cluster> clusters = discovery.getCurrentClusters();
+        assertEquals(Sets.newHashSet(
+                new Cluster("eu-west:payments", "argos+http://fast/turbine-stream/payments"),
+                new Cluster("eu-west:search", "argos+http://fast/turbine-stream/search")),
+                Sets.newHashSet(clusters));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+    }
+}
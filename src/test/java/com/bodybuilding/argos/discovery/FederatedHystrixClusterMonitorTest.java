@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.discovery;
+
+import io.netty.buffer.ByteBuf;
+import io.reactivex.netty.RxNetty;
+import io.reactivex.netty.protocol.http.server.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rx.Observable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FederatedHystrixClusterMonitorTest {
+    private final AtomicInteger connections = new AtomicInteger();
+    private final DefaultHystrixClusterMonitorFactory factory = new DefaultHystrixClusterMonitorFactory();
+    private HttpServer<ByteBuf, ByteBuf> server;
+    private String baseUrl;
+
+    @Before
+    public void setUp() {
+        server = RxNetty.createHttpServer(0, (request, response) -> {
+            connections.incrementAndGet();
+            response.getHeaders().set("Content-Type", "text/event-stream");
+            return Observable.interval(50, TimeUnit.MILLISECONDS)
+                    .concatMap(i -> {
+                        response.writeString("data: " + metrics("payments", 10, false) + "\n\n");
+                        response.writeString("data: " + metrics("search", 20, true) + "\n\n");
+                        // a group with the name of a cluster
+                        response.writeString("data: " + metrics("payments", "GROUP", 1000, false) + "\n\n");
+                        return response.flush();
+                    });
+        }).start();
+        baseUrl = "http://127.0.0.1:" + server.getServerPort();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        server.shutdown();
+    }
+
+    @Test
+    public void testObserve() {
+        HystrixClusterMonitor payments = factory.createMonitor("us-east:payments",
+                FederatedHystrixClusterMonitor.toStreamUrl(baseUrl, "payments"));
+        HystrixClusterMonitor search = factory.createMonitor("us-east:search",
+                FederatedHystrixClusterMonitor.toStreamUrl(baseUrl, "search"));
+        try {
+            HystrixClusterMetrics[] metrics = Observable.zip(payments.observe(), search.observe(),
+                    (p, s) -> new HystrixClusterMetrics[]{p, s})
+                    .take(5)
+                    .doOnNext(m -> assertEquals(10, m[0].getRequestCount()))
+                    .last()
+                    .timeout(5, TimeUnit.SECONDS)
+                    .toBlocking()
+                    .single();
+            assertEquals("us-east:payments", metrics[0].getClusterName());
+            assertEquals(10, metrics[0].getRequestCount());
+            assertFalse(metrics[0].isStale());
+            assertEquals("us-east:search", metrics[1].getClusterName());
+            assertEquals(20, metrics[1].getRequestCount());
+            assertTrue(metrics[1].isStale());
+            // both clusters share one connection
+            assertEquals(1, connections.get());
+        } finally {
+            payments.close();
+            search.close();
+        }
+    }
+
+    private static String metrics(String clusterName, long requestCount, boolean stale) {
+        return metrics(clusterName, "CLUSTER", requestCount, stale);
+    }
+
+    private static String metrics(String clusterName, String type, long requestCount, boolean stale) {
+        return "{\"clusterName\":\"" + clusterName + "\",\"type\":\"" + type + "\",\"requestCount\":" + requestCount +
+                ",\"requestRate\":1.0,\"age\":0,\"stale\":" + stale + "}";
+    }
+}
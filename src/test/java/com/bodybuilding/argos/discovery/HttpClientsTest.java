@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.discovery;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.reactivex.netty.RxNetty;
+import io.reactivex.netty.protocol.http.client.HttpClient;
+import io.reactivex.netty.protocol.http.client.HttpClientRequest;
+import io.reactivex.netty.protocol.http.server.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.net.ssl.SSLEngine;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpClientsTest {
+    private HttpServer<ByteBuf, ByteBuf> server;
+
+    @Before
+    public void setUp() {
+        server = RxNetty.createHttpServer(0, (request, response) -> {
+            response.setStatus(HttpResponseStatus.OK);
+            return response.close();
+        }).start();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        server.shutdown();
+    }
+
+    @Test
+    public void testDefaultPort() {
+        assertEquals(80, HttpClients.port(URI.create("http://peer/argos")));
+        assertEquals(443, HttpClients.port(URI.create("https://peer/argos")));
+        assertEquals(8443, HttpClients.port(URI.create("https://peer:8443/argos")));
+    }
+
+    @Test
+    public void testHttp() {
+        assertEquals(200, status("http"));
+    }
+
+    @Test
+    public void testHttpsSpeaksTls() {
+        // a plaintext server can't complete the handshake, a client without TLS would get its 200
+        try {
+            status("https");
+            fail("expected the TLS handshake to fail");
+        } catch(RuntimeException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSslEngineVerifiesHost() {
+        SSLEngine engine = HttpClients.newSslEngine("turbine.example.com", 443);
+        assertTrue(engine.getUseClientMode());
+        assertEquals("turbine.example.com", engine.getPeerHost());
+        assertEquals("HTTPS", engine.getSSLParameters().getEndpointIdentificationAlgorithm());
+    }
+
+    private int status(String scheme) {
+        HttpClient<ByteBuf, ByteBuf> client = HttpClients.<ByteBuf, ByteBuf>newBuilder(scheme, "127.0.0.1",
+                server.getServerPort()).withNoConnectionPooling().build();
+        return client.submit(HttpClientRequest.createGet("/"))
+                .map(response -> response.getStatus().code())
+                .timeout(5, TimeUnit.SECONDS)
+                .toBlocking()
+                .single();
+    }
+}
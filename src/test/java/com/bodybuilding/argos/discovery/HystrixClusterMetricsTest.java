@@ -16,12 +16,16 @@
 
 package com.bodybuilding.argos.discovery;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.when;
 
@@ -79,4 +83,45 @@ public class HystrixClusterMetricsTest {
         assertEquals(7D, metrics.getErrorPercentage(), .05D);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testReceivedAt() {
+        HystrixCommandMetrics cmd1 = new HystrixCommandMetrics("cmd1", 1, 0, 0, 10, 0, 0, 0, 10000D);
+        cmd1.setReceivedAt(2000);
+        HystrixCommandMetrics cmd2 = new HystrixCommandMetrics("cmd2", 1, 0, 0, 10, 0, 0, 0, 10000D);
+        cmd2.setReceivedAt(1000);
+        HystrixCommandMetrics cmd3 = new HystrixCommandMetrics("cmd3", 1, 0, 0, 10, 0, 0, 0, 10000D);
+
+        HystrixClusterMetrics metrics = HystrixClusterMetrics.Builder.newBuilder("test", "testStream")
+                .addCommandMetrics(cmd1)
+                .addCommandMetrics(cmd2)
+                .addCommandMetrics(cmd3)
+                .build();
+        assertEquals(1000, metrics.getReceivedAt()); // oldest known receive time
+        assertNull(metrics.getAge());
+        assertEquals(Long.valueOf(1500), metrics.withAge(2500).getAge());
+
+        HystrixClusterMetrics unknown = HystrixClusterMetrics.Builder.newBuilder("test", "testStream")
+                .addCommandMetrics(cmd3)
+                .build();
+        assertSame(unknown, unknown.withAge(2500));
+    }
+
+    @Test
+    public void testFromRemote() throws Exception {
+        String json = "{\"clusterName\":\"payments\",\"requestCount\":302,\"successCount\":300,\"failCount\":2," +
+                "\"timeoutCount\":0,\"shortCircuitedCount\":0,\"rejectedCount\":0,\"reportingHosts\":2," +
+                "\"commandCount\":3,\"requestRate\":30.2,\"errorPercentage\":0.5,\"latencyMean\":20.0," +
+                "\"anomalyScore\":1.5,\"age\":300,\"type\":\"CLUSTER\",\"stale\":true}";
+        HystrixClusterMetrics metrics = HystrixClusterMetrics.fromRemote("us-east:payments", "argos+http://a",
+                new ObjectMapper().readTree(json), 5000);
+        assertEquals("us-east:payments", metrics.getClusterName());
+        assertEquals("hystrix/monitor.html?stream=../turbine-stream/us-east:payments", metrics.getDashboardUrl());
+        assertEquals(302, metrics.getRequestCount());
+        assertEquals(2, metrics.getFailCount());
+        assertEquals(3, metrics.getCommandCount());
+        assertEquals(30.2, metrics.getRequestRate(), 0.001);
+        assertEquals(1.5, metrics.getAnomalyScore(), 0.001);
+        assertEquals(4700, metrics.getReceivedAt());
+        assertTrue(metrics.isStale());
+    }
+}
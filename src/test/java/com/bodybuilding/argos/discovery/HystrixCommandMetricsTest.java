@@ -16,8 +16,11 @@
 
 package com.bodybuilding.argos.discovery;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.Test;
 
+import java.util.Arrays;
+
 import static org.junit.Assert.assertEquals;
 
 public class HystrixCommandMetricsTest {
@@ -37,4 +40,36 @@ public class HystrixCommandMetricsTest {
         assertEquals(25.925D, metrics.getErrorPercentage(), .005D);
     }
 
+    @Test
+    public void testHystrixCommandMetrics_json() throws Exception {
+        String json = "{\"type\":\"HystrixCommand\",\"name\":\"test\",\"reportingHosts\":2," +
+                "\"rollingCountTimeout\":1,\"rollingCountFailure\":1,\"rollingCountSuccess\":18," +
+                "\"rollingCountShortCircuited\":0,\"rollingCountThreadPoolRejected\":0," +
+                "\"rollingCountSemaphoreRejected\":0,\"latencyExecute_mean\":30," +
+                "\"latencyExecute\":{\"0\":1,\"50\":12,\"99\":80}," +
+                "\"propertyValue_metricsRollingStatisticalWindowInMilliseconds\":20000}";
+        HystrixCommandMetrics metrics = new ObjectMapper().readValue(json, HystrixCommandMetrics.class);
+        assertEquals("test", metrics.getName());
+        assertEquals(20, metrics.getRequests());
+        assertEquals(2D, metrics.getRequestRate(), .005D);
+        // turbine sums the mean latency of each host
+        assertEquals(15D, metrics.getLatencyMean(), .005D);
+    }
+
+    @Test
+    public void testCombine() {
+        HystrixCommandMetrics a = new HystrixCommandMetrics("a", 1, 0, 2, 8, 0, 0, 0, 10000D, 10);
+        HystrixCommandMetrics b = new HystrixCommandMetrics("b", 2, 0, 0, 30, 0, 0, 0, 10000D, 60);
+        HystrixCommandMetrics combined = HystrixCommandMetrics.combine("both", Arrays.asList(a, b));
+        assertEquals("both", combined.getName());
+        assertEquals(40, combined.getRequests());
+        assertEquals(38, combined.getSuccess());
+        assertEquals(2, combined.getFailed());
+        assertEquals(2, combined.getReportingHosts());
+        assertEquals(a.getRequestRate() + b.getRequestRate(), combined.getRequestRate(), .005D);
+        assertEquals(5D, combined.getErrorPercentage(), .005D);
+        // (10 * 10 + 30 * 30) / 40
+        assertEquals(25D, combined.getLatencyMean(), .005D);
+    }
+
 }
\ No newline at end of file
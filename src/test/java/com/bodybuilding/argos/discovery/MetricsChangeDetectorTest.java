@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.discovery;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsChangeDetectorTest {
+
+    private static HystrixClusterMetrics metrics(String cluster, int success, double rollingWindowMs) {
+        return HystrixClusterMetrics.Builder.newBuilder(cluster, cluster)
+                .addCommandMetrics(new HystrixCommandMetrics("cmd1", 1, 0, 0, success, 0, 0, 0, rollingWindowMs))
+                .build();
+    }
+
+    @Test
+    public void testShouldEmit_unchanged() {
+        MetricsChangeDetector detector = new MetricsChangeDetector(0.05, 0.05, 5_000);
+        assertTrue(detector.shouldEmit(metrics("one", 0, 10000D), 0));
+        assertFalse(detector.shouldEmit(metrics("one", 0, 10000D), 1_000));
+        assertFalse(detector.shouldEmit(metrics("one", 0, 10000D), 4_999));
+        // heartbeat
+        assertTrue(detector.shouldEmit(metrics("one", 0, 10000D), 5_000));
+        assertFalse(detector.shouldEmit(metrics("one", 0, 10000D), 6_000));
+    }
+
+    @Test
+    public void testShouldEmit_stale() {
+        MetricsChangeDetector detector = new MetricsChangeDetector(0.05, 0.05, 5_000);
+        assertTrue(detector.shouldEmit(metrics("one", 10, 10000D), 0));
+        assertTrue(detector.shouldEmit(metrics("one", 10, 10000D).asStale(), 1_000));
+        assertFalse(detector.shouldEmit(metrics("one", 10, 10000D).asStale(), 2_000));
+        assertTrue(detector.shouldEmit(metrics("one", 10, 10000D), 3_000));
+    }
+
+    @Test
+    public void testShouldEmit_changed() {
+        MetricsChangeDetector detector = new MetricsChangeDetector(0.05, 0.05, 5_000);
+        assertTrue(detector.shouldEmit(metrics("one", 10, 10000D), 0));
+        assertTrue(detector.shouldEmit(metrics("one", 11, 10000D), 1_000));
+        // different cluster is tracked separately
+        assertTrue(detector.shouldEmit(metrics("two", 11, 10000D), 1_000));
+        assertFalse(detector.shouldEmit(metrics("two", 11, 10000D), 2_000));
+    }
+
+    @Test
+    public void testShouldEmit_epsilon() {
+        MetricsChangeDetector detector = new MetricsChangeDetector(0.05, 0.05, 5_000);
+        // 10 requests over 10s vs 10 requests over 10.2s, same counts, rate differs by ~0.02
+        assertTrue(detector.shouldEmit(metrics("one", 10, 10000D), 0));
+        assertFalse(detector.shouldEmit(metrics("one", 10, 10200D), 1_000));
+        // rate differs by ~0.17
+        assertTrue(detector.shouldEmit(metrics("one", 10, 12000D), 2_000));
+    }
+
+    @Test
+    public void testShouldEmit_groupTrackedApart() {
+        MetricsChangeDetector detector = new MetricsChangeDetector(0.05, 0.05, 5_000);
+        HystrixClusterMetrics.Rollup rollup = new HystrixClusterMetrics.Rollup();
+        rollup.add(metrics("one", 10, 10000D));
+        assertTrue(detector.shouldEmit(metrics("one", 10, 10000D), 0));
+        assertTrue(detector.shouldEmit(rollup.build("one", HystrixClusterMetrics.Type.GROUP), 1_000));
+        assertFalse(detector.shouldEmit(rollup.build("one", HystrixClusterMetrics.Type.GROUP), 2_000));
+    }
+
+    @Test
+    public void testShouldEmit_reset() {
+        MetricsChangeDetector detector = new MetricsChangeDetector(0.05, 0.05, 5_000);
+        assertTrue(detector.shouldEmit(metrics("one", 10, 10000D), 0));
+        detector.reset("one");
+        assertTrue(detector.shouldEmit(metrics("one", 10, 10000D), 1_000));
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.discovery;
+
+import com.bodybuilding.argos.metrics.ClusterPipelineStats;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+import rx.Subscription;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PushIngestTest {
+    private static final String COMMAND = "{\"type\":\"HystrixCommand\",\"name\":\"a\",\"reportingHosts\":1," +
+            "\"rollingCountTimeout\":0,\"rollingCountFailure\":1,\"rollingCountSuccess\":9," +
+            "\"rollingCountShortCircuited\":0,\"rollingCountThreadPoolRejected\":0," +
+            "\"rollingCountSemaphoreRejected\":0,\"latencyExecute_mean\":30," +
+            "\"propertyValue_metricsRollingStatisticalWindowInMilliseconds\":10000}";
+    private final PushIngest ingest = new PushIngest();
+
+    @Test
+    public void testOnlyMonitoredClustersKept() {
+        assertFalse(ingest.isMonitored("payments"));
+        assertFalse(ingest.accept("payments", "host1", COMMAND, 0));
+
+        Collection<HostEvents> hosts = ingest.open("payments", new ClusterPipelineStats(), new CommandLimits());
+        assertTrue(ingest.accept("payments", "host1", COMMAND, 0));
+        assertTrue(ingest.accept("payments", "host2", COMMAND, 0));
+        assertFalse(ingest.accept("payments", "host2", "{\"type\":\"HystrixCommand\",\"name\"", 0));
+        assertEquals(2, hosts.size());
+
+        ingest.close("payments");
+        assertFalse(ingest.isMonitored("payments"));
+    }
+
+    @Test
+    public void testMaxHosts() {
+        ingest.setMaxHostsPerCluster(1);
+        ingest.open("payments", new ClusterPipelineStats(), new CommandLimits());
+        assertTrue(ingest.accept("payments", "host1", COMMAND, 0));
+        assertFalse(ingest.accept("payments", "host2", COMMAND, 0));
+        assertTrue(ingest.accept("payments", "host1", COMMAND, 0));
+
+        // an expired host frees its slot
+        ingest.setHostExpireMs(1000);
+        ingest.evict(2000);
+        assertTrue(ingest.accept("payments", "host2", COMMAND, 2000));
+        assertFalse(ingest.accept("payments", "host1", COMMAND, 2000));
+    }
+
+    @Test
+    public void testMaxHosts_concurrent() throws Exception {
+        ingest.setMaxHostsPerCluster(50);
+        Collection<HostEvents> hosts = ingest.open("payments", new ClusterPipelineStats(), new CommandLimits());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> pushes = Lists.newArrayList();
+            for (int t = 0; t < 8; t++) {
+                int thread = t;
+                pushes.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 100; i++) {
+                        ingest.accept("payments", "host" + thread + "-" + i, COMMAND, 0);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> push : pushes) {
+                push.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(50, hosts.size());
+    }
+
+    @Test
+    public void testNewHostNotExpired() {
+        // a host is active from when it's created, before its first event is kept
+        HostEvents events = new HostEvents("host1", new ClusterPipelineStats(), new CommandLimits(), 1000);
+        assertEquals(1000, events.getLastEventAt());
+    }
+
+    @Test
+    public void testEvict() {
+        ingest.setHostExpireMs(1000);
+        Collection<HostEvents> hosts = ingest.open("payments", new ClusterPipelineStats(), new CommandLimits());
+        ingest.accept("payments", "host1", COMMAND, 0);
+        ingest.accept("payments", "host2", COMMAND, 900);
+        ingest.evict(1500);
+        assertEquals(1, hosts.size());
+    }
+
+    @Test
+    public void testMonitor() throws Exception {
+        DirectHystrixClusterMonitorFactory factory = new DirectHystrixClusterMonitorFactory(null, null, ingest, null,
+                null);
+        HystrixClusterMonitor monitor = factory.createMonitor("payments", "push:payments");
+        try {
+            Future<HystrixClusterMetrics> metrics = monitor.observe()
+                    .first(m -> m.getReportingHosts() == 2)
+                    .timeout(5, TimeUnit.SECONDS)
+                    .toBlocking()
+                    .toFuture();
+            // the cluster's events are kept once it's monitored
+            assertTrue(ingest.isMonitored("payments"));
+            assertTrue(ingest.accept("payments", "host1", COMMAND, System.currentTimeMillis()));
+            assertTrue(ingest.accept("payments", "host2", COMMAND, System.currentTimeMillis()));
+            assertEquals(20, metrics.get().getRequestCount());
+            assertEquals(2, metrics.get().getFailCount());
+        } finally {
+            monitor.close();
+        }
+        // the monitor lets go of the cluster on the tick thread
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ingest.isMonitored("payments") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(ingest.isMonitored("payments"));
+    }
+
+    @Test
+    public void testCommandLimits() throws Exception {
+        CommandLimits limits = new CommandLimits();
+        limits.setMaxPerCluster(2);
+        DirectHystrixClusterMonitorFactory factory = new DirectHystrixClusterMonitorFactory(null, null, ingest, null,
+                limits);
+        HystrixClusterMonitor monitor = factory.createMonitor("payments", "push:payments");
+        Subscription running = monitor.observe().subscribe(); // keeps the commands reserved between the checks
+        try {
+            Future<HystrixClusterMetrics> metrics = monitor.observe()
+                    .first(m -> m.getRequestCount() == 40)
+                    .timeout(5, TimeUnit.SECONDS)
+                    .toBlocking()
+                    .toFuture();
+            long now = System.currentTimeMillis();
+            // host1 only keeps two commands, a makes room for c and is summed into the overflow
+            assertTrue(ingest.accept("payments", "host1", command("a"), now));
+            assertTrue(ingest.accept("payments", "host1", command("b"), now));
+            assertTrue(ingest.accept("payments", "host1", command("c"), now));
+            // the cluster only keeps two of b, c and d
+            assertTrue(ingest.accept("payments", "host2", command("d"), now));
+            assertEquals(3, metrics.get().getCommandCount()); // two commands and the overflow
+            assertEquals(2, monitor.getCommandMetrics().stream()
+                    .filter(c -> !c.getName().equals(ClusterMetricsAggregator.OVERFLOW_COMMAND)).count());
+            assertEquals(2, limits.getTracked());
+        } finally {
+            monitor.close();
+            running.unsubscribe();
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (limits.getTracked() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, limits.getTracked());
+    }
+
+    private static String command(String name) {
+        return COMMAND.replace("\"name\":\"a\"", "\"name\":\"" + name + "\"");
+    }
+}
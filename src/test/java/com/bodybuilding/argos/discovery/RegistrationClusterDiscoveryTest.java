@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.discovery;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import rx.Subscription;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RegistrationClusterDiscoveryTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String stateFile() {
+        return folder.getRoot().toPath().resolve("state").resolve("clusters.json").toString();
+    }
+
+    @Test
+    public void testRegister() {
+        RegistrationClusterDiscovery discovery = new RegistrationClusterDiscovery(stateFile());
+        List<Cluster> updates = Lists.newArrayList();
+        Subscription subscription = discovery.getClusters().subscribe(updates::add);
+
+        assertTrue(discovery.register("one", "http://one"));
+        assertFalse(discovery.register("one", "http://one")); // unchanged, nothing emitted
+        assertFalse(discovery.register("one", "http://one-new"));
+        assertTrue(discovery.deregister("one"));
+        assertFalse(discovery.deregister("one"));
+        subscription.unsubscribe();
+
+        assertEquals(Lists.newArrayList(
+                new Cluster("one", "http://one"),
+                new Cluster("one", "http://one", false),
+                new Cluster("one", "http://one-new"),
+                new Cluster("one", "http://one-new", false)), updates);
+    }
+
+    @Test
+    public void testSync() {
+        RegistrationClusterDiscovery discovery = new RegistrationClusterDiscovery(stateFile());
+        discovery.register("one", "http://one");
+        discovery.register("two", "http://two");
+        List<Cluster> updates = Lists.newArrayList();
+        discovery.getClusters().subscribe(updates::add);
+
+        assertEquals(3, discovery.sync(ImmutableMap.of("two", "http://two-new", "three", "http://three")));
+        assertEquals(0, discovery.sync(ImmutableMap.of("two", "http://two-new", "three", "http://three")));
+
+        assertEquals(Lists.newArrayList(
+                new Cluster("one", "http://one"), // registered before subscribing
+                new Cluster("two", "http://two"),
+                new Cluster("one", "http://one", false),
+                new Cluster("two", "http://two", false),
+                new Cluster("two", "http://two-new"),
+                new Cluster("three", "http://three")), updates);
+        assertEquals(ImmutableMap.of("three", "http://three", "two", "http://two-new"),
+                discovery.getRegisteredClusters());
+    }
+
+    @Test
+    public void testPersisted() {
+        RegistrationClusterDiscovery discovery = new RegistrationClusterDiscovery(stateFile());
+        discovery.register("one", "http://one");
+        discovery.register("two", "http://two");
+        discovery.deregister("one");
+
+        RegistrationClusterDiscovery restarted = new RegistrationClusterDiscovery(stateFile());
+        assertEquals(ImmutableMap.of("two", "http://two"), restarted.getRegisteredClusters());
+        assertEquals(Lists.newArrayList(new Cluster("two", "http://two")),
+                restarted.getClusters().take(1).toList().toBlocking().single());
+    }
+
+    @Test
+    public void testInvalid() {
+        RegistrationClusterDiscovery discovery = new RegistrationClusterDiscovery(stateFile());
+        try {
+            discovery.register("one", "not a url");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            discovery.sync(ImmutableMap.of("one", "http://one", "", "http://two"));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertTrue(discovery.getRegisteredClusters().isEmpty());
+    }
+}
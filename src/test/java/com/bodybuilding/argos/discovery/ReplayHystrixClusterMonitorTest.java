@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.discovery;
+
+import com.bodybuilding.argos.capture.SegmentWriter;
+import com.bodybuilding.argos.metrics.ClusterPipelineStats;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReplayHystrixClusterMonitorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String command(String name, int success) {
+        return "{\"type\":\"HystrixCommand\",\"name\":\"" + name + "\",\"reportingHosts\":1," +
+                "\"rollingCountTimeout\":0,\"rollingCountFailure\":1,\"rollingCountSuccess\":" + success + "," +
+                "\"rollingCountShortCircuited\":0,\"rollingCountThreadPoolRejected\":0," +
+                "\"rollingCountSemaphoreRejected\":0,\"latencyExecute_mean\":30," +
+                "\"latencyExecute\":{\"0\":1,\"50\":12,\"99\":80}," +
+                "\"propertyValue_metricsRollingStatisticalWindowInMilliseconds\":10000}";
+    }
+
+    private Path capture() {
+        Path dir = folder.getRoot().toPath();
+        SegmentWriter writer = new SegmentWriter(dir, Long.MAX_VALUE, Long.MAX_VALUE);
+        writer.write(100_000, command("a", 9));
+        writer.write(100_300, command("b", 19));
+        writer.write(100_400, "{\"type\":\"HystrixThreadPool\",\"name\":\"pool\"}");
+        writer.write(101_200, command("a", 29));
+        writer.write(115_000, command("b", 39));
+        writer.close();
+        return dir;
+    }
+
+    @Test
+    public void testReplayIsDeterministic() {
+        Path dir = capture();
+        String url = dir.toUri() + "?speed=0";
+        ClusterPipelineStats stats = new ClusterPipelineStats();
+
+        List<HystrixClusterMetrics> first = ReplayHystrixClusterMonitor.fromUrl("cluster1", url, stats)
+                .observe().toList().toBlocking().single();
+        List<HystrixClusterMetrics> second = ReplayHystrixClusterMonitor.fromUrl("cluster1", url, stats)
+                .observe().toList().toBlocking().single();
+
+        // a tick at 101s, a tick at 102s and a final tick after the commands from 100s expired
+        assertEquals(3, first.size());
+        assertEquals(2, first.get(0).getCommandCount());
+        assertEquals(30, first.get(0).getRequestCount());
+        assertEquals(2, first.get(1).getCommandCount());
+        assertEquals(50, first.get(1).getRequestCount());
+        assertEquals(1, first.get(2).getCommandCount());
+        assertEquals(40, first.get(2).getRequestCount());
+
+        assertEquals(first.size(), second.size());
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(first.get(i).getCommandCount(), second.get(i).getCommandCount());
+            assertEquals(first.get(i).getRequestCount(), second.get(i).getRequestCount());
+            assertEquals(first.get(i).getRequestRate(), second.get(i).getRequestRate(), .0001D);
+            assertEquals(first.get(i).getErrorPercentage(), second.get(i).getErrorPercentage(), .0001D);
+            assertEquals(first.get(i).getLatencyMean(), second.get(i).getLatencyMean(), .0001D);
+        }
+        assertEquals(10, stats.getEvents());
+    }
+
+    @Test
+    public void testReplayLoop() {
+        ReplayHystrixClusterMonitor monitor = new ReplayHystrixClusterMonitor("cluster1", capture(), 0, true,
+                new ClusterPipelineStats());
+        List<HystrixClusterMetrics> ticks = monitor.observe().take(6).toList().toBlocking().single();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(ticks.get(i).getCommandCount(), ticks.get(i + 3).getCommandCount());
+            assertEquals(ticks.get(i).getRequestCount(), ticks.get(i + 3).getRequestCount());
+        }
+        assertEquals(40, ticks.get(5).getRequestCount());
+    }
+
+    @Test
+    public void testReplayJson() {
+        ReplayHystrixClusterMonitor monitor = new ReplayHystrixClusterMonitor("cluster1", capture(), 0, false,
+                new ClusterPipelineStats());
+        List<String> json = monitor.observeJson().toList().toBlocking().single();
+        assertEquals(5, json.size());
+        assertEquals(command("a", 9), json.get(0));
+    }
+
+    @Test
+    public void testReplayPace() {
+        Path dir = folder.getRoot().toPath();
+        SegmentWriter writer = new SegmentWriter(dir, Long.MAX_VALUE, Long.MAX_VALUE);
+        writer.write(0, command("a", 1));
+        writer.write(1000, command("a", 2));
+        writer.close();
+
+        long start = System.nanoTime();
+        new ReplayHystrixClusterMonitor("cluster1", dir, 4, false, new ClusterPipelineStats())
+                .observeJson().toBlocking().last();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(250D, elapsed, 200D);
+    }
+}
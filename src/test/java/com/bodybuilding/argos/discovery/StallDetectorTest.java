@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.discovery;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class StallDetectorTest {
+
+    // a turbine flush every intervalMs, the events for all the commands are sent back to back
+    private static long flushes(StallDetector detector, long from, long to, long intervalMs, int commands) {
+        long now = from;
+        for (; now < to; now += intervalMs) {
+            detector.record(intervalMs, now);
+            for (int i = 1; i < commands; i++) {
+                detector.record(0, now);
+            }
+        }
+        return now;
+    }
+
+    @Test
+    public void testCeilingUntilWarmedUp() {
+        StallDetector detector = new StallDetector(4, 1000, 30000);
+        assertEquals(30000, detector.getStallAfterMs());
+        flushes(detector, 0, StallDetector.BUCKET_MS - 500, 500, 20);
+        assertEquals(30000, detector.getStallAfterMs());
+        flushes(detector, StallDetector.BUCKET_MS, StallDetector.BUCKET_MS + 1, 500, 20);
+        assertEquals(2000, detector.getStallAfterMs());
+    }
+
+    @Test
+    public void testFloorAndCeiling() {
+        StallDetector detector = new StallDetector(4, 1000, 30000);
+        flushes(detector, 0, 20000, 100, 5);
+        assertEquals(1000, detector.getStallAfterMs());
+
+        detector = new StallDetector(4, 1000, 30000);
+        flushes(detector, 0, 200000, 20000, 1);
+        assertEquals(30000, detector.getStallAfterMs());
+    }
+
+    @Test
+    public void testLongGapExpires() {
+        StallDetector detector = new StallDetector(4, 1000, 30000);
+        long now = flushes(detector, 0, 20000, 500, 10);
+        detector.record(5000, now + 5000);
+        assertEquals(20000, detector.getStallAfterMs());
+        // after a minute without gaps that long the estimate comes back down
+        flushes(detector, now + 5500, now + 5500 + 6 * StallDetector.BUCKET_MS, 500, 10);
+        assertEquals(2000, detector.getStallAfterMs());
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.discovery;
+
+/**
+ * Builds {@link HystrixClusterMetrics} for tests outside of this package, {@link HystrixCommandMetrics} is package
+ * private.
+ */
+public final class TestClusterMetrics {
+    private TestClusterMetrics() {
+    }
+
+    /**
+     * Metrics for a cluster with a single command on a single host and a 10 second rolling window, so the request
+     * rate is (success + failed) / 10 and the error percentage is failed / (success + failed) * 100
+     */
+    public static HystrixClusterMetrics create(String clusterName, int success, int failed) {
+        return HystrixClusterMetrics.Builder.newBuilder(clusterName, clusterName)
+                .addCommandMetrics(new HystrixCommandMetrics("cmd1", 1, 0, failed, success, 0, 0, 0, 10000D))
+                .build();
+    }
+}
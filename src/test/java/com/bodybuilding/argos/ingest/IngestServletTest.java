@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.ingest;
+
+import com.bodybuilding.argos.discovery.PushIngest;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class IngestServletTest {
+
+    @Test
+    public void testTimeoutAbortsBody() throws Exception {
+        PushIngest ingest = mock(PushIngest.class);
+        when(ingest.isMonitored("one")).thenReturn(true);
+        when(ingest.getMaxLineBytes()).thenReturn(1024);
+        when(ingest.getRequestTimeoutMs()).thenReturn(1000L);
+        AsyncContext async = mock(AsyncContext.class);
+        ServletInputStream in = mock(ServletInputStream.class);
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getPathInfo()).thenReturn("/one");
+        when(request.getHeader("Content-Encoding")).thenReturn("gzip");
+        when(request.startAsync()).thenReturn(async);
+        when(request.getInputStream()).thenReturn(in);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+
+        new IngestServlet(ingest).doPost(request, response);
+        ArgumentCaptor<AsyncListener> asyncListener = ArgumentCaptor.forClass(AsyncListener.class);
+        verify(async).addListener(asyncListener.capture());
+        ArgumentCaptor<ReadListener> readListener = ArgumentCaptor.forClass(ReadListener.class);
+        verify(in).setReadListener(readListener.capture());
+
+        asyncListener.getValue().onTimeout(null);
+        verify(async).complete();
+
+        // the rest of the body is ignored once the request timed out
+        when(in.isReady()).thenReturn(true);
+        readListener.getValue().onDataAvailable();
+        readListener.getValue().onAllDataRead();
+        verify(in, never()).read(any(byte[].class));
+        verify(response, never()).getOutputStream();
+        verify(async, times(1)).complete();
+    }
+}
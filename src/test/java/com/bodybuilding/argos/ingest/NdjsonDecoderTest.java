@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.ingest;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import static org.junit.Assert.assertEquals;
+
+public class NdjsonDecoderTest {
+    private static final String BODY = "{\"name\":\"a\"}\n\n{\"name\":\"b\"}\r\n{\"name\":\"c\"}";
+
+    @Test
+    public void testPlain() throws Exception {
+        List<String> lines = Lists.newArrayList();
+        NdjsonDecoder decoder = new NdjsonDecoder(false, 1024, lines::add);
+        byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+        decoder.write(body, 0, 5);
+        decoder.write(body, 5, body.length - 5);
+        decoder.finish();
+        assertEquals(Lists.newArrayList("{\"name\":\"a\"}", "{\"name\":\"b\"}", "{\"name\":\"c\"}"), lines);
+        assertEquals(3, decoder.getAccepted());
+    }
+
+    @Test
+    public void testGzipOneByteAtATime() throws Exception {
+        List<String> lines = Lists.newArrayList();
+        NdjsonDecoder decoder = new NdjsonDecoder(true, 1024, lines::add);
+        byte[] body = gzip(BODY);
+        for (int i = 0; i < body.length; i++) {
+            decoder.write(body, i, 1);
+        }
+        decoder.finish();
+        assertEquals(3, lines.size());
+        assertEquals("{\"name\":\"c\"}", lines.get(2));
+    }
+
+    @Test
+    public void testLongLineSkipped() throws Exception {
+        List<String> lines = Lists.newArrayList();
+        NdjsonDecoder decoder = new NdjsonDecoder(false, 16, lines::add);
+        byte[] body = "{\"name\":\"a\"}\n{\"name\":\"way too long\"}\n{\"name\":\"c\"}\n".getBytes(StandardCharsets.UTF_8);
+        decoder.write(body, 0, body.length);
+        decoder.finish();
+        assertEquals(Lists.newArrayList("{\"name\":\"a\"}", "{\"name\":\"c\"}"), lines);
+        assertEquals(2, decoder.getAccepted());
+        assertEquals(1, decoder.getRejected());
+    }
+
+    @Test
+    public void testRejectedLinesCounted() throws Exception {
+        NdjsonDecoder decoder = new NdjsonDecoder(false, 1024, line -> !line.contains("\"b\""));
+        byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+        decoder.write(body, 0, body.length);
+        decoder.finish();
+        assertEquals(2, decoder.getAccepted());
+        assertEquals(1, decoder.getRejected());
+    }
+
+    @Test(expected = ZipException.class)
+    public void testNotGzip() throws Exception {
+        NdjsonDecoder decoder = new NdjsonDecoder(true, 1024, line -> true);
+        byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+        decoder.write(body, 0, body.length);
+    }
+
+    @Test(expected = ZipException.class)
+    public void testTruncatedGzip() throws Exception {
+        NdjsonDecoder decoder = new NdjsonDecoder(true, 1024, line -> true);
+        byte[] body = gzip(BODY);
+        decoder.write(body, 0, body.length - 12);
+        decoder.finish();
+    }
+
+    @Test
+    public void testGzipHeaderWithName() throws Exception {
+        byte[] header = {0x1f, (byte) 0x8b, 8, 8, 0, 0, 0, 0, 0, 0, 'a', '.', 'j', 's', 'o', 'n'};
+        assertEquals(-1, NdjsonDecoder.gzipHeaderLength(header));
+        byte[] complete = new byte[header.length + 1];
+        System.arraycopy(header, 0, complete, 0, header.length);
+        assertEquals(17, NdjsonDecoder.gzipHeaderLength(complete));
+    }
+
+    private static byte[] gzip(String body) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class HistogramTest {
+
+    @Test
+    public void testSnapshot() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        Histogram.Snapshot snapshot = histogram.snapshotAndReset();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(50.5, snapshot.getMean(), 0.001);
+        assertEquals(100, snapshot.getMax());
+        assertEquals(63, snapshot.getQuantile(0.5)); // 50 falls in the [32, 64) bucket
+        assertEquals(100, snapshot.getQuantile(0.99)); // capped at the max
+    }
+
+    @Test
+    public void testSnapshot_resets() {
+        Histogram histogram = new Histogram();
+        histogram.record(5);
+        histogram.snapshotAndReset();
+        Histogram.Snapshot snapshot = histogram.snapshotAndReset();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0, snapshot.getQuantile(0.99));
+    }
+
+    @Test
+    public void testRecord_extremes() {
+        Histogram histogram = new Histogram();
+        histogram.record(-1);
+        histogram.record(0);
+        histogram.record(Long.MAX_VALUE);
+        Histogram.Snapshot snapshot = histogram.snapshotAndReset();
+        assertEquals(3, snapshot.getCount());
+        assertEquals(0, snapshot.getQuantile(0.5));
+        assertEquals(Long.MAX_VALUE, snapshot.getQuantile(1));
+    }
+}
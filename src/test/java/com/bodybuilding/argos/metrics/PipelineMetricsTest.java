@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bodybuilding.argos.metrics;
+
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class PipelineMetricsTest {
+
+    @Test
+    public void testClusterMetrics() {
+        PipelineMetrics pipelineMetrics = new PipelineMetrics();
+        ClusterPipelineStats stats = pipelineMetrics.forCluster("test");
+        assertSame(stats, pipelineMetrics.forCluster("test"));
+        pipelineMetrics.roll(0);
+
+        for (int i = 0; i < 20; i++) {
+            stats.recordEvent(100);
+            stats.recordParse(TimeUnit.MICROSECONDS.toNanos(10));
+        }
+        stats.recordParseError();
+        stats.recordReconnect();
+        stats.recordStall();
+        stats.setStallAfterMs(2000);
+        stats.recordTick(TimeUnit.MICROSECONDS.toNanos(300));
+        pipelineMetrics.clusterAdded();
+        pipelineMetrics.roll(10000);
+
+        Map<String, Number> metrics = toMap(pipelineMetrics);
+        assertEquals(1L, metrics.get("argos.clusters.monitored"));
+        assertEquals(20L, metrics.get("argos.cluster.test.events"));
+        assertEquals(2D, metrics.get("argos.cluster.test.events.rate"));
+        assertEquals(2000L, metrics.get("argos.cluster.test.bytes"));
+        assertEquals(200D, metrics.get("argos.cluster.test.bytes.rate"));
+        assertEquals(1L, metrics.get("argos.cluster.test.parse.errors"));
+        assertEquals(1L, metrics.get("argos.cluster.test.reconnects"));
+        assertEquals(1L, metrics.get("argos.cluster.test.stalls"));
+        assertEquals(2000L, metrics.get("argos.cluster.test.stall-after.ms"));
+        assertEquals(20L, metrics.get("argos.cluster.test.parse.micros.count"));
+        assertEquals(10L, metrics.get("argos.cluster.test.parse.micros.max"));
+        assertEquals(300L, metrics.get("argos.cluster.test.tick.micros.p99"));
+    }
+
+    @Test
+    public void testEndpointMetrics() {
+        PipelineMetrics pipelineMetrics = new PipelineMetrics();
+        SseEndpointStats stats = pipelineMetrics.forEndpoint(PipelineMetrics.CLUSTER_STREAM);
+        stats.clientConnected();
+        stats.clientConnected();
+        stats.clientDisconnected();
+        stats.recordSend(TimeUnit.MICROSECONDS.toNanos(50));
+        pipelineMetrics.roll(10000);
+
+        Map<String, Number> metrics = toMap(pipelineMetrics);
+        assertEquals(1L, metrics.get("argos.sse.cluster.stream.clients"));
+        assertEquals(1L, metrics.get("argos.sse.cluster.stream.sends"));
+        assertEquals(50L, metrics.get("argos.sse.cluster.stream.send.micros.max"));
+    }
+
+    @Test
+    public void testFreshness() {
+        PipelineMetrics pipelineMetrics = new PipelineMetrics();
+        SseEndpointStats stats = pipelineMetrics.forEndpoint(PipelineMetrics.TURBINE_STREAM);
+        pipelineMetrics.forCluster("test");
+        pipelineMetrics.recordFreshness("test", stats, 1000, 1250);
+        pipelineMetrics.recordFreshness("test", stats, 0, 1250); // unknown receive time is ignored
+        pipelineMetrics.roll(10000);
+
+        Map<String, Number> metrics = toMap(pipelineMetrics);
+        assertEquals(1L, metrics.get("argos.cluster.test.freshness.ms.count"));
+        assertEquals(250L, metrics.get("argos.cluster.test.freshness.ms.max"));
+        assertEquals(1L, metrics.get("argos.sse.turbine-stream.freshness.ms.count"));
+        assertEquals(250L, metrics.get("argos.sse.turbine-stream.freshness.ms.max"));
+    }
+
+    @Test
+    public void testClusterRemoved() {
+        PipelineMetrics pipelineMetrics = new PipelineMetrics();
+        SseEndpointStats stats = pipelineMetrics.forEndpoint(PipelineMetrics.CLUSTER_STREAM);
+        pipelineMetrics.forCluster("test").recordEvent(100);
+        pipelineMetrics.clusterAdded();
+        pipelineMetrics.clusterRemoved("test");
+        pipelineMetrics.recordFreshness("test", stats, 1000, 1250); // in flight data of a removed cluster
+        pipelineMetrics.roll(10000);
+
+        Map<String, Number> metrics = toMap(pipelineMetrics);
+        assertEquals(0L, metrics.get("argos.clusters.monitored"));
+        assertEquals(1L, metrics.get("argos.clusters.removed"));
+        assertFalse(metrics.containsKey("argos.cluster.test.events"));
+        assertFalse(metrics.containsKey("argos.cluster.test.freshness.ms.count"));
+        assertEquals(1L, metrics.get("argos.sse.cluster.stream.freshness.ms.count"));
+    }
+
+    private static Map<String, Number> toMap(PipelineMetrics pipelineMetrics) {
+        return pipelineMetrics.metrics().stream().collect(Collectors.toMap(Metric::getName, Metric::getValue));
+    }
+}
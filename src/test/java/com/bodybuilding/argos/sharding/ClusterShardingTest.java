@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.sharding;
+
+import com.bodybuilding.argos.discovery.Cluster;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.reactivex.netty.RxNetty;
+import io.reactivex.netty.protocol.http.server.HttpServer;
+import org.junit.After;
+import org.junit.Test;
+import rx.Observable;
+import rx.observers.TestSubscriber;
+import rx.subjects.PublishSubject;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class ClusterShardingTest {
+    private static final String A = "http://127.0.0.1:1";
+    private static final String B = "http://127.0.0.1:2";
+    private final List<ClusterSharding> shardings = Lists.newArrayList();
+    private HttpServer<ByteBuf, ByteBuf> server;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        shardings.forEach(ClusterSharding::stop);
+        if(server != null) {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testDisabled() {
+        Observable<Cluster> clusters = Observable.just(new Cluster("one", "http://turbine/one"));
+        assertSame(clusters, new ClusterSharding().owned(clusters));
+    }
+
+    @Test
+    public void testEachClusterOwnedOnce() {
+        List<Cluster> clusters = clusters(100);
+        Set<String> ownedByA = owned(sharding(A, A, B), clusters);
+        Set<String> ownedByB = owned(sharding(B, A, B), clusters);
+        assertFalse(ownedByA.isEmpty());
+        assertFalse(ownedByB.isEmpty());
+        assertEquals(100, ownedByA.size() + ownedByB.size());
+        ownedByA.forEach(name -> assertFalse(ownedByB.contains(name)));
+    }
+
+    @Test
+    public void testRebalance() {
+        ClusterSharding sharding = sharding(A, A, B);
+        PublishSubject<Cluster> discovery = PublishSubject.create();
+        TestSubscriber<Cluster> subscriber = new TestSubscriber<>();
+        sharding.owned(discovery).subscribe(subscriber);
+        clusters(100).forEach(discovery::onNext);
+        int owned = subscriber.getOnNextEvents().size();
+        assertTrue(owned > 0 && owned < 100);
+
+        // B is down, A takes over its clusters
+        sharding.updateLiveNodes(ImmutableSet.of(A));
+        assertEquals(100, subscriber.getOnNextEvents().size());
+        assertTrue(subscriber.getOnNextEvents().stream().allMatch(Cluster::isActive));
+
+        // B is back, A hands them back
+        sharding.updateLiveNodes(ImmutableSet.of(A, B));
+        List<Cluster> handedBack = subscriber.getOnNextEvents().subList(100, subscriber.getOnNextEvents().size());
+        assertEquals(100 - owned, handedBack.size());
+        assertTrue(handedBack.stream().noneMatch(Cluster::isActive));
+    }
+
+    @Test
+    public void testGetOwner() {
+        ClusterSharding a = sharding(A, A, B);
+        ClusterSharding b = sharding(B, A, B);
+        for (Cluster cluster : clusters(20)) {
+            String owner = a.getOwner(cluster.getName());
+            assertTrue(owner.equals(A) || owner.equals(B));
+            assertEquals(owner, b.getOwner(cluster.getName()));
+        }
+        a.updateLiveNodes(ImmutableSet.of(A));
+        assertEquals(A, a.getOwner("cluster1"));
+        assertNull(new ClusterSharding().getOwner("cluster1"));
+    }
+
+    @Test
+    public void testRemovedCluster() {
+        ClusterSharding sharding = sharding(A, A);
+        PublishSubject<Cluster> discovery = PublishSubject.create();
+        TestSubscriber<Cluster> subscriber = new TestSubscriber<>();
+        sharding.owned(discovery).subscribe(subscriber);
+        discovery.onNext(new Cluster("one", "http://turbine/one"));
+        discovery.onNext(new Cluster("one", "http://turbine/one", false));
+        discovery.onNext(new Cluster("two", "http://turbine/two", false)); // never owned
+        assertEquals(Lists.newArrayList(new Cluster("one", "http://turbine/one"),
+                new Cluster("one", "http://turbine/one", false)), subscriber.getOnNextEvents());
+    }
+
+    @Test
+    public void testPeerGoesDown() throws Exception {
+        server = RxNetty.createHttpServer(0, (request, response) -> {
+            if(request.getPath().equals(ClusterSharding.STATUS_PATH)) {
+                return response.writeStringAndFlush("{}");
+            }
+            response.setStatus(HttpResponseStatus.NOT_FOUND);
+            return Observable.empty();
+        }).start();
+        String peer = "http://127.0.0.1:" + server.getServerPort();
+        ClusterSharding sharding = sharding(A, A, peer);
+        sharding.setHealthIntervalMs(50);
+        sharding.setDownAfter(2);
+        sharding.start();
+        shardings.add(sharding);
+
+        Thread.sleep(300);
+        assertEquals(ImmutableSet.of(A, peer), sharding.getLiveNodes());
+        server.shutdown();
+        server = null;
+        awaitLiveNodes(sharding, ImmutableSet.of(A));
+    }
+
+    @Test
+    public void testObservePeers() throws Exception {
+        server = RxNetty.createHttpServer(0, (request, response) -> {
+            response.getHeaders().set("Content-Type", "text/event-stream");
+            return Observable.interval(50, TimeUnit.MILLISECONDS)
+                    .concatMap(i -> response.writeStringAndFlush("data:{\"clusterName\":\"peer\"}\n\n"));
+        }).start();
+        String peer = "http://127.0.0.1:" + server.getServerPort();
+        ClusterSharding sharding = sharding(A, A, peer);
+
+        String json = sharding.observePeers().first().timeout(5, TimeUnit.SECONDS).toBlocking().single();
+        assertEquals("{\"clusterName\":\"peer\"}", json);
+    }
+
+    // enabled but not started, so the nodes stay up until the test changes them
+    private ClusterSharding sharding(String self, String... peers) {
+        ClusterSharding sharding = new ClusterSharding();
+        sharding.setEnabled(true);
+        sharding.setSelf(self);
+        sharding.setPeers(Lists.newArrayList(peers));
+        sharding.updateLiveNodes(sharding.getNodes());
+        return sharding;
+    }
+
+    private static List<Cluster> clusters(int count) {
+        List<Cluster> clusters = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            clusters.add(new Cluster("cluster" + i, "http://turbine/turbine.stream?cluster=cluster" + i));
+        }
+        return clusters;
+    }
+
+    private static Set<String> owned(ClusterSharding sharding, List<Cluster> clusters) {
+        TestSubscriber<Cluster> subscriber = new TestSubscriber<>();
+        sharding.owned(Observable.from(clusters)).subscribe(subscriber);
+        return subscriber.getOnNextEvents().stream().map(Cluster::getName).collect(Collectors.toSet());
+    }
+
+    private static void awaitLiveNodes(ClusterSharding sharding, Set<String> expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!sharding.getLiveNodes().equals(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(expected, sharding.getLiveNodes());
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 Bodybuilding.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bodybuilding.argos.sharding;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class HashRingTest {
+    private static final int CLUSTERS = 1500;
+
+    @Test
+    public void testSameOwnerOnEveryNode() {
+        HashRing ring = new HashRing(ImmutableList.of("http://a", "http://b", "http://c"), 128);
+        HashRing other = new HashRing(ImmutableList.of("http://c", "http://a", "http://b"), 128);
+        for (int i = 0; i < CLUSTERS; i++) {
+            assertEquals(ring.owner("cluster" + i), other.owner("cluster" + i));
+        }
+    }
+
+    @Test
+    public void testEvenSplit() {
+        HashRing ring = new HashRing(ImmutableList.of("http://a", "http://b", "http://c"), 128);
+        Map<String, Integer> counts = Maps.newHashMap();
+        for (int i = 0; i < CLUSTERS; i++) {
+            counts.merge(ring.owner("cluster" + i), 1, Integer::sum);
+        }
+        assertEquals(3, counts.size());
+        counts.values().forEach(c -> assertTrue("owns " + c, c > CLUSTERS / 3 * 0.75 && c < CLUSTERS / 3 * 1.25));
+    }
+
+    @Test
+    public void testAddingNodeOnlyMovesClustersToIt() {
+        HashRing before = new HashRing(ImmutableList.of("http://a", "http://b"), 128);
+        HashRing after = new HashRing(ImmutableList.of("http://a", "http://b", "http://c"), 128);
+        int moved = 0;
+        for (int i = 0; i < CLUSTERS; i++) {
+            String owner = after.owner("cluster" + i);
+            if(!owner.equals(before.owner("cluster" + i))) {
+                assertEquals("http://c", owner);
+                moved++;
+            }
+        }
+        assertTrue("moved " + moved, moved > 0 && moved < CLUSTERS / 2);
+    }
+
+    @Test
+    public void testEmpty() {
+        assertNull(new HashRing(Collections.emptyList(), 128).owner("cluster"));
+    }
+}